@@ -26,6 +26,9 @@ import it.smartcommunitylab.aac.common.NoSuchRealmException;
 import it.smartcommunitylab.aac.common.RegistrationException;
 import it.smartcommunitylab.aac.model.Realm;
 import it.smartcommunitylab.aac.realms.RealmManager;
+import it.smartcommunitylab.aac.realms.model.RealmDeletion;
+import it.smartcommunitylab.aac.realms.model.RealmDeletionStatus;
+import java.net.URI;
 import java.util.Collection;
 import java.util.Optional;
 import javax.validation.Valid;
@@ -35,6 +38,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -45,6 +49,7 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 @RestController
 @ApiSecurityTag(AdminRealmsScope.SCOPE)
@@ -137,12 +142,38 @@ public class ApiRealmController {
         "'))"
     )
     @Operation(summary = "delete a given realm")
-    public void deleteRealm(
+    public ResponseEntity<RealmDeletion> deleteRealm(
         @PathVariable @Valid @NotNull @Pattern(regexp = SystemKeys.SLUG_PATTERN) String slug,
         @RequestParam(required = false, defaultValue = "false") boolean cleanup
     ) throws NoSuchRealmException {
         logger.debug("delete realm {}", StringUtils.trimAllWhitespace(slug));
 
-        realmManager.deleteRealm(slug, cleanup);
+        RealmDeletion deletion = realmManager.deleteRealm(slug, cleanup);
+        if (deletion.getStatus() == RealmDeletionStatus.COMPLETED) {
+            return ResponseEntity.ok(deletion);
+        }
+
+        // cleanup runs in background, point to the job status
+        URI location = ServletUriComponentsBuilder.fromCurrentRequestUri().path("/deletion").build().toUri();
+        return ResponseEntity.accepted().location(location).body(deletion);
+    }
+
+    @GetMapping("/realms/{slug}/deletion")
+    @PreAuthorize(
+        "(hasAuthority('" +
+        Config.R_ADMIN +
+        "') or hasAuthority(#realm+':ROLE_ADMIN')) and (hasAuthority('SCOPE_" +
+        AdminRealmsScope.SCOPE +
+        "') or hasAuthority('SCOPE_" +
+        ApiRealmScope.SCOPE +
+        "'))"
+    )
+    @Operation(summary = "get the deletion status for a given realm")
+    public RealmDeletion getRealmDeletion(
+        @PathVariable @Valid @NotNull @Pattern(regexp = SystemKeys.SLUG_PATTERN) String slug
+    ) throws NoSuchRealmException {
+        logger.debug("get deletion for realm {}", StringUtils.trimAllWhitespace(slug));
+
+        return realmManager.getRealmDeletion(slug);
     }
 }
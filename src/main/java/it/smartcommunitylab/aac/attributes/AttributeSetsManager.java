@@ -19,7 +19,9 @@ package it.smartcommunitylab.aac.attributes;
 import it.smartcommunitylab.aac.Config;
 import it.smartcommunitylab.aac.attributes.model.AttributeSet;
 import it.smartcommunitylab.aac.attributes.service.AttributeService;
+import it.smartcommunitylab.aac.claims.ExtractorsRegistry;
 import it.smartcommunitylab.aac.common.NoSuchAttributeSetException;
+import it.smartcommunitylab.aac.profiles.claims.CustomProfileClaimsExtractorProvider;
 import java.util.Collection;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -48,6 +50,9 @@ public class AttributeSetsManager {
     @Autowired
     private AttributeService attributeService;
 
+    @Autowired
+    private ExtractorsRegistry extractorsRegistry;
+
     /*
      * Attribute sets
      */
@@ -88,6 +93,7 @@ public class AttributeSetsManager {
         logger.debug("add attribute set " + identifier);
         // TODO move back here registration of attributes for the set
         AttributeSet se = attributeService.addAttributeSet(realm, set);
+        extractorsRegistry.invalidateScopeExtractors(CustomProfileClaimsExtractorProvider.buildScope(identifier));
         return se;
     }
 
@@ -101,6 +107,7 @@ public class AttributeSetsManager {
 
         // TODO move back here registration of attributes for the set
         AttributeSet se = attributeService.updateAttributeSet(identifier, set);
+        extractorsRegistry.invalidateScopeExtractors(CustomProfileClaimsExtractorProvider.buildScope(identifier));
         return se;
     }
 
@@ -110,6 +117,7 @@ public class AttributeSetsManager {
         }
 
         attributeService.deleteAttributeSet(identifier);
+        extractorsRegistry.invalidateScopeExtractors(CustomProfileClaimsExtractorProvider.buildScope(identifier));
     }
 
     /*
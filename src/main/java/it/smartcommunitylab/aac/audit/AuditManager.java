@@ -20,15 +20,19 @@ import it.smartcommunitylab.aac.Config;
 import it.smartcommunitylab.aac.audit.model.ExtendedAuditEvent;
 import it.smartcommunitylab.aac.audit.model.RealmAuditEvent;
 import it.smartcommunitylab.aac.audit.store.AuditEventStore;
+import it.smartcommunitylab.aac.audit.store.AuditRollupStore;
 import java.time.Instant;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.audit.AuditEvent;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
@@ -43,6 +47,9 @@ public class AuditManager {
     @Autowired
     private AuditEventStore auditStore;
 
+    @Autowired(required = false)
+    private AuditRollupStore rollupStore;
+
     public long countRealmEvents(String realm, String type, Date after, Date before) {
         Instant a = after == null ? null : after.toInstant();
         Instant b = before == null ? null : before.toInstant();
@@ -57,9 +64,52 @@ public class AuditManager {
             " before " +
             String.valueOf(b)
         );
+
+        // read from rollup when available
+        if (rollupStore != null) {
+            Long count = rollupStore.countByRealm(realm, a, b, type);
+            if (count != null) {
+                return count.longValue();
+            }
+        }
+
         return auditStore.countByRealm(realm, a, b, type);
     }
 
+    /*
+     * Latest events for realm and type, without details
+     */
+    public List<AuditEvent> findRecentRealmEvents(String realm, String type, Date after, int limit) {
+        Instant a = after == null ? null : after.toInstant();
+
+        logger.debug(
+            "find recent audit events for realm " +
+            StringUtils.trimAllWhitespace(realm) +
+            " type " +
+            StringUtils.trimAllWhitespace(String.valueOf(type)) +
+            " interval after " +
+            String.valueOf(a)
+        );
+
+        if (rollupStore != null) {
+            // read without loading event data
+            return rollupStore.findRecent(realm, type, a, limit);
+        }
+
+        return auditStore
+            .searchByRealm(realm, a, null, type, PageRequest.of(0, limit))
+            .getContent()
+            .stream()
+            .map(e -> {
+                // clear event details
+                Map<String, Object> d = new HashMap<>(e.getData());
+                d.remove("details");
+
+                return new AuditEvent(e.getTimestamp(), e.getPrincipal(), e.getType(), d);
+            })
+            .collect(Collectors.toList());
+    }
+
     public long countPrincipalEvents(String realm, String principal, String type, Date after, Date before) {
         Instant a = after == null ? null : after.toInstant();
         Instant b = before == null ? null : before.toInstant();
@@ -0,0 +1,508 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.audit.store;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/*
+ * Incremental rollup of audit events, for realm dashboards
+ *
+ * Keeps per realm, per type, per hour counters in audit_rollup, fed by the
+ * audit store after every successful write. Counters are accumulated locally
+ * and flushed periodically as increments, so multiple nodes can share the table.
+ *
+ * All nodes share a single cutoff, persisted in audit_rollup_state by the first
+ * node: events with time after cutoff are counted by the feed, events before
+ * are counted by a background backfill which walks audit_events in chunks and
+ * records its progress, resuming after restarts. Nothing is counted by the feed
+ * until the cutoff is known.
+ *
+ * Recent events are read from audit_events without loading event data, so they
+ * include events written by every node.
+ */
+public class AuditRollupStore implements ApplicationListener<ApplicationReadyEvent>, MeterBinder, DisposableBean {
+
+    public static final int DEFAULT_FLUSH_INTERVAL = 10000;
+    public static final long DEFAULT_BACKFILL_CHUNK = TimeUnit.DAYS.toMillis(1);
+
+    private static final long BUCKET = TimeUnit.HOURS.toMillis(1);
+    private static final String STATE_CUTOFF = "cutoff";
+    private static final String STATE_BACKFILL = "backfill";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final String UPDATE_COUNT_STATEMENT =
+        "UPDATE audit_rollup SET event_count = event_count + ? WHERE realm = ? AND event_type = ? AND bucket_time = ?";
+    private static final String INSERT_COUNT_STATEMENT =
+        "INSERT INTO audit_rollup (realm, event_type, bucket_time, event_count) VALUES (?, ?, ?, ?)";
+    private static final String SUM_COUNT_STATEMENT = "SELECT SUM(event_count) FROM audit_rollup WHERE realm = ?";
+
+    private static final String SELECT_STATE_STATEMENT =
+        "SELECT state_time FROM audit_rollup_state WHERE state_key = ?";
+    private static final String INSERT_STATE_STATEMENT =
+        "INSERT INTO audit_rollup_state (state_key, state_time) VALUES (?, ?)";
+    private static final String UPDATE_STATE_STATEMENT =
+        "UPDATE audit_rollup_state SET state_time = ? WHERE state_key = ? AND state_time = ?";
+
+    private static final String COUNT_EVENTS_STATEMENT = "SELECT COUNT(*) FROM audit_events WHERE realm = ?";
+    private static final String MIN_EVENTS_TIME_STATEMENT =
+        "SELECT MIN(event_time) FROM audit_events WHERE event_time < ?";
+    private static final String SELECT_EVENTS_RANGE_STATEMENT =
+        "SELECT realm, event_type, event_time FROM audit_events WHERE event_time >= ? AND event_time < ? AND realm IS NOT NULL";
+    private static final String SELECT_RECENT_STATEMENT =
+        "SELECT event_time, principal, event_type FROM audit_events WHERE realm = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    // local increments not yet flushed
+    private final Map<RollupKey, Long> pending = new ConcurrentHashMap<>();
+
+    // events with time before cutoff are counted by backfill, after by feed
+    private volatile Instant cutoff;
+    private volatile boolean backfilled = false;
+
+    private final ScheduledExecutorService executor;
+
+    private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private long backfillChunk = DEFAULT_BACKFILL_CHUNK;
+
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong backfilledEvents = new AtomicLong();
+
+    public AuditRollupStore(DataSource dataSource) {
+        Assert.notNull(dataSource, "DataSource required");
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("audit-rollup-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    public void setFlushInterval(int flushInterval) {
+        Assert.isTrue(flushInterval > 0, "flush interval must be positive");
+        this.flushInterval = flushInterval;
+    }
+
+    public void setBackfillChunk(long backfillChunk) {
+        Assert.isTrue(backfillChunk >= BUCKET, "backfill chunk must be at least one hour");
+        this.backfillChunk = backfillChunk;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        // schema is initialized now
+        executor.execute(() -> {
+            try {
+                initState();
+            } catch (RuntimeException e) {
+                logger.error("error initializing audit rollup: {}", e.getMessage());
+                return;
+            }
+
+            executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+            executor.execute(this::backfill);
+        });
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        // write what we have
+        if (cutoff != null) {
+            flush();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("audit.rollup.pending", pending, p -> p.size()).register(registry);
+        FunctionCounter.builder("audit.rollup.flushed", flushed, c -> c.get()).register(registry);
+        FunctionCounter.builder("audit.rollup.backfilled", backfilledEvents, c -> c.get()).register(registry);
+    }
+
+    /*
+     * Feed
+     */
+
+    public void record(String realm, AuditEvent event) {
+        if (!StringUtils.hasText(realm) || event == null) {
+            return;
+        }
+
+        Instant c = cutoff;
+        if (c == null) {
+            try {
+                c = initState();
+            } catch (DataAccessException e) {
+                // event is persisted, a cutoff set later will leave it to backfill
+                logger.error("error initializing audit rollup: {}", e.getMessage());
+                return;
+            }
+        }
+
+        long time = event.getTimestamp().toEpochMilli();
+        if (time >= c.toEpochMilli()) {
+            pending.merge(new RollupKey(realm, event.getType(), bucket(time)), 1L, Long::sum);
+        }
+    }
+
+    /*
+     * Counters
+     *
+     * Full hours are read from the rollup, partial hours at the edges of the
+     * interval from audit_events. Returns null when the rollup can't answer
+     * because backfill is still running.
+     */
+    public Long countByRealm(String realm, Instant after, Instant before, String type) {
+        Instant c = cutoff;
+        if (c == null || (!backfilled && (after == null || after.isBefore(c)))) {
+            return null;
+        }
+
+        // inclusive bounds as per store
+        long end = before != null ? before.toEpochMilli() + 1 : Long.MAX_VALUE;
+        long from = after != null ? ceil(after.toEpochMilli()) : Long.MIN_VALUE;
+        long to = before != null ? bucket(end) : bucket(System.currentTimeMillis());
+
+        if (after != null && from >= to) {
+            // within a single hour
+            return countEvents(realm, type, after.toEpochMilli(), end);
+        }
+
+        long count = 0;
+        if (after != null && after.toEpochMilli() < from) {
+            count += countEvents(realm, type, after.toEpochMilli(), from);
+        }
+
+        count += sumRollup(realm, type, from, to);
+        count += sumPending(realm, type, from, to);
+
+        if (to < end) {
+            count += countEvents(realm, type, to, end);
+        }
+
+        return count;
+    }
+
+    /*
+     * Recent events
+     *
+     * Latest events for realm and type, newest first, read without event data
+     */
+    public List<AuditEvent> findRecent(String realm, String type, Instant after, int limit) {
+        StringBuilder query = new StringBuilder(SELECT_RECENT_STATEMENT);
+        List<Object> params = new LinkedList<>();
+        params.add(realm);
+
+        if (StringUtils.hasText(type)) {
+            query.append(" AND event_type = ?");
+            params.add(type);
+        }
+        if (after != null) {
+            query.append(" AND event_time >= ?");
+            params.add(new Timestamp(after.toEpochMilli()));
+        }
+        query.append(" ORDER BY event_time DESC LIMIT ?");
+        params.add(limit);
+
+        return jdbcTemplate.query(
+            query.toString(),
+            (rs, i) ->
+                new AuditEvent(
+                    rs.getTimestamp("event_time").toInstant(),
+                    rs.getString("principal"),
+                    rs.getString("event_type"),
+                    Collections.emptyMap()
+                ),
+            params.toArray(new Object[0])
+        );
+    }
+
+    /*
+     * Flush
+     */
+    private void flush() {
+        for (RollupKey key : new ArrayList<>(pending.keySet())) {
+            Long n = pending.get(key);
+            if (n == null || n == 0) {
+                continue;
+            }
+
+            try {
+                // write first, readers may count twice for a moment but never miss
+                increment(key, n);
+            } catch (DataAccessException e) {
+                // keep for next round
+                logger.error("error flushing audit rollup: {}", e.getMessage());
+                return;
+            }
+
+            // keep what was recorded meanwhile
+            pending.computeIfPresent(key, (k, v) -> v - n == 0 ? null : v - n);
+            flushed.addAndGet(n);
+        }
+    }
+
+    private void increment(RollupKey key, long n) {
+        Timestamp ts = new Timestamp(key.bucket);
+        if (jdbcTemplate.update(UPDATE_COUNT_STATEMENT, n, key.realm, key.type, ts) == 0) {
+            try {
+                jdbcTemplate.update(INSERT_COUNT_STATEMENT, key.realm, key.type, ts, n);
+            } catch (DuplicateKeyException e) {
+                // concurrent insert
+                jdbcTemplate.update(UPDATE_COUNT_STATEMENT, n, key.realm, key.type, ts);
+            }
+        }
+    }
+
+    /*
+     * Backfill
+     */
+    private synchronized Instant initState() {
+        if (cutoff != null) {
+            return cutoff;
+        }
+
+        Instant c = readState(STATE_CUTOFF);
+        if (c == null) {
+            // insert if absent, the first node sets the cutoff for everyone
+            Instant now = Instant.ofEpochMilli(System.currentTimeMillis());
+            Timestamp min = jdbcTemplate.queryForObject(
+                MIN_EVENTS_TIME_STATEMENT,
+                Timestamp.class,
+                new Timestamp(now.toEpochMilli())
+            );
+            Instant start = min != null ? min.toInstant() : now;
+
+            try {
+                transactionTemplate.executeWithoutResult(s -> {
+                    jdbcTemplate.update(INSERT_STATE_STATEMENT, STATE_CUTOFF, new Timestamp(now.toEpochMilli()));
+                    jdbcTemplate.update(INSERT_STATE_STATEMENT, STATE_BACKFILL, new Timestamp(start.toEpochMilli()));
+                });
+            } catch (DuplicateKeyException e) {
+                // another node initialized
+            }
+
+            c = readState(STATE_CUTOFF);
+            Assert.state(c != null, "missing audit rollup cutoff");
+        }
+
+        logger.debug("audit rollup cutoff at {}", c);
+
+        Instant b = readState(STATE_BACKFILL);
+        backfilled = b == null || !b.isBefore(c);
+        cutoff = c;
+
+        return c;
+    }
+
+    private void backfill() {
+        int attempts = 0;
+        while (!backfilled && !Thread.currentThread().isInterrupted()) {
+            Instant from = readState(STATE_BACKFILL);
+            if (from == null || !from.isBefore(cutoff)) {
+                backfilled = true;
+                break;
+            }
+
+            Instant to = Instant.ofEpochMilli(Math.min(from.toEpochMilli() + backfillChunk, cutoff.toEpochMilli()));
+            try {
+                Boolean claimed = transactionTemplate.execute(s -> {
+                    // claim the chunk first, a concurrent node will fail here
+                    int n = jdbcTemplate.update(
+                        UPDATE_STATE_STATEMENT,
+                        new Timestamp(to.toEpochMilli()),
+                        STATE_BACKFILL,
+                        new Timestamp(from.toEpochMilli())
+                    );
+                    if (n == 0) {
+                        return false;
+                    }
+
+                    // aggregate without reading event data
+                    Map<RollupKey, Long> counts = new HashMap<>();
+                    jdbcTemplate.query(
+                        SELECT_EVENTS_RANGE_STATEMENT,
+                        rs -> {
+                            RollupKey key = new RollupKey(
+                                rs.getString("realm"),
+                                rs.getString("event_type"),
+                                bucket(rs.getTimestamp("event_time").getTime())
+                            );
+                            counts.merge(key, 1L, Long::sum);
+                        },
+                        new Timestamp(from.toEpochMilli()),
+                        new Timestamp(to.toEpochMilli())
+                    );
+
+                    counts.forEach((k, v) -> increment(k, v));
+                    backfilledEvents.addAndGet(counts.values().stream().mapToLong(Long::longValue).sum());
+                    return true;
+                });
+
+                if (Boolean.FALSE.equals(claimed)) {
+                    // progress moved, re-read
+                    logger.debug("audit rollup chunk from {} claimed elsewhere", from);
+                }
+
+                attempts = 0;
+            } catch (DataAccessException e) {
+                logger.error("error in audit rollup backfill from {}: {}", from, e.getMessage());
+                if (++attempts >= 3) {
+                    // resume on next start
+                    return;
+                }
+            }
+        }
+
+        logger.info("audit rollup backfill completed");
+    }
+
+    private Instant readState(String key) {
+        List<Timestamp> l = jdbcTemplate.queryForList(SELECT_STATE_STATEMENT, Timestamp.class, key);
+        return l.isEmpty() || l.get(0) == null ? null : l.get(0).toInstant();
+    }
+
+    /*
+     * Queries
+     */
+    private long sumRollup(String realm, String type, long from, long to) {
+        StringBuilder query = new StringBuilder(SUM_COUNT_STATEMENT);
+        List<Object> params = new LinkedList<>();
+        params.add(realm);
+
+        if (StringUtils.hasText(type)) {
+            query.append(" AND event_type = ?");
+            params.add(type);
+        }
+        if (from != Long.MIN_VALUE) {
+            query.append(" AND bucket_time >= ?");
+            params.add(new Timestamp(from));
+        }
+        query.append(" AND bucket_time < ?");
+        params.add(new Timestamp(to));
+
+        Long count = jdbcTemplate.queryForObject(query.toString(), Long.class, params.toArray(new Object[0]));
+        return count != null ? count.longValue() : 0;
+    }
+
+    private long sumPending(String realm, String type, long from, long to) {
+        return pending
+            .entrySet()
+            .stream()
+            .filter(e -> e.getKey().realm.equals(realm))
+            .filter(e -> !StringUtils.hasText(type) || type.equals(e.getKey().type))
+            .filter(e -> e.getKey().bucket >= from && e.getKey().bucket < to)
+            .mapToLong(e -> e.getValue())
+            .sum();
+    }
+
+    private long countEvents(String realm, String type, long from, long to) {
+        StringBuilder query = new StringBuilder(COUNT_EVENTS_STATEMENT);
+        List<Object> params = new LinkedList<>();
+        params.add(realm);
+
+        if (StringUtils.hasText(type)) {
+            query.append(" AND event_type = ?");
+            params.add(type);
+        }
+        query.append(" AND event_time >= ?");
+        params.add(new Timestamp(from));
+        if (to != Long.MAX_VALUE) {
+            query.append(" AND event_time < ?");
+            params.add(new Timestamp(to));
+        }
+
+        Long count = jdbcTemplate.queryForObject(query.toString(), Long.class, params.toArray(new Object[0]));
+        return count != null ? count.longValue() : 0;
+    }
+
+    private static long bucket(long time) {
+        return Math.floorDiv(time, BUCKET) * BUCKET;
+    }
+
+    private static long ceil(long time) {
+        long b = bucket(time);
+        return b == time ? b : b + BUCKET;
+    }
+
+    private static class RollupKey {
+
+        private final String realm;
+        private final String type;
+        private final long bucket;
+
+        RollupKey(String realm, String type, long bucket) {
+            this.realm = realm;
+            this.type = type != null ? type : "";
+            this.bucket = bucket;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(realm, type, bucket);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof RollupKey)) {
+                return false;
+            }
+            RollupKey other = (RollupKey) obj;
+            return bucket == other.bucket && realm.equals(other.realm) && type.equals(other.type);
+        }
+    }
+}
@@ -24,6 +24,10 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import it.smartcommunitylab.aac.audit.model.ApplicationAuditEvent;
 import it.smartcommunitylab.aac.audit.model.ExtendedAuditEvent;
 import it.smartcommunitylab.aac.audit.model.RealmAuditEvent;
@@ -34,19 +38,26 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.sql.DataSource;
 import javax.validation.constraints.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.boot.actuate.audit.AuditEvent;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.core.convert.converter.Converter;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.support.PageableExecutionUtils;
@@ -56,7 +67,11 @@ import org.springframework.jdbc.core.support.SqlLobValue;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
-public class AutoJdbcAuditEventStore implements AuditEventStore {
+public class AutoJdbcAuditEventStore implements AuditEventStore, MeterBinder, DisposableBean {
+
+    public static final int DEFAULT_FLUSH_SIZE = 100;
+    public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+    public static final int DEFAULT_SAMPLE_RATE = 10;
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final TypeReference<HashMap<String, Object>> typeRef = new TypeReference<HashMap<String, Object>>() {};
@@ -68,6 +83,17 @@ public class AutoJdbcAuditEventStore implements AuditEventStore {
     private static final String DEFAULT_INSERT_STATEMENT =
         "INSERT INTO audit_events (event_id, event_time, principal, realm, tx, event_type, event_class, event_data ) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
 
+    private static final int[] INSERT_TYPES = new int[] {
+        Types.VARCHAR,
+        Types.TIMESTAMP,
+        Types.VARCHAR,
+        Types.VARCHAR,
+        Types.VARCHAR,
+        Types.VARCHAR,
+        Types.VARCHAR,
+        Types.BLOB,
+    };
+
     private static final String DEFAULT_SELECT_PRINCIPAL_STATEMENT =
         "SELECT event_time, principal, event_type, event_data FROM audit_events WHERE principal = ?";
     private static final String DEFAULT_SELECT_REALM_STATEMENT =
@@ -108,6 +134,23 @@ public class AutoJdbcAuditEventStore implements AuditEventStore {
     private Converter<Map<String, Object>, byte[]> writer;
     private Converter<byte[], Map<String, Object>> reader;
 
+    // optional write buffer, when missing events are written synchronously
+    private BlockingQueue<AuditEvent> buffer;
+    private AuditBackpressurePolicy policy = AuditBackpressurePolicy.BLOCK;
+    private int flushSize = DEFAULT_FLUSH_SIZE;
+    private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private int sampleRate = DEFAULT_SAMPLE_RATE;
+    private Thread flusher;
+    private volatile boolean running;
+
+    // optional rollup fed after successful writes
+    private AuditRollupStore rollupStore;
+
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
     public AutoJdbcAuditEventStore(DataSource dataSource) {
         Assert.notNull(dataSource, "DataSource required");
         this.jdbcTemplate = new JdbcTemplate(dataSource);
@@ -153,8 +196,198 @@ public class AutoJdbcAuditEventStore implements AuditEventStore {
         this.rowMapper = new AuditEventMappedRowMapper(reader);
     }
 
+    /*
+     * Enable buffered writes: events are queued and inserted in batches of up to
+     * flushSize, at least every flushInterval ms. When the queue is full the
+     * policy decides whether to block the caller, drop or sample events.
+     */
+    public synchronized void setBatchConfig(
+        int queueSize,
+        int flushSize,
+        int flushInterval,
+        AuditBackpressurePolicy policy
+    ) {
+        Assert.isNull(buffer, "batching is already enabled");
+        if (queueSize <= 0) {
+            // keep synchronous writes
+            return;
+        }
+
+        Assert.isTrue(flushSize > 0, "flush size must be positive");
+        Assert.isTrue(flushInterval > 0, "flush interval must be positive");
+
+        this.flushSize = flushSize;
+        this.flushInterval = flushInterval;
+        if (policy != null) {
+            this.policy = policy;
+        }
+
+        this.buffer = new ArrayBlockingQueue<>(queueSize);
+        this.running = true;
+        this.flusher = new Thread(this::flushLoop, "audit-writer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public void setRollupStore(AuditRollupStore rollupStore) {
+        this.rollupStore = rollupStore;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        Assert.isTrue(sampleRate > 0, "sample rate must be positive");
+        this.sampleRate = sampleRate;
+    }
+
     @Override
     public void add(AuditEvent event) {
+        if (buffer == null) {
+            insert(Collections.singletonList(event));
+            return;
+        }
+
+        boolean accepted;
+        switch (policy) {
+            case DROP:
+                accepted = buffer.offer(event);
+                break;
+            case SAMPLE:
+                // over half capacity keep only one event every sampleRate
+                boolean skip = buffer.remainingCapacity() < buffer.size() && sampled.incrementAndGet() % sampleRate != 0;
+                accepted = !skip && buffer.offer(event);
+                break;
+            default:
+                try {
+                    buffer.put(event);
+                    accepted = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    accepted = false;
+                }
+        }
+
+        if (!accepted) {
+            dropped.incrementAndGet();
+            logger.debug("audit event {} dropped", event.getType());
+        }
+    }
+
+    private void flushLoop() {
+        List<AuditEvent> batch = new ArrayList<>(flushSize);
+        long deadline = 0;
+
+        while (running || !buffer.isEmpty()) {
+            try {
+                long wait = batch.isEmpty() ? flushInterval : deadline - System.currentTimeMillis();
+                AuditEvent event = wait > 0 ? buffer.poll(wait, TimeUnit.MILLISECONDS) : null;
+                if (event != null) {
+                    if (batch.isEmpty()) {
+                        deadline = System.currentTimeMillis() + flushInterval;
+                    }
+
+                    batch.add(event);
+                    buffer.drainTo(batch, flushSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                // stop and write what we have
+                running = false;
+            }
+
+            if (
+                !batch.isEmpty() &&
+                (batch.size() >= flushSize || System.currentTimeMillis() >= deadline || !running)
+            ) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            flush(batch);
+        }
+    }
+
+    private void flush(List<AuditEvent> batch) {
+        // rows keep their ids, a retry can tell rows written by the failed batch
+        List<AuditEvent> events = new ArrayList<>(batch.size());
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        for (AuditEvent event : batch) {
+            try {
+                rows.add(toRow(event));
+                events.add(event);
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                logger.error("error converting audit event {}: {}", event.getType(), e.getMessage());
+            }
+        }
+
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        try {
+            write(events, rows);
+            return;
+        } catch (RuntimeException e) {
+            logger.warn("error writing {} audit events, retry one by one: {}", rows.size(), e.getMessage());
+        }
+
+        // a single bad row should not discard the whole batch
+        for (int i = 0; i < rows.size(); i++) {
+            AuditEvent event = events.get(i);
+            Object[] row = rows.get(i);
+            try {
+                write(Collections.singletonList(event), Collections.singletonList(row));
+            } catch (DuplicateKeyException e) {
+                // already written before the batch failed
+                written(Collections.singletonList(event), Collections.singletonList(row));
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                logger.error("error writing audit event {}: {}", event.getType(), e.getMessage());
+            }
+        }
+    }
+
+    private void insert(List<AuditEvent> events) {
+        List<Object[]> rows = new ArrayList<>(events.size());
+        for (AuditEvent event : events) {
+            rows.add(toRow(event));
+        }
+
+        write(events, rows);
+    }
+
+    private void write(List<AuditEvent> events, List<Object[]> rows) {
+        if (rows.size() == 1) {
+            jdbcTemplate.update(insertAuditEventSql, rows.get(0), INSERT_TYPES);
+        } else {
+            jdbcTemplate.batchUpdate(insertAuditEventSql, rows, INSERT_TYPES);
+        }
+
+        written(events, rows);
+    }
+
+    private void written(List<AuditEvent> events, List<Object[]> rows) {
+        written.addAndGet(rows.size());
+
+        if (rollupStore != null) {
+            for (int i = 0; i < events.size(); i++) {
+                record(events.get(i), (String) rows.get(i)[3]);
+            }
+        }
+    }
+
+    private void record(AuditEvent event, String realm) {
+        try {
+            rollupStore.record(realm, event);
+        } catch (RuntimeException e) {
+            logger.error("error recording audit event in rollup: {}", e.getMessage());
+        }
+    }
+
+    private Object[] toRow(AuditEvent event) {
+        //pack audit event in data
+        Map<String, Object> data = mapper.convertValue(event, typeRef);
+
         // extract data and repack
         String principal = event.getPrincipal();
         long time = event.getTimestamp().toEpochMilli();
@@ -169,25 +402,38 @@ public class AutoJdbcAuditEventStore implements AuditEventStore {
         // Generate Primary Key UUID
         String eventId = UUID.randomUUID().toString();
 
-        //pack audit event in data
-        Map<String, Object> data = mapper.convertValue(event, typeRef);
-
         byte[] bytes = writer != null ? writer.convert(data) : null;
 
-        jdbcTemplate.update(
-            insertAuditEventSql,
-            new Object[] { eventId, new java.sql.Timestamp(time), principal, realm, tx, type, clazz, new SqlLobValue(bytes) },
-            new int[] {
-                Types.VARCHAR,
-                Types.TIMESTAMP,
-                Types.VARCHAR,
-                Types.VARCHAR,
-                Types.VARCHAR,
-                Types.VARCHAR,
-                Types.VARCHAR,
-                Types.BLOB,
-            }
-        );
+        return new Object[] {
+            eventId,
+            new java.sql.Timestamp(time),
+            principal,
+            realm,
+            tx,
+            type,
+            clazz,
+            new SqlLobValue(bytes),
+        };
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (flusher != null) {
+            // drain pending events before shutdown
+            running = false;
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (buffer != null) {
+            Gauge.builder("audit.events.queue", buffer, b -> b.size()).register(registry);
+        }
+
+        FunctionCounter.builder("audit.events.written", written, c -> c.get()).register(registry);
+        FunctionCounter.builder("audit.events.dropped", dropped, c -> c.get()).register(registry);
+        FunctionCounter.builder("audit.events.failed", failed, c -> c.get()).register(registry);
     }
 
     @Override
@@ -20,13 +20,18 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import it.smartcommunitylab.aac.base.model.AbstractConfigMap;
 import it.smartcommunitylab.aac.base.model.AbstractSettingsMap;
 import it.smartcommunitylab.aac.base.provider.AbstractConfigurableResourceProvider;
 import it.smartcommunitylab.aac.base.provider.config.AbstractProviderConfig;
 import it.smartcommunitylab.aac.common.NoSuchProviderException;
+import it.smartcommunitylab.aac.config.ProviderCacheProperties;
 import it.smartcommunitylab.aac.core.authorities.ProviderAuthority;
 import it.smartcommunitylab.aac.core.model.Resource;
+import it.smartcommunitylab.aac.core.provider.ObservableProviderConfigRepository;
 import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
 import java.util.Collection;
 import java.util.List;
@@ -35,13 +40,14 @@ import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.Assert;
 
 public abstract class AbstractProviderAuthority<
     P extends AbstractConfigurableResourceProvider<? extends Resource, C, ? extends AbstractSettingsMap, ? extends AbstractConfigMap>,
     C extends AbstractProviderConfig<? extends AbstractSettingsMap, ? extends AbstractConfigMap>
 >
-    implements ProviderAuthority<P> {
+    implements ProviderAuthority<P>, MeterBinder {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -50,33 +56,12 @@ public abstract class AbstractProviderAuthority<
     // provider configs by id
     protected final ProviderConfigRepository<C> registrationRepository;
 
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
     // loading cache for idps
     // TODO replace with external loadableProviderRepository for
     // ProviderRepository<InternalIdentityProvider>
-    protected final LoadingCache<String, P> providers = CacheBuilder
-        .newBuilder()
-        .expireAfterWrite(1, TimeUnit.HOURS) // expires 1 hour after fetch
-        .maximumSize(100)
-        .build(
-            new CacheLoader<String, P>() {
-                @Override
-                public P load(final String id) throws Exception {
-                    logger.debug("load config from repository for {}", id);
-                    try {
-                        C config = registrationRepository.findByProviderId(id);
-
-                        if (config == null) {
-                            throw new IllegalArgumentException("no configuration matching the given provider id");
-                        }
-
-                        logger.debug("build provider {} config", id);
-                        return buildProvider(config);
-                    } catch (ClassCastException ce) {
-                        throw new IllegalArgumentException("no configuration matching the given provider id");
-                    }
-                }
-            }
-        );
+    protected LoadingCache<String, P> providers;
 
     protected AbstractProviderAuthority(String authorityId, ProviderConfigRepository<C> registrationRepository) {
         Assert.hasText(authorityId, "authority id  is mandatory");
@@ -84,6 +69,63 @@ public abstract class AbstractProviderAuthority<
 
         this.authorityId = authorityId;
         this.registrationRepository = registrationRepository;
+        this.providers = buildCache(DEFAULT_CACHE_SIZE);
+
+        // drop providers as soon as configs change
+        if (registrationRepository instanceof ObservableProviderConfigRepository) {
+            ((ObservableProviderConfigRepository) registrationRepository).addChangeListener(id -> {
+                    logger.debug("config changed for {}, invalidate provider", id);
+                    providers.invalidate(id);
+                });
+        }
+    }
+
+    @Autowired(required = false)
+    public void setCacheProperties(ProviderCacheProperties cacheProperties) {
+        if (cacheProperties != null && cacheProperties.getSize(authorityId) > 0) {
+            this.providers = buildCache(cacheProperties.getSize(authorityId));
+        }
+    }
+
+    private LoadingCache<String, P> buildCache(int size) {
+        return CacheBuilder
+            .newBuilder()
+            .expireAfterWrite(1, TimeUnit.HOURS) // expires 1 hour after fetch
+            .maximumSize(size)
+            .recordStats()
+            .build(
+                new CacheLoader<String, P>() {
+                    @Override
+                    public P load(final String id) throws Exception {
+                        logger.debug("load config from repository for {}", id);
+                        try {
+                            C config = registrationRepository.findByProviderId(id);
+
+                            if (config == null) {
+                                throw new IllegalArgumentException("no configuration matching the given provider id");
+                            }
+
+                            logger.debug("build provider {} config", id);
+                            return buildProvider(config);
+                        } catch (ClassCastException ce) {
+                            throw new IllegalArgumentException("no configuration matching the given provider id");
+                        }
+                    }
+                }
+            );
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(
+            registry,
+            providers,
+            "providers",
+            "authority",
+            authorityId,
+            "type",
+            getClass().getSimpleName()
+        );
     }
 
     @Override
@@ -33,6 +33,7 @@ import it.smartcommunitylab.aac.core.UserDetails;
 import it.smartcommunitylab.aac.model.AttributeType;
 import it.smartcommunitylab.aac.model.User;
 import it.smartcommunitylab.aac.users.service.UserService;
+import it.smartcommunitylab.aac.users.service.UserSnapshot;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -146,53 +147,56 @@ public class DefaultClaimsService implements ClaimsService, InitializingBean {
             // sorted alphabetically
         }
 
-        // build scopeClaims
-        for (String scope : scopes) {
-            Collection<ScopeClaimsExtractor> exts = extractorsRegistry.getScopeExtractors(scope);
-            for (ScopeClaimsExtractor ce : exts) {
-                // each extractor can respond, we keep only userClaims
-                User user = userService.getUser(userDetails, ce.getRealm());
-
-                // filter attribute sets according to scopes
-                if (!ce.getResourceId().startsWith("aac.") && !scopes.contains(Config.SCOPE_FULL_PROFILE)) {
-                    user.setAttributes(narrowUserAttributes(user.getAttributes(), scopes));
-                }
+        // load users once for all extractors
+        try (UserSnapshot snapshot = userService.openSnapshot()) {
+            // build scopeClaims
+            for (String scope : scopes) {
+                Collection<ScopeClaimsExtractor> exts = extractorsRegistry.getScopeExtractors(scope);
+                for (ScopeClaimsExtractor ce : exts) {
+                    // each extractor can respond, we keep only userClaims
+                    User user = userService.getUser(userDetails, ce.getRealm());
+
+                    // filter attribute sets according to scopes
+                    if (!ce.getResourceId().startsWith("aac.") && !scopes.contains(Config.SCOPE_FULL_PROFILE)) {
+                        user.setAttributes(narrowUserAttributes(user.getAttributes(), scopes));
+                    }
 
-                if (!scopes.contains(Config.SCOPE_USER_ROLE)) {
-                    user.setAuthorities(null);
-                    user.setRealmRoles(null);
-                    user.setSpaceRoles(null);
-                }
+                    if (!scopes.contains(Config.SCOPE_USER_ROLE)) {
+                        user.setAuthorities(null);
+                        user.setRealmRoles(null);
+                        user.setSpaceRoles(null);
+                    }
 
-                ClaimsSet cs = ce.extractUserClaims(scope, user, client, scopes, extensions);
-                if (cs != null && cs.isUser()) {
-                    claims.putAll(extractClaims(cs));
+                    ClaimsSet cs = ce.extractUserClaims(scope, user, client, scopes, extensions);
+                    if (cs != null && cs.isUser()) {
+                        claims.putAll(extractClaims(cs));
+                    }
                 }
             }
-        }
 
-        // build resourceClaims
-        // serve a service with no scopes but included as audience
-        for (String resourceId : resourceIds) {
-            Collection<ResourceClaimsExtractor> exts = extractorsRegistry.getResourceExtractors(resourceId);
-            for (ResourceClaimsExtractor ce : exts) {
-                // each extractor can respond, we keep only userClaims
-                User user = userService.getUser(userDetails, ce.getRealm());
-
-                // filter attribute sets according to scopes
-                if (!ce.getResourceId().startsWith("aac.") && !scopes.contains(Config.SCOPE_FULL_PROFILE)) {
-                    user.setAttributes(narrowUserAttributes(user.getAttributes(), scopes));
-                }
+            // build resourceClaims
+            // serve a service with no scopes but included as audience
+            for (String resourceId : resourceIds) {
+                Collection<ResourceClaimsExtractor> exts = extractorsRegistry.getResourceExtractors(resourceId);
+                for (ResourceClaimsExtractor ce : exts) {
+                    // each extractor can respond, we keep only userClaims
+                    User user = userService.getUser(userDetails, ce.getRealm());
+
+                    // filter attribute sets according to scopes
+                    if (!ce.getResourceId().startsWith("aac.") && !scopes.contains(Config.SCOPE_FULL_PROFILE)) {
+                        user.setAttributes(narrowUserAttributes(user.getAttributes(), scopes));
+                    }
 
-                if (!scopes.contains(Config.SCOPE_USER_ROLE)) {
-                    user.setAuthorities(null);
-                    user.setRealmRoles(null);
-                    user.setSpaceRoles(null);
-                }
+                    if (!scopes.contains(Config.SCOPE_USER_ROLE)) {
+                        user.setAuthorities(null);
+                        user.setRealmRoles(null);
+                        user.setSpaceRoles(null);
+                    }
 
-                ClaimsSet cs = ce.extractUserClaims(resourceId, user, client, scopes, extensions);
-                if (cs != null && cs.isUser()) {
-                    claims.putAll(extractClaims(cs));
+                    ClaimsSet cs = ce.extractUserClaims(resourceId, user, client, scopes, extensions);
+                    if (cs != null && cs.isUser()) {
+                        claims.putAll(extractClaims(cs));
+                    }
                 }
             }
         }
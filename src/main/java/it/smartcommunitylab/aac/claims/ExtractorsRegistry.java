@@ -36,6 +36,14 @@ public interface ExtractorsRegistry {
 
     public void unregisterExtractorProvider(ResourceClaimsExtractorProvider provider);
 
+    /*
+     * Notify changes in definitions for a registered resource or scope, registries
+     * holding an index should drop the related entries
+     */
+    public void invalidateResourceExtractors(String resourceId);
+
+    public void invalidateScopeExtractors(String scope);
+
     /*
      * Extractors
      */
@@ -16,24 +16,52 @@
 
 package it.smartcommunitylab.aac.claims;
 
+import com.google.common.cache.CacheBuilder;
+import it.smartcommunitylab.aac.utils.VersionedCache;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import org.springframework.util.Assert;
 
 public class InMemoryExtractorsRegistry implements ExtractorsRegistry {
 
+    public static final int DEFAULT_INDEX_TTL = 300;
+
     // claimExtractors
     // we keep a set for active extractors. Note that a single extractor can
     // respond to multiple scopes or resources
     // TODO export to a service to support clustered env, also use a load cache and
     // db store
-    private Set<ScopeClaimsExtractorProvider> scopeExtractorsProviders = new HashSet<>();
-    private Set<ResourceClaimsExtractorProvider> resourceExtractorsProviders = new HashSet<>();
+    private final Set<ScopeClaimsExtractorProvider> scopeExtractorsProviders = new CopyOnWriteArraySet<>();
+    private final Set<ResourceClaimsExtractorProvider> resourceExtractorsProviders = new CopyOnWriteArraySet<>();
+
+    // index of extractors by scope and resourceId, built on first lookup and
+    // invalidated when providers or their definitions change. Entries expire
+    // after ttl so that changes made on other nodes are picked up
+    private final VersionedCache<String, Set<ScopeClaimsExtractor>> scopeIndex;
+    private final VersionedCache<String, Set<ResourceClaimsExtractor>> resourceIndex;
 
     public InMemoryExtractorsRegistry(
         Collection<ScopeClaimsExtractorProvider> scopeExtractorsProviders,
         Collection<ResourceClaimsExtractorProvider> resourceExtractorsProviders
     ) {
+        this(scopeExtractorsProviders, resourceExtractorsProviders, DEFAULT_INDEX_TTL);
+    }
+
+    public InMemoryExtractorsRegistry(
+        Collection<ScopeClaimsExtractorProvider> scopeExtractorsProviders,
+        Collection<ResourceClaimsExtractorProvider> resourceExtractorsProviders,
+        int indexTtl
+    ) {
+        Assert.isTrue(indexTtl > 0, "index ttl must be positive");
+        this.scopeIndex =
+            new VersionedCache<>(CacheBuilder.newBuilder().expireAfterWrite(indexTtl, TimeUnit.SECONDS).build());
+        this.resourceIndex =
+            new VersionedCache<>(CacheBuilder.newBuilder().expireAfterWrite(indexTtl, TimeUnit.SECONDS).build());
+
         for (ScopeClaimsExtractorProvider se : scopeExtractorsProviders) {
             _registerProvider(se);
         }
@@ -42,13 +70,14 @@ public class InMemoryExtractorsRegistry implements ExtractorsRegistry {
         }
     }
 
-    // TODO add locks when modifying extractor lists
     private void _registerProvider(ScopeClaimsExtractorProvider extractor) {
         scopeExtractorsProviders.add(extractor);
+        invalidateAll();
     }
 
     private void _registerProvider(ResourceClaimsExtractorProvider extractor) {
         resourceExtractorsProviders.add(extractor);
+        invalidateAll();
     }
 
     /*
@@ -82,11 +111,28 @@ public class InMemoryExtractorsRegistry implements ExtractorsRegistry {
     @Override
     public void unregisterExtractorProvider(ResourceClaimsExtractorProvider extractor) {
         resourceExtractorsProviders.remove(extractor);
+        invalidateAll();
     }
 
     @Override
     public void unregisterExtractorProvider(ScopeClaimsExtractorProvider extractor) {
         scopeExtractorsProviders.remove(extractor);
+        invalidateAll();
+    }
+
+    @Override
+    public void invalidateResourceExtractors(String resourceId) {
+        resourceIndex.invalidate(resourceId);
+    }
+
+    @Override
+    public void invalidateScopeExtractors(String scope) {
+        scopeIndex.invalidate(scope);
+    }
+
+    private void invalidateAll() {
+        resourceIndex.invalidateAll();
+        scopeIndex.invalidateAll();
     }
 
     /*
@@ -95,35 +141,45 @@ public class InMemoryExtractorsRegistry implements ExtractorsRegistry {
 
     @Override
     public Set<ResourceClaimsExtractor> getResourceExtractors(String resourceId) {
-        Set<ResourceClaimsExtractor> extractors = new HashSet<>();
-        resourceExtractorsProviders
-            .stream()
-            .forEach(p -> {
-                if (p.getResourceIds().contains(resourceId)) {
-                    ResourceClaimsExtractor r = p.getExtractor(resourceId);
-                    if (r != null) {
-                        extractors.add(r);
-                    }
-                }
-            });
-
-        return extractors;
+        return resourceIndex.get(
+            resourceId,
+            id -> {
+                Set<ResourceClaimsExtractor> set = new HashSet<>();
+                resourceExtractorsProviders
+                    .stream()
+                    .forEach(p -> {
+                        if (p.getResourceIds().contains(id)) {
+                            ResourceClaimsExtractor r = p.getExtractor(id);
+                            if (r != null) {
+                                set.add(r);
+                            }
+                        }
+                    });
+
+                return Collections.unmodifiableSet(set);
+            }
+        );
     }
 
     @Override
     public Set<ScopeClaimsExtractor> getScopeExtractors(String scope) {
-        Set<ScopeClaimsExtractor> extractors = new HashSet<>();
-        scopeExtractorsProviders
-            .stream()
-            .forEach(p -> {
-                if (p.getScopes().contains(scope)) {
-                    ScopeClaimsExtractor s = p.getExtractor(scope);
-                    if (s != null) {
-                        extractors.add(s);
-                    }
-                }
-            });
-
-        return extractors;
+        return scopeIndex.get(
+            scope,
+            sc -> {
+                Set<ScopeClaimsExtractor> set = new HashSet<>();
+                scopeExtractorsProviders
+                    .stream()
+                    .forEach(p -> {
+                        if (p.getScopes().contains(sc)) {
+                            ScopeClaimsExtractor s = p.getExtractor(sc);
+                            if (s != null) {
+                                set.add(s);
+                            }
+                        }
+                    });
+
+                return Collections.unmodifiableSet(set);
+            }
+        );
     }
 }
@@ -22,34 +22,81 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
 import delight.graaljssandbox.GraalSandbox;
 import delight.graaljssandbox.GraalSandboxes;
 import delight.nashornsandbox.exceptions.ScriptCPUAbuseException;
 import delight.nashornsandbox.internal.RemoveComments;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import it.smartcommunitylab.aac.common.InvalidDefinitionException;
 import it.smartcommunitylab.aac.common.SystemException;
 import java.io.IOException;
 import java.io.Serializable;
-import java.io.StringWriter;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.script.Bindings;
 import javax.script.ScriptException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
-public class LocalGraalExecutionService implements ScriptExecutionService {
+/*
+ * Graal js execution service with pooled sandboxes
+ *
+ * Sandboxes are prepared once and kept in a bounded pool per function to be
+ * reused by later invocations, sandboxes are never shared between different
+ * functions. Every invocation runs with fresh bindings, backed by a new js
+ * context on the shared engine, so that no global state survives a call. The
+ * script source is constant per function and inputs are bound as JSON
+ * strings, so that prepared statements are reused.
+ *
+ * Each sandbox owns its single thread executor, so that a cpu abuse kill only
+ * hits the thread of the offending sandbox, which is then closed. Concurrent
+ * executions are bounded by the configured number of threads.
+ */
+public class LocalGraalExecutionService implements ScriptExecutionService, MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalGraalExecutionService.class);
 
     public static final int DEFAULT_MAX_CPU_TIME = 100;
     public static final int DEFAULT_MAX_MEMORY = 10485760;
     public static final boolean DEFAULT_REMOVE_COMMENTS = true;
+    public static final int DEFAULT_POOL_SIZE = 4;
+    public static final int DEFAULT_MAX_FUNCTIONS = 100;
+    public static final int DEFAULT_THREADS = 8;
+
+    private static final String INPUT_VARIABLE = "_input";
 
     private int maxCpuTime;
     private int maxMemory;
     private boolean removeComments;
 
+    // idle sandboxes kept for each function
+    private int poolSize;
+
     // custom jackson configuration with typeReference
     private final ObjectMapper mapper = new ObjectMapper()
         .registerModule(new JavaTimeModule())
@@ -57,10 +104,35 @@ public class LocalGraalExecutionService implements ScriptExecutionService {
     private final TypeReference<HashMap<String, Serializable>> typeRef =
         new TypeReference<HashMap<String, Serializable>>() {};
 
+    // bounds concurrent executions
+    private Semaphore permits;
+
+    // pools of prepared sandboxes by function hash
+    private Cache<String, BlockingQueue<PooledSandbox>> sandboxes;
+
+    // live sandboxes, pooled or in use
+    private final AtomicInteger active = new AtomicInteger();
+
+    private MeterRegistry meterRegistry;
+
     public LocalGraalExecutionService() {
         this.maxCpuTime = DEFAULT_MAX_CPU_TIME;
         this.maxMemory = DEFAULT_MAX_MEMORY;
         this.removeComments = DEFAULT_REMOVE_COMMENTS;
+        this.poolSize = DEFAULT_POOL_SIZE;
+        this.sandboxes = buildCache(DEFAULT_MAX_FUNCTIONS);
+        this.permits = new Semaphore(DEFAULT_THREADS);
+
+        // workaround for graal 19.2.1 and fat jars, needed once
+        // https://github.com/oracle/graal/issues/1348
+        try {
+            URL res =
+                com.oracle.js.parser.ScriptEnvironment.class.getClassLoader().getResource("/META-INF/truffle/language");
+            // initialize the file system for the language file
+            FileSystems.newFileSystem(res.toURI(), new HashMap<>());
+        } catch (Throwable ignored) {
+            // in case of starting without fat jar
+        }
     }
 
     public int getMaxCpuTime() {
@@ -69,6 +141,7 @@ public class LocalGraalExecutionService implements ScriptExecutionService {
 
     public void setMaxCpuTime(int maxCpuTime) {
         this.maxCpuTime = maxCpuTime;
+        this.sandboxes.invalidateAll();
     }
 
     public int getMaxMemory() {
@@ -77,6 +150,7 @@ public class LocalGraalExecutionService implements ScriptExecutionService {
 
     public void setMaxMemory(int maxMemory) {
         this.maxMemory = maxMemory;
+        this.sandboxes.invalidateAll();
     }
 
     public boolean isRemoveComments() {
@@ -85,128 +159,254 @@ public class LocalGraalExecutionService implements ScriptExecutionService {
 
     public void setRemoveComments(boolean removeComments) {
         this.removeComments = removeComments;
+        this.sandboxes.invalidateAll();
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+        this.sandboxes.invalidateAll();
+    }
+
+    public void setMaxFunctions(int maxFunctions) {
+        Cache<String, BlockingQueue<PooledSandbox>> previous = this.sandboxes;
+        this.sandboxes = buildCache(maxFunctions);
+        previous.invalidateAll();
+    }
+
+    public void setThreads(int threads) {
+        this.permits = new Semaphore(Math.max(1, threads));
+    }
+
+    public void shutdown() {
+        sandboxes.invalidateAll();
+        sandboxes.cleanUp();
+    }
+
+    // number of live sandboxes, pooled or executing
+    public int getActiveSandboxes() {
+        return active.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+        GuavaCacheMetrics.monitor(registry, sandboxes, "script.sandboxes");
     }
 
-    // TODO implement a threadPool for sandboxes to avoid bootstrap
     @Override
     public Map<String, Serializable> executeFunction(String name, String function, Map<String, Serializable> input)
         throws InvalidDefinitionException, SystemException {
         // TODO evaluate function syntax etc
-
-        // workaround for graal 19.2.1 and fat jars
-        // https://github.com/oracle/graal/issues/1348
         try {
-            URL res =
-                com.oracle.js.parser.ScriptEnvironment.class.getClassLoader().getResource("/META-INF/truffle/language");
-            // initialize the file system for the language file
-            FileSystems.newFileSystem(res.toURI(), new HashMap<>());
-        } catch (Throwable ignored) {
-            // in case of starting without fat jar
+            // pass input as the single argument, exposed as data
+            String args = mapper.writeValueAsString(Collections.singletonList(input));
+            String output = execute(name, function, args, Collections.singletonList("data"));
+
+            return mapper.readValue(output, typeRef);
+        } catch (JsonGenerationException | JsonMappingException e) {
+            throw new InvalidDefinitionException(e.getMessage());
+        } catch (IOException e) {
+            throw new SystemException(e.getMessage());
         }
+    }
 
-        GraalSandbox sandbox = createSandbox();
+    @Override
+    public <T> T executeFunction(String name, String function, Class<T> clazz, Serializable... inputs)
+        throws InvalidDefinitionException, SystemException {
+        // TODO evaluate function syntax etc
         try {
-            StringWriter writer = new StringWriter();
-            writer.append(CONSOLE_OVERRIDE);
-            writer.append("data = ");
-            mapper.writeValue(writer, input);
-            writer.append(";");
-            writer.append("\n");
-            writer.append(function);
-            writer.append(";");
-            writer.append("\n");
-            writer.append("result = JSON.stringify(" + name + "(data));");
-            writer.append("logs = JSON.stringify(_logs);");
-
-            String code = writer.toString();
-            if (removeComments) {
-                code = RemoveComments.perform(code);
+            // pass inputs as positional arguments, exposed as a0..an
+            String args = mapper.writeValueAsString(Arrays.asList(inputs));
+            List<String> vars = new ArrayList<>();
+            for (int i = 0; i < inputs.length; i++) {
+                vars.add("a" + i);
             }
-            sandbox.eval(code);
-
-            String output = (String) sandbox.get("result");
-            Map<String, Serializable> result = mapper.readValue(output, typeRef);
-            String logs = (String) sandbox.get("logs");
+            String output = execute(name, function, args, vars);
 
-            return result;
+            return mapper.readValue(output, clazz);
         } catch (JsonGenerationException | JsonMappingException e) {
             throw new InvalidDefinitionException(e.getMessage());
         } catch (IOException e) {
             throw new SystemException(e.getMessage());
-        } catch (ScriptCPUAbuseException | ScriptException e) {
-            throw new InvalidDefinitionException(e.getMessage());
-        } finally {
-            sandbox.getExecutor().shutdown();
         }
     }
 
-    @Override
-    public <T> T executeFunction(String name, String function, Class<T> clazz, Serializable... inputs)
+    private String execute(String name, String function, String args, List<String> vars)
         throws InvalidDefinitionException, SystemException {
-        // TODO evaluate function syntax etc
+        String key = hash(name, function + "\0" + String.join(",", vars));
+        Cache<String, BlockingQueue<PooledSandbox>> cache = this.sandboxes;
 
-        // workaround for graal 19.2.1 and fat jars
-        // https://github.com/oracle/graal/issues/1348
+        BlockingQueue<PooledSandbox> pool;
         try {
-            URL res =
-                com.oracle.js.parser.ScriptEnvironment.class.getClassLoader().getResource("/META-INF/truffle/language");
-            // initialize the file system for the language file
-            FileSystems.newFileSystem(res.toURI(), new HashMap<>());
-        } catch (Throwable ignored) {
-            // in case of starting without fat jar
+            pool = cache.get(key, () -> new ArrayBlockingQueue<>(Math.max(1, poolSize)));
+        } catch (ExecutionException e) {
+            throw new SystemException(e.getMessage());
         }
 
-        GraalSandbox sandbox = createSandbox();
+        Semaphore semaphore = this.permits;
         try {
-            StringWriter writer = new StringWriter();
-            writer.append(CONSOLE_OVERRIDE);
-
-            List<String> vars = new LinkedList<>();
-            for (int i = 0; i < inputs.length; i++) {
-                String v = "a" + i;
-                writer.append(v).append("=");
-                mapper.writeValue(writer, inputs[i]);
-                writer.append(";\n");
-                vars.add(v);
-            }
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("interrupted");
+        }
 
-            writer.append(function).append(";").append("\n");
-            writer.append("result = JSON.stringify(" + name + "(" + String.join(",", vars) + "));");
-            writer.append("logs = JSON.stringify(_logs);");
+        long start = System.nanoTime();
+        boolean success = false;
+        PooledSandbox sandbox = pool.poll();
+        Bindings bindings = null;
 
-            String code = writer.toString();
-            if (removeComments) {
-                code = RemoveComments.perform(code);
+        try {
+            if (sandbox == null) {
+                sandbox = createSandbox(key, name, function, vars);
             }
-            sandbox.eval(code);
 
-            String output = (String) sandbox.get("result");
-            T result = mapper.readValue(output, clazz);
-            String logs = (String) sandbox.get("logs");
+            // fresh bindings for every call, input is bound as value
+            bindings = sandbox.sandbox.createBindings();
+            bindings.put(INPUT_VARIABLE, args);
+            sandbox.sandbox.eval(sandbox.code, bindings);
 
-            return result;
-        } catch (JsonGenerationException | JsonMappingException e) {
-            throw new InvalidDefinitionException(e.getMessage());
-        } catch (IOException e) {
-            throw new SystemException(e.getMessage());
+            Object output = bindings.get("result");
+            success = true;
+
+            return output != null ? output.toString() : null;
         } catch (ScriptCPUAbuseException | ScriptException e) {
             throw new InvalidDefinitionException(e.getMessage());
         } finally {
-            sandbox.getExecutor().shutdown();
+            semaphore.release();
+            record(name, success, System.nanoTime() - start);
+            close(bindings);
+
+            if (sandbox != null) {
+                // reuse only sandboxes in a clean state, close when pool is full
+                if (!success || poolSize <= 0 || !pool.offer(sandbox)) {
+                    close(sandbox);
+                } else if (cache.asMap().get(key) != pool) {
+                    // pool was evicted meanwhile, nobody will drain it
+                    drain(pool);
+                }
+            }
         }
     }
 
-    private GraalSandbox createSandbox() {
+    private PooledSandbox createSandbox(String key, String name, String function, List<String> vars) {
+        logger.debug("create sandbox for function {} key {}", name, key);
+
+        // dedicated thread, cpu abuse kills only this sandbox
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("script-exec-");
+        threadFactory.setDaemon(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor(threadFactory);
+
         GraalSandbox sandbox;
         sandbox = GraalSandboxes.create();
         sandbox.setMaxCPUTime(maxCpuTime);
         sandbox.setMaxMemory(maxMemory);
         sandbox.setMaxPreparedStatements(30); // because preparing scripts for execution is expensive
-        sandbox.setExecutor(Executors.newSingleThreadExecutor());
+        sandbox.setExecutor(executor);
         sandbox.allowNoBraces(false);
         sandbox.disallowAllClasses();
         sandbox.allowPrintFunctions(false);
-        return sandbox;
+
+        // constant source per function: inputs are read from the bound variable
+        String code = removeComments ? RemoveComments.perform(function) : function;
+        StringBuilder sb = new StringBuilder();
+        sb.append(CONSOLE_OVERRIDE);
+        sb.append("var _args = JSON.parse(").append(INPUT_VARIABLE).append(");\n");
+        for (int i = 0; i < vars.size(); i++) {
+            sb.append("var ").append(vars.get(i)).append(" = _args[").append(i).append("];\n");
+        }
+        sb.append(code).append("\n;\n");
+        sb.append("result = JSON.stringify(").append(name).append(".apply(null, _args));\n");
+        sb.append("logs = JSON.stringify(_logs);");
+
+        active.incrementAndGet();
+        return new PooledSandbox(sandbox, executor, sb.toString());
+    }
+
+    private void close(PooledSandbox sandbox) {
+        if (sandbox.closed) {
+            return;
+        }
+
+        sandbox.closed = true;
+        active.decrementAndGet();
+        sandbox.executor.shutdownNow();
+    }
+
+    private void close(Bindings bindings) {
+        // graal bindings own a js context
+        if (bindings instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) bindings).close();
+            } catch (Exception e) {
+                logger.debug("error closing bindings: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void drain(BlockingQueue<PooledSandbox> pool) {
+        PooledSandbox sandbox;
+        while ((sandbox = pool.poll()) != null) {
+            close(sandbox);
+        }
+    }
+
+    private void record(String name, boolean success, long duration) {
+        if (meterRegistry != null) {
+            Timer
+                .builder("script.execution")
+                .tag("function", String.valueOf(name))
+                .tag("outcome", success ? "success" : "error")
+                .register(meterRegistry)
+                .record(duration, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static String hash(String name, String function) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(name).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(function).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Cache<String, BlockingQueue<PooledSandbox>> buildCache(int maxFunctions) {
+        // close idle sandboxes of evicted pools
+        RemovalListener<String, BlockingQueue<PooledSandbox>> listener = n -> {
+            if (n.getValue() != null) {
+                drain(n.getValue());
+            }
+        };
+
+        return CacheBuilder
+            .newBuilder()
+            .expireAfterAccess(1, TimeUnit.HOURS) // drop pools for unused functions
+            .maximumSize(maxFunctions)
+            .removalListener(listener)
+            .recordStats()
+            .build();
+    }
+
+    private static class PooledSandbox {
+
+        private final GraalSandbox sandbox;
+        private final ExecutorService executor;
+        private final String code;
+        private volatile boolean closed = false;
+
+        PooledSandbox(GraalSandbox sandbox, ExecutorService executor, String code) {
+            this.sandbox = sandbox;
+            this.executor = executor;
+            this.code = code;
+        }
     }
 
     private static final String CONSOLE_OVERRIDE =
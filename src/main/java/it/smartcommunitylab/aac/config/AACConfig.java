@@ -27,6 +27,7 @@ import it.smartcommunitylab.aac.claims.ScriptExecutionService;
 import it.smartcommunitylab.aac.core.entrypoint.RealmAwarePathUriBuilder;
 import it.smartcommunitylab.aac.core.service.CoreUserTranslator;
 import it.smartcommunitylab.aac.users.UserTranslator;
+import it.smartcommunitylab.aac.users.service.ProviderFanOutExecutor;
 import it.smartcommunitylab.aac.users.service.UserService;
 import java.io.IOException;
 import java.util.Locale;
@@ -58,6 +59,21 @@ public class AACConfig {
     @Value("${bootstrap.file}")
     private String bootstrapFile;
 
+    @Value("${users.providers.threads}")
+    private int providersThreads;
+
+    @Value("${users.providers.queue}")
+    private int providersQueue;
+
+    @Value("${users.providers.timeout}")
+    private long providersTimeout;
+
+    @Value("${users.providers.deadline}")
+    private long providersDeadline;
+
+    @Value("${users.providers.policy}")
+    private String providersPolicy;
+
     @Value("${bootstrap.apply}")
     private boolean bootstrapApply;
 
@@ -144,6 +160,21 @@ public class AACConfig {
         return service;
     }
 
+    /*
+     * Parallel fan-out for user identities and attributes
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ProviderFanOutExecutor providerFanOutExecutor() {
+        ProviderFanOutExecutor executor = new ProviderFanOutExecutor(providersThreads, providersQueue);
+        executor.setTimeout(providersTimeout);
+        executor.setDeadline(providersDeadline);
+        if (StringUtils.hasText(providersPolicy)) {
+            executor.setPolicy(ProviderFanOutExecutor.Policy.valueOf(providersPolicy.trim().toUpperCase()));
+        }
+
+        return executor;
+    }
+
     /*
      * Cross realm user translator
      */
@@ -19,9 +19,13 @@ package it.smartcommunitylab.aac.config;
 import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jose.jwk.KeyUse;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import it.smartcommunitylab.aac.audit.listeners.AuthorizationEventListener;
 import it.smartcommunitylab.aac.audit.listeners.ClientAuthenticationEventListener;
 import it.smartcommunitylab.aac.audit.listeners.UserAuthenticationEventListener;
+import it.smartcommunitylab.aac.audit.store.AuditBackpressurePolicy;
+import it.smartcommunitylab.aac.audit.store.AuditRollupStore;
 import it.smartcommunitylab.aac.audit.store.AutoJdbcAuditEventStore;
 import it.smartcommunitylab.aac.audit.store.SignedAuditDataReader;
 import it.smartcommunitylab.aac.audit.store.SignedAuditDataWriter;
@@ -29,6 +33,8 @@ import it.smartcommunitylab.aac.events.ExtendedAuthenticationEventPublisher;
 import it.smartcommunitylab.aac.identity.service.IdentityProviderService;
 import it.smartcommunitylab.aac.jose.JWKSetKeyStore;
 import it.smartcommunitylab.aac.oauth.event.OAuth2EventPublisher;
+import java.util.Collections;
+import java.util.concurrent.ThreadPoolExecutor;
 import javax.sql.DataSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -39,7 +45,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.event.ApplicationEventMulticaster;
 import org.springframework.context.event.SimpleApplicationEventMulticaster;
 import org.springframework.core.annotation.Order;
-import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.util.StringUtils;
 
 /*
@@ -64,17 +70,69 @@ public class AuditConfig {
     @Value("${audit.kid.enc}")
     private String encKid;
 
+    @Value("${audit.events.workers}")
+    private int eventsWorkers;
+
+    @Value("${audit.events.queue}")
+    private int eventsQueue;
+
+    @Value("${audit.writer.queue}")
+    private int writerQueue;
+
+    @Value("${audit.writer.flush-size}")
+    private int writerFlushSize;
+
+    @Value("${audit.writer.flush-interval}")
+    private int writerFlushInterval;
+
+    @Value("${audit.writer.policy}")
+    private String writerPolicy;
+
+    @Value("${audit.writer.sample-rate}")
+    private int writerSampleRate;
+
+    @Value("${audit.rollup.flush-interval}")
+    private int rollupFlushInterval;
+
     @Autowired
     private JWKSetKeyStore jwtKeyStore;
 
     @Bean(name = "applicationEventMulticaster")
-    public ApplicationEventMulticaster simpleApplicationEventMulticaster() {
+    public ApplicationEventMulticaster simpleApplicationEventMulticaster(
+        @Qualifier("applicationEventExecutor") ThreadPoolTaskExecutor eventExecutor
+    ) {
         SimpleApplicationEventMulticaster eventMulticaster = new SimpleApplicationEventMulticaster();
 
-        eventMulticaster.setTaskExecutor(new SimpleAsyncTaskExecutor());
+        eventMulticaster.setTaskExecutor(eventExecutor);
         return eventMulticaster;
     }
 
+    /*
+     * Bounded pool for event listeners, shut down with the context
+     */
+    @Bean
+    public ThreadPoolTaskExecutor applicationEventExecutor() {
+        // when saturated events are dispatched by the publisher
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("events-");
+        executor.setCorePoolSize(eventsWorkers);
+        executor.setMaxPoolSize(eventsWorkers);
+        executor.setQueueCapacity(eventsQueue);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setDaemon(true);
+
+        return executor;
+    }
+
+    @Bean
+    public MeterBinder applicationEventExecutorMetrics(
+        @Qualifier("applicationEventExecutor") ThreadPoolTaskExecutor eventExecutor
+    ) {
+        return registry ->
+            new ExecutorServiceMetrics(eventExecutor.getThreadPoolExecutor(), "events", Collections.emptyList())
+                .bindTo(registry);
+    }
+
     @Bean
     public ExtendedAuthenticationEventPublisher authenticationEventPublisher(
         ApplicationEventPublisher applicationEventPublisher,
@@ -99,7 +157,15 @@ public class AuditConfig {
     //    }
 
     @Bean
-    public AutoJdbcAuditEventStore auditEventRepository() {
+    public AuditRollupStore auditRollupStore() {
+        AuditRollupStore rollup = new AuditRollupStore(dataSource);
+        rollup.setFlushInterval(rollupFlushInterval);
+
+        return rollup;
+    }
+
+    @Bean
+    public AutoJdbcAuditEventStore auditEventRepository(AuditRollupStore rollupStore) {
         AutoJdbcAuditEventStore store = new AutoJdbcAuditEventStore(dataSource);
 
         if (StringUtils.hasText(sigKid)) {
@@ -122,6 +188,18 @@ public class AuditConfig {
             }
         }
 
+        // counters for dashboards, fed after writes
+        store.setRollupStore(rollupStore);
+
+        // buffered batch writes
+        store.setSampleRate(writerSampleRate);
+        store.setBatchConfig(
+            writerQueue,
+            writerFlushSize,
+            writerFlushInterval,
+            AuditBackpressurePolicy.valueOf(writerPolicy.toUpperCase())
+        );
+
         return store;
     }
 
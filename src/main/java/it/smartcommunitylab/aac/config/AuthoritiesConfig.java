@@ -24,6 +24,7 @@ import it.smartcommunitylab.aac.claims.ScriptExecutionService;
 import it.smartcommunitylab.aac.core.model.ConfigMap;
 import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
 import it.smartcommunitylab.aac.core.service.AutoJDBCProviderConfigRepository;
+import it.smartcommunitylab.aac.core.service.CachingProviderConfigRepository;
 import it.smartcommunitylab.aac.core.service.InMemoryProviderConfigRepository;
 import it.smartcommunitylab.aac.core.service.JpaProviderConfigRepository;
 import it.smartcommunitylab.aac.core.service.ProviderConfigEntityService;
@@ -70,6 +71,9 @@ public class AuthoritiesConfig {
     @Autowired
     private ProviderConfigEntityService providerConfigEntityService;
 
+    @Autowired
+    private ProviderCacheProperties providerCacheProperties;
+
     @Autowired
     private UserAccountService<OIDCUserAccount> oidcUserAccountService;
 
@@ -164,12 +168,22 @@ public class AuthoritiesConfig {
         Class<U> clazz,
         String authority
     ) {
+        ProviderConfigRepository<U> repository;
         if ("jdbc".equals(providerConfigRepository)) {
-            return new AutoJDBCProviderConfigRepository<U>(jdbcDataSource, clazz, authority);
+            repository = new AutoJDBCProviderConfigRepository<U>(jdbcDataSource, clazz, authority);
         } else if ("jpa".equals(providerConfigRepository)) {
-            return new JpaProviderConfigRepository<U>(providerConfigEntityService, clazz);
+            repository = new JpaProviderConfigRepository<U>(providerConfigEntityService, clazz);
+        } else {
+            // in memory needs no caching
+            return new InMemoryProviderConfigRepository<U>();
         }
 
-        return new InMemoryProviderConfigRepository<U>();
+        // cache persisted configs
+        return CachingProviderConfigRepository.wrap(
+            repository,
+            authority + ":" + clazz.getSimpleName(),
+            providerCacheProperties.getTtl(),
+            providerCacheProperties.getSize()
+        );
     }
 }
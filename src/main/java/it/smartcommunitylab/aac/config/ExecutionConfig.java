@@ -35,12 +35,24 @@ public class ExecutionConfig {
     @Value("${engine.graal.remove-comments}")
     private boolean graalRemoveComments;
 
-    @Bean
+    @Value("${engine.graal.pool-size}")
+    private int graalPoolSize;
+
+    @Value("${engine.graal.max-functions}")
+    private int graalMaxFunctions;
+
+    @Value("${engine.graal.threads}")
+    private int graalThreads;
+
+    @Bean(destroyMethod = "shutdown")
     public LocalGraalExecutionService localGraalExecutionService() {
         LocalGraalExecutionService executionService = new LocalGraalExecutionService();
         executionService.setMaxMemory(graalMaxMemory);
         executionService.setMaxCpuTime(graalMaxCpuTime);
         executionService.setRemoveComments(graalRemoveComments);
+        executionService.setPoolSize(graalPoolSize);
+        executionService.setMaxFunctions(graalMaxFunctions);
+        executionService.setThreads(graalThreads);
         return executionService;
     }
 }
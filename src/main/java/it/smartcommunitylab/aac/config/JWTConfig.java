@@ -21,8 +21,10 @@ import com.nimbusds.jose.JWEAlgorithm;
 import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.KeyUse;
 import it.smartcommunitylab.aac.jose.JWKSetKeyStore;
+import it.smartcommunitylab.aac.jwt.ClientKeyCacheService;
 import it.smartcommunitylab.aac.jwt.DefaultJWTEncryptionAndDecryptionService;
 import it.smartcommunitylab.aac.jwt.DefaultJWTSigningAndValidationService;
+import it.smartcommunitylab.aac.jwt.JWKSetCacheService;
 import it.smartcommunitylab.aac.jwt.JWTEncryptionAndDecryptionService;
 import it.smartcommunitylab.aac.jwt.JWTSigningAndValidationService;
 import java.security.NoSuchAlgorithmException;
@@ -47,6 +49,27 @@ public class JWTConfig {
     @Value("${jwt.kid.enc}")
     private String encKid;
 
+    @Value("${jwt.jwks.refresh}")
+    private int jwksRefreshInterval;
+
+    @Value("${jwt.jwks.staleness}")
+    private int jwksMaxStaleness;
+
+    @Value("${jwt.jwks.negative}")
+    private int jwksNegativeTtl;
+
+    @Value("${jwt.jwks.kid-refresh}")
+    private int jwksKidRefreshInterval;
+
+    @Value("${jwt.jwks.size}")
+    private int jwksCacheSize;
+
+    @Value("${jwt.clients.cache.ttl}")
+    private int clientKeysCacheTtl;
+
+    @Value("${jwt.clients.cache.size}")
+    private int clientKeysCacheSize;
+
     @Autowired
     private JWKSetKeyStore jwtKeyStore;
 
@@ -130,4 +153,28 @@ public class JWTConfig {
 
         return service;
     }
+
+    /*
+     * Remote client keys, shared by token encryption and client assertions
+     */
+    @Bean
+    public JWKSetCacheService jwksCacheService() {
+        JWKSetCacheService service = new JWKSetCacheService();
+        service.setCacheConfig(jwksRefreshInterval, jwksMaxStaleness, jwksCacheSize);
+        service.setNegativeTtl(jwksNegativeTtl);
+        service.setKidRefreshInterval(jwksKidRefreshInterval);
+
+        return service;
+    }
+
+    /*
+     * Parsed client keys and services, evicted on client update
+     */
+    @Bean
+    public ClientKeyCacheService clientKeyCacheService(JWKSetCacheService jwksCacheService) {
+        ClientKeyCacheService service = new ClientKeyCacheService(jwksCacheService);
+        service.setCacheConfig(clientKeysCacheTtl, clientKeysCacheSize);
+
+        return service;
+    }
 }
@@ -35,14 +35,18 @@ import it.smartcommunitylab.aac.oauth.flow.OAuthFlowExtensionsHandler;
 import it.smartcommunitylab.aac.oauth.persistence.OAuth2ClientEntityRepository;
 import it.smartcommunitylab.aac.oauth.provider.ClientRegistrationServices;
 import it.smartcommunitylab.aac.oauth.request.ExtRedirectResolver;
+import it.smartcommunitylab.aac.oauth.service.OAuth2ClientDetailsInvalidationListener;
 import it.smartcommunitylab.aac.oauth.service.OAuth2ClientDetailsService;
 import it.smartcommunitylab.aac.oauth.service.OAuth2ClientRegistrationServices;
 import it.smartcommunitylab.aac.oauth.service.OAuth2ClientService;
+import it.smartcommunitylab.aac.oauth.store.AbstractAuthorizationRequestStore;
 import it.smartcommunitylab.aac.oauth.store.AuthorizationRequestStore;
+import it.smartcommunitylab.aac.oauth.store.CborTokenSerializer;
 import it.smartcommunitylab.aac.oauth.store.ExtTokenStore;
 import it.smartcommunitylab.aac.oauth.store.InMemoryAuthorizationRequestStore;
 import it.smartcommunitylab.aac.oauth.store.jdbc.AutoJdbcApprovalStore;
 import it.smartcommunitylab.aac.oauth.store.jdbc.AutoJdbcAuthorizationCodeServices;
+import it.smartcommunitylab.aac.oauth.store.jdbc.AutoJdbcAuthorizationRequestStore;
 import it.smartcommunitylab.aac.oauth.store.jdbc.AutoJdbcTokenStore;
 import it.smartcommunitylab.aac.oauth.token.AACTokenEnhancer;
 import it.smartcommunitylab.aac.oauth.token.AbstractTokenGranter;
@@ -64,12 +68,11 @@ import java.beans.PropertyVetoException;
 import java.util.ArrayList;
 import java.util.List;
 import javax.sql.DataSource;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.annotation.Scope;
-import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.core.annotation.Order;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.oauth2.provider.CompositeTokenGranter;
@@ -80,9 +83,9 @@ import org.springframework.security.oauth2.provider.approval.ApprovalStore;
 import org.springframework.security.oauth2.provider.code.AuthorizationCodeServices;
 import org.springframework.security.oauth2.provider.endpoint.RedirectResolver;
 import org.springframework.security.oauth2.provider.token.AuthorizationServerTokenServices;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.bind.support.DefaultSessionAttributeStore;
 import org.springframework.web.bind.support.SessionAttributeStore;
-import org.springframework.web.context.WebApplicationContext;
 
 /*
  * OAuth2 services configuration
@@ -109,6 +112,9 @@ public class OAuth2Config {
     @Value("${oauth2.refreshtoken.validity}")
     private int refreshTokenValidity;
 
+    @Value("${oauth2.refreshtoken.grace}")
+    private int refreshTokenGrace;
+
     @Value("${oauth2.redirects.matchports}")
     private boolean redirectMatchPorts;
 
@@ -124,6 +130,33 @@ public class OAuth2Config {
     @Value("${oauth2.resourceOwnerPassword.allowRefresh}")
     private boolean oauth2ResourceOwnerPasswordAllowRefresh;
 
+    @Value("${oauth2.tokens.format}")
+    private String tokensFormat;
+
+    @Value("${oauth2.introspection.cache.ttl}")
+    private int introspectionCacheTtl;
+
+    @Value("${oauth2.introspection.cache.size}")
+    private int introspectionCacheSize;
+
+    @Value("${oauth2.clients.cache.ttl}")
+    private int clientsCacheTtl;
+
+    @Value("${oauth2.clients.cache.size}")
+    private int clientsCacheSize;
+
+    @Value("${oauth2.requests.store}")
+    private String requestsStore;
+
+    @Value("${oauth2.requests.ttl}")
+    private int requestsTtl;
+
+    @Value("${oauth2.requests.size}")
+    private int requestsSize;
+
+    @Value("${oauth2.requests.cleanup}")
+    private int requestsCleanupInterval;
+
     @Autowired
     private DataSource dataSource;
 
@@ -174,9 +207,14 @@ public class OAuth2Config {
     @Bean
     public OAuth2ClientDetailsService getClientDetailsService(
         ClientEntityService clientService,
-        OAuth2ClientEntityRepository clientRepository
+        OAuth2ClientEntityRepository clientRepository,
+        ObjectProvider<OAuth2ClientDetailsInvalidationListener> invalidationListener
     ) throws PropertyVetoException {
-        return new OAuth2ClientDetailsService(clientService, clientRepository);
+        OAuth2ClientDetailsService service = new OAuth2ClientDetailsService(clientService, clientRepository);
+        service.setCacheConfig(clientsCacheTtl, clientsCacheSize);
+        service.setInvalidationListener(invalidationListener.getIfAvailable());
+
+        return service;
     }
 
     @Bean
@@ -187,7 +225,16 @@ public class OAuth2Config {
 
     @Bean
     public ExtTokenStore getJDBCTokenStore() throws PropertyVetoException {
-        return new AutoJdbcTokenStore(dataSource);
+        AutoJdbcTokenStore tokenStore = new AutoJdbcTokenStore(dataSource);
+        if ("cbor".equals(tokensFormat)) {
+            // opt-in compact format, enable only when all nodes can read cbor
+            tokenStore.setTokenSerializer(new CborTokenSerializer());
+        }
+
+        // cache positive lookups for introspection
+        tokenStore.setCacheConfig(introspectionCacheTtl, introspectionCacheSize);
+
+        return tokenStore;
     }
 
     @Bean
@@ -299,7 +346,8 @@ public class OAuth2Config {
         OAuth2ClientDetailsService clientDetailsService,
         ExtTokenStore tokenStore,
         ApprovalStore approvalStore,
-        AACTokenEnhancer tokenEnhancer
+        AACTokenEnhancer tokenEnhancer,
+        PlatformTransactionManager transactionManager
     ) throws PropertyVetoException {
         OAuth2TokenServices tokenServices = new OAuth2TokenServices(tokenStore);
         tokenServices.setClientDetailsService(clientDetailsService);
@@ -308,6 +356,10 @@ public class OAuth2Config {
         tokenServices.setAccessTokenValiditySeconds(accessTokenValidity);
         tokenServices.setRefreshTokenValiditySeconds(refreshTokenValidity);
         tokenServices.setRemoveExpired(true);
+        tokenServices.setTransactionManager(transactionManager);
+
+        // keep rotated refresh tokens valid for a short window, if set
+        tokenServices.setRefreshTokenGrace(refreshTokenGrace);
         return tokenServices;
     }
 
@@ -407,10 +459,20 @@ public class OAuth2Config {
     }
 
     @Bean
-    @Scope(value = WebApplicationContext.SCOPE_SESSION, proxyMode = ScopedProxyMode.TARGET_CLASS)
     public AuthorizationRequestStore authorizationRequestRepository() {
-        // used as session scoped proxy, we need this for in flight requests
-        return new InMemoryAuthorizationRequestStore();
+        // shared store, requests are bound to the session by the store
+        AbstractAuthorizationRequestStore requestStore;
+        if ("jdbc".equals(requestsStore)) {
+            requestStore = new AutoJdbcAuthorizationRequestStore(dataSource);
+        } else {
+            InMemoryAuthorizationRequestStore inMemoryStore = new InMemoryAuthorizationRequestStore();
+            inMemoryStore.setMaxSize(requestsSize);
+            requestStore = inMemoryStore;
+        }
+
+        requestStore.setTtl(requestsTtl);
+        requestStore.setCleanupInterval(requestsCleanupInterval);
+        return requestStore;
     }
 
     @Bean
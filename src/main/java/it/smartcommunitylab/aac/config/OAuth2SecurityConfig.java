@@ -19,6 +19,7 @@ package it.smartcommunitylab.aac.config;
 import it.smartcommunitylab.aac.Config;
 import it.smartcommunitylab.aac.clients.service.ClientDetailsService;
 import it.smartcommunitylab.aac.core.ClientAuthenticationManager;
+import it.smartcommunitylab.aac.jwt.JWKSetCacheService;
 import it.smartcommunitylab.aac.oauth.auth.OAuth2ClientAuthFilter;
 import it.smartcommunitylab.aac.oauth.auth.OAuth2ClientJwtAssertionAuthenticationProvider;
 import it.smartcommunitylab.aac.oauth.auth.OAuth2ClientPKCEAuthenticationProvider;
@@ -30,6 +31,7 @@ import it.smartcommunitylab.aac.oauth.endpoint.TokenRevocationEndpoint;
 import it.smartcommunitylab.aac.oauth.provider.PeekableAuthorizationCodeServices;
 import it.smartcommunitylab.aac.oauth.service.OAuth2ClientDetailsService;
 import it.smartcommunitylab.aac.oauth.store.ExtTokenStore;
+import it.smartcommunitylab.aac.realms.service.RealmDeletionService;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -82,6 +84,12 @@ public class OAuth2SecurityConfig {
     @Autowired
     private ExtTokenStore tokenStore;
 
+    @Autowired
+    private RealmDeletionService realmDeletionService;
+
+    @Autowired
+    private JWKSetCacheService jwksCacheService;
+
     /*
      * Configure a separated security context for oauth2 tokenEndpoints
      */
@@ -147,12 +155,14 @@ public class OAuth2SecurityConfig {
         OAuth2ClientJwtAssertionAuthenticationProvider jwtAssertionProvider =
             new OAuth2ClientJwtAssertionAuthenticationProvider(clientDetailsService, audience);
         jwtAssertionProvider.setClientService(clientService);
+        jwtAssertionProvider.setJwksCacheService(jwksCacheService);
 
         ClientAuthenticationManager authManager = new ClientAuthenticationManager(
             secretAuthProvider,
             jwtAssertionProvider
         );
         authManager.setClientService(clientService);
+        authManager.setRealmDeletionService(realmDeletionService);
 
         ClientAuthenticationManager pkceAuthManager = new ClientAuthenticationManager(
             secretAuthProvider,
@@ -161,6 +171,7 @@ public class OAuth2SecurityConfig {
             jwtAssertionProvider
         );
         pkceAuthManager.setClientService(clientService);
+        pkceAuthManager.setRealmDeletionService(realmDeletionService);
 
         // TODO add realm style endpoints
         OAuth2ClientAuthFilter tokenEndpointFilter = new OAuth2ClientAuthFilter(pkceAuthManager, TOKEN_ENDPOINT);
@@ -38,11 +38,13 @@ import it.smartcommunitylab.aac.claims.ScopeClaimsExtractorProvider;
 import it.smartcommunitylab.aac.core.persistence.ProviderEntityRepository;
 import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
 import it.smartcommunitylab.aac.core.service.AutoJDBCProviderConfigRepository;
+import it.smartcommunitylab.aac.core.service.CachingProviderConfigRepository;
 import it.smartcommunitylab.aac.core.service.ConfigurableProviderEntityService;
 import it.smartcommunitylab.aac.core.service.InMemoryProviderConfigRepository;
 import it.smartcommunitylab.aac.core.service.JpaProviderConfigRepository;
 import it.smartcommunitylab.aac.core.service.ProviderConfigEntityService;
 import it.smartcommunitylab.aac.core.service.SubjectService;
+import it.smartcommunitylab.aac.core.session.JdbcSessionRegistry;
 import it.smartcommunitylab.aac.internal.InternalIdentityProviderAuthority;
 import it.smartcommunitylab.aac.internal.model.InternalUserAccount;
 import it.smartcommunitylab.aac.internal.persistence.InternalUserAccountEntityRepository;
@@ -75,6 +77,7 @@ import java.io.IOException;
 import java.io.Writer;
 import java.util.Collection;
 import javax.sql.DataSource;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
@@ -84,6 +87,8 @@ import org.springframework.context.annotation.Primary;
 import org.springframework.core.annotation.Order;
 import org.springframework.security.core.session.SessionRegistry;
 import org.springframework.security.core.session.SessionRegistryImpl;
+import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.Session;
 import org.springframework.session.web.http.CookieSerializer;
 import org.springframework.session.web.http.DefaultCookieSerializer;
 import org.springframework.util.StringUtils;
@@ -107,6 +112,15 @@ public class PersistenceConfig {
     @Value("${security.session.cookie.secure}")
     private Boolean sessionCookieSecure;
 
+    @Value("${security.session.cleanup.interval}")
+    private int sessionCleanupInterval;
+
+    @Value("${security.session.cleanup.batch}")
+    private int sessionCleanupBatch;
+
+    @Value("${spring.session.jdbc.table-name:SPRING_SESSION}")
+    private String sessionTableName;
+
     @Autowired
     @Qualifier("jdbcDataSource")
     private DataSource jdbcDataSource;
@@ -114,6 +128,9 @@ public class PersistenceConfig {
     @Autowired
     private ProviderConfigEntityService providerConfigEntityService;
 
+    @Autowired
+    private ProviderCacheProperties providerCacheProperties;
+
     /*
      * Object mappers
      */
@@ -236,8 +253,21 @@ public class PersistenceConfig {
     }
 
     @Bean
-    public SessionRegistry sessionRegistry() {
-        return new SessionRegistryImpl();
+    public SessionRegistry sessionRegistry(
+        ObjectProvider<FindByIndexNameSessionRepository<? extends Session>> sessionRepository
+    ) {
+        FindByIndexNameSessionRepository<? extends Session> repository = sessionRepository.getIfAvailable();
+        if (repository == null) {
+            // no shared store, fallback to local registry
+            return new SessionRegistryImpl();
+        }
+
+        JdbcSessionRegistry registry = new JdbcSessionRegistry(repository, jdbcDataSource);
+        registry.setTableName(sessionTableName);
+        registry.setBatchSize(sessionCleanupBatch);
+        registry.setCleanupInterval(sessionCleanupInterval);
+
+        return registry;
     }
 
     /*
@@ -316,9 +346,10 @@ public class PersistenceConfig {
     @Bean(name = "extractorsRegistry")
     public ExtractorsRegistry extractorsRegistry(
         Collection<ScopeClaimsExtractorProvider> scopeExtractorsProviders,
-        Collection<ResourceClaimsExtractorProvider> resourceExtractorsProviders
+        Collection<ResourceClaimsExtractorProvider> resourceExtractorsProviders,
+        @Value("${jwt.claims.extractors.ttl}") int indexTtl
     ) {
-        return new InMemoryExtractorsRegistry(scopeExtractorsProviders, resourceExtractorsProviders);
+        return new InMemoryExtractorsRegistry(scopeExtractorsProviders, resourceExtractorsProviders, indexTtl);
     }
 
     /*
@@ -419,12 +450,22 @@ public class PersistenceConfig {
         Class<U> clazz,
         String authority
     ) {
+        ProviderConfigRepository<U> repository;
         if ("jdbc".equals(providerConfigRepository)) {
-            return new AutoJDBCProviderConfigRepository<U>(jdbcDataSource, clazz, authority);
+            repository = new AutoJDBCProviderConfigRepository<U>(jdbcDataSource, clazz, authority);
         } else if ("jpa".equals(providerConfigRepository)) {
-            return new JpaProviderConfigRepository<U>(providerConfigEntityService, clazz);
+            repository = new JpaProviderConfigRepository<U>(providerConfigEntityService, clazz);
+        } else {
+            // in memory needs no caching
+            return new InMemoryProviderConfigRepository<U>();
         }
 
-        return new InMemoryProviderConfigRepository<U>();
+        // cache persisted configs
+        return CachingProviderConfigRepository.wrap(
+            repository,
+            authority + ":" + clazz.getSimpleName(),
+            providerCacheProperties.getTtl(),
+            providerCacheProperties.getSize()
+        );
     }
 }
@@ -61,6 +61,12 @@ public class PropertiesConfig {
         return new CredentialsAuthoritiesProperties();
     }
 
+    @Bean
+    @ConfigurationProperties(prefix = "authorities.cache")
+    public ProviderCacheProperties providerCacheProps() {
+        return new ProviderCacheProperties();
+    }
+
     @Bean
     @ConfigurationProperties(prefix = "providers")
     public ProvidersProperties globalProviders() {
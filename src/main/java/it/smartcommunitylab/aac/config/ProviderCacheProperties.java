@@ -0,0 +1,61 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ProviderCacheProperties {
+
+    // provider config cache validity in seconds, 0 to disable
+    private int ttl;
+
+    // default size for provider caches
+    private int size;
+
+    // per-authority provider cache size
+    private Map<String, Integer> authorities = new HashMap<>();
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(int ttl) {
+        this.ttl = ttl;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public Map<String, Integer> getAuthorities() {
+        return authorities;
+    }
+
+    public void setAuthorities(Map<String, Integer> authorities) {
+        this.authorities = authorities;
+    }
+
+    public int getSize(String authorityId) {
+        Integer s = authorities != null ? authorities.get(authorityId) : null;
+        return s != null ? s.intValue() : size;
+    }
+}
@@ -16,6 +16,9 @@
 
 package it.smartcommunitylab.aac.config;
 
+import it.smartcommunitylab.aac.saml.service.SamlMetadataRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
 
@@ -24,4 +27,29 @@ import org.springframework.core.annotation.Order;
  */
 @Configuration
 @Order(7)
-public class SamlConfig {}
+public class SamlConfig {
+
+    @Value("${saml.metadata.dir}")
+    private String metadataDir;
+
+    @Value("${saml.metadata.threads}")
+    private int metadataThreads;
+
+    @Value("${saml.metadata.refresh}")
+    private int metadataRefresh;
+
+    @Value("${saml.metadata.timeout}")
+    private int metadataTimeout;
+
+    /*
+     * Shared idp metadata registry, used by saml and spid providers
+     */
+    @Bean
+    public SamlMetadataRegistry samlMetadataRegistry() {
+        SamlMetadataRegistry registry = new SamlMetadataRegistry(metadataThreads);
+        registry.setRefreshInterval(metadataRefresh);
+        registry.setTimeout(metadataTimeout);
+        registry.setDirectory(metadataDir);
+        return registry;
+    }
+}
@@ -20,6 +20,7 @@ import it.smartcommunitylab.aac.attributes.service.AttributeProviderAuthoritySer
 import it.smartcommunitylab.aac.core.ExtendedUserAuthenticationManager;
 import it.smartcommunitylab.aac.core.service.SubjectService;
 import it.smartcommunitylab.aac.identity.service.IdentityProviderAuthorityService;
+import it.smartcommunitylab.aac.realms.service.RealmDeletionService;
 import it.smartcommunitylab.aac.users.service.UserEntityService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -42,13 +43,19 @@ public class UserAuthConfig {
     @Autowired
     private UserEntityService userService;
 
+    @Autowired
+    private RealmDeletionService realmDeletionService;
+
     @Bean
     public ExtendedUserAuthenticationManager extendedAuthenticationManager() throws Exception {
-        return new ExtendedUserAuthenticationManager(
+        ExtendedUserAuthenticationManager authManager = new ExtendedUserAuthenticationManager(
             identityProviderAuthorityService,
             attributeProviderAuthorityService,
             userService,
             subjectService
         );
+        authManager.setRealmDeletionService(realmDeletionService);
+
+        return authManager;
     }
 }
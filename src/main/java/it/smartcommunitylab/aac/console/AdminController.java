@@ -25,6 +25,7 @@ import it.smartcommunitylab.aac.common.RegistrationException;
 import it.smartcommunitylab.aac.config.ApplicationProperties;
 import it.smartcommunitylab.aac.model.Realm;
 import it.smartcommunitylab.aac.realms.RealmManager;
+import it.smartcommunitylab.aac.realms.model.RealmDeletion;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -208,9 +209,22 @@ public class AdminController {
     }
 
     @DeleteMapping("/realms/{slug}")
-    public void deleteRealm(@PathVariable @Valid @NotNull @Pattern(regexp = SystemKeys.SLUG_PATTERN) String slug)
-        throws NoSuchRealmException {
-        realmManager.deleteRealm(slug, true);
+    public ResponseEntity<RealmDeletion> deleteRealm(
+        @PathVariable @Valid @NotNull @Pattern(regexp = SystemKeys.SLUG_PATTERN) String slug
+    ) throws NoSuchRealmException {
+        // cleanup runs in background, point to the job status
+        RealmDeletion deletion = realmManager.deleteRealm(slug, true);
+        return ResponseEntity
+            .accepted()
+            .location(ServletUriComponentsBuilder.fromCurrentRequestUri().path("/deletion").build().toUri())
+            .body(deletion);
+    }
+
+    @GetMapping("/realms/{slug}/deletion")
+    public RealmDeletion getRealmDeletion(
+        @PathVariable @Valid @NotNull @Pattern(regexp = SystemKeys.SLUG_PATTERN) String slug
+    ) throws NoSuchRealmException {
+        return realmManager.getRealmDeletion(slug);
     }
 
     public static class SystemMetric {
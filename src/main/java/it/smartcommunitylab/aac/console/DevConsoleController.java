@@ -20,6 +20,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -44,6 +45,7 @@ import it.smartcommunitylab.aac.core.auth.RealmGrantedAuthority;
 import it.smartcommunitylab.aac.core.auth.UserAuthentication;
 import it.smartcommunitylab.aac.model.Realm;
 import it.smartcommunitylab.aac.realms.RealmManager;
+import it.smartcommunitylab.aac.realms.model.RealmDeletion;
 import it.smartcommunitylab.aac.users.MyUserManager;
 import it.smartcommunitylab.aac.users.UserManager;
 
@@ -161,9 +163,22 @@ public class DevConsoleController {
 	}
 
 	@DeleteMapping("/myrealms/{slug}")
-	public void deleteRealm(@PathVariable @Valid @NotNull @Pattern(regexp = SystemKeys.SLUG_PATTERN) String slug)
+	public ResponseEntity<RealmDeletion> deleteRealm(
+			@PathVariable @Valid @NotNull @Pattern(regexp = SystemKeys.SLUG_PATTERN) String slug)
 			throws NoSuchRealmException {
-		realmManager.deleteRealm(slug, true);
+		// cleanup runs in background, point to the job status
+		RealmDeletion deletion = realmManager.deleteRealm(slug, true);
+		return ResponseEntity.accepted()
+				.location(ServletUriComponentsBuilder.fromCurrentRequestUri().path("/deletion").build().toUri())
+				.body(deletion);
+	}
+
+	@GetMapping("/myrealms/{slug}/deletion")
+	@PreAuthorize("hasAuthority('" + Config.R_ADMIN + "') or hasAuthority(#slug+':ROLE_ADMIN')")
+	public RealmDeletion getRealmDeletion(
+			@PathVariable @Valid @NotNull @Pattern(regexp = SystemKeys.SLUG_PATTERN) String slug)
+			throws NoSuchRealmException {
+		return realmManager.getRealmDeletion(slug);
 	}
 
 }
@@ -68,7 +68,6 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.audit.AuditEvent;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -247,49 +246,25 @@ public class DevController {
             bean.setEvents(auditManager.countRealmEvents(realm, null, after, null));
 
             bean.setLoginCount(auditManager.countRealmEvents(realm, "USER_AUTHENTICATION_SUCCESS", after, null));
-            List<AuditEvent> loginEvents = auditManager
-                .searchRealmEvents(realm, "USER_AUTHENTICATION_SUCCESS", after, null, PageRequest.of(0, 5))
-                .getContent()
-                .stream()
-                .map(e -> {
-                    // clear event details
-                    Map<String, Object> d = new HashMap<>(e.getData());
-                    d.remove("details");
-
-                    return new AuditEvent(e.getTimestamp(), e.getPrincipal(), e.getType(), d);
-                })
-                .collect(Collectors.toList());
-
+            List<AuditEvent> loginEvents = auditManager.findRecentRealmEvents(
+                realm,
+                "USER_AUTHENTICATION_SUCCESS",
+                after,
+                5
+            );
             bean.setLoginEvents(loginEvents);
 
             bean.setRegistrationCount(auditManager.countRealmEvents(realm, "USER_REGISTRATION", after, null));
-            List<AuditEvent> registrationEvents = auditManager
-                .searchRealmEvents(realm, "USER_REGISTRATION", after, null, PageRequest.of(0, 5))
-                .getContent()
-                .stream()
-                .map(e -> {
-                    // clear event details
-                    Map<String, Object> d = new HashMap<>(e.getData());
-                    d.remove("details");
-
-                    return new AuditEvent(e.getTimestamp(), e.getPrincipal(), e.getType(), d);
-                })
-                .collect(Collectors.toList());
+            List<AuditEvent> registrationEvents = auditManager.findRecentRealmEvents(
+                realm,
+                "USER_REGISTRATION",
+                after,
+                5
+            );
             bean.setRegistrationEvents(registrationEvents);
 
             bean.setTokenCount(auditManager.countRealmEvents(realm, "OAUTH2_TOKEN_GRANT", after, null));
-            List<AuditEvent> tokenEvents = auditManager
-                .searchRealmEvents(realm, "OAUTH2_TOKEN_GRANT", after, null, PageRequest.of(0, 5))
-                .getContent()
-                .stream()
-                .map(e -> {
-                    // clear event details
-                    Map<String, Object> d = new HashMap<>(e.getData());
-                    d.remove("details");
-
-                    return new AuditEvent(e.getTimestamp(), e.getPrincipal(), e.getType(), d);
-                })
-                .collect(Collectors.toList());
+            List<AuditEvent> tokenEvents = auditManager.findRecentRealmEvents(realm, "OAUTH2_TOKEN_GRANT", after, 5);
             bean.setTokenEvents(tokenEvents);            
         }
 
@@ -20,6 +20,7 @@ import it.smartcommunitylab.aac.clients.service.ClientDetailsService;
 import it.smartcommunitylab.aac.common.NoSuchClientException;
 import it.smartcommunitylab.aac.core.auth.ClientAuthentication;
 import it.smartcommunitylab.aac.core.auth.ClientAuthenticationProvider;
+import it.smartcommunitylab.aac.realms.service.RealmDeletionService;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -29,6 +30,7 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.DisabledException;
 import org.springframework.security.authentication.ProviderNotFoundException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
@@ -45,6 +47,7 @@ public class ClientAuthenticationManager implements AuthenticationManager, Initi
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private ClientDetailsService clientService;
+    private RealmDeletionService realmDeletionService;
     private List<ClientAuthenticationProvider> providers = Collections.emptyList();
 
     public ClientAuthenticationManager(ClientAuthenticationProvider... providers) {
@@ -59,6 +62,10 @@ public class ClientAuthenticationManager implements AuthenticationManager, Initi
         this.clientService = clientService;
     }
 
+    public void setRealmDeletionService(RealmDeletionService realmDeletionService) {
+        this.realmDeletionService = realmDeletionService;
+    }
+
     @Override
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
         logger.debug("process authentication for " + authentication.getName());
@@ -90,6 +97,14 @@ public class ClientAuthenticationManager implements AuthenticationManager, Initi
         String clientId = auth.getClientId();
         try {
             ClientDetails clientDetails = clientService.loadClient(clientId);
+
+            // realms being deleted are disabled
+            if (
+                realmDeletionService != null && realmDeletionService.isActiveDeletion(clientDetails.getRealm())
+            ) {
+                throw new DisabledException("realm is disabled");
+            }
+
             auth.setClient(clientDetails);
 
             return auth;
@@ -42,6 +42,7 @@ import it.smartcommunitylab.aac.identity.model.UserIdentity;
 import it.smartcommunitylab.aac.identity.provider.IdentityProvider;
 import it.smartcommunitylab.aac.identity.service.IdentityProviderAuthorityService;
 import it.smartcommunitylab.aac.model.Subject;
+import it.smartcommunitylab.aac.realms.service.RealmDeletionService;
 import it.smartcommunitylab.aac.users.persistence.UserEntity;
 import it.smartcommunitylab.aac.users.service.UserEntityService;
 import java.util.ArrayList;
@@ -97,6 +98,7 @@ public class ExtendedUserAuthenticationManager implements AuthenticationManager
     private final SubjectService subjectService;
 
     private AuthenticationEventPublisher eventPublisher;
+    private RealmDeletionService realmDeletionService;
 
     public ExtendedUserAuthenticationManager(
         //            AuthorityManager authorityManager,
@@ -125,6 +127,10 @@ public class ExtendedUserAuthenticationManager implements AuthenticationManager
         this.eventPublisher = eventPublisher;
     }
 
+    public void setRealmDeletionService(RealmDeletionService realmDeletionService) {
+        this.realmDeletionService = realmDeletionService;
+    }
+
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
         try {
             logger.debug("process authentication for " + authentication.getName());
@@ -347,6 +353,12 @@ public class ExtendedUserAuthenticationManager implements AuthenticationManager
 
         logger.trace("auth principal is " + principal.toString());
 
+        // realms being deleted are disabled, no login or registration allowed
+        if (realmDeletionService != null && realmDeletionService.isActiveDeletion(realm)) {
+            logger.error("realm " + String.valueOf(realm) + " is being deleted");
+            throw new DisabledException("realm is disabled");
+        }
+
         // authentication provider should yield a proper local id (addressable)
         String principalId = principal.getPrincipalId();
         logger.debug("authenticated principalId is " + principalId);
@@ -16,9 +16,7 @@
 
 package it.smartcommunitylab.aac.core;
 
-import it.smartcommunitylab.aac.SystemKeys;
-import it.smartcommunitylab.aac.model.Subject;
-import java.util.ArrayList;
+import it.smartcommunitylab.aac.core.session.JdbcSessionRegistry;
 import java.util.List;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.session.SessionInformation;
@@ -31,7 +29,7 @@ public class SessionManager {
     @Autowired
     private AuthenticationHelper authHelper;
 
-    // TODO track active sessions via SessionRegistry
+    // active sessions are tracked via the shared session store when available
     @Autowired
     private SessionRegistry sessionRegistry;
 
@@ -41,20 +39,20 @@ public class SessionManager {
     public void listUserSessions() {}
 
     public List<SessionInformation> listUserSessions(String userId, String realm, String name) {
-        // build a principal and search
-        Subject principal = new Subject(userId, realm, name, SystemKeys.RESOURCE_USER);
-        //        return sessionRegistry.getAllSessions(principal, false);
-        List<Object> principals = sessionRegistry.getAllPrincipals();
-        List<SessionInformation> result = new ArrayList<>();
-        for (Object p : principals) {
-            result.addAll(sessionRegistry.getAllSessions(p, false));
-        }
-        return result;
+        // sessions are indexed by principal name, which for users is the subjectId
+        return sessionRegistry.getAllSessions(userId, false);
     }
 
     public void destroyUserSessions(String userId) {
         // destroy sessions for users
         // we revoke session but not tokens, those should be handled eslewhere
+        if (sessionRegistry instanceof JdbcSessionRegistry) {
+            // bulk remove from shared store
+            ((JdbcSessionRegistry) sessionRegistry).expireAllSessions(userId);
+            return;
+        }
+
+        sessionRegistry.getAllSessions(userId, false).forEach(s -> s.expireNow());
     }
 
     /*
@@ -17,16 +17,25 @@
 package it.smartcommunitylab.aac.core.persistence;
 
 import it.smartcommunitylab.aac.repository.CustomJpaRepository;
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface SubjectAuthorityEntityRepository extends CustomJpaRepository<SubjectAuthorityEntity, Long> {
     List<SubjectAuthorityEntity> findBySubject(String subject);
 
+    List<SubjectAuthorityEntity> findBySubjectIn(Collection<String> subjects);
+
     List<SubjectAuthorityEntity> findBySubjectAndRealm(String subject, String realm);
 
     List<SubjectAuthorityEntity> findByRealm(String realm);
 
     List<SubjectAuthorityEntity> findByRealmAndRole(String realm, String role);
+
+    @Modifying
+    @Query("delete from SubjectAuthorityEntity a where a.subject in ?1")
+    int deleteBySubjects(Collection<String> subjects);
 }
@@ -18,7 +18,9 @@ package it.smartcommunitylab.aac.core.persistence;
 
 import it.smartcommunitylab.aac.SystemKeys;
 import it.smartcommunitylab.aac.repository.CustomJpaRepository;
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
@@ -46,4 +48,8 @@ public interface SubjectEntityRepository extends CustomJpaRepository<SubjectEnti
         String realmn,
         String name
     );
+
+    @Modifying
+    @Query("delete from SubjectEntity s where s.subjectId in ?1")
+    int deleteBySubjectIds(Collection<String> subjectIds);
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.core.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import it.smartcommunitylab.aac.base.provider.config.AbstractProviderConfig;
+import it.smartcommunitylab.aac.core.provider.ObservableProviderConfigRepository;
+import it.smartcommunitylab.aac.core.provider.ProviderConfigChangeListener;
+import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/*
+ * Caching decorator for provider config repositories
+ *
+ * Configs are cached by id and by realm, and evicted on every change performed
+ * via this repository. Registered listeners are notified of changes. Changes
+ * performed by other nodes on a shared store are visible after ttl.
+ *
+ * Cached configs are shared by all callers, as with the in memory repository:
+ * callers must not mutate them, changes go through addRegistration.
+ */
+public class CachingProviderConfigRepository<U extends AbstractProviderConfig<?, ?>>
+    implements ProviderConfigRepository<U>, ObservableProviderConfigRepository, MeterBinder {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public static final int DEFAULT_CACHE_TTL = 60;
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private final ProviderConfigRepository<U> repository;
+    private final String name;
+
+    private final Cache<String, U> configs;
+    private final Cache<String, Collection<U>> realms;
+
+    // changes counter, guards against caching stale loads
+    private final AtomicLong version = new AtomicLong();
+
+    private final List<ProviderConfigChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    public CachingProviderConfigRepository(ProviderConfigRepository<U> repository, String name) {
+        this(repository, name, DEFAULT_CACHE_TTL, DEFAULT_CACHE_SIZE);
+    }
+
+    public CachingProviderConfigRepository(ProviderConfigRepository<U> repository, String name, int ttl, int size) {
+        Assert.notNull(repository, "repository is required");
+        Assert.hasText(name, "name is required");
+        this.repository = repository;
+        this.name = name;
+
+        this.configs =
+            CacheBuilder.newBuilder().expireAfterWrite(ttl, TimeUnit.SECONDS).maximumSize(size).recordStats().build();
+        this.realms =
+            CacheBuilder.newBuilder().expireAfterWrite(ttl, TimeUnit.SECONDS).maximumSize(size).recordStats().build();
+    }
+
+    /*
+     * Wrap the given repository in a cache, unless caching is disabled with a
+     * non positive ttl. Non positive sizes fall back to the default.
+     */
+    public static <U extends AbstractProviderConfig<?, ?>> ProviderConfigRepository<U> wrap(
+        ProviderConfigRepository<U> repository,
+        String name,
+        int ttl,
+        int size
+    ) {
+        if (ttl <= 0) {
+            return repository;
+        }
+
+        return new CachingProviderConfigRepository<U>(repository, name, ttl, size > 0 ? size : DEFAULT_CACHE_SIZE);
+    }
+
+    @Override
+    public void addChangeListener(ProviderConfigChangeListener listener) {
+        Assert.notNull(listener, "listener can not be null");
+        listeners.add(listener);
+    }
+
+    @Override
+    public U findByProviderId(String providerId) {
+        U config = configs.getIfPresent(providerId);
+        if (config != null) {
+            return config;
+        }
+
+        long v = version.get();
+        config = repository.findByProviderId(providerId);
+        if (config != null && v == version.get()) {
+            configs.put(providerId, config);
+        }
+
+        return config;
+    }
+
+    @Override
+    public Collection<U> findAll() {
+        return repository.findAll();
+    }
+
+    @Override
+    public Collection<U> findByRealm(String realm) {
+        Collection<U> list = realms.getIfPresent(realm);
+        if (list != null) {
+            return list;
+        }
+
+        long v = version.get();
+        list = Collections.unmodifiableCollection(repository.findByRealm(realm));
+        if (v == version.get()) {
+            realms.put(realm, list);
+            list.forEach(c -> configs.put(c.getProvider(), c));
+        }
+
+        return list;
+    }
+
+    @Override
+    public void addRegistration(U registration) {
+        repository.addRegistration(registration);
+        if (registration != null) {
+            evict(registration.getProvider());
+        }
+    }
+
+    @Override
+    public void removeRegistration(String providerId) {
+        repository.removeRegistration(providerId);
+        evict(providerId);
+    }
+
+    @Override
+    public void removeRegistration(U registration) {
+        repository.removeRegistration(registration);
+        if (registration != null) {
+            evict(registration.getProvider());
+        }
+    }
+
+    public void evictAll() {
+        version.incrementAndGet();
+        configs.invalidateAll();
+        realms.invalidateAll();
+    }
+
+    private void evict(String providerId) {
+        if (!StringUtils.hasText(providerId)) {
+            return;
+        }
+
+        logger.debug("evict config {} from {} cache", providerId, name);
+        version.incrementAndGet();
+        configs.invalidate(providerId);
+        // realm is not known for removals, clear all lists
+        realms.invalidateAll();
+
+        for (ProviderConfigChangeListener listener : listeners) {
+            try {
+                listener.onConfigChange(providerId);
+            } catch (RuntimeException e) {
+                logger.error("error notifying change for config {}: {}", providerId, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, configs, "providers.configs", "repository", name);
+        GuavaCacheMetrics.monitor(registry, realms, "providers.configs.realms", "repository", name);
+    }
+}
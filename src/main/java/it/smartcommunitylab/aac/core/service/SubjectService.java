@@ -29,8 +29,10 @@ import it.smartcommunitylab.aac.model.Subject;
 import it.smartcommunitylab.aac.roles.persistence.RealmRoleEntity;
 import it.smartcommunitylab.aac.services.persistence.ServiceEntity;
 import it.smartcommunitylab.aac.users.persistence.UserEntity;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -174,6 +176,18 @@ public class SubjectService {
         }
     }
 
+    /*
+     * Bulk delete subjects along with their authorities
+     */
+    public void deleteSubjects(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        authorityRepository.deleteBySubjects(ids);
+        subjectRepository.deleteBySubjectIds(ids);
+    }
+
     @Transactional(readOnly = true)
     public List<Subject> listSubjects(String realm) {
         return subjectRepository.findByRealm(realm).stream().map(s -> toSubject(s)).collect(Collectors.toList());
@@ -237,6 +251,29 @@ public class SubjectService {
             .collect(Collectors.toList());
     }
 
+    /*
+     * Resolve authorities for many subjects with a single query
+     */
+    @Transactional(readOnly = true)
+    public Map<String, List<GrantedAuthority>> getSubjectsAuthorities(Collection<String> subjectIds) {
+        Map<String, List<GrantedAuthority>> result = new HashMap<>();
+        if (subjectIds == null || subjectIds.isEmpty()) {
+            return result;
+        }
+
+        subjectIds.forEach(s -> result.put(s, new ArrayList<>()));
+        authorityRepository
+            .findBySubjectIn(subjectIds)
+            .forEach(a -> {
+                List<GrantedAuthority> authorities = result.get(a.getSubject());
+                if (authorities != null) {
+                    authorities.add(toAuthority(a));
+                }
+            });
+
+        return result;
+    }
+
     @Transactional(readOnly = true)
     public List<GrantedAuthority> getAuthorities(String subjectId, String realm) {
         return authorityRepository
@@ -17,6 +17,8 @@
 package it.smartcommunitylab.aac.core.service;
 
 import it.smartcommunitylab.aac.base.provider.config.AbstractProviderConfig;
+import it.smartcommunitylab.aac.core.provider.ObservableProviderConfigRepository;
+import it.smartcommunitylab.aac.core.provider.ProviderConfigChangeListener;
 import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
 import java.util.Collection;
 import java.util.stream.Collectors;
@@ -26,7 +28,7 @@ import org.springframework.util.Assert;
 public class TranslatorProviderConfigRepository<
     U extends AbstractProviderConfig<?, ?>, C extends AbstractProviderConfig<?, ?>
 >
-    implements ProviderConfigRepository<C> {
+    implements ProviderConfigRepository<C>, ObservableProviderConfigRepository {
 
     private final ProviderConfigRepository<U> externalRepository;
 
@@ -47,6 +49,14 @@ public class TranslatorProviderConfigRepository<
         return converter;
     }
 
+    @Override
+    public void addChangeListener(ProviderConfigChangeListener listener) {
+        // changes happen on the source repository
+        if (externalRepository instanceof ObservableProviderConfigRepository) {
+            ((ObservableProviderConfigRepository) externalRepository).addChangeListener(listener);
+        }
+    }
+
     @Override
     public C findByProviderId(String providerId) {
         Assert.hasText(providerId, "providerId cannot be empty");
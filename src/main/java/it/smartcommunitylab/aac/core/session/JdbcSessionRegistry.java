@@ -0,0 +1,271 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.core.session;
+
+import it.smartcommunitylab.aac.SystemKeys;
+import java.security.Principal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.core.AuthenticatedPrincipal;
+import org.springframework.security.core.session.SessionInformation;
+import org.springframework.security.core.session.SessionRegistry;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.PrincipalNameIndexResolver;
+import org.springframework.session.Session;
+import org.springframework.util.Assert;
+
+/*
+ * Session registry backed by the shared jdbc session store
+ *
+ * Sessions are looked up via the principal name index maintained by the
+ * store, so every node sees the same sessions and nothing is kept in memory.
+ * Expired sessions are removed in background by small batches, to avoid long
+ * running deletes on large tables.
+ */
+public class JdbcSessionRegistry implements SessionRegistry, DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public static final String DEFAULT_TABLE_NAME = "SPRING_SESSION";
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final String SELECT_PRINCIPALS_SQL =
+        "SELECT DISTINCT PRINCIPAL_NAME FROM %TABLE_NAME% WHERE PRINCIPAL_NAME IS NOT NULL AND EXPIRY_TIME > ?";
+    private static final String DELETE_BY_PRINCIPAL_SQL = "DELETE FROM %TABLE_NAME% WHERE PRINCIPAL_NAME = ?";
+    private static final String SELECT_EXPIRED_SQL = "SELECT PRIMARY_ID FROM %TABLE_NAME% WHERE EXPIRY_TIME < ?";
+    private static final String DELETE_BY_ID_SQL = "DELETE FROM %TABLE_NAME% WHERE PRIMARY_ID = ?";
+
+    private final FindByIndexNameSessionRepository<? extends Session> sessionRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    // limited reads for batched cleanup
+    private final JdbcTemplate batchTemplate;
+    private final PrincipalNameIndexResolver<Session> principalResolver = new PrincipalNameIndexResolver<>();
+
+    private String tableName = DEFAULT_TABLE_NAME;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private ScheduledExecutorService cleanupExecutor;
+
+    public JdbcSessionRegistry(
+        FindByIndexNameSessionRepository<? extends Session> sessionRepository,
+        DataSource dataSource
+    ) {
+        Assert.notNull(sessionRepository, "session repository is required");
+        Assert.notNull(dataSource, "datasource is required");
+        this.sessionRepository = sessionRepository;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.batchTemplate = new JdbcTemplate(dataSource);
+        this.batchTemplate.setMaxRows(DEFAULT_BATCH_SIZE);
+    }
+
+    public void setTableName(String tableName) {
+        Assert.hasText(tableName, "table name can not be empty");
+        this.tableName = tableName.trim();
+    }
+
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batch size must be a positive value");
+        this.batchSize = batchSize;
+        this.batchTemplate.setMaxRows(batchSize);
+    }
+
+    public void setCleanupInterval(int interval) {
+        if (cleanupExecutor != null) {
+            cleanupExecutor.shutdownNow();
+            cleanupExecutor = null;
+        }
+
+        if (interval > 0) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sessions-cleanup-");
+            threadFactory.setDaemon(true);
+            cleanupExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            cleanupExecutor.scheduleWithFixedDelay(
+                () -> {
+                    try {
+                        purgeExpired();
+                    } catch (RuntimeException e) {
+                        logger.error("error removing expired sessions", e);
+                    }
+                },
+                interval,
+                interval,
+                TimeUnit.SECONDS
+            );
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (cleanupExecutor != null) {
+            cleanupExecutor.shutdownNow();
+        }
+    }
+
+    /*
+     * Registry
+     */
+
+    @Override
+    public List<Object> getAllPrincipals() {
+        return new ArrayList<>(
+            jdbcTemplate.queryForList(sql(SELECT_PRINCIPALS_SQL), String.class, Instant.now().toEpochMilli())
+        );
+    }
+
+    @Override
+    public List<SessionInformation> getAllSessions(Object principal, boolean includeExpiredSessions) {
+        String name = name(principal);
+        if (name == null) {
+            return Collections.emptyList();
+        }
+
+        Map<String, ? extends Session> sessions = sessionRepository.findByPrincipalName(name);
+        List<SessionInformation> result = new ArrayList<>(sessions.size());
+        for (Session session : sessions.values()) {
+            if (includeExpiredSessions || !session.isExpired()) {
+                result.add(new StoreSessionInformation(principal, session, sessionRepository));
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public SessionInformation getSessionInformation(String sessionId) {
+        Session session = sessionRepository.findById(sessionId);
+        if (session == null) {
+            return null;
+        }
+
+        return new StoreSessionInformation(principalResolver.resolveIndexValueFor(session), session, sessionRepository);
+    }
+
+    // store tracks access and lifecycle by itself
+    @Override
+    public void refreshLastRequest(String sessionId) {}
+
+    @Override
+    public void registerNewSession(String sessionId, Object principal) {}
+
+    @Override
+    public void removeSessionInformation(String sessionId) {}
+
+    /*
+     * Bulk operations
+     */
+
+    // remove all sessions for the given principal, from every node
+    public int expireAllSessions(String principalName) {
+        Assert.hasText(principalName, "principal name can not be empty");
+        int count = jdbcTemplate.update(sql(DELETE_BY_PRINCIPAL_SQL), principalName);
+        logger.debug("expired {} sessions for principal {}", count, principalName);
+
+        return count;
+    }
+
+    // remove expired sessions in batches, attributes are removed via cascade
+    public int purgeExpired() {
+        long now = Instant.now().toEpochMilli();
+        int total = 0;
+
+        List<String> ids;
+        do {
+            ids = batchTemplate.queryForList(sql(SELECT_EXPIRED_SQL), String.class, now);
+
+            if (!ids.isEmpty()) {
+                List<Object[]> args = new ArrayList<>(ids.size());
+                ids.forEach(id -> args.add(new Object[] { id }));
+                jdbcTemplate.batchUpdate(sql(DELETE_BY_ID_SQL), args);
+                total += ids.size();
+            }
+        } while (ids.size() == batchSize);
+
+        if (total > 0) {
+            logger.debug("removed {} expired sessions", total);
+        }
+
+        return total;
+    }
+
+    private String sql(String template) {
+        return template.replace("%TABLE_NAME%", tableName);
+    }
+
+    private String name(Object principal) {
+        if (principal instanceof String) {
+            return (String) principal;
+        }
+        if (principal instanceof UserDetails) {
+            return ((UserDetails) principal).getUsername();
+        }
+        if (principal instanceof AuthenticatedPrincipal) {
+            return ((AuthenticatedPrincipal) principal).getName();
+        }
+        if (principal instanceof Principal) {
+            return ((Principal) principal).getName();
+        }
+
+        return principal != null ? principal.toString() : null;
+    }
+
+    private static class StoreSessionInformation extends SessionInformation {
+
+        private static final long serialVersionUID = SystemKeys.AAC_CORE_SERIAL_VERSION;
+
+        private final transient FindByIndexNameSessionRepository<? extends Session> sessionRepository;
+
+        StoreSessionInformation(
+            Object principal,
+            Session session,
+            FindByIndexNameSessionRepository<? extends Session> sessionRepository
+        ) {
+            super(
+                principal != null ? principal : "",
+                session.getId(),
+                Date.from(session.getLastAccessedTime())
+            );
+            this.sessionRepository = sessionRepository;
+            if (session.isExpired()) {
+                super.expireNow();
+            }
+        }
+
+        @Override
+        public void expireNow() {
+            // remove from the shared store to kill the session on every node
+            super.expireNow();
+            if (sessionRepository != null) {
+                sessionRepository.deleteById(getSessionId());
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.util.List;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -38,6 +39,16 @@ public interface GroupEntityRepository
 
     List<GroupEntity> findByRealmAndParentGroup(String realm, String parentGroup);
 
+    @Query(
+        "select distinct g from GroupEntity g, GroupMemberEntity gm where gm.realm = g.realm and gm.group = g.group and gm.subject = ?1"
+    )
+    List<GroupEntity> findBySubject(String subject);
+
+    @Query(
+        "select distinct g from GroupEntity g, GroupMemberEntity gm where gm.realm = g.realm and gm.group = g.group and gm.subject = ?1 and g.realm = ?2"
+    )
+    List<GroupEntity> findBySubjectAndRealm(String subject, String realm);
+
     Page<GroupEntity> findByRealmAndNameContainingIgnoreCaseOrRealmAndGroupContainingIgnoreCaseOrRealmAndIdContainingIgnoreCase(
         String realmn,
         String name,
@@ -17,11 +17,13 @@
 package it.smartcommunitylab.aac.groups.persistence;
 
 import it.smartcommunitylab.aac.repository.CustomJpaRepository;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
@@ -45,6 +47,12 @@ public interface GroupMemberEntityRepository
     List<GroupMemberEntity> findBySubject(String subject);
 
     List<GroupMemberEntity> findBySubjectAndRealm(String subject, String realm);
+
+    List<GroupMemberEntity> findByRealmAndSubjectIn(String realm, Collection<String> subjects);
+
+    @Modifying
+    @Query("delete from GroupMemberEntity gm where gm.subject in ?1")
+    int deleteBySubjects(Collection<String> subjects);
     //    @Query("select g from GroupMemberEntity gm inner join GroupEntity g on gm.group = g.uuid where gm.subject = ?1")
     //    List<GroupEntity> findGroupsBySubject(String subject);
 
@@ -16,6 +16,9 @@
 
 package it.smartcommunitylab.aac.groups.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import it.smartcommunitylab.aac.SystemKeys;
 import it.smartcommunitylab.aac.common.NoSuchGroupException;
 import it.smartcommunitylab.aac.core.service.SubjectService;
@@ -25,13 +28,20 @@ import it.smartcommunitylab.aac.groups.persistence.GroupMemberEntity;
 import it.smartcommunitylab.aac.groups.persistence.GroupMemberEntityRepository;
 import it.smartcommunitylab.aac.model.Group;
 import it.smartcommunitylab.aac.model.Subject;
-
+import it.smartcommunitylab.aac.utils.VersionedCache;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -48,12 +58,21 @@ import org.springframework.util.StringUtils;
  */
 @Service
 @Transactional
-public class GroupService {
+public class GroupService implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupService.class);
+
+    public static final int DEFAULT_CACHE_TTL = 60;
+    public static final int DEFAULT_CACHE_SIZE = 100;
 
     private final GroupEntityRepository groupRepository;
     private final GroupMemberEntityRepository groupMemberRepository;
     private final SubjectService subjectService;
 
+    // group definitions by realm, keyed by group, used to resolve memberships
+    // for many subjects without a lookup per membership
+    private VersionedCache<String, Map<String, Group>> definitions;
+
     public GroupService(
         GroupEntityRepository groupRepository,
         GroupMemberEntityRepository groupMemberRepository,
@@ -66,6 +85,19 @@ public class GroupService {
         this.groupRepository = groupRepository;
         this.groupMemberRepository = groupMemberRepository;
         this.subjectService = subjectService;
+
+        // build default cache
+        this.definitions = VersionedCache.build(DEFAULT_CACHE_TTL, DEFAULT_CACHE_SIZE);
+    }
+
+    @Autowired
+    public void setCacheConfig(@Value("${groups.cache.ttl}") int ttl, @Value("${groups.cache.size}") int maxSize) {
+        this.definitions = VersionedCache.build(ttl, maxSize);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, definitions.getCache(), "groups.definitions");
     }
 
     /*
@@ -120,6 +152,7 @@ public class GroupService {
         g.setDescription(description);
 
         g = groupRepository.save(g);
+        evictRealm(realm);
 
         return toGroup(g, 0L);
     }
@@ -159,12 +192,12 @@ public class GroupService {
 
     @Transactional(readOnly = true)
     public Group findGroup(String realm, String group) {
-        GroupEntity g = groupRepository.findByRealmAndGroup(realm, group);
+        Group g = getRealmGroups(realm).get(group);
         if (g == null) {
             return null;
         }
 
-        return toGroup(g, null);
+        return copyGroup(g);
     }
 
     @Transactional(readOnly = true)
@@ -336,6 +369,7 @@ public class GroupService {
         g.setDescription(description);
 
         g = groupRepository.save(g);
+        evictRealm(g.getRealm());
 
         long size = groupMemberRepository.countByRealmAndGroup(g.getRealm(), g.getGroup());
 
@@ -373,6 +407,7 @@ public class GroupService {
         g.setGroup(group);
 
         g = groupRepository.save(g);
+        evictRealm(g.getRealm());
 
         long size = groupMemberRepository.countByRealmAndGroup(g.getRealm(), g.getGroup());
 
@@ -386,6 +421,15 @@ public class GroupService {
         }
     }
 
+    /*
+     * Bulk remove subjects from every group they are member of
+     */
+    public void removeSubjectsFromGroups(Collection<String> subjects) {
+        if (!subjects.isEmpty()) {
+            groupMemberRepository.deleteBySubjects(subjects);
+        }
+    }
+
     public void deleteGroup(String uuid) {
         GroupEntity g = groupRepository.findOne(uuid);
         if (g == null) {
@@ -410,6 +454,7 @@ public class GroupService {
 
         // delete group
         groupRepository.delete(g);
+        evictRealm(g.getRealm());
 
         // remove subject if exists
         subjectService.deleteSubject(uuid);
@@ -532,26 +577,49 @@ public class GroupService {
 
     @Transactional(readOnly = true)
     public Collection<Group> getSubjectGroups(String subject) {
-        Set<GroupEntity> groups = groupMemberRepository
+        // single join query over memberships
+        return groupRepository
             .findBySubject(subject)
             .stream()
-            .map(gm -> groupRepository.findByRealmAndGroup(gm.getRealm(), gm.getGroup()))
-            .filter(g -> g != null)
-            .collect(Collectors.toSet());
-
-        return groups.stream().map(g -> toGroup(g, null)).collect(Collectors.toList());
+            .map(g -> toGroup(g, null))
+            .collect(Collectors.toList());
     }
 
     @Transactional(readOnly = true)
     public Collection<Group> getSubjectGroups(String subject, String realm) {
-        Set<GroupEntity> groups = groupMemberRepository
+        // single join query over memberships
+        return groupRepository
             .findBySubjectAndRealm(subject, realm)
             .stream()
-            .map(gm -> groupRepository.findByRealmAndGroup(gm.getRealm(), gm.getGroup()))
-            .filter(g -> g != null)
-            .collect(Collectors.toSet());
+            .map(g -> toGroup(g, null))
+            .collect(Collectors.toList());
+    }
 
-        return groups.stream().map(g -> toGroup(g, null)).collect(Collectors.toList());
+    /*
+     * Resolve groups for many subjects in the same realm with a single query on
+     * memberships, definitions are served from the realm cache
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Collection<Group>> getSubjectsGroups(Collection<String> subjects, String realm) {
+        Map<String, Collection<Group>> result = new HashMap<>();
+        if (subjects == null || subjects.isEmpty()) {
+            return result;
+        }
+
+        subjects.forEach(s -> result.put(s, new ArrayList<>()));
+
+        Map<String, Group> groups = getRealmGroups(realm);
+        groupMemberRepository
+            .findByRealmAndSubjectIn(realm, subjects)
+            .forEach(gm -> {
+                Group g = groups.get(gm.getGroup());
+                Collection<Group> sg = result.get(gm.getSubject());
+                if (g != null && sg != null) {
+                    sg.add(copyGroup(g));
+                }
+            });
+
+        return result;
     }
 
     public Collection<Group> setSubjectGroups(String subject, String realm, List<String> groups) {
@@ -631,6 +699,25 @@ public class GroupService {
         groupMemberRepository.deleteAll(memberships);
     }
 
+    /*
+     * Realm definitions cache
+     */
+    private Map<String, Group> getRealmGroups(String realm) {
+        return definitions.get(
+            realm,
+            r -> {
+                Map<String, Group> map = new LinkedHashMap<>();
+                groupRepository.findByRealm(r).forEach(g -> map.put(g.getGroup(), toGroup(g, null)));
+                return Collections.unmodifiableMap(map);
+            }
+        );
+    }
+
+    private void evictRealm(String realm) {
+        logger.debug("evict groups for realm {} from cache", String.valueOf(realm));
+        definitions.invalidate(realm);
+    }
+
     /*
      * Converters
      */
@@ -653,6 +740,24 @@ public class GroupService {
         return g;
     }
 
+    // cached definitions are shared, consumers get a copy they can modify
+    private Group copyGroup(Group cg) {
+        Group g = new Group();
+        g.setGroupId(cg.getGroupId());
+
+        g.setRealm(cg.getRealm());
+        g.setGroup(cg.getGroup());
+        g.setParentGroup(cg.getParentGroup());
+
+        g.setName(cg.getName());
+        g.setDescription(cg.getDescription());
+
+        g.setCreateDate(cg.getCreateDate());
+        g.setModifiedDate(cg.getModifiedDate());
+
+        return g;
+    }
+
     private Group toGroup(GroupEntity ge, long size, Collection<GroupMemberEntity> members) {
         Group g = toGroup(ge, size);
         List<String> mm = members.stream().map(GroupMemberEntity::getSubject).collect(Collectors.toList());
@@ -16,10 +16,8 @@
 
 package it.smartcommunitylab.aac.jwt;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.nimbusds.jose.JWEAlgorithm;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.jwk.JWK;
@@ -27,14 +25,21 @@ import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jose.jwk.KeyUse;
 import com.nimbusds.jose.jwk.OctetSequenceKey;
 import com.nimbusds.jose.util.Base64URL;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import it.smartcommunitylab.aac.jose.JWKSetKeyStore;
 import java.text.ParseException;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
 /**
@@ -42,30 +47,61 @@ import org.springframework.util.StringUtils;
  * Takes in a client and returns the appropriate validator or encrypter for that
  * client's registered key types.
  *
+ * Keys are parsed once per client and kept along with the services built from
+ * them, entries are bound to the key configuration they were built from and
+ * are rebuilt as soon as the client configuration changes.
+ *
  * @author jricher
  * @author mat
  *
  */
 
-public class ClientKeyCacheService {
+public class ClientKeyCacheService implements MeterBinder {
 
     private static final Logger logger = LoggerFactory.getLogger(ClientKeyCacheService.class);
 
-    private final JWKSetCacheService jwksUriCache = new JWKSetCacheService();
+    public static final int DEFAULT_CACHE_TTL = 3600;
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private final JWKSetCacheService jwksUriCache;
+
+    // cache of parsed keys and services, keyed by clientId
+    private Cache<String, ClientKeys> clientKeys;
+
+    public ClientKeyCacheService() {
+        this(new JWKSetCacheService());
+    }
+
+    public ClientKeyCacheService(JWKSetCacheService jwksUriCache) {
+        Assert.notNull(jwksUriCache, "jwks uri cache is required");
+        this.jwksUriCache = jwksUriCache;
+        this.clientKeys = buildCache(DEFAULT_CACHE_TTL, DEFAULT_CACHE_SIZE);
+    }
+
+    public void setCacheConfig(int ttl, int maxSize) {
+        Assert.isTrue(ttl >= 0, "cache ttl must be a non-negative value");
+        Assert.isTrue(maxSize >= 0, "cache size must be a non-negative value");
+        this.clientKeys = buildCache(ttl, maxSize);
+    }
+
+    private static Cache<String, ClientKeys> buildCache(int ttl, int maxSize) {
+        return CacheBuilder
+            .newBuilder()
+            .expireAfterWrite(ttl, TimeUnit.SECONDS)
+            .maximumSize(maxSize)
+            .recordStats()
+            .build();
+    }
 
-    // cache of validators for by-value JWKs
-    private final LoadingCache<JWKSet, JWTSigningAndValidationService> jwksValidators = CacheBuilder
-        .newBuilder()
-        .expireAfterWrite(1, TimeUnit.HOURS) // expires 1 hour after fetch
-        .maximumSize(100)
-        .build(new JWKSetVerifierBuilder());
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, clientKeys, "jwt.clients.keys");
+    }
 
-    // cache of encryptors for by-value JWKs
-    private final LoadingCache<JWKSet, JWTEncryptionAndDecryptionService> jwksEncrypters = CacheBuilder
-        .newBuilder()
-        .expireAfterWrite(1, TimeUnit.HOURS) // expires 1 hour after fetch
-        .maximumSize(100)
-        .build(new JWKSetEncryptorBuilder());
+    public void evictClient(String clientId) {
+        logger.debug("evict keys for client {} from cache", String.valueOf(clientId));
+        clientKeys.invalidate(clientId);
+    }
 
     /*
      * Get client specific signer
@@ -77,88 +113,102 @@ public class ClientKeyCacheService {
         String clientSecret,
         String jwks,
         String jwksUri
+    ) {
+        return getSigner(algorithm, clientId, clientSecret, jwks, jwksUri, null);
+    }
+
+    /*
+     * Get client specific signer able to validate the given key, as read from the
+     * JWS header. Remote sets missing the key are fetched again to follow rotations
+     */
+    public JWTSigningAndValidationService getSigner(
+        String algorithm,
+        String clientId,
+        String clientSecret,
+        String jwks,
+        String jwksUri,
+        String kid
     ) {
         try {
             JWSAlgorithm alg = JWSAlgorithm.parse(algorithm);
+            ClientKeys keys = getClientKeys(clientId, clientSecret, jwks, jwksUri, kid);
 
-            // fetch client keys if available
-            //            String jwks = getJwks(client);
-            //            String jwksUri = getJwksUri(client);
-            JWKSet set = null;
-
-            // check per algo
-            if (
-                alg.equals(JWSAlgorithm.RS256) ||
-                alg.equals(JWSAlgorithm.RS384) ||
-                alg.equals(JWSAlgorithm.RS512) ||
-                alg.equals(JWSAlgorithm.ES256) ||
-                alg.equals(JWSAlgorithm.ES384) ||
-                alg.equals(JWSAlgorithm.ES512) ||
-                alg.equals(JWSAlgorithm.PS256) ||
-                alg.equals(JWSAlgorithm.PS384) ||
-                alg.equals(JWSAlgorithm.PS512)
-            ) {
-                // asymmetric key from configuration or uri
-                if (StringUtils.hasText(jwks)) {
-                    set = parseJwks(jwks);
-                }
-                if (set == null && StringUtils.hasText(jwksUri)) {
-                    // try URI
-                    set = jwksUriCache.getJWKSet(jwksUri);
-                }
-            } else if (
-                alg.equals(JWSAlgorithm.HS256) || alg.equals(JWSAlgorithm.HS384) || alg.equals(JWSAlgorithm.HS512)
-            ) {
-                // symmetric key
-                // from configuration or uri or secret
-                if (StringUtils.hasText(jwks)) {
-                    set = parseJwks(jwks);
-                }
-                if (set == null && StringUtils.hasText(jwksUri)) {
-                    // try URI
-                    set = jwksUriCache.getJWKSet(jwksUri);
-                }
-                // we can build a key from secret
-                // key length enables us to support only HS256
-                if (set == null && alg.equals(JWSAlgorithm.HS256)) {
-                    // build keySet from secret
-                    JWK jwk = new OctetSequenceKey.Builder(Base64URL.encode(clientSecret))
-                        .keyUse(KeyUse.SIGNATURE)
-                        .keyID(clientId)
-                        .algorithm(alg)
-                        .build();
-
-                    set = new JWKSet(jwk);
-                }
-            } else {
-                // unsupported algo, reset
-                set = null;
-            }
+            // services are built once per algorithm, misses are kept as well
+            return keys.signers
+                .computeIfAbsent(alg, a -> Optional.ofNullable(buildSigner(a, clientId, keys)))
+                .orElse(null);
+        } catch (IllegalArgumentException e) {
+            logger.error("Problem loading client validator", e);
+            return null;
+        }
+    }
 
-            if (set == null) {
-                logger.error("no jwkset found for client");
-                return null;
+    private JWTSigningAndValidationService buildSigner(JWSAlgorithm alg, String clientId, ClientKeys keys) {
+        JWKSet set = null;
+
+        // check per algo
+        if (
+            alg.equals(JWSAlgorithm.RS256) ||
+            alg.equals(JWSAlgorithm.RS384) ||
+            alg.equals(JWSAlgorithm.RS512) ||
+            alg.equals(JWSAlgorithm.ES256) ||
+            alg.equals(JWSAlgorithm.ES384) ||
+            alg.equals(JWSAlgorithm.ES512) ||
+            alg.equals(JWSAlgorithm.PS256) ||
+            alg.equals(JWSAlgorithm.PS384) ||
+            alg.equals(JWSAlgorithm.PS512)
+        ) {
+            // asymmetric key from configuration or uri
+            set = keys.getJwkSet();
+        } else if (
+            alg.equals(JWSAlgorithm.HS256) || alg.equals(JWSAlgorithm.HS384) || alg.equals(JWSAlgorithm.HS512)
+        ) {
+            // symmetric key
+            // from configuration or uri or secret
+            set = keys.getJwkSet();
+
+            // we can build a key from secret
+            // key length enables us to support only HS256
+            if (set == null && alg.equals(JWSAlgorithm.HS256) && keys.clientSecret != null) {
+                // build keySet from secret
+                JWK jwk = new OctetSequenceKey.Builder(Base64URL.encode(keys.clientSecret))
+                    .keyUse(KeyUse.SIGNATURE)
+                    .keyID(clientId)
+                    .algorithm(alg)
+                    .build();
+
+                set = new JWKSet(jwk);
             }
+        } else {
+            // unsupported algo, reset
+            set = null;
+        }
 
-            // check that JWKS contains a key for selected algo
-            logger.trace("jwks for " + alg.getName() + ": " + set.getKeys().toString());
-
-            List<JWK> algJwks = set
-                .getKeys()
-                .stream()
-                .filter(k -> (k.getKeyUse() == null || k.getKeyUse().equals(KeyUse.SIGNATURE)))
-                .filter(k -> (k.getAlgorithm() != null && k.getAlgorithm().equals(alg)))
-                .collect(Collectors.toList());
-            if (algJwks.isEmpty()) {
-                logger.error("No key for the selected algorithm " + alg.getName());
-                return null;
-            }
+        if (set == null) {
+            logger.error("no jwkset found for client");
+            return null;
+        }
 
-            logger.trace("jwks selected for " + alg.getName() + ": " + algJwks.toString());
+        // check that JWKS contains a key for selected algo
+        logger.trace("jwks for " + alg.getName() + ": " + set.getKeys().toString());
+
+        List<JWK> algJwks = set
+            .getKeys()
+            .stream()
+            .filter(k -> (k.getKeyUse() == null || k.getKeyUse().equals(KeyUse.SIGNATURE)))
+            .filter(k -> (k.getAlgorithm() != null && k.getAlgorithm().equals(alg)))
+            .collect(Collectors.toList());
+        if (algJwks.isEmpty()) {
+            logger.error("No key for the selected algorithm " + alg.getName());
+            return null;
+        }
 
-            // fetch from cache via loader, passing only matching keys
-            return jwksValidators.get(new JWKSet(algJwks));
-        } catch (UncheckedExecutionException | ExecutionException | IllegalArgumentException e) {
+        logger.trace("jwks selected for " + alg.getName() + ": " + algJwks.toString());
+
+        try {
+            // build with only matching keys
+            return new DefaultJWTSigningAndValidationService(new JWKSetKeyStore(new JWKSet(algJwks)));
+        } catch (Exception e) {
             logger.error("Problem loading client validator", e);
             return null;
         }
@@ -177,47 +227,75 @@ public class ClientKeyCacheService {
     ) {
         try {
             JWEAlgorithm alg = JWEAlgorithm.parse(algorithm);
+            ClientKeys keys = getClientKeys(clientId, clientSecret, jwks, jwksUri, null);
 
-            // fetch client keys if available
-            //            String jwks = getJwks(client);
-            //            String jwksUri = getJwksUri(client);
-            JWKSet set = null;
+            return keys.encrypters
+                .computeIfAbsent(alg, a -> Optional.ofNullable(buildEncrypter(a, keys)))
+                .orElse(null);
+        } catch (IllegalArgumentException e) {
+            logger.error("Problem loading client encrypter", e);
+            return null;
+        }
+    }
 
-            // asymmetric key from configuration or uri
-            if (StringUtils.hasText(jwks)) {
-                set = parseJwks(jwks);
-            }
-            if (set == null && StringUtils.hasText(jwksUri)) {
-                // try URI
-                set = jwksUriCache.getJWKSet(jwksUri);
-            }
+    private JWTEncryptionAndDecryptionService buildEncrypter(JWEAlgorithm alg, ClientKeys keys) {
+        // asymmetric key from configuration or uri
+        JWKSet set = keys.getJwkSet();
 
-            // TODO add clientSecret as key for AES128+HS256
+        // TODO add clientSecret as key for AES128+HS256
 
-            if (set == null) {
-                logger.error("no jwkset found for client");
-                return null;
-            }
+        if (set == null) {
+            logger.error("no jwkset found for client");
+            return null;
+        }
 
-            // check that JWKS contains a key for selected algo
-            logger.trace("jwks for " + alg.getName() + ": " + set.getKeys().toString());
+        // check that JWKS contains a key for selected algo
+        logger.trace("jwks for " + alg.getName() + ": " + set.getKeys().toString());
 
-            // TODO rewrite, alg name doesn't directly match key algo
-            //            List<JWK> algJwks = set.getKeys().stream().filter(k -> k.getAlgorithm().equals(alg))
-            //                    .collect(Collectors.toList());
-            //            if (algJwks.isEmpty()) {
-            //                logger.error("No key for the selected algorithm " + alg.getName());
-            //                return null;
-            //            }
-            //            logger.trace("jwks selected for " + alg.getName() + ": " + algJwks.toString());
+        // TODO rewrite, alg name doesn't directly match key algo
+        //            List<JWK> algJwks = set.getKeys().stream().filter(k -> k.getAlgorithm().equals(alg))
+        //                    .collect(Collectors.toList());
+        //            if (algJwks.isEmpty()) {
+        //                logger.error("No key for the selected algorithm " + alg.getName());
+        //                return null;
+        //            }
+        //            logger.trace("jwks selected for " + alg.getName() + ": " + algJwks.toString());
 
-            return jwksEncrypters.get(set);
-        } catch (UncheckedExecutionException | ExecutionException e) {
+        try {
+            return new DefaultJWTEncryptionAndDecryptionService(new JWKSetKeyStore(set));
+        } catch (Exception e) {
             logger.error("Problem loading client encrypter", e);
             return null;
         }
     }
 
+    /*
+     * Client keys, resolved from cache
+     */
+    private ClientKeys getClientKeys(String clientId, String clientSecret, String jwks, String jwksUri, String kid) {
+        ClientKeys cached = clientKeys.getIfPresent(clientId);
+        ClientKeys keys = cached;
+        if (keys == null || !keys.matches(clientSecret, jwks, jwksUri)) {
+            // config changed or not cached, parse once
+            JWKSet set = StringUtils.hasText(jwks) ? parseJwks(jwks) : null;
+            keys = new ClientKeys(clientSecret, jwks, jwksUri, set, null);
+        }
+
+        if (keys.jwkSet == null && StringUtils.hasText(jwksUri)) {
+            // remote keys are resolved via uri cache, rebuild when the set changes
+            JWKSet uriSet = jwksUriCache.getJWKSet(jwksUri, kid);
+            if (uriSet != keys.uriSet) {
+                keys = new ClientKeys(clientSecret, jwks, jwksUri, null, uriSet);
+            }
+        }
+
+        if (keys != cached) {
+            clientKeys.put(clientId, keys);
+        }
+
+        return keys;
+    }
+
     private JWKSet parseJwks(String data) {
         if (data != null) {
             try {
@@ -233,23 +311,39 @@ public class ClientKeyCacheService {
         }
     }
 
-    /*
-     * Cache loaders with single key used as default
-     */
+    private static class ClientKeys {
 
-    private class JWKSetEncryptorBuilder extends CacheLoader<JWKSet, JWTEncryptionAndDecryptionService> {
+        // key configuration this entry was built from
+        private final String clientSecret;
+        private final String jwks;
+        private final String jwksUri;
 
-        @Override
-        public JWTEncryptionAndDecryptionService load(JWKSet key) throws Exception {
-            return new DefaultJWTEncryptionAndDecryptionService(new JWKSetKeyStore(key));
+        // parsed keys from configuration or uri
+        private final JWKSet jwkSet;
+        private final JWKSet uriSet;
+
+        private final Map<JWSAlgorithm, Optional<JWTSigningAndValidationService>> signers = new ConcurrentHashMap<>();
+        private final Map<JWEAlgorithm, Optional<JWTEncryptionAndDecryptionService>> encrypters =
+            new ConcurrentHashMap<>();
+
+        ClientKeys(String clientSecret, String jwks, String jwksUri, JWKSet jwkSet, JWKSet uriSet) {
+            this.clientSecret = clientSecret;
+            this.jwks = jwks;
+            this.jwksUri = jwksUri;
+            this.jwkSet = jwkSet;
+            this.uriSet = uriSet;
         }
-    }
 
-    private class JWKSetVerifierBuilder extends CacheLoader<JWKSet, JWTSigningAndValidationService> {
+        JWKSet getJwkSet() {
+            return jwkSet != null ? jwkSet : uriSet;
+        }
 
-        @Override
-        public JWTSigningAndValidationService load(JWKSet key) throws Exception {
-            return new DefaultJWTSigningAndValidationService(new JWKSetKeyStore(key));
+        boolean matches(String clientSecret, String jwks, String jwksUri) {
+            return (
+                Objects.equals(this.jwks, jwks) &&
+                Objects.equals(this.jwksUri, jwksUri) &&
+                Objects.equals(this.clientSecret, clientSecret)
+            );
         }
     }
 }
@@ -18,6 +18,7 @@ package it.smartcommunitylab.aac.jwt;
 
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jose.JWSSigner;
 import com.nimbusds.jose.JWSVerifier;
 import com.nimbusds.jose.crypto.ECDSASigner;
@@ -35,9 +36,12 @@ import com.nimbusds.jwt.SignedJWT;
 import it.smartcommunitylab.aac.jose.JWKSetKeyStore;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -55,6 +59,12 @@ public class DefaultJWTSigningAndValidationService implements JWTSigningAndValid
     // map of identifier to verifier
     private Map<String, JWSVerifier> verifiers = new HashMap<>();
 
+    // index of algorithm to first signer supporting it
+    private Map<JWSAlgorithm, JWSSigner> algSigners = new HashMap<>();
+
+    // index of algorithm to verifiers supporting it
+    private Map<JWSAlgorithm, List<JWSVerifier>> algVerifiers = new HashMap<>();
+
     private String defaultSignerKeyId;
 
     private JWSAlgorithm defaultAlgorithm;
@@ -202,6 +212,19 @@ public class DefaultJWTSigningAndValidationService implements JWTSigningAndValid
             }
         }
 
+        // index by algorithm, keeping the same order of a full scan
+        for (JWSSigner signer : signers.values()) {
+            for (JWSAlgorithm alg : signer.supportedJWSAlgorithms()) {
+                algSigners.putIfAbsent(alg, signer);
+            }
+        }
+
+        for (JWSVerifier verifier : verifiers.values()) {
+            for (JWSAlgorithm alg : verifier.supportedJWSAlgorithms()) {
+                algVerifiers.computeIfAbsent(alg, k -> new ArrayList<>()).add(verifier);
+            }
+        }
+
         if (defaultSignerKeyId == null && keys.size() == 1) {
             // if there's only one key, it's the default
             Map.Entry<String, JWK> jwk = keys.entrySet().iterator().next();
@@ -231,14 +254,7 @@ public class DefaultJWTSigningAndValidationService implements JWTSigningAndValid
 
     @Override
     public void signJwt(SignedJWT jwt, JWSAlgorithm alg) {
-        JWSSigner signer = null;
-
-        for (JWSSigner s : signers.values()) {
-            if (s.supportedJWSAlgorithms().contains(alg)) {
-                signer = s;
-                break;
-            }
-        }
+        JWSSigner signer = algSigners.get(alg);
 
         if (signer == null) {
             // If we can't find an algorithm that matches, we can't sign
@@ -254,18 +270,40 @@ public class DefaultJWTSigningAndValidationService implements JWTSigningAndValid
 
     @Override
     public boolean validateSignature(SignedJWT jwt) {
-        for (JWSVerifier verifier : verifiers.values()) {
-            try {
-                if (jwt.verify(verifier)) {
+        JWSHeader header = jwt.getHeader();
+        JWSAlgorithm alg = header.getAlgorithm();
+
+        // select the verifier by key id when available
+        JWSVerifier selected = null;
+        if (StringUtils.hasText(header.getKeyID())) {
+            selected = verifiers.get(header.getKeyID());
+            if (selected != null && selected.supportedJWSAlgorithms().contains(alg)) {
+                if (verify(jwt, selected)) {
                     return true;
                 }
-            } catch (JOSEException e) {
-                logger.error("Failed to validate signature with " + verifier + " error message: " + e.getMessage());
             }
         }
+
+        // fallback to scan keys supporting the algorithm
+        List<JWSVerifier> candidates = algVerifiers.getOrDefault(alg, Collections.emptyList());
+        for (JWSVerifier verifier : candidates) {
+            if (verifier != selected && verify(jwt, verifier)) {
+                return true;
+            }
+        }
+
         return false;
     }
 
+    private boolean verify(SignedJWT jwt, JWSVerifier verifier) {
+        try {
+            return jwt.verify(verifier);
+        } catch (JOSEException e) {
+            logger.error("Failed to validate signature with " + verifier + " error message: " + e.getMessage());
+            return false;
+        }
+    }
+
     @Override
     public Map<String, JWK> getAllPublicKeys() {
         Map<String, JWK> pubKeys = new HashMap<>();
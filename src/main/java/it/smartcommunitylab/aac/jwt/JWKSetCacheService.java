@@ -20,16 +20,29 @@ package it.smartcommunitylab.aac.jwt;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.nimbusds.jose.jwk.JWKSet;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import java.text.ParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import org.apache.http.client.HttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
@@ -39,21 +52,96 @@ import org.springframework.web.client.RestTemplate;
  * Creates a caching map of JOSE signers/validators and encrypters/decryptors
  * keyed on the JWK Set URI. Dynamically loads JWK Sets to create the services.
  *
+ * Sets are refreshed in background after the refresh interval, requests keep
+ * being served with the previous keys until the refresh completes. When the
+ * remote is unavailable stale keys are served up to the max staleness, while
+ * failures are cached for a short time to avoid hammering the remote.
+ *
  * @author jricher
  * @author mat
  *
  */
 
-public class JWKSetCacheService {
+public class JWKSetCacheService implements MeterBinder, DisposableBean {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    // loading cache for external url
-    private final LoadingCache<String, JWKSet> jwksets = CacheBuilder
-        .newBuilder()
-        .expireAfterWrite(1, TimeUnit.HOURS) // expires 1 hour after fetch
-        .maximumSize(100)
-        .build(new JWKSetFetcher(HttpClientBuilder.create().useSystemProperties().build()));
+    // intervals in seconds
+    public static final int DEFAULT_REFRESH_INTERVAL = 900;
+    public static final int DEFAULT_MAX_STALENESS = 7200;
+    public static final int DEFAULT_NEGATIVE_TTL = 30;
+    public static final int DEFAULT_KID_REFRESH_INTERVAL = 60;
+
+    public static final int DEFAULT_CACHE_SIZE = 100;
+    public static final int DEFAULT_TIMEOUT = 5000;
+
+    private final JWKSetFetcher fetcher;
+
+    // single thread for background refresh, remotes are few
+    private final ExecutorService executor;
+
+    private LoadingCache<String, JWKSetEntry> jwksets;
+
+    private long maxStaleness = TimeUnit.SECONDS.toMillis(DEFAULT_MAX_STALENESS);
+    private long negativeTtl = TimeUnit.SECONDS.toMillis(DEFAULT_NEGATIVE_TTL);
+    private long kidRefreshInterval = TimeUnit.SECONDS.toMillis(DEFAULT_KID_REFRESH_INTERVAL);
+
+    // last refresh forced by an unknown kid, per uri
+    private final Map<String, Long> kidRefreshes = new ConcurrentHashMap<>();
+
+    private MeterRegistry meterRegistry;
+
+    public JWKSetCacheService() {
+        HttpClient httpClient = HttpClientBuilder.create().useSystemProperties().build();
+        this.fetcher = new JWKSetFetcher(httpClient, DEFAULT_TIMEOUT);
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jwks-refresh-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newSingleThreadExecutor(threadFactory);
+
+        this.jwksets = buildCache(DEFAULT_REFRESH_INTERVAL, DEFAULT_MAX_STALENESS, DEFAULT_CACHE_SIZE);
+    }
+
+    public void setCacheConfig(int refreshInterval, int maxStaleness, int maxSize) {
+        Assert.isTrue(refreshInterval > 0, "refresh interval must be a positive value");
+        Assert.isTrue(maxStaleness >= refreshInterval, "max staleness must be greater than refresh interval");
+        Assert.isTrue(maxSize >= 0, "cache size must be a positive value");
+        this.maxStaleness = TimeUnit.SECONDS.toMillis(maxStaleness);
+        this.jwksets = buildCache(refreshInterval, maxStaleness, maxSize);
+    }
+
+    public void setNegativeTtl(int negativeTtl) {
+        Assert.isTrue(negativeTtl >= 0, "negative ttl must be a positive value");
+        this.negativeTtl = TimeUnit.SECONDS.toMillis(negativeTtl);
+    }
+
+    public void setKidRefreshInterval(int kidRefreshInterval) {
+        Assert.isTrue(kidRefreshInterval >= 0, "kid refresh interval must be a positive value");
+        this.kidRefreshInterval = TimeUnit.SECONDS.toMillis(kidRefreshInterval);
+    }
+
+    private LoadingCache<String, JWKSetEntry> buildCache(int refreshInterval, int maxStaleness, int maxSize) {
+        // entries are refreshed on access, unused ones expire after max staleness
+        return CacheBuilder
+            .newBuilder()
+            .refreshAfterWrite(refreshInterval, TimeUnit.SECONDS)
+            .expireAfterAccess(maxStaleness, TimeUnit.SECONDS)
+            .maximumSize(maxSize)
+            .recordStats()
+            .build(new JWKSetLoader());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+        GuavaCacheMetrics.monitor(registry, jwksets, "jwt.jwks");
+    }
+
+    @Override
+    public void destroy() {
+        // pending refreshes are dropped, readers keep the cached keys
+        executor.shutdownNow();
+    }
 
     public JWKSet getJWKSet(String jwksUri) {
         if (!StringUtils.hasText(jwksUri)) {
@@ -61,28 +149,153 @@ public class JWKSetCacheService {
         }
 
         try {
-            return jwksets.get(jwksUri);
+            JWKSetEntry entry = jwksets.get(jwksUri);
+            long now = System.currentTimeMillis();
+
+            if (entry.jwkSet == null) {
+                // negative cached, retry in background after ttl
+                if (now - entry.checkedAt > negativeTtl) {
+                    jwksets.refresh(jwksUri);
+                }
+
+                return null;
+            }
+
+            if (now - entry.fetchedAt > maxStaleness) {
+                // too old to be trusted, wait for a refresh to succeed
+                logger.warn("JWK Set from " + jwksUri + " is stale since " + entry.fetchedAt);
+                if (now - entry.checkedAt > negativeTtl) {
+                    jwksets.refresh(jwksUri);
+                }
+
+                return null;
+            }
+
+            return entry.jwkSet;
         } catch (UncheckedExecutionException | ExecutionException e) {
             logger.warn("Couldn't load JWK Set from " + jwksUri + ": " + e.getMessage());
             return null;
         }
     }
 
-    private class JWKSetFetcher extends CacheLoader<String, JWKSet> {
+    /*
+     * Get the set and make sure it contains the given key, when missing the set is
+     * fetched again to pick up rotated keys, at most once per interval
+     */
+    public JWKSet getJWKSet(String jwksUri, String kid) {
+        JWKSet set = getJWKSet(jwksUri);
+        if (!StringUtils.hasText(kid) || (set != null && set.getKeyByKeyId(kid) != null)) {
+            return set;
+        }
+
+        long now = System.currentTimeMillis();
+        Long last = kidRefreshes.get(jwksUri);
+        if (last != null && now - last < kidRefreshInterval) {
+            // rate limited
+            return set;
+        }
+
+        // only one caller per interval performs the fetch
+        boolean acquired = last == null
+            ? kidRefreshes.putIfAbsent(jwksUri, now) == null
+            : kidRefreshes.replace(jwksUri, last, now);
+        if (!acquired) {
+            return set;
+        }
+
+        logger.debug("refresh JWK Set from " + jwksUri + " for unknown kid " + kid);
+        JWKSetEntry entry = fetch(jwksUri, jwksets.getIfPresent(jwksUri));
+        jwksets.put(jwksUri, entry);
+
+        return entry.jwkSet;
+    }
+
+    /*
+     * Fetch and build an entry, on failure previous keys are kept along with their
+     * original fetch time
+     */
+    private JWKSetEntry fetch(String uri, JWKSetEntry previous) {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+
+        try {
+            JWKSet set = fetcher.load(uri);
+            record("success", start);
+            return new JWKSetEntry(set, now, now);
+        } catch (RuntimeException e) {
+            record("failure", start);
+            logger.warn("Couldn't fetch JWK Set from " + uri + ": " + e.getMessage());
+
+            if (previous != null && previous.jwkSet != null) {
+                return new JWKSetEntry(previous.jwkSet, previous.fetchedAt, now);
+            }
+
+            return new JWKSetEntry(null, 0, now);
+        }
+    }
+
+    private void record(String outcome, long start) {
+        if (meterRegistry != null) {
+            Timer
+                .builder("jwt.jwks.fetch")
+                .description("remote JWK Set fetch")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private class JWKSetLoader extends CacheLoader<String, JWKSetEntry> {
+
+        @Override
+        public JWKSetEntry load(String uri) throws Exception {
+            return fetch(uri, null);
+        }
+
+        @Override
+        public ListenableFuture<JWKSetEntry> reload(String uri, JWKSetEntry previous) throws Exception {
+            // refresh in background, readers keep the previous entry meanwhile
+            ListenableFutureTask<JWKSetEntry> task = ListenableFutureTask.create(() -> fetch(uri, previous));
+            executor.execute(task);
+            return task;
+        }
+    }
+
+    private static class JWKSetEntry {
+
+        // null when no keys were ever fetched
+        private final JWKSet jwkSet;
+
+        // last successful fetch
+        private final long fetchedAt;
+
+        // last fetch attempt
+        private final long checkedAt;
+
+        JWKSetEntry(JWKSet jwkSet, long fetchedAt, long checkedAt) {
+            this.jwkSet = jwkSet;
+            this.fetchedAt = fetchedAt;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    private static class JWKSetFetcher {
 
         private HttpComponentsClientHttpRequestFactory httpFactory;
         private RestTemplate restTemplate;
 
-        JWKSetFetcher(HttpClient httpClient) {
+        JWKSetFetcher(HttpClient httpClient, int timeout) {
             this.httpFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+            // bound the blocking call
+            this.httpFactory.setConnectTimeout(timeout);
+            this.httpFactory.setReadTimeout(timeout);
             this.restTemplate = new RestTemplate(httpFactory);
         }
 
         /**
          * Load the JWK Set from URI
          */
-        @Override
-        public JWKSet load(String uri) throws Exception {
+        public JWKSet load(String uri) {
             try {
                 String jsonString = restTemplate.getForObject(uri, String.class);
                 return JWKSet.parse(jsonString);
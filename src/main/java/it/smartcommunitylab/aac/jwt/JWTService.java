@@ -42,13 +42,15 @@ public class JWTService implements InitializingBean {
 
     private static final Logger logger = LoggerFactory.getLogger(JWTService.class);
 
-    private final ClientKeyCacheService keyCacheService = new ClientKeyCacheService();
+    private final ClientKeyCacheService keyCacheService;
 
     private JWTSigningAndValidationService defaultSignService;
 
-    public JWTService(JWTSigningAndValidationService signService) {
+    public JWTService(JWTSigningAndValidationService signService, ClientKeyCacheService keyCacheService) {
         Assert.notNull(signService, "a default sign service is mandatory");
+        Assert.notNull(keyCacheService, "a client key cache service is mandatory");
         this.defaultSignService = signService;
+        this.keyCacheService = keyCacheService;
     }
 
     @Override
@@ -56,6 +58,11 @@ public class JWTService implements InitializingBean {
         Assert.notNull(defaultSignService, "a default signing service is required");
     }
 
+    // evict cached client keys, for example after a client update
+    public void evictClient(String clientId) {
+        keyCacheService.evictClient(clientId);
+    }
+
     // use this to change the default signer, for example for key rotation
     public void setDefaultSignService(JWTSigningAndValidationService defaultSignService) {
         this.defaultSignService = defaultSignService;
@@ -16,6 +16,9 @@
 
 package it.smartcommunitylab.aac.oauth;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
 import com.nimbusds.oauth2.sdk.GrantType;
 import com.nimbusds.oauth2.sdk.ParseException;
 import it.smartcommunitylab.aac.Config;
@@ -31,6 +34,8 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,8 +61,13 @@ import org.springframework.security.oauth2.provider.approval.ApprovalStore;
 import org.springframework.security.oauth2.provider.token.AuthorizationServerTokenServices;
 import org.springframework.security.oauth2.provider.token.ConsumerTokenServices;
 import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
@@ -83,6 +93,8 @@ public class OAuth2TokenServices
     public static final int DEFAULT_ACCESS_TOKEN_VALIDITY = 60 * 60 * 6; // 6 hours
     public static final int DEFAULT_REFRESH_TOKEN_VALIDITY = 60 * 60 * 24 * 30; // 30 days
     public static final int DEFAULT_REFRESH_TOKEN_RENEWAL_WINDOW = 60 * 60 * 24 * 3; // 3 days
+    public static final int DEFAULT_REFRESH_LOCK_STRIPES = 256;
+    public static final int DEFAULT_ROTATED_CACHE_SIZE = 10000;
 
     // services
     private final ExtTokenStore tokenStore;
@@ -98,7 +110,16 @@ public class OAuth2TokenServices
     private int refreshTokenRenewalWindowSeconds;
     private boolean removeExpired = true;
 
-    private Object refreshLock = new Object();
+    // local locks keyed by refresh token, concurrent refreshes of the same token
+    // queue here instead of on the row lock, different tokens proceed in parallel.
+    // Locks are held around the whole transaction, up to commit
+    private final Striped<Lock> refreshLocks = Striped.lazyWeakLock(DEFAULT_REFRESH_LOCK_STRIPES);
+    private TransactionTemplate refreshTransactionTemplate;
+
+    // optional grace window for rotated refresh tokens, keyed by previous token
+    // value with the response issued on rotation. Kept in memory per node: a
+    // replay reaching a different node is rejected
+    private Cache<String, RotatedToken> rotatedTokens;
 
     // TODO implement a refresh for stale user authentication on refreshtokens
     // at minimum we need to validate user existence, but we should really recover
@@ -174,14 +195,44 @@ public class OAuth2TokenServices
         return accessToken;
     }
 
+    /*
+     * Refresh runs in its own read committed transaction: the refresh token row is
+     * locked for update so concurrent requests for the same token are serialized
+     * by the db, while rotation is a compare and swap on the row. Refreshes of
+     * different tokens never conflict.
+     * The local striped lock is taken outside the transaction and released only
+     * after commit, so queued requests for the same token always observe the
+     * outcome of the previous one.
+     */
     @Override
-    @Transactional(isolation = Isolation.SERIALIZABLE)
     public OAuth2AccessToken refreshAccessToken(String refreshTokenValue, TokenRequest tokenRequest)
         throws AuthenticationException {
         logger.debug("refresh access token for token " + refreshTokenValue);
 
+        Lock lock = refreshLocks.get(refreshTokenValue);
+        lock.lock();
+        try {
+            if (refreshTransactionTemplate == null) {
+                return refresh(refreshTokenValue, tokenRequest);
+            }
+
+            return refreshTransactionTemplate.execute(status -> refresh(refreshTokenValue, tokenRequest));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private OAuth2AccessToken refresh(String refreshTokenValue, TokenRequest tokenRequest)
+        throws AuthenticationException {
+        // lock row
         OAuth2RefreshToken refreshToken = tokenStore.readRefreshTokenForUpdate(refreshTokenValue);
         if (refreshToken == null) {
+            // within grace window replay the response issued on rotation
+            OAuth2AccessToken replayed = replayRotation(refreshTokenValue, tokenRequest);
+            if (replayed != null) {
+                return replayed;
+            }
+
             throw new InvalidGrantException("Invalid refresh token: " + refreshTokenValue);
         }
 
@@ -225,90 +276,154 @@ public class OAuth2TokenServices
         // avoid those and return only those authorized, we could return an error and
         // avoid removing other tokens
 
-        // lock to make this call atomic, otherwise we could concurrently delete the
-        // newly created access tokens
-        // TODO rework with a keyed lock (per client/per user?) to improve performance
-        // also note that AuthorizationEndpoint has a similar approach
-        // AACOAuth2AccessToken accessToken;
+        // remove old access tokens, we enforce a single refresh -> accessToken
+        // this way clients will be able to invalidate old tokens by asking refresh
+        // for the same reason we build each time a new accessToken
+        tokenStore.removeAccessTokenUsingRefreshToken(refreshToken);
+
+        boolean renewToken = false;
+        if (refreshToken instanceof ExpiringOAuth2RefreshToken) {
+            // check if expired
+            ExpiringOAuth2RefreshToken expiringToken = (ExpiringOAuth2RefreshToken) refreshToken;
+            boolean isExpired =
+                (
+                    expiringToken.getExpiration() == null ||
+                    System.currentTimeMillis() > expiringToken.getExpiration().getTime()
+                );
+
+            if (isExpired) {
+                tokenStore.removeRefreshToken(refreshToken);
+                throw new InvalidTokenException("Invalid refresh token (expired): " + refreshToken);
+            }
 
-        // synchronized (this.refreshLock) {
-            // remove old access tokens, we enforce a single refresh -> accessToken
-            // this way clients will be able to invalidate old tokens by asking refresh
-            // for the same reason we build each time a new accessToken
-            tokenStore.removeAccessTokenUsingRefreshToken(refreshToken);
+            // renew if within window
+            renewToken =
+                (
+                    !isExpired &&
+                    System.currentTimeMillis() > (expiringToken.getExpiration().getTime() - refreshRenewalSeconds)
+                );
+        }
 
-            boolean renewToken = false;
-            if (refreshToken instanceof ExpiringOAuth2RefreshToken) {
-                // check if expired
-                ExpiringOAuth2RefreshToken expiringToken = (ExpiringOAuth2RefreshToken) refreshToken;
-                boolean isExpired =
-                    (
-                        expiringToken.getExpiration() == null ||
-                        System.currentTimeMillis() > expiringToken.getExpiration().getTime()
-                    );
-
-                if (isExpired) {
-                    tokenStore.removeRefreshToken(refreshToken);
-                    throw new InvalidTokenException("Invalid refresh token (expired): " + refreshToken);
-                }
+        // check if client has rotate to always configured
+        if (clientDetails.isRefreshTokenRotation()) {
+            // renew regardless of expiration
+            renewToken = true;
+        }
 
-                // renew if within window
-                renewToken =
-                    (
-                        !isExpired &&
-                        System.currentTimeMillis() > (expiringToken.getExpiration().getTime() - refreshRenewalSeconds)
-                    );
-            }
+        // build a new oauthAuthentication matching tokenRequest
+        OAuth2Authentication refreshedAuthentication = refreshAuthentication(authentication, tokenRequest);
 
-            // check if client has rotate to always configured
-            if (clientDetails.isRefreshTokenRotation()) {
-                // renew regardless of expiration
-                renewToken = true;
-            }
+        // build a new accessToken
+        logger.debug("create access token for authentication " + refreshedAuthentication.getName());
 
-            // build a new oauthAuthentication matching tokenRequest
-            OAuth2Authentication refreshedAuthentication = refreshAuthentication(authentication, tokenRequest);
+        AACOAuth2AccessToken accessToken = createAccessToken(refreshedAuthentication, accessValiditySeconds);
+        if (accessToken == null || !StringUtils.hasText(accessToken.getValue())) {
+            throw new OAuth2Exception("token error");
+        }
 
-            // build a new accessToken
-            logger.debug("create access token for authentication " + refreshedAuthentication.getName());
+        // additional params
+        // TODO evaluate additional params
+        accessToken.setRealm(clientDetails.getRealm());
 
-            AACOAuth2AccessToken accessToken = createAccessToken(refreshedAuthentication, accessValiditySeconds);
-            if (accessToken == null || !StringUtils.hasText(accessToken.getValue())) {
-                throw new OAuth2Exception("token error");
-            }
+        // make sure we return the same refresh token
+        accessToken.setRefreshToken(refreshToken);
 
-            // additional params
-            // TODO evaluate additional params
-            accessToken.setRealm(clientDetails.getRealm());
-
-            // make sure we return the same refresh token
-            accessToken.setRefreshToken(refreshToken);
-
-            // if needed build a new refresh token and replace in response
-            // TODO keep old refresh token valid for a small window to account delays
-            if (renewToken) {
-                // if we renew use the original authentication, not the refreshed
-                OAuth2RefreshToken refreshedToken = createRefreshToken(authentication, refreshValiditySeconds);
-                if (refreshedToken != null && StringUtils.hasText(refreshedToken.getValue())) {
-                    tokenStore.removeRefreshToken(refreshToken);
-                    tokenStore.storeRefreshToken(refreshedToken, authentication);
-                    accessToken.setRefreshToken(refreshedToken);
-                }
+        // if needed build a new refresh token and replace in response
+        OAuth2RefreshToken refreshedToken = null;
+        if (renewToken) {
+            // if we renew use the original authentication, not the refreshed
+            refreshedToken = createRefreshToken(authentication, refreshValiditySeconds);
+            if (refreshedToken != null && StringUtils.hasText(refreshedToken.getValue())) {
+                accessToken.setRefreshToken(refreshedToken);
+            } else {
+                refreshedToken = null;
             }
+        }
 
-            // call enhancer
-            if (tokenEnhancer != null) {
-                accessToken = tokenEnhancer.enhance(accessToken, refreshedAuthentication);
+        // call enhancer
+        if (tokenEnhancer != null) {
+            accessToken = tokenEnhancer.enhance(accessToken, refreshedAuthentication);
+        }
+
+        if (refreshedToken != null) {
+            // swap only if still current
+            if (!tokenStore.rotateRefreshToken(refreshToken, refreshedToken, authentication)) {
+                throw new InvalidGrantException("Invalid refresh token (already used): " + refreshTokenValue);
             }
 
-            tokenStore.storeAccessToken(accessToken, refreshedAuthentication);
-        // }
+            // register the response along with the consumption of the previous token
+            registerRotation(refreshTokenValue, refreshedToken.getValue(), accessToken.getValue());
+        }
+
+        tokenStore.storeAccessToken(accessToken, refreshedAuthentication);
 
         //        traceUserLogger.info(String.format("'type':'new','user':'%s','scope':'%s','token':'%s'",
         //                authentication.getName(), String.join(" ", accessToken.getScope()), accessToken.getValue()));
         return accessToken;
     }
 
+    /*
+     * Grace window
+     */
+    private void registerRotation(String refreshTokenValue, String refreshedTokenValue, String accessTokenValue) {
+        if (rotatedTokens == null) {
+            return;
+        }
+
+        // visible to same token requests only after commit, they wait on the local
+        // lock. Drop on rollback since the previous token is still valid
+        rotatedTokens.put(refreshTokenValue, new RotatedToken(refreshedTokenValue, accessTokenValue));
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status != STATUS_COMMITTED) {
+                            rotatedTokens.invalidate(refreshTokenValue);
+                        }
+                    }
+                }
+            );
+        }
+    }
+
+    private OAuth2AccessToken replayRotation(String refreshTokenValue, TokenRequest tokenRequest) {
+        RotatedToken rotated = rotatedTokens != null ? rotatedTokens.getIfPresent(refreshTokenValue) : null;
+        if (rotated == null) {
+            return null;
+        }
+
+        // access token is gone once the successor has been used or revoked
+        OAuth2AccessToken accessToken = tokenStore.readAccessToken(rotated.accessToken);
+        if (
+            accessToken == null ||
+            accessToken.getRefreshToken() == null ||
+            !rotated.refreshToken.equals(accessToken.getRefreshToken().getValue())
+        ) {
+            return null;
+        }
+
+        OAuth2Authentication authentication = tokenStore.readAuthentication(accessToken);
+        String clientId = authentication != null ? authentication.getOAuth2Request().getClientId() : null;
+        if (clientId == null || !clientId.equals(tokenRequest.getClientId())) {
+            throw new InvalidGrantException("Wrong client for this refresh token: " + refreshTokenValue);
+        }
+
+        logger.debug("replay rotation for refresh token within grace window");
+        return accessToken;
+    }
+
+    private static class RotatedToken {
+
+        private final String refreshToken;
+        private final String accessToken;
+
+        public RotatedToken(String refreshToken, String accessToken) {
+            this.refreshToken = refreshToken;
+            this.accessToken = accessToken;
+        }
+    }
+
     //    @Override
     //    @Transactional(isolation = Isolation.SERIALIZABLE)
     //    public OAuth2RefreshToken createRefreshToken(OAuth2Authentication authentication) {
@@ -585,4 +700,29 @@ public class OAuth2TokenServices
     public void setApprovalStore(ApprovalStore approvalStore) {
         this.approvalStore = approvalStore;
     }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        if (transactionManager != null) {
+            // always a new transaction, it must commit before the lock is released
+            TransactionTemplate template = new TransactionTemplate(transactionManager);
+            template.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+            template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            this.refreshTransactionTemplate = template;
+        } else {
+            this.refreshTransactionTemplate = null;
+        }
+    }
+
+    public void setRefreshTokenGrace(int grace) {
+        if (grace > 0) {
+            this.rotatedTokens =
+                CacheBuilder
+                    .newBuilder()
+                    .expireAfterWrite(grace, TimeUnit.SECONDS)
+                    .maximumSize(DEFAULT_ROTATED_CACHE_SIZE)
+                    .build();
+        } else {
+            this.rotatedTokens = null;
+        }
+    }
 }
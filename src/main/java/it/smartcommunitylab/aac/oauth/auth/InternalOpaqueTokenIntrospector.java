@@ -22,6 +22,8 @@ import it.smartcommunitylab.aac.common.NoSuchSubjectException;
 import it.smartcommunitylab.aac.core.service.SubjectService;
 import it.smartcommunitylab.aac.model.Subject;
 import it.smartcommunitylab.aac.oauth.AACOAuth2AccessToken;
+import it.smartcommunitylab.aac.oauth.store.ExtTokenStore;
+import it.smartcommunitylab.aac.oauth.store.StoredToken;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -64,7 +66,22 @@ public class InternalOpaqueTokenIntrospector implements OpaqueTokenIntrospector
     }
 
     public OAuth2AuthenticatedPrincipal introspect(String tokenValue) {
-        OAuth2AccessToken token = tokenStore.readAccessToken(tokenValue);
+        OAuth2AccessToken token = null;
+        OAuth2Authentication auth = null;
+
+        if (tokenStore instanceof ExtTokenStore) {
+            // single lookup for token and auth
+            StoredToken<OAuth2AccessToken> stored = ((ExtTokenStore) tokenStore).readAccessTokenWithAuthentication(
+                    tokenValue
+                );
+            if (stored != null) {
+                token = stored.getToken();
+                auth = stored.getAuthentication();
+            }
+        } else {
+            token = tokenStore.readAccessToken(tokenValue);
+        }
+
         if (token == null) {
             throw new BadOpaqueTokenException("Provided token isn't active");
         }
@@ -81,7 +98,10 @@ public class InternalOpaqueTokenIntrospector implements OpaqueTokenIntrospector
         AACOAuth2AccessToken accessToken = (AACOAuth2AccessToken) token;
         String realm = accessToken.getRealm();
 
-        OAuth2Authentication auth = tokenStore.readAuthentication(tokenValue);
+        if (auth == null && !(tokenStore instanceof ExtTokenStore)) {
+            auth = tokenStore.readAuthentication(tokenValue);
+        }
+
         if (auth == null) {
             throw new BadOpaqueTokenException("Provided token isn't active");
         }
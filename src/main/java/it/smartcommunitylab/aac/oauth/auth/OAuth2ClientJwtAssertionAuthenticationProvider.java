@@ -18,6 +18,7 @@ package it.smartcommunitylab.aac.oauth.auth;
 
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jwt.JWT;
@@ -26,6 +27,7 @@ import it.smartcommunitylab.aac.common.NoSuchClientException;
 import it.smartcommunitylab.aac.core.ClientDetails;
 import it.smartcommunitylab.aac.core.auth.ClientAuthentication;
 import it.smartcommunitylab.aac.core.auth.ClientAuthenticationProvider;
+import it.smartcommunitylab.aac.jwt.JWKSetCacheService;
 import it.smartcommunitylab.aac.oauth.model.AuthenticationMethod;
 import it.smartcommunitylab.aac.oauth.model.OAuth2ClientDetails;
 import it.smartcommunitylab.aac.oauth.service.OAuth2ClientDetailsService;
@@ -59,6 +61,9 @@ public class OAuth2ClientJwtAssertionAuthenticationProvider
     private final Collection<String> audience;
     private final OAuth2ClientDetailsService clientDetailsService;
 
+    // remote keys for clients registered with a jwks uri
+    private JWKSetCacheService jwksCacheService;
+
     public OAuth2ClientJwtAssertionAuthenticationProvider(
         OAuth2ClientDetailsService clientDetailsService,
         String... audience
@@ -77,6 +82,10 @@ public class OAuth2ClientJwtAssertionAuthenticationProvider
         this.clientDetailsService = clientDetailsService;
     }
 
+    public void setJwksCacheService(JWKSetCacheService jwksCacheService) {
+        this.jwksCacheService = jwksCacheService;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         Assert.notNull(clientService, "client service is required");
@@ -103,9 +112,9 @@ public class OAuth2ClientJwtAssertionAuthenticationProvider
         try {
             // check if auth method is undefined and resolve from jwt
             AuthenticationMethod authMethod = AuthenticationMethod.parse(authenticationMethod);
+            JWT jwt = JWTParser.parse(clientAssertion);
 
             if (authMethod == null) {
-                JWT jwt = JWTParser.parse(clientAssertion);
                 // rsa requires private key
                 if (JWSAlgorithm.Family.RSA.contains(jwt.getHeader().getAlgorithm())) {
                     authMethod = AuthenticationMethod.PRIVATE_KEY_JWT;
@@ -138,12 +147,27 @@ public class OAuth2ClientJwtAssertionAuthenticationProvider
                 jwtDecoder = NimbusJwtDecoder.withSecretKey(secretKey).build();
             }
             if (AuthenticationMethod.PRIVATE_KEY_JWT == authMethod) {
-                // load first RSA key from jwks
-                JWKSet jwks = JWKSet.parse(client.getJwks());
+                // key id from header, when missing use the first RSA key
+                String kid = jwt.getHeader() instanceof JWSHeader ? ((JWSHeader) jwt.getHeader()).getKeyID() : null;
+
+                JWKSet jwks = null;
+                if (StringUtils.hasText(client.getJwks())) {
+                    jwks = JWKSet.parse(client.getJwks());
+                } else if (StringUtils.hasText(client.getJwksUri()) && jwksCacheService != null) {
+                    // remote keys, fetched again when the key is unknown
+                    jwks = jwksCacheService.getJWKSet(client.getJwksUri(), kid);
+                }
+
+                if (jwks == null) {
+                    this.logger.debug("Failed to authenticate since client has no jwks");
+                    throw new BadCredentialsException("invalid authentication");
+                }
+
                 JWK jwk = jwks
                     .getKeys()
                     .stream()
                     .filter(k -> JWSAlgorithm.Family.RSA.contains(k.getAlgorithm()))
+                    .filter(k -> !StringUtils.hasText(kid) || kid.equals(k.getKeyID()))
                     .findFirst()
                     .orElse(null);
                 if (jwk == null) {
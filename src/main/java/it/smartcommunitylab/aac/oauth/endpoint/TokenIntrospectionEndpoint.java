@@ -26,6 +26,8 @@ import it.smartcommunitylab.aac.oauth.model.ApplicationType;
 import it.smartcommunitylab.aac.oauth.model.OAuth2ClientDetails;
 import it.smartcommunitylab.aac.oauth.model.TokenIntrospection;
 import it.smartcommunitylab.aac.oauth.service.OAuth2ClientDetailsService;
+import it.smartcommunitylab.aac.oauth.store.ExtTokenStore;
+import it.smartcommunitylab.aac.oauth.store.StoredToken;
 import it.smartcommunitylab.aac.openid.scope.OpenIdScopeProvider;
 import it.smartcommunitylab.aac.profiles.scope.OpenIdProfileScopeProvider;
 import it.smartcommunitylab.aac.scope.ScopeProvider;
@@ -56,7 +58,6 @@ import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
 import org.springframework.security.oauth2.common.exceptions.UnauthorizedClientException;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.OAuth2Request;
-import org.springframework.security.oauth2.provider.token.TokenStore;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -76,6 +77,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 public class TokenIntrospectionEndpoint {
 
     public static final String TOKEN_INTROSPECTION_URL = "/oauth/introspect";
+    public static final String REFRESH_TOKEN_HINT = "refresh_token";
     public static final Set<String> WHITELISTED_SCOPES;
     public static final ScopeProvider[] WHITELISTED_SCOPE_PROVIDERS = {
         new OpenIdScopeProvider(),
@@ -97,7 +99,7 @@ public class TokenIntrospectionEndpoint {
     private String issuer;
 
     @Autowired
-    private TokenStore tokenStore;
+    private ExtTokenStore tokenStore;
 
     @Autowired
     private OAuth2ClientDetailsService clientDetailsService;
@@ -144,42 +146,31 @@ public class TokenIntrospectionEndpoint {
         }
 
         // check hint
-        // TODO add proper support
-        if (tokenTypeHint.isPresent()) {
-            String typeHint = tokenTypeHint.get();
-            if (!"access_token".equals(typeHint) && !"refresh_token".equals(typeHint)) {
-                // unsupported token type, reset to null to ignore
-                // spec doesn't exactly define how to handle invalid types, but
-                // says that when authentication is successful we should return a proper result
-                // regardless of the type hint
+        // as per spec this is a suggestion, if we don't find the token we need to
+        // extend the search to all token types. We use the hint to pick the first
+        // lookup, and default to access tokens which are the most common
+        // spec doesn't exactly define how to handle invalid types, but
+        // says that when authentication is successful we should return a proper result
+        // regardless of the type hint, so unsupported values are ignored
+        boolean refreshFirst = tokenTypeHint.isPresent() && REFRESH_TOKEN_HINT.equals(tokenTypeHint.get());
+
+        if (refreshFirst) {
+            TokenIntrospection result = lookupRefreshToken(tokenValue, introspectClientId);
+            if (result != null) {
+                return ResponseEntity.ok(result);
             }
         }
-        // as per spec this is a suggestion, if we don't find the token we need to
-        // extend the search to all token types
-        // as such we ignore hint for now, we can distinguish tokens by looking them up
-
-        // load refresh token if present
-        OAuth2RefreshToken refreshToken = tokenStore.readRefreshToken(tokenValue);
-        if (refreshToken != null) {
-            logger.trace("load auth for refresh token {}", refreshToken.getValue());
-
-            // load authentication
-            OAuth2Authentication auth = tokenStore.readAuthenticationForRefreshToken(refreshToken);
 
-            TokenIntrospection result = introspectRefreshToken(introspectClientId, auth, refreshToken);
+        TokenIntrospection result = lookupAccessToken(tokenValue, introspectClientDetails);
+        if (result != null) {
             return ResponseEntity.ok(result);
         }
 
-        // as per spec, try as access_token independently of hint
-        OAuth2AccessToken accessToken = tokenStore.readAccessToken(tokenValue);
-        if (accessToken != null) {
-            logger.trace("load auth for access token {}", accessToken.getValue());
-
-            // load authentication
-            OAuth2Authentication auth = tokenStore.readAuthentication(accessToken);
-
-            TokenIntrospection result = introspectAccessToken(tokenValue, introspectClientDetails, auth, accessToken);
-            return ResponseEntity.ok(result);
+        if (!refreshFirst) {
+            result = lookupRefreshToken(tokenValue, introspectClientId);
+            if (result != null) {
+                return ResponseEntity.ok(result);
+            }
         }
 
         // no token found
@@ -187,6 +178,28 @@ public class TokenIntrospectionEndpoint {
         return ResponseEntity.ok(new TokenIntrospection(false));
     }
 
+    private TokenIntrospection lookupAccessToken(String tokenValue, OAuth2ClientDetails introspectClientDetails) {
+        // load token along with auth in a single lookup
+        StoredToken<OAuth2AccessToken> stored = tokenStore.readAccessTokenWithAuthentication(tokenValue);
+        if (stored == null) {
+            return null;
+        }
+
+        logger.trace("loaded auth for access token {}", stored.getToken().getValue());
+        return introspectAccessToken(tokenValue, introspectClientDetails, stored.getAuthentication(), stored.getToken());
+    }
+
+    private TokenIntrospection lookupRefreshToken(String tokenValue, String introspectClientId) {
+        // load token along with auth in a single lookup
+        StoredToken<OAuth2RefreshToken> stored = tokenStore.readRefreshTokenWithAuthentication(tokenValue);
+        if (stored == null) {
+            return null;
+        }
+
+        logger.trace("loaded auth for refresh token {}", stored.getToken().getValue());
+        return introspectRefreshToken(introspectClientId, stored.getAuthentication(), stored.getToken());
+    }
+
     private TokenIntrospection introspectAccessToken(
         String tokenValue,
         OAuth2ClientDetails introspectClientDetails,
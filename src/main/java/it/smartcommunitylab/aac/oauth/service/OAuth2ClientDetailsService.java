@@ -16,24 +16,36 @@
 
 package it.smartcommunitylab.aac.oauth.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import it.smartcommunitylab.aac.clients.persistence.ClientEntity;
 import it.smartcommunitylab.aac.clients.service.ClientEntityService;
 import it.smartcommunitylab.aac.oauth.client.OAuth2ClientAdditionalConfig;
 import it.smartcommunitylab.aac.oauth.model.OAuth2ClientDetails;
 import it.smartcommunitylab.aac.oauth.persistence.OAuth2ClientEntity;
 import it.smartcommunitylab.aac.oauth.persistence.OAuth2ClientEntityRepository;
+import it.smartcommunitylab.aac.utils.VersionedCache;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.oauth2.provider.ClientDetailsService;
 import org.springframework.security.oauth2.provider.ClientRegistrationException;
 import org.springframework.security.oauth2.provider.NoSuchClientException;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
 @Transactional
-public class OAuth2ClientDetailsService implements ClientDetailsService {
+public class OAuth2ClientDetailsService implements ClientDetailsService, MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(OAuth2ClientDetailsService.class);
+
+    public static final int DEFAULT_CACHE_TTL = 30;
+    public static final int DEFAULT_CACHE_SIZE = 1000;
 
     // TODO evaluate direct repo access VS service
     // we lose validation but reduce complexity
@@ -43,6 +55,14 @@ public class OAuth2ClientDetailsService implements ClientDetailsService {
     // we need access to client roles, we use service since we are outside core
     private final ClientEntityService clientService;
 
+    // local cache, client definitions don't change frequently
+    // even short window (30s) could cover a whole request
+    // on multi node deployments ttl bounds staleness when no listener is set
+    private VersionedCache<String, OAuth2ClientDetails> cache;
+
+    // optional hook to propagate invalidations to other nodes
+    private OAuth2ClientDetailsInvalidationListener invalidationListener;
+
     public OAuth2ClientDetailsService(
         ClientEntityService clientService,
         OAuth2ClientEntityRepository clientRepository
@@ -51,13 +71,57 @@ public class OAuth2ClientDetailsService implements ClientDetailsService {
         Assert.notNull(clientRepository, "oauth client repository is mandatory");
         this.clientRepository = clientRepository;
         this.clientService = clientService;
+
+        // build default cache
+        this.cache = VersionedCache.build(DEFAULT_CACHE_TTL, DEFAULT_CACHE_SIZE);
     }
 
-    // TODO add a local cache, client definitions don't change frequently
-    // even short window (30s) could cover a whole request
+    public void setCacheConfig(int ttl, int maxSize) {
+        this.cache = VersionedCache.build(ttl, maxSize);
+    }
+
+    public void setInvalidationListener(OAuth2ClientDetailsInvalidationListener invalidationListener) {
+        this.invalidationListener = invalidationListener;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, cache.getCache(), "oauth2.clients");
+    }
+
+    // avoid opening a transaction when served from cache
     @Override
-    @Transactional(readOnly = true)
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public OAuth2ClientDetails loadClientByClientId(String clientId) throws ClientRegistrationException {
+        return cache.get(clientId, this::fetchClientDetails);
+    }
+
+    /*
+     * Invalidate a client after local modifications, listener is notified to
+     * propagate to other nodes
+     */
+    public void invalidateClient(String clientId) {
+        evictClient(clientId);
+
+        if (invalidationListener != null) {
+            invalidationListener.onClientInvalidated(clientId);
+        }
+    }
+
+    /*
+     * Evict a client from the local cache only, for usage by listeners receiving
+     * invalidations from other nodes
+     */
+    public void evictClient(String clientId) {
+        logger.debug("evict client {} from cache", String.valueOf(clientId));
+        cache.invalidate(clientId);
+    }
+
+    public void evictAll() {
+        cache.invalidateAll();
+    }
+
+    private OAuth2ClientDetails fetchClientDetails(String clientId) throws ClientRegistrationException {
         ClientEntity client = clientService.findClient(clientId);
         OAuth2ClientEntity oauth = clientRepository.findByClientId(clientId);
         if (client == null || oauth == null) {
@@ -27,6 +27,7 @@ import it.smartcommunitylab.aac.clients.service.ClientEntityService;
 import it.smartcommunitylab.aac.clients.service.ClientService;
 import it.smartcommunitylab.aac.common.NoSuchClientException;
 import it.smartcommunitylab.aac.jwt.JWKUtils;
+import it.smartcommunitylab.aac.jwt.JWTService;
 import it.smartcommunitylab.aac.oauth.client.OAuth2Client;
 import it.smartcommunitylab.aac.oauth.client.OAuth2ClientAdditionalConfig;
 import it.smartcommunitylab.aac.oauth.client.OAuth2ClientInfo;
@@ -52,6 +53,7 @@ import java.util.UUID;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.ArrayUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.support.PageableExecutionUtils;
@@ -111,6 +113,22 @@ public class OAuth2ClientService implements ClientService {
         this.oauthClientRepository = oauthClientRepository;
     }
 
+    // client details cache, to be invalidated on changes
+    private OAuth2ClientDetailsService clientDetailsService;
+
+    @Autowired
+    public void setClientDetailsService(OAuth2ClientDetailsService clientDetailsService) {
+        this.clientDetailsService = clientDetailsService;
+    }
+
+    // client keys cache, to be invalidated on changes
+    private JWTService jwtService;
+
+    @Autowired
+    public void setJwtService(JWTService jwtService) {
+        this.jwtService = jwtService;
+    }
+
     @Transactional(readOnly = true)
     public OAuth2Client findClient(String clientId) {
         ClientEntity client = clientService.findClient(clientId);
@@ -277,6 +295,7 @@ public class OAuth2ClientService implements ClientService {
 
             oauth.setClientSecret(secret);
             oauth = oauthClientRepository.save(oauth);
+            invalidateClientDetails(clientId);
 
             return new ClientSecret(client.getRealm(), clientId, oauth.getClientSecret());
         }
@@ -285,6 +304,7 @@ public class OAuth2ClientService implements ClientService {
 
             oauth.setJwks(jwks);
             oauth = oauthClientRepository.save(oauth);
+            invalidateClientDetails(clientId);
 
             return new ClientJwks(client.getRealm(), clientId, oauth.getJwks());
         }
@@ -314,11 +334,13 @@ public class OAuth2ClientService implements ClientService {
         if (SystemKeys.RESOURCE_CREDENTIALS_SECRET.equals(type) && StringUtils.hasText(oauth.getClientSecret())) {
             oauth.setClientSecret(null);
             oauth = oauthClientRepository.save(oauth);
+            invalidateClientDetails(clientId);
         }
 
         if (SystemKeys.RESOURCE_CREDENTIALS_JWKS.equals(type) && StringUtils.hasText(oauth.getJwks())) {
             oauth.setJwks(null);
             oauth = oauthClientRepository.save(oauth);
+            invalidateClientDetails(clientId);
         }
     }
 
@@ -359,6 +381,7 @@ public class OAuth2ClientService implements ClientService {
 
             oauth.setClientSecret(secret);
             oauth = oauthClientRepository.save(oauth);
+            invalidateClientDetails(clientId);
 
             return new ClientSecret(client.getRealm(), clientId, oauth.getClientSecret());
         }
@@ -378,6 +401,7 @@ public class OAuth2ClientService implements ClientService {
 
             oauth.setJwks(jwks);
             oauth = oauthClientRepository.save(oauth);
+            invalidateClientDetails(clientId);
 
             return new ClientJwks(client.getRealm(), clientId, oauth.getJwks());
         }
@@ -800,6 +824,7 @@ public class OAuth2ClientService implements ClientService {
             oauth.setAdditionalInformation(additionalInfo.toMap());
         }
         oauth = oauthClientRepository.save(oauth);
+        invalidateClientDetails(clientId);
 
         return OAuth2Client.from(client, oauth);
     }
@@ -815,12 +840,24 @@ public class OAuth2ClientService implements ClientService {
         if (client != null) {
             clientService.deleteClient(clientId);
         }
+
+        invalidateClientDetails(clientId);
     }
 
     /*
      * Helpers
      */
 
+    private void invalidateClientDetails(String clientId) {
+        if (clientDetailsService != null) {
+            clientDetailsService.invalidateClient(clientId);
+        }
+
+        if (jwtService != null) {
+            jwtService.evictClient(clientId);
+        }
+    }
+
     /**
      * Generate new value to be used as client secret (String)
      *
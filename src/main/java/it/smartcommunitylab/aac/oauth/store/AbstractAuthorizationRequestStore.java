@@ -0,0 +1,159 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.oauth.store;
+
+import it.smartcommunitylab.aac.oauth.common.SecureStringKeyGenerator;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.keygen.StringKeyGenerator;
+import org.springframework.security.oauth2.provider.AuthorizationRequest;
+import org.springframework.util.Assert;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/*
+ * Base authorization request store, shared between sessions
+ *
+ * Requests are bound to the http session via a random binding kept as session
+ * attribute, so that keys can not be used from a different session. The
+ * binding survives session id changes on login.
+ * Expired requests are purged in background at a fixed interval.
+ */
+public abstract class AbstractAuthorizationRequestStore implements AuthorizationRequestStore, DisposableBean {
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public static final int DEFAULT_TTL = 30 * 60;
+    public static final String SESSION_BINDING_ATTRIBUTE =
+        AbstractAuthorizationRequestStore.class.getName() + ".BINDING";
+
+    private static final StringKeyGenerator BINDING_GENERATOR = new SecureStringKeyGenerator();
+
+    // request validity in seconds
+    protected int ttl = DEFAULT_TTL;
+
+    private ScheduledExecutorService cleanupExecutor;
+
+    public void setTtl(int ttl) {
+        Assert.isTrue(ttl > 0, "ttl must be positive");
+        this.ttl = ttl;
+    }
+
+    public void setCleanupInterval(int interval) {
+        if (cleanupExecutor != null) {
+            cleanupExecutor.shutdownNow();
+            cleanupExecutor = null;
+        }
+
+        if (interval > 0) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("authrequest-cleanup-");
+            threadFactory.setDaemon(true);
+            cleanupExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            cleanupExecutor.scheduleWithFixedDelay(
+                () -> {
+                    try {
+                        purgeExpired();
+                    } catch (RuntimeException e) {
+                        logger.error("error removing expired authorization requests", e);
+                    }
+                },
+                interval,
+                interval,
+                TimeUnit.SECONDS
+            );
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (cleanupExecutor != null) {
+            cleanupExecutor.shutdownNow();
+        }
+    }
+
+    /*
+     * Remove all expired requests
+     */
+    public abstract void purgeExpired();
+
+    /*
+     * Count live requests, for all sessions
+     */
+    public abstract long count();
+
+    /*
+     * Bind key to the current session, a request context is required
+     */
+    protected String bind(String key) {
+        return binding() + ":" + key;
+    }
+
+    protected String binding() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            // outside request context there is no session to bind to
+            throw new IllegalStateException("authorization requests require a request context");
+        }
+
+        Object binding = attributes.getAttribute(SESSION_BINDING_ATTRIBUTE, RequestAttributes.SCOPE_SESSION);
+        if (binding == null) {
+            binding = BINDING_GENERATOR.generateKey();
+            attributes.setAttribute(SESSION_BINDING_ATTRIBUTE, binding, RequestAttributes.SCOPE_SESSION);
+        }
+
+        return binding.toString();
+    }
+
+    protected String extractKey(AuthorizationRequest request) {
+        // use a sorted map as source to ensure consistency
+        Map<String, String> values = new TreeMap<String, String>();
+
+        values.put("client_id", request.getClientId());
+        values.put(
+            "response_type",
+            StringUtils.collectionToCommaDelimitedString(new TreeSet<String>(request.getResponseTypes()))
+        );
+        values.put("scope", StringUtils.collectionToCommaDelimitedString(new TreeSet<String>(request.getScope())));
+        values.put("redirect_uri", request.getRedirectUri());
+        values.put("state", request.getState());
+        values.put(
+            "resource",
+            StringUtils.collectionToCommaDelimitedString(new TreeSet<String>(request.getResourceIds()))
+        );
+
+        // build key and reduce to md5hash
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (entry.getValue() != null) {
+                sb.append(entry.getKey()).append("=").append(entry.getValue()).append(";");
+            }
+        }
+
+        return DigestUtils.md5DigestAsHex(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
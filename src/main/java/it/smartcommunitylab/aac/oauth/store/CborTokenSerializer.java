@@ -0,0 +1,616 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.smartcommunitylab.aac.oauth.store;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.nimbusds.jwt.JWTParser;
+import it.smartcommunitylab.aac.core.auth.RealmGrantedAuthority;
+import it.smartcommunitylab.aac.oauth.AACOAuth2AccessToken;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.common.util.SerializationUtils;
+import org.springframework.security.oauth2.provider.AuthorizationRequest;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.util.StringUtils;
+
+/*
+ * Compact serializer based on CBOR
+ *
+ * Every record starts with a format version byte followed by the CBOR payload.
+ * Legacy java serialized rows are detected via stream magic and read
+ * transparently. Objects which can not be represented (custom classes, non
+ * plain values in maps) are written whole with java serialization.
+ *
+ * Integers are written at fixed width so that numeric values keep their type
+ * (Integer vs Long) on read.
+ *
+ * User authentications carry provider specific authentication graphs which can
+ * not be represented, so authentications bound to a user are written whole
+ * with java serialization instead of embedding opaque bytes in CBOR.
+ */
+public class CborTokenSerializer implements TokenSerializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(CborTokenSerializer.class);
+
+    public static final byte FORMAT_CBOR_V1 = 0x01;
+
+    private static final String TYPE_AAC = "aac";
+    private static final String TYPE_DEFAULT = "default";
+
+    private final TypeReference<LinkedHashMap<String, Object>> typeRef =
+        new TypeReference<LinkedHashMap<String, Object>>() {};
+
+    private final ObjectMapper mapper;
+
+    // fallback for legacy rows and non representable objects
+    private final JavaTokenSerializer javaSerializer = new JavaTokenSerializer();
+
+    public CborTokenSerializer() {
+        // fixed width ints: 4 bytes read back as Integer, 8 bytes as Long
+        this.mapper =
+            CBORMapper
+                .builder()
+                .disable(CBORGenerator.Feature.WRITE_MINIMAL_INTS)
+                .build()
+                .setSerializationInclusion(Include.NON_NULL);
+    }
+
+    public static boolean isCborSerialized(byte[] bytes) {
+        return bytes != null && bytes.length > 1 && bytes[0] == FORMAT_CBOR_V1;
+    }
+
+    /*
+     * Access tokens
+     */
+
+    @Override
+    public byte[] serializeAccessToken(OAuth2AccessToken token) {
+        Map<String, Object> map = toMap(token);
+        if (map == null) {
+            return javaSerializer.serializeAccessToken(token);
+        }
+
+        return write(map);
+    }
+
+    @Override
+    public OAuth2AccessToken deserializeAccessToken(byte[] bytes) {
+        if (!isCborSerialized(bytes)) {
+            return javaSerializer.deserializeAccessToken(bytes);
+        }
+
+        return toAccessToken(read(bytes));
+    }
+
+    /*
+     * Refresh tokens
+     */
+
+    @Override
+    public byte[] serializeRefreshToken(OAuth2RefreshToken token) {
+        Map<String, Object> map = toMap(token);
+        if (map == null) {
+            return javaSerializer.serializeRefreshToken(token);
+        }
+
+        return write(map);
+    }
+
+    @Override
+    public OAuth2RefreshToken deserializeRefreshToken(byte[] bytes) {
+        if (!isCborSerialized(bytes)) {
+            return javaSerializer.deserializeRefreshToken(bytes);
+        }
+
+        return toRefreshToken(read(bytes));
+    }
+
+    /*
+     * Authentications
+     */
+
+    @Override
+    public byte[] serializeAuthentication(OAuth2Authentication authentication) {
+        Map<String, Object> map = toMap(authentication);
+        if (map == null) {
+            return javaSerializer.serializeAuthentication(authentication);
+        }
+
+        return write(map);
+    }
+
+    @Override
+    public OAuth2Authentication deserializeAuthentication(byte[] bytes) {
+        if (!isCborSerialized(bytes)) {
+            return javaSerializer.deserializeAuthentication(bytes);
+        }
+
+        return toAuthentication(read(bytes));
+    }
+
+    /*
+     * Authorization requests
+     */
+
+    public byte[] serializeAuthorizationRequest(AuthorizationRequest request) {
+        Map<String, Object> map = toMap(request);
+        if (map == null) {
+            logger.debug("authorization request not representable, use java serialization");
+            return SerializationUtils.serialize(request);
+        }
+
+        return write(map);
+    }
+
+    public AuthorizationRequest deserializeAuthorizationRequest(byte[] bytes) {
+        if (!isCborSerialized(bytes)) {
+            return SerializationUtils.deserialize(bytes);
+        }
+
+        return toAuthorizationRequest(read(bytes));
+    }
+
+    /*
+     * Mapping
+     */
+
+    private Map<String, Object> toMap(OAuth2AccessToken token) {
+        if (token.getClass() != AACOAuth2AccessToken.class && token.getClass() != DefaultOAuth2AccessToken.class) {
+            return null;
+        }
+
+        if (!isPlain(token.getAdditionalInformation())) {
+            return null;
+        }
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("value", token.getValue());
+        map.put("token_type", token.getTokenType());
+        map.put("expiration", toTime(token.getExpiration()));
+        map.put("scope", token.getScope());
+        map.put("additional_information", token.getAdditionalInformation());
+
+        if (token.getRefreshToken() != null) {
+            Map<String, Object> refreshToken = toMap(token.getRefreshToken());
+            if (refreshToken == null) {
+                return null;
+            }
+
+            map.put("refresh_token", refreshToken);
+        }
+
+        if (token instanceof AACOAuth2AccessToken) {
+            AACOAuth2AccessToken accessToken = (AACOAuth2AccessToken) token;
+            if (!isPlain(accessToken.getClaims())) {
+                return null;
+            }
+
+            map.put("type", TYPE_AAC);
+            map.put("token", accessToken.getToken());
+            map.put("subject", accessToken.getSubject());
+            map.put("authorized_party", accessToken.getAuthorizedParty());
+            map.put("audience", accessToken.getAudience());
+            map.put("response_type", accessToken.getResponseType());
+            map.put("realm", accessToken.getRealm());
+            map.put("issued_at", toTime(accessToken.getIssuedAt()));
+            map.put("not_before", toTime(accessToken.getNotBeforeTime()));
+            map.put("claims", accessToken.getClaims());
+
+            if (accessToken.getIdToken() != null) {
+                try {
+                    map.put("id_token", accessToken.getIdToken().serialize());
+                } catch (IllegalStateException e) {
+                    // unsigned or unencrypted token, can't represent
+                    return null;
+                }
+            }
+        } else {
+            map.put("type", TYPE_DEFAULT);
+        }
+
+        return map;
+    }
+
+    private OAuth2AccessToken toAccessToken(Map<String, Object> map) {
+        String value = asString(map.get("value"));
+        Set<String> scope = asStringSet(map.get("scope"));
+        Map<String, Serializable> additionalInformation = asSerializableMap(map.get("additional_information"));
+        OAuth2RefreshToken refreshToken = null;
+        if (map.get("refresh_token") instanceof Map) {
+            refreshToken = toRefreshToken(asMap(map.get("refresh_token")));
+        }
+
+        if (TYPE_AAC.equals(map.get("type"))) {
+            String t = asString(map.get("token"));
+            AACOAuth2AccessToken token = StringUtils.hasText(t)
+                ? new AACOAuth2AccessToken(value, t)
+                : new AACOAuth2AccessToken(value);
+            token.setTokenType(asString(map.get("token_type")));
+            token.setExpiration(asDate(map.get("expiration")));
+            token.setRefreshToken(refreshToken);
+            if (scope != null) {
+                token.setScope(scope);
+            }
+            if (additionalInformation != null) {
+                token.setAdditionalInformation(additionalInformation);
+            }
+
+            token.setSubject(asString(map.get("subject")));
+            token.setAuthorizedParty(asString(map.get("authorized_party")));
+            Set<String> audience = asStringSet(map.get("audience"));
+            if (audience != null) {
+                token.setAudience(audience.toArray(new String[0]));
+            }
+            String responseType = asString(map.get("response_type"));
+            if (responseType != null) {
+                token.setResponseType(responseType);
+            }
+            token.setRealm(asString(map.get("realm")));
+            token.setIssuedAt(asDate(map.get("issued_at")));
+            token.setNotBeforeTime(asDate(map.get("not_before")));
+            token.setClaims(asSerializableMap(map.get("claims")));
+
+            String idToken = asString(map.get("id_token"));
+            if (idToken != null) {
+                try {
+                    token.setIdToken(JWTParser.parse(idToken));
+                } catch (ParseException e) {
+                    logger.error("error parsing id token: {}", e.getMessage());
+                    throw new IllegalArgumentException("invalid id token");
+                }
+            }
+
+            return token;
+        }
+
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(value);
+        token.setTokenType(asString(map.get("token_type")));
+        token.setExpiration(asDate(map.get("expiration")));
+        token.setRefreshToken(refreshToken);
+        if (scope != null) {
+            token.setScope(scope);
+        }
+        if (additionalInformation != null) {
+            token.setAdditionalInformation(additionalInformation);
+        }
+
+        return token;
+    }
+
+    private Map<String, Object> toMap(OAuth2RefreshToken token) {
+        if (
+            token.getClass() != DefaultOAuth2RefreshToken.class &&
+            token.getClass() != DefaultExpiringOAuth2RefreshToken.class
+        ) {
+            return null;
+        }
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("value", token.getValue());
+        if (token instanceof ExpiringOAuth2RefreshToken) {
+            map.put("expiration", toTime(((ExpiringOAuth2RefreshToken) token).getExpiration()));
+        }
+
+        return map;
+    }
+
+    private OAuth2RefreshToken toRefreshToken(Map<String, Object> map) {
+        String value = asString(map.get("value"));
+        Date expiration = asDate(map.get("expiration"));
+        if (expiration != null) {
+            return new DefaultExpiringOAuth2RefreshToken(value, expiration);
+        }
+
+        return new DefaultOAuth2RefreshToken(value);
+    }
+
+    private Map<String, Object> toMap(OAuth2Authentication authentication) {
+        if (authentication.getClass() != OAuth2Authentication.class || authentication.getDetails() != null) {
+            return null;
+        }
+
+        // user authentication graph is opaque, keep the whole record in legacy format
+        if (authentication.getUserAuthentication() != null) {
+            return null;
+        }
+
+        OAuth2Request request = authentication.getOAuth2Request();
+        if (
+            request.getClass() != OAuth2Request.class ||
+            request.getRefreshTokenRequest() != null ||
+            !isPlain(request.getExtensions())
+        ) {
+            return null;
+        }
+
+        List<Map<String, String>> authorities = toList(request.getAuthorities());
+        if (authorities == null) {
+            return null;
+        }
+
+        Map<String, Object> req = new LinkedHashMap<>();
+        req.put("client_id", request.getClientId());
+        req.put("request_parameters", request.getRequestParameters());
+        req.put("scope", request.getScope());
+        req.put("resource_ids", request.getResourceIds());
+        req.put("redirect_uri", request.getRedirectUri());
+        req.put("response_types", request.getResponseTypes());
+        req.put("approved", request.isApproved());
+        req.put("authorities", authorities);
+        req.put("extensions", request.getExtensions());
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("request", req);
+
+        return map;
+    }
+
+    private OAuth2Authentication toAuthentication(Map<String, Object> map) {
+        Map<String, Object> req = asMap(map.get("request"));
+        if (req == null) {
+            throw new IllegalArgumentException("missing request");
+        }
+
+        List<GrantedAuthority> authorities = asAuthorities(req.get("authorities"));
+        Map<String, String> requestParameters = asStringMap(req.get("request_parameters"));
+
+        Map<String, Serializable> extensions = asSerializableMap(req.get("extensions"));
+
+        OAuth2Request request = new OAuth2Request(
+            requestParameters,
+            asString(req.get("client_id")),
+            authorities,
+            Boolean.TRUE.equals(req.get("approved")),
+            asStringSet(req.get("scope")),
+            asStringSet(req.get("resource_ids")),
+            asString(req.get("redirect_uri")),
+            asStringSet(req.get("response_types")),
+            extensions != null ? new HashMap<>(extensions) : null
+        );
+
+        // records written by earlier versions may embed the user authentication
+        Authentication userAuthentication = null;
+        if (map.get("user") instanceof byte[]) {
+            userAuthentication = SerializationUtils.deserialize((byte[]) map.get("user"));
+        }
+
+        return new OAuth2Authentication(request, userAuthentication);
+    }
+
+    private Map<String, Object> toMap(AuthorizationRequest request) {
+        if (request.getClass() != AuthorizationRequest.class || !isPlain(request.getExtensions())) {
+            return null;
+        }
+
+        List<Map<String, String>> authorities = toList(request.getAuthorities());
+        if (authorities == null) {
+            return null;
+        }
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("client_id", request.getClientId());
+        map.put("request_parameters", request.getRequestParameters());
+        map.put("approval_parameters", request.getApprovalParameters());
+        map.put("scope", request.getScope());
+        map.put("resource_ids", request.getResourceIds());
+        map.put("redirect_uri", request.getRedirectUri());
+        map.put("response_types", request.getResponseTypes());
+        map.put("state", request.getState());
+        map.put("approved", request.isApproved());
+        map.put("authorities", authorities);
+        map.put("extensions", request.getExtensions());
+
+        return map;
+    }
+
+    private AuthorizationRequest toAuthorizationRequest(Map<String, Object> map) {
+        Set<String> scope = asStringSet(map.get("scope"));
+        Set<String> resourceIds = asStringSet(map.get("resource_ids"));
+        Set<String> responseTypes = asStringSet(map.get("response_types"));
+        Map<String, Serializable> extensions = asSerializableMap(map.get("extensions"));
+
+        AuthorizationRequest request = new AuthorizationRequest(
+            asStringMap(map.get("request_parameters")),
+            asStringMap(map.get("approval_parameters")),
+            asString(map.get("client_id")),
+            scope != null ? scope : new LinkedHashSet<>(),
+            resourceIds != null ? resourceIds : new LinkedHashSet<>(),
+            asAuthorities(map.get("authorities")),
+            Boolean.TRUE.equals(map.get("approved")),
+            asString(map.get("state")),
+            asString(map.get("redirect_uri")),
+            responseTypes != null ? responseTypes : new LinkedHashSet<>()
+        );
+        request.setApprovalParameters(asStringMap(map.get("approval_parameters")));
+        if (extensions != null) {
+            request.setExtensions(new HashMap<>(extensions));
+        }
+
+        return request;
+    }
+
+    private List<Map<String, String>> toList(Collection<? extends GrantedAuthority> authorities) {
+        List<Map<String, String>> list = new ArrayList<>();
+        if (authorities == null) {
+            return list;
+        }
+
+        for (GrantedAuthority authority : authorities) {
+            Map<String, String> a = new HashMap<>();
+            if (authority.getClass() == RealmGrantedAuthority.class) {
+                a.put("realm", ((RealmGrantedAuthority) authority).getRealm());
+                a.put("role", ((RealmGrantedAuthority) authority).getRole());
+            } else if (authority.getClass() == SimpleGrantedAuthority.class) {
+                a.put("role", authority.getAuthority());
+            } else {
+                return null;
+            }
+
+            list.add(a);
+        }
+
+        return list;
+    }
+
+    private List<GrantedAuthority> asAuthorities(Object value) {
+        List<GrantedAuthority> authorities = new ArrayList<>();
+        if (value instanceof Collection) {
+            for (Object o : (Collection<?>) value) {
+                Map<String, Object> a = asMap(o);
+                if (a == null) {
+                    continue;
+                }
+
+                String realm = asString(a.get("realm"));
+                String role = asString(a.get("role"));
+                authorities.add(realm != null ? new RealmGrantedAuthority(realm, role) : new SimpleGrantedAuthority(role));
+            }
+        }
+
+        return authorities;
+    }
+
+    /*
+     * Helpers
+     */
+
+    private byte[] write(Map<String, Object> map) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            out.write(FORMAT_CBOR_V1);
+            mapper.writeValue(out, map);
+            return out.toByteArray();
+        } catch (IOException e) {
+            logger.error("error writing data: {}", e.getMessage());
+            throw new IllegalArgumentException("error writing data", e);
+        }
+    }
+
+    private Map<String, Object> read(byte[] bytes) {
+        try {
+            return mapper.readValue(bytes, 1, bytes.length - 1, typeRef);
+        } catch (IOException e) {
+            logger.error("error reading data: {}", e.getMessage());
+            throw new IllegalArgumentException("error reading data", e);
+        }
+    }
+
+    /*
+     * Check if value can be represented in CBOR without type info
+     */
+    private static boolean isPlain(Object value) {
+        if (
+            value == null ||
+            value instanceof String ||
+            value instanceof Boolean ||
+            value instanceof Integer ||
+            value instanceof Long ||
+            value instanceof Double
+        ) {
+            return true;
+        }
+
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).stream().allMatch(v -> isPlain(v));
+        }
+
+        if (value instanceof Map) {
+            return ((Map<?, ?>) value).entrySet()
+                .stream()
+                .allMatch(e -> e.getKey() instanceof String && isPlain(e.getValue()));
+        }
+
+        return false;
+    }
+
+    private static Long toTime(Date date) {
+        return date != null ? date.getTime() : null;
+    }
+
+    private static Date asDate(Object value) {
+        return value instanceof Number ? new Date(((Number) value).longValue()) : null;
+    }
+
+    private static String asString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static Set<String> asStringSet(Object value) {
+        if (!(value instanceof Collection)) {
+            return null;
+        }
+
+        Set<String> set = new LinkedHashSet<>();
+        ((Collection<?>) value).forEach(v -> set.add(asString(v)));
+        return set;
+    }
+
+    private static Map<String, String> asStringMap(Object value) {
+        Map<String, String> result = new HashMap<>();
+        Map<String, Object> map = asMap(value);
+        if (map != null) {
+            map.forEach((k, v) -> result.put(k, asString(v)));
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : null;
+    }
+
+    private static Map<String, Serializable> asSerializableMap(Object value) {
+        Map<String, Object> map = asMap(value);
+        if (map == null) {
+            return null;
+        }
+
+        // plain values read back from CBOR are all serializable
+        Map<String, Serializable> result = new LinkedHashMap<>();
+        map.forEach((k, v) -> result.put(k, (Serializable) v));
+        return result;
+    }
+}
@@ -19,6 +19,7 @@ package it.smartcommunitylab.aac.oauth.store;
 import java.util.Collection;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.token.TokenStore;
 
 /**
@@ -50,6 +51,37 @@ public interface ExtTokenStore extends TokenStore {
      */
     public OAuth2RefreshToken readRefreshTokenForUpdate(String token);
 
+    /**
+     * Replace a refresh token with a new one, atomically: returns false when the
+     * current token was already consumed by a concurrent request
+     *
+     * @param refreshToken
+     * @param refreshedToken
+     * @param authentication
+     * @return
+     */
+    public boolean rotateRefreshToken(
+        OAuth2RefreshToken refreshToken,
+        OAuth2RefreshToken refreshedToken,
+        OAuth2Authentication authentication
+    );
+
+    /**
+     * Read access token along with authentication in a single lookup
+     *
+     * @param tokenValue
+     * @return
+     */
+    public StoredToken<OAuth2AccessToken> readAccessTokenWithAuthentication(String tokenValue);
+
+    /**
+     * Read refresh token along with authentication in a single lookup
+     *
+     * @param tokenValue
+     * @return
+     */
+    public StoredToken<OAuth2RefreshToken> readRefreshTokenWithAuthentication(String tokenValue);
+
 
     /**
      * @param clientId the client id to search
@@ -16,85 +16,107 @@
 
 package it.smartcommunitylab.aac.oauth.store;
 
-import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.springframework.security.oauth2.provider.AuthorizationRequest;
 import org.springframework.util.Assert;
-import org.springframework.util.DigestUtils;
-import org.springframework.util.StringUtils;
 
-public class InMemoryAuthorizationRequestStore implements AuthorizationRequestStore, Serializable {
+/*
+ * In memory local request store, bounded in size and with expiry
+ */
+public class InMemoryAuthorizationRequestStore extends AbstractAuthorizationRequestStore implements MeterBinder {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
 
-    private final Map<String, AuthorizationRequest> requests;
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    private Cache<String, AuthorizationRequest> requests;
 
     public InMemoryAuthorizationRequestStore() {
-        this.requests = new ConcurrentHashMap<>();
+        this.requests = buildCache();
+    }
+
+    @Override
+    public void setTtl(int ttl) {
+        super.setTtl(ttl);
+        this.requests = buildCache();
+    }
+
+    public void setMaxSize(int maxSize) {
+        Assert.isTrue(maxSize > 0, "max size must be positive");
+        this.maxSize = maxSize;
+        this.requests = buildCache();
     }
 
     @Override
     public AuthorizationRequest find(String key) {
         Assert.hasText(key, "key can not be null or empty");
-        return requests.get(key);
+        return requests.getIfPresent(bind(key));
     }
 
     @Override
     public Collection<AuthorizationRequest> findAll() {
-        return Collections.unmodifiableCollection(requests.values());
+        // return only requests bound to the current session
+        String prefix = bind("");
+        return Collections.unmodifiableCollection(
+            requests
+                .asMap()
+                .entrySet()
+                .stream()
+                .filter(e -> e.getKey().startsWith(prefix))
+                .map(e -> e.getValue())
+                .collect(Collectors.toList())
+        );
     }
 
     @Override
     public String store(AuthorizationRequest request) {
         String key = extractKey(request);
-        requests.put(key, request);
+        requests.put(bind(key), request);
 
         return key;
     }
 
     @Override
     public void store(AuthorizationRequest request, String key) {
-        requests.put(key, request);
+        requests.put(bind(key), request);
     }
 
     @Override
     public void remove(String key) {
-        requests.remove(key);
+        requests.invalidate(bind(key));
     }
 
-    private String extractKey(AuthorizationRequest request) {
-        // use a sorted map as source to ensure consistency
-        Map<String, String> values = new TreeMap<String, String>();
+    @Override
+    public void purgeExpired() {
+        requests.cleanUp();
+    }
 
-        values.put("client_id", request.getClientId());
-        values.put(
-            "response_type",
-            StringUtils.collectionToCommaDelimitedString(new TreeSet<String>(request.getResponseTypes()))
-        );
-        values.put("scope", StringUtils.collectionToCommaDelimitedString(new TreeSet<String>(request.getScope())));
-        values.put("redirect_uri", request.getRedirectUri());
-        values.put("state", request.getState());
-        values.put(
-            "resource",
-            StringUtils.collectionToCommaDelimitedString(new TreeSet<String>(request.getResourceIds()))
-        );
+    @Override
+    public long count() {
+        return requests.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, requests, "oauth2.authorization.requests");
+        Gauge.builder("oauth2.authorization.requests.live", this, s -> s.count()).register(registry);
+    }
 
-        // build key and reduce to md5hash
-        StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, String> entry : values.entrySet()) {
-            if (entry.getValue() != null) {
-                sb.append(entry.getKey()).append("=").append(entry.getValue()).append(";");
-            }
-        }
-
-        try {
-            return DigestUtils.md5DigestAsHex(sb.toString().getBytes("UTF-8"));
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalStateException("error building key");
-        }
+    private Cache<String, AuthorizationRequest> buildCache() {
+        return CacheBuilder
+            .newBuilder()
+            .expireAfterWrite(ttl, TimeUnit.SECONDS)
+            .maximumSize(maxSize)
+            .recordStats()
+            .build();
     }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.smartcommunitylab.aac.oauth.store;
+
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.common.util.SerializationUtils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+/*
+ * Legacy serializer based on java serialization
+ *
+ * Rows written in CBOR by other nodes are still readable, so that the format
+ * can be switched back and forth during rolling upgrades.
+ */
+public class JavaTokenSerializer implements TokenSerializer {
+
+    // java serialization stream magic header
+    private static final byte MAGIC_0 = (byte) 0xAC;
+    private static final byte MAGIC_1 = (byte) 0xED;
+
+    // reader for cbor rows, built on first use
+    private CborTokenSerializer cborSerializer;
+
+    public static boolean isJavaSerialized(byte[] bytes) {
+        return bytes != null && bytes.length > 1 && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+    }
+
+    private synchronized CborTokenSerializer getCborSerializer() {
+        if (cborSerializer == null) {
+            cborSerializer = new CborTokenSerializer();
+        }
+
+        return cborSerializer;
+    }
+
+    @Override
+    public byte[] serializeAccessToken(OAuth2AccessToken token) {
+        return SerializationUtils.serialize(token);
+    }
+
+    @Override
+    public byte[] serializeRefreshToken(OAuth2RefreshToken token) {
+        return SerializationUtils.serialize(token);
+    }
+
+    @Override
+    public byte[] serializeAuthentication(OAuth2Authentication authentication) {
+        return SerializationUtils.serialize(authentication);
+    }
+
+    @Override
+    public OAuth2AccessToken deserializeAccessToken(byte[] bytes) {
+        if (CborTokenSerializer.isCborSerialized(bytes)) {
+            return getCborSerializer().deserializeAccessToken(bytes);
+        }
+
+        return SerializationUtils.deserialize(bytes);
+    }
+
+    @Override
+    public OAuth2RefreshToken deserializeRefreshToken(byte[] bytes) {
+        if (CborTokenSerializer.isCborSerialized(bytes)) {
+            return getCborSerializer().deserializeRefreshToken(bytes);
+        }
+
+        return SerializationUtils.deserialize(bytes);
+    }
+
+    @Override
+    public OAuth2Authentication deserializeAuthentication(byte[] bytes) {
+        if (CborTokenSerializer.isCborSerialized(bytes)) {
+            return getCborSerializer().deserializeAuthentication(bytes);
+        }
+
+        return SerializationUtils.deserialize(bytes);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.smartcommunitylab.aac.oauth.store;
+
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.util.Assert;
+
+/*
+ * A persisted token along with the authentication it was issued for
+ */
+public class StoredToken<T> {
+
+    private final T token;
+    private final OAuth2Authentication authentication;
+
+    public StoredToken(T token, OAuth2Authentication authentication) {
+        Assert.notNull(token, "token can not be null");
+        this.token = token;
+        this.authentication = authentication;
+    }
+
+    public T getToken() {
+        return token;
+    }
+
+    public OAuth2Authentication getAuthentication() {
+        return authentication;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.smartcommunitylab.aac.oauth.store;
+
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+/*
+ * Serialization strategy for persisted tokens
+ *
+ * Implementations must be able to read back data written by previous formats
+ */
+public interface TokenSerializer {
+    public byte[] serializeAccessToken(OAuth2AccessToken token);
+
+    public byte[] serializeRefreshToken(OAuth2RefreshToken token);
+
+    public byte[] serializeAuthentication(OAuth2Authentication authentication);
+
+    public OAuth2AccessToken deserializeAccessToken(byte[] bytes);
+
+    public OAuth2RefreshToken deserializeRefreshToken(byte[] bytes);
+
+    public OAuth2Authentication deserializeAuthentication(byte[] bytes);
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.oauth.store.jdbc;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import it.smartcommunitylab.aac.oauth.store.AbstractAuthorizationRequestStore;
+import it.smartcommunitylab.aac.oauth.store.CborTokenSerializer;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.support.SqlLobValue;
+import org.springframework.security.oauth2.provider.AuthorizationRequest;
+import org.springframework.util.Assert;
+
+/*
+ * JDBC request store, shared between nodes
+ *
+ * Requests are still bound to the http session, which is expected to be
+ * shared as well. Requests are persisted as CBOR, legacy java serialized
+ * rows are still read.
+ */
+public class AutoJdbcAuthorizationRequestStore extends AbstractAuthorizationRequestStore implements MeterBinder {
+
+    private static final String DEFAULT_SELECT_STATEMENT =
+        "select request_key, request from oauth_authorization_request where request_key = ? and expires_at > ?";
+    private static final String DEFAULT_SELECT_PREFIX_STATEMENT =
+        "select request_key, request from oauth_authorization_request where request_key like ? and expires_at > ?";
+    private static final String DEFAULT_INSERT_STATEMENT =
+        "insert into oauth_authorization_request (request_key, expires_at, request) values (?, ?, ?)";
+    private static final String DEFAULT_UPDATE_STATEMENT =
+        "update oauth_authorization_request set expires_at = ?, request = ? where request_key = ?";
+    private static final String DEFAULT_DELETE_STATEMENT = "delete from oauth_authorization_request where request_key = ?";
+    private static final String DEFAULT_DELETE_EXPIRED_STATEMENT =
+        "delete from oauth_authorization_request where expires_at <= ?";
+    private static final String DEFAULT_COUNT_STATEMENT =
+        "select count(*) from oauth_authorization_request where expires_at > ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CborTokenSerializer serializer = new CborTokenSerializer();
+
+    public AutoJdbcAuthorizationRequestStore(DataSource dataSource) {
+        Assert.notNull(dataSource, "DataSource required");
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    public AuthorizationRequest find(String key) {
+        Assert.hasText(key, "key can not be null or empty");
+        List<AuthorizationRequest> list = jdbcTemplate.query(
+            DEFAULT_SELECT_STATEMENT,
+            (rs, rowNum) -> serializer.deserializeAuthorizationRequest(rs.getBytes("request")),
+            bind(key),
+            now()
+        );
+
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    @Override
+    public Collection<AuthorizationRequest> findAll() {
+        // return only requests bound to the current session
+        String prefix = bind("");
+        List<AuthorizationRequest> list = jdbcTemplate.query(
+            DEFAULT_SELECT_PREFIX_STATEMENT,
+            (rs, rowNum) -> serializer.deserializeAuthorizationRequest(rs.getBytes("request")),
+            escape(prefix) + "%",
+            now()
+        );
+
+        return Collections.unmodifiableCollection(list);
+    }
+
+    @Override
+    public String store(AuthorizationRequest request) {
+        String key = extractKey(request);
+        store(request, key);
+
+        return key;
+    }
+
+    @Override
+    public void store(AuthorizationRequest request, String key) {
+        Assert.hasText(key, "key can not be null or empty");
+        String id = bind(key);
+        Timestamp expiresAt = new Timestamp(System.currentTimeMillis() + ttl * 1000L);
+        byte[] bytes = serializer.serializeAuthorizationRequest(request);
+
+        // update or insert
+        int count = jdbcTemplate.update(
+            DEFAULT_UPDATE_STATEMENT,
+            new Object[] { expiresAt, new SqlLobValue(bytes), id },
+            new int[] { Types.TIMESTAMP, Types.BLOB, Types.VARCHAR }
+        );
+        if (count == 0) {
+            jdbcTemplate.update(
+                DEFAULT_INSERT_STATEMENT,
+                new Object[] { id, expiresAt, new SqlLobValue(bytes) },
+                new int[] { Types.VARCHAR, Types.TIMESTAMP, Types.BLOB }
+            );
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        jdbcTemplate.update(DEFAULT_DELETE_STATEMENT, bind(key));
+    }
+
+    @Override
+    public void purgeExpired() {
+        int count = jdbcTemplate.update(DEFAULT_DELETE_EXPIRED_STATEMENT, now());
+        logger.debug("removed {} expired authorization requests", count);
+    }
+
+    @Override
+    public long count() {
+        Long count = jdbcTemplate.queryForObject(DEFAULT_COUNT_STATEMENT, Long.class, now());
+        return count != null ? count.longValue() : 0;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("oauth2.authorization.requests.live", this, s -> s.count()).register(registry);
+    }
+
+    private Timestamp now() {
+        return new Timestamp(System.currentTimeMillis());
+    }
+
+    private String escape(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -16,13 +16,23 @@
 
 package it.smartcommunitylab.aac.oauth.store.jdbc;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import it.smartcommunitylab.aac.oauth.AACOAuth2AccessToken;
 import it.smartcommunitylab.aac.oauth.store.ExtTokenStore;
 import it.smartcommunitylab.aac.oauth.store.ExtendedAuthenticationKeyGenerator;
+import it.smartcommunitylab.aac.oauth.store.JavaTokenSerializer;
+import it.smartcommunitylab.aac.oauth.store.StoredToken;
+import it.smartcommunitylab.aac.oauth.store.TokenSerializer;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 import org.slf4j.Logger;
@@ -38,6 +48,9 @@ import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
 import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
 import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
 
 /**
  * Token store with DB tables creation on startup.
@@ -46,7 +59,7 @@ import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
  * @author raman
  *
  */
-public class AutoJdbcTokenStore extends JdbcTokenStore implements ExtTokenStore {
+public class AutoJdbcTokenStore extends JdbcTokenStore implements ExtTokenStore, MeterBinder {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -55,21 +68,40 @@ public class AutoJdbcTokenStore extends JdbcTokenStore implements ExtTokenStore
     private static final String DEFAULT_ACCESS_TOKEN_INSERT_STATEMENT = "insert into oauth_access_token (token_id, token, authentication_id, user_name, client_id, issued_at, expires_at, authentication, refresh_token) values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
     private static final String DEFAULT_SELECT_ACCESS_TOKEN_FROM_REFRESH_TOKEN =
         "select token_id, token from oauth_access_token where refresh_token = ?";
+    private static final String DEFAULT_ACCESS_TOKEN_WITH_AUTHENTICATION_SELECT_STATEMENT =
+        "select token_id, token, authentication from oauth_access_token where token_id = ?";
+    private static final String DEFAULT_REFRESH_TOKEN_WITH_AUTHENTICATION_SELECT_STATEMENT =
+        "select token_id, token, authentication from oauth_refresh_token where token_id = ?";
     private static final String DEFAULT_REFRESH_TOKEN_SELECT_STATEMENT = "select token_id, token from oauth_refresh_token where token_id = ? FOR UPDATE";
 	private static final String DEFAULT_REFRESH_TOKEN_INSERT_STATEMENT = "insert into oauth_refresh_token (token_id, token, authentication_id, user_name, client_id, issued_at, expires_at, authentication) values (?, ?, ?, ?, ?, ?, ?, ?)";
 	private static final String DEFAULT_DELETE_EXPIRED_ACCESS_TOKENS_STATEMENT = "delete from oauth_access_token where expires_at < ?";
     private static final String DEFAULT_DELETE_EXPIRED_REFRESH_TOKENS_STATEMENT = "delete from oauth_refresh_token where expires_at < ?";
+    private static final String DEFAULT_REFRESH_TOKEN_CONSUME_STATEMENT = "delete from oauth_refresh_token where token_id = ?";
 
     private String insertAccessTokenSql = DEFAULT_ACCESS_TOKEN_INSERT_STATEMENT;
     private String selectAccessTokenFromRefreshTokenSql = DEFAULT_SELECT_ACCESS_TOKEN_FROM_REFRESH_TOKEN;
+    private String selectAccessTokenWithAuthenticationSql = DEFAULT_ACCESS_TOKEN_WITH_AUTHENTICATION_SELECT_STATEMENT;
+    private String selectRefreshTokenWithAuthenticationSql = DEFAULT_REFRESH_TOKEN_WITH_AUTHENTICATION_SELECT_STATEMENT;
 	private String deleteExpiredAccessTokenSql = DEFAULT_DELETE_EXPIRED_ACCESS_TOKENS_STATEMENT;	
 
 	private String insertRefreshTokenSql = DEFAULT_REFRESH_TOKEN_INSERT_STATEMENT;
     private String selectRefreshTokenSql = DEFAULT_REFRESH_TOKEN_SELECT_STATEMENT;
     private String deleteExpiredRefreshTokenSql = DEFAULT_DELETE_EXPIRED_REFRESH_TOKENS_STATEMENT;
+    private String consumeRefreshTokenSql = DEFAULT_REFRESH_TOKEN_CONSUME_STATEMENT;
 
     private AuthenticationKeyGenerator authenticationKeyGenerator = new DefaultAuthenticationKeyGenerator();
 
+    // legacy java format by default, cbor rows are read transparently
+    private TokenSerializer tokenSerializer = new JavaTokenSerializer();
+
+    // optional short lived cache of positive lookups with authentication, keyed
+    // by token key. Removals evict locally, other nodes see revocations after ttl.
+    // Rows are cached as bytes so that every lookup gets its own copy
+    private Cache<String, StoredRow> accessTokensCache;
+    private Cache<String, StoredRow> refreshTokensCache;
+
+    // bumped on every removal, lookups started before won't populate the cache
+    private final AtomicLong version = new AtomicLong();
 
     public AutoJdbcTokenStore(DataSource dataSource) {
         super(dataSource);
@@ -81,6 +113,63 @@ public class AutoJdbcTokenStore extends JdbcTokenStore implements ExtTokenStore
         super.setAuthenticationKeyGenerator(this.authenticationKeyGenerator );
     }
 
+    public void setTokenSerializer(TokenSerializer tokenSerializer) {
+        Assert.notNull(tokenSerializer, "token serializer can not be null");
+        this.tokenSerializer = tokenSerializer;
+    }
+
+    public void setCacheConfig(int ttl, int maxSize) {
+        if (ttl > 0 && maxSize > 0) {
+            this.accessTokensCache =
+                CacheBuilder.newBuilder().expireAfterWrite(ttl, TimeUnit.SECONDS).maximumSize(maxSize).recordStats().build();
+            this.refreshTokensCache =
+                CacheBuilder.newBuilder().expireAfterWrite(ttl, TimeUnit.SECONDS).maximumSize(maxSize).recordStats().build();
+        } else {
+            this.accessTokensCache = null;
+            this.refreshTokensCache = null;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (accessTokensCache != null) {
+            GuavaCacheMetrics.monitor(registry, accessTokensCache, "oauth2.tokens.access");
+        }
+        if (refreshTokensCache != null) {
+            GuavaCacheMetrics.monitor(registry, refreshTokensCache, "oauth2.tokens.refresh");
+        }
+    }
+
+    @Override
+    protected byte[] serializeAccessToken(OAuth2AccessToken token) {
+        return tokenSerializer.serializeAccessToken(token);
+    }
+
+    @Override
+    protected byte[] serializeRefreshToken(OAuth2RefreshToken token) {
+        return tokenSerializer.serializeRefreshToken(token);
+    }
+
+    @Override
+    protected byte[] serializeAuthentication(OAuth2Authentication authentication) {
+        return tokenSerializer.serializeAuthentication(authentication);
+    }
+
+    @Override
+    protected OAuth2AccessToken deserializeAccessToken(byte[] token) {
+        return tokenSerializer.deserializeAccessToken(token);
+    }
+
+    @Override
+    protected OAuth2RefreshToken deserializeRefreshToken(byte[] token) {
+        return tokenSerializer.deserializeRefreshToken(token);
+    }
+
+    @Override
+    protected OAuth2Authentication deserializeAuthentication(byte[] authentication) {
+        return tokenSerializer.deserializeAuthentication(authentication);
+    }
+
 
     @Override
     public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
@@ -143,6 +232,167 @@ public class AutoJdbcTokenStore extends JdbcTokenStore implements ExtTokenStore
 		return refreshToken;
 	}
 
+    @Override
+    public boolean rotateRefreshToken(
+        OAuth2RefreshToken refreshToken,
+        OAuth2RefreshToken refreshedToken,
+        OAuth2Authentication authentication
+    ) {
+        // compare and swap: only the request which actually deletes the row can
+        // store a successor, concurrent rotations of the same token will fail
+        String key = extractTokenKey(refreshToken.getValue());
+        int count = jdbcTemplate.update(consumeRefreshTokenSql, key);
+        if (count == 0) {
+            logger.debug("refresh token already consumed");
+            return false;
+        }
+
+        if (refreshTokensCache != null) {
+            evict(() -> refreshTokensCache.invalidate(key));
+        }
+
+        storeRefreshToken(refreshedToken, authentication);
+
+        return true;
+    }
+
+    @Override
+    public StoredToken<OAuth2AccessToken> readAccessTokenWithAuthentication(String tokenValue) {
+        String key = extractTokenKey(tokenValue);
+        if (accessTokensCache != null) {
+            StoredRow row = accessTokensCache.getIfPresent(key);
+            if (row != null) {
+                return new StoredToken<>(deserializeAccessToken(row.token), deserializeAuthentication(row.authentication));
+            }
+        }
+
+        long v = version.get();
+        StoredToken<OAuth2AccessToken> stored = null;
+        StoredRow row = null;
+
+        try {
+            row =
+                jdbcTemplate.queryForObject(
+                    selectAccessTokenWithAuthenticationSql,
+                    new RowMapper<StoredRow>() {
+                        public StoredRow mapRow(ResultSet rs, int rowNum) throws SQLException {
+                            return new StoredRow(rs.getBytes(2), rs.getBytes(3));
+                        }
+                    },
+                    key
+                );
+
+            stored = new StoredToken<>(deserializeAccessToken(row.token), deserializeAuthentication(row.authentication));
+            OAuth2RefreshToken refreshToken = stored.getToken().getRefreshToken();
+            row.refreshToken = refreshToken != null ? refreshToken.getValue() : null;
+        } catch (EmptyResultDataAccessException e) {
+            logger.debug("Failed to find access token for " + tokenValue);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Failed to deserialize access token for " + tokenValue, e);
+            removeAccessToken(tokenValue);
+        }
+
+        if (stored != null && accessTokensCache != null && version.get() == v) {
+            accessTokensCache.put(key, row);
+        }
+
+        return stored;
+    }
+
+    @Override
+    public StoredToken<OAuth2RefreshToken> readRefreshTokenWithAuthentication(String tokenValue) {
+        String key = extractTokenKey(tokenValue);
+        if (refreshTokensCache != null) {
+            StoredRow row = refreshTokensCache.getIfPresent(key);
+            if (row != null) {
+                return new StoredToken<>(deserializeRefreshToken(row.token), deserializeAuthentication(row.authentication));
+            }
+        }
+
+        long v = version.get();
+        StoredToken<OAuth2RefreshToken> stored = null;
+        StoredRow row = null;
+
+        try {
+            row =
+                jdbcTemplate.queryForObject(
+                    selectRefreshTokenWithAuthenticationSql,
+                    new RowMapper<StoredRow>() {
+                        public StoredRow mapRow(ResultSet rs, int rowNum) throws SQLException {
+                            return new StoredRow(rs.getBytes(2), rs.getBytes(3));
+                        }
+                    },
+                    key
+                );
+
+            stored = new StoredToken<>(deserializeRefreshToken(row.token), deserializeAuthentication(row.authentication));
+        } catch (EmptyResultDataAccessException e) {
+            logger.debug("Failed to find refresh token for " + tokenValue);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Failed to deserialize refresh token for " + tokenValue, e);
+            removeRefreshToken(tokenValue);
+        }
+
+        if (stored != null && refreshTokensCache != null && version.get() == v) {
+            refreshTokensCache.put(key, row);
+        }
+
+        return stored;
+    }
+
+    @Override
+    public void removeAccessToken(String tokenValue) {
+        super.removeAccessToken(tokenValue);
+
+        if (accessTokensCache != null) {
+            String key = extractTokenKey(tokenValue);
+            evict(() -> accessTokensCache.invalidate(key));
+        }
+    }
+
+    @Override
+    public void removeRefreshToken(String tokenValue) {
+        super.removeRefreshToken(tokenValue);
+
+        if (refreshTokensCache != null) {
+            String key = extractTokenKey(tokenValue);
+            evict(() -> refreshTokensCache.invalidate(key));
+        }
+    }
+
+    @Override
+    public void removeAccessTokenUsingRefreshToken(String refreshToken) {
+        super.removeAccessTokenUsingRefreshToken(refreshToken);
+
+        if (accessTokensCache != null) {
+            // no index by refresh, scan cached entries
+            evict(() ->
+                accessTokensCache
+                    .asMap()
+                    .values()
+                    .removeIf(r -> refreshToken.equals(r.refreshToken))
+            );
+        }
+    }
+
+    private void evict(Runnable eviction) {
+        version.incrementAndGet();
+        eviction.run();
+
+        // evict again after completion to avoid caching rows read by concurrent
+        // lookups before commit
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        version.incrementAndGet();
+                        eviction.run();
+                    }
+                }
+            );
+        }
+    }
 
     @Override
 	public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
@@ -198,6 +448,11 @@ public class AutoJdbcTokenStore extends JdbcTokenStore implements ExtTokenStore
         long timestamp = System.currentTimeMillis()- (interval*1000);
 
         jdbcTemplate.update(deleteExpiredAccessTokenSql, new Object[] {new java.sql.Timestamp(timestamp)}, new int[] {Types.TIMESTAMP});
+
+        if (accessTokensCache != null) {
+            // bulk delete, rows are not known here
+            evict(() -> accessTokensCache.invalidateAll());
+        }
     }
 
 
@@ -207,6 +462,27 @@ public class AutoJdbcTokenStore extends JdbcTokenStore implements ExtTokenStore
           long timestamp = System.currentTimeMillis()- (interval*1000);
 
           jdbcTemplate.update(deleteExpiredRefreshTokenSql, new Object[] {new java.sql.Timestamp(timestamp)}, new int[] {Types.TIMESTAMP});
+
+        if (refreshTokensCache != null) {
+            // bulk delete, rows are not known here
+            evict(() -> refreshTokensCache.invalidateAll());
+        }
       }
-   
+
+    /*
+     * Cached row, deserialized on every hit
+     */
+    private static class StoredRow {
+
+        private final byte[] token;
+        private final byte[] authentication;
+
+        // refresh token value bound to access tokens, for eviction
+        private String refreshToken;
+
+        StoredRow(byte[] token, byte[] authentication) {
+            this.token = token;
+            this.authentication = authentication;
+        }
+    }
 }
@@ -99,7 +99,7 @@ public class CustomProfileClaimsExtractorProvider implements ScopeClaimsExtracto
         return scope;
     }
 
-    private String buildScope(String id) {
+    public static String buildScope(String id) {
         return "profile." + id + ".me";
     }
 }
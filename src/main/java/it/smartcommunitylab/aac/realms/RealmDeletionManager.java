@@ -0,0 +1,522 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.realms;
+
+import it.smartcommunitylab.aac.Config;
+import it.smartcommunitylab.aac.accounts.model.UserAccount;
+import it.smartcommunitylab.aac.accounts.persistence.UserAccountService;
+import it.smartcommunitylab.aac.attributes.AttributeSetsManager;
+import it.smartcommunitylab.aac.attributes.model.AttributeSet;
+import it.smartcommunitylab.aac.attributes.model.ConfigurableAttributeProvider;
+import it.smartcommunitylab.aac.attributes.service.AttributeProviderService;
+import it.smartcommunitylab.aac.clients.ClientManager;
+import it.smartcommunitylab.aac.common.NoSuchAttributeSetException;
+import it.smartcommunitylab.aac.common.NoSuchAuthorityException;
+import it.smartcommunitylab.aac.common.NoSuchClientException;
+import it.smartcommunitylab.aac.common.NoSuchProviderException;
+import it.smartcommunitylab.aac.common.NoSuchRealmException;
+import it.smartcommunitylab.aac.common.NoSuchServiceException;
+import it.smartcommunitylab.aac.common.SystemException;
+import it.smartcommunitylab.aac.core.SessionManager;
+import it.smartcommunitylab.aac.core.model.Client;
+import it.smartcommunitylab.aac.credentials.persistence.UserCredentialsService;
+import it.smartcommunitylab.aac.groups.service.GroupService;
+import it.smartcommunitylab.aac.identity.model.ConfigurableIdentityProvider;
+import it.smartcommunitylab.aac.identity.service.IdentityProviderService;
+import it.smartcommunitylab.aac.model.Group;
+import it.smartcommunitylab.aac.model.Realm;
+import it.smartcommunitylab.aac.model.RealmRole;
+import it.smartcommunitylab.aac.oauth.store.SearchableApprovalStore;
+import it.smartcommunitylab.aac.password.model.InternalUserPassword;
+import it.smartcommunitylab.aac.realms.model.RealmDeletion;
+import it.smartcommunitylab.aac.realms.model.RealmDeletionPhase;
+import it.smartcommunitylab.aac.realms.model.RealmDeletionStatus;
+import it.smartcommunitylab.aac.realms.service.RealmDeletionService;
+import it.smartcommunitylab.aac.realms.service.RealmService;
+import it.smartcommunitylab.aac.roles.RealmRoleManager;
+import it.smartcommunitylab.aac.services.ServicesManager;
+import it.smartcommunitylab.aac.templates.model.ConfigurableTemplateProvider;
+import it.smartcommunitylab.aac.templates.model.TemplateModel;
+import it.smartcommunitylab.aac.templates.service.TemplateProviderService;
+import it.smartcommunitylab.aac.templates.service.TemplateService;
+import it.smartcommunitylab.aac.users.service.UserEntityService;
+import it.smartcommunitylab.aac.users.service.UserService;
+import it.smartcommunitylab.aac.webauthn.model.WebAuthnUserCredential;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.provider.approval.Approval;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+/*
+ * Realm deletion as a background job
+ *
+ * Each job walks a fixed sequence of idempotent phases, persisting the current
+ * one so that after a restart pending jobs are resumed from where they stopped.
+ * Users are streamed by id in chunks and removed with set based deletes.
+ *
+ * The realm is disabled as soon as the job is registered: user and client
+ * authentication managers reject realms with an unfinished deletion, while
+ * providers stay registered until their phase to cleanup user identities.
+ */
+@Service
+public class RealmDeletionManager implements ApplicationListener<ApplicationReadyEvent>, DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    @Value("${admin.username}")
+    private String adminUsername;
+
+    @Autowired
+    private RealmService realmService;
+
+    @Autowired
+    private RealmDeletionService deletionService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserEntityService userEntityService;
+
+    @Autowired
+    private SessionManager sessionManager;
+
+    @Autowired
+    private SearchableApprovalStore approvalStore;
+
+    @Autowired
+    private ClientManager clientManager;
+
+    @Autowired
+    private IdentityProviderService identityProviderService;
+
+    @Autowired
+    private AttributeProviderService attributeProviderService;
+
+    @Autowired
+    private TemplateProviderService templateProviderService;
+
+    @Autowired
+    private TemplateService templateService;
+
+    @Autowired
+    private ServicesManager servicesManager;
+
+    @Autowired
+    private AttributeSetsManager attributeManager;
+
+    @Autowired
+    private GroupService groupService;
+
+    @Autowired
+    private RealmRoleManager roleManager;
+
+    @Autowired
+    private UserCredentialsService<WebAuthnUserCredential> webAuthnUserCredentialsService;
+
+    @Autowired
+    private UserCredentialsService<InternalUserPassword> internalUserPasswordService;
+
+    @Autowired
+    private List<UserAccountService<? extends UserAccount>> userAccountServices;
+
+    // jobs run one at a time, realm deletion is rare and heavy on the db
+    private final ExecutorService executor;
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    public RealmDeletionManager() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("realms-deletion-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    public void setChunkSize(int chunkSize) {
+        Assert.isTrue(chunkSize > 0, "chunk size must be a positive value");
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        // resume jobs interrupted by a shutdown or crash
+        deletionService
+            .listActiveDeletions()
+            .forEach(d -> {
+                logger.info("resume deletion of realm {} from phase {}", d.getSlug(), d.getPhase());
+                schedule(d.getSlug());
+            });
+    }
+
+    /*
+     * Jobs
+     */
+    public RealmDeletion submit(String slug) throws NoSuchRealmException {
+        Realm realm = realmService.getRealm(slug);
+
+        RealmDeletion d = deletionService.findDeletion(realm.getSlug());
+        if (
+            d == null ||
+            (d.getStatus() != RealmDeletionStatus.PENDING && d.getStatus() != RealmDeletionStatus.RUNNING)
+        ) {
+            // new job, or restart a failed one from scratch
+            // the pending job disables the realm before any data is removed
+            long total = userEntityService.countUsers(realm.getSlug());
+            d = deletionService.addDeletion(realm.getSlug(), total);
+        }
+
+        schedule(realm.getSlug());
+        return d;
+    }
+
+    /*
+     * Remove only the realm, synchronously
+     */
+    public RealmDeletion delete(String slug) throws NoSuchRealmException {
+        Realm realm = realmService.getRealm(slug);
+        realmService.deleteRealm(realm.getSlug());
+
+        // close any failed job left for the same realm
+        RealmDeletion d = deletionService.findDeletion(realm.getSlug());
+        if (d != null && d.getStatus() == RealmDeletionStatus.FAILED) {
+            return deletionService.updateDeletion(realm.getSlug(), RealmDeletionStatus.COMPLETED, null);
+        }
+
+        d = new RealmDeletion(realm.getSlug());
+        d.setStatus(RealmDeletionStatus.COMPLETED);
+        return d;
+    }
+
+    public RealmDeletion findDeletion(String slug) {
+        return deletionService.findDeletion(slug);
+    }
+
+    private void schedule(String slug) {
+        // avoid queuing the same job twice on this node
+        if (!scheduled.add(slug)) {
+            return;
+        }
+
+        // managers require an authenticated admin, jobs may run without a request
+        Runnable run = () -> {
+            try {
+                execute(slug);
+            } finally {
+                scheduled.remove(slug);
+            }
+        };
+
+        executor.execute(new DelegatingSecurityContextRunnable(run, initContext(adminUsername)));
+    }
+
+    private void execute(String slug) {
+        RealmDeletion d = deletionService.findDeletion(slug);
+        if (d == null) {
+            return;
+        }
+
+        RealmDeletionPhase start = d.getPhase() != null ? d.getPhase() : RealmDeletionPhase.USERS;
+        logger.debug("execute deletion of realm {} from phase {}", slug, start);
+
+        try {
+            for (RealmDeletionPhase phase : RealmDeletionPhase.values()) {
+                if (phase.ordinal() < start.ordinal()) {
+                    continue;
+                }
+
+                deletionService.updateDeletion(slug, RealmDeletionStatus.RUNNING, phase);
+                logger.debug("deletion of realm {} phase {}", slug, phase);
+                execute(slug, phase);
+            }
+
+            deletionService.updateDeletion(slug, RealmDeletionStatus.COMPLETED, null);
+            logger.info("deletion of realm {} completed", slug);
+        } catch (RuntimeException e) {
+            logger.error("error deleting realm {}: {}", slug, e.getMessage());
+            deletionService.failDeletion(slug, e.getMessage());
+        }
+    }
+
+    private void execute(String slug, RealmDeletionPhase phase) {
+        switch (phase) {
+            case USERS:
+                deleteUsers(slug);
+                break;
+            case CREDENTIALS:
+                deleteCredentials(slug);
+                break;
+            case CLIENTS:
+                deleteClients(slug);
+                break;
+            case ATTRIBUTES:
+                deleteAttributeSets(slug);
+                break;
+            case GROUPS:
+                deleteGroups(slug);
+                break;
+            case ROLES:
+                deleteRoles(slug);
+                break;
+            case PROVIDERS:
+                deleteProviders(slug);
+                break;
+            case SERVICES:
+                deleteServices(slug);
+                break;
+            case TEMPLATES:
+                deleteTemplates(slug);
+                break;
+            case ACCOUNTS:
+                deleteAccounts(slug);
+                break;
+            case REALM:
+                realmService.deleteRealm(slug);
+                break;
+        }
+    }
+
+    /*
+     * Phases
+     */
+    private void deleteUsers(String slug) {
+        // always read the first chunk, every iteration deletes what was read
+        List<String> ids = userEntityService.listUserIds(slug, chunkSize);
+        while (!ids.isEmpty()) {
+            for (String id : ids) {
+                // kill sessions
+                sessionManager.destroyUserSessions(id);
+
+                // approvals
+                try {
+                    Collection<Approval> userApprovals = approvalStore.findUserApprovals(id);
+                    approvalStore.revokeApprovals(userApprovals);
+                    Collection<Approval> clientApprovals = approvalStore.findClientApprovals(id);
+                    approvalStore.revokeApprovals(clientApprovals);
+                } catch (Exception e) {}
+            }
+
+            userService.deleteUsers(slug, ids);
+            deletionService.addProcessed(slug, ids.size());
+            logger.trace("deleted {} users from realm {}", ids.size(), slug);
+
+            List<String> next = userEntityService.listUserIds(slug, chunkSize);
+            if (next.equals(ids)) {
+                // nothing was deleted, avoid looping forever
+                throw new SystemException("error deleting users");
+            }
+
+            ids = next;
+        }
+    }
+
+    private void deleteCredentials(String slug) {
+        // TODO refactor using credentialsService
+        List<String> passwords = internalUserPasswordService
+            .findCredentialsByRealm(slug)
+            .stream()
+            .map(p -> p.getId())
+            .collect(Collectors.toList());
+        internalUserPasswordService.deleteAllCredentials(slug, passwords);
+
+        List<String> credentials = webAuthnUserCredentialsService
+            .findCredentialsByRealm(slug)
+            .stream()
+            .map(p -> p.getId())
+            .collect(Collectors.toList());
+        webAuthnUserCredentialsService.deleteAllCredentials(slug, credentials);
+    }
+
+    private void deleteClients(String slug) {
+        try {
+            List<Client> clients = clientManager.listClients(slug);
+            for (Client client : clients) {
+                try {
+                    // check ownership
+                    if (client.getRealm().equals(slug)) {
+                        // remove, will kill active sessions and cleanup
+                        clientManager.deleteClientApp(slug, client.getClientId());
+                    }
+                } catch (NoSuchClientException e) {
+                    // skip
+                }
+            }
+        } catch (NoSuchRealmException e) {
+            // already deleted
+        }
+    }
+
+    private void deleteAttributeSets(String slug) {
+        Collection<AttributeSet> attributeSets = attributeManager.listAttributeSets(slug, false);
+        for (AttributeSet set : attributeSets) {
+            try {
+                // remove, should cleanup user association for leftovers
+                attributeManager.deleteAttributeSet(slug, set.getIdentifier());
+            } catch (NoSuchAttributeSetException e) {
+                // skip
+            }
+        }
+    }
+
+    private void deleteGroups(String slug) {
+        Collection<Group> groups = groupService.listGroups(slug);
+        for (Group group : groups) {
+            // remove, should cleanup user association for leftovers
+            groupService.deleteGroup(slug, group.getGroupId());
+        }
+    }
+
+    private void deleteRoles(String slug) {
+        Collection<RealmRole> roles = roleManager.getRealmRoles(slug);
+        for (RealmRole role : roles) {
+            try {
+                // remove, should cleanup user association for leftovers
+                roleManager.deleteRealmRole(slug, role.getRoleId());
+            } catch (Exception e) {
+                // skip
+            }
+        }
+    }
+
+    private void deleteProviders(String slug) {
+        // remove all identity providers, will also invalidate sessions for idps
+        Collection<ConfigurableIdentityProvider> idps = identityProviderService.listProviders(slug);
+        for (ConfigurableIdentityProvider provider : idps) {
+            try {
+                String providerId = provider.getProvider();
+                // stop provider, will terminate sessions
+                identityProviderService.unregisterProvider(providerId);
+
+                // remove provider
+                identityProviderService.deleteProvider(providerId);
+            } catch (NoSuchProviderException | NoSuchAuthorityException | SystemException e) {
+                // skip
+                logger.error("Error deleting realm for provider {}: {}", provider.getProvider(), e.getMessage());
+            }
+        }
+
+        // remove all attribute providers
+        Collection<ConfigurableAttributeProvider> aps = attributeProviderService.listProviders(slug);
+        for (ConfigurableAttributeProvider provider : aps) {
+            try {
+                String providerId = provider.getProvider();
+                // stop provider
+                attributeProviderService.unregisterProvider(providerId);
+
+                // remove provider
+                attributeProviderService.deleteProvider(providerId);
+            } catch (NoSuchProviderException | NoSuchAuthorityException | SystemException e) {
+                // skip
+                logger.error("Error deleting realm for provider {}: {}", provider.getProvider(), e.getMessage());
+            }
+        }
+
+        // remove all template providers
+        Collection<ConfigurableTemplateProvider> tps = templateProviderService.listProviders(slug);
+        for (ConfigurableTemplateProvider provider : tps) {
+            try {
+                String providerId = provider.getProvider();
+                // stop provider
+                templateProviderService.unregisterProvider(providerId);
+
+                // remove provider
+                templateProviderService.deleteProvider(providerId);
+            } catch (NoSuchProviderException | NoSuchAuthorityException | SystemException e) {
+                // skip
+                logger.error("Error deleting realm for provider {}: {}", provider.getProvider(), e.getMessage());
+            }
+        }
+    }
+
+    private void deleteServices(String slug) {
+        try {
+            List<it.smartcommunitylab.aac.services.Service> services = servicesManager.listServices(slug);
+            for (it.smartcommunitylab.aac.services.Service service : services) {
+                try {
+                    // remove, will cleanup
+                    servicesManager.deleteService(slug, service.getServiceId());
+                } catch (NoSuchServiceException e) {
+                    // skip
+                }
+            }
+        } catch (NoSuchRealmException e) {
+            // already deleted
+        }
+    }
+
+    private void deleteTemplates(String slug) {
+        Collection<TemplateModel> templates = templateService.listTemplatesByRealm(slug);
+        for (TemplateModel template : templates) {
+            try {
+                templateService.deleteTemplate(template.getId());
+            } catch (Exception e) {
+                // skip
+            }
+        }
+    }
+
+    private void deleteAccounts(String slug) {
+        // orphan user accounts
+        userAccountServices.forEach(accountService -> {
+            try {
+                accountService.deleteAllAccountsByRealm(slug);
+            } catch (Exception e) {
+                // skip
+            }
+        });
+    }
+
+    private SecurityContext initContext(String username) {
+        // use an auth token with admin authority
+        UsernamePasswordAuthenticationToken token = new UsernamePasswordAuthenticationToken(
+            username,
+            null,
+            Collections.singletonList(new SimpleGrantedAuthority(Config.R_ADMIN))
+        );
+
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(token);
+
+        return context;
+    }
+}
@@ -19,51 +19,35 @@ package it.smartcommunitylab.aac.realms;
 import it.smartcommunitylab.aac.Config;
 import it.smartcommunitylab.aac.SystemKeys;
 import it.smartcommunitylab.aac.accounts.base.AbstractUserAccount;
-import it.smartcommunitylab.aac.accounts.model.UserAccount;
 import it.smartcommunitylab.aac.accounts.persistence.UserAccountService;
-import it.smartcommunitylab.aac.attributes.AttributeSetsManager;
-import it.smartcommunitylab.aac.attributes.model.AttributeSet;
 import it.smartcommunitylab.aac.attributes.model.ConfigurableAttributeProvider;
 import it.smartcommunitylab.aac.attributes.service.AttributeProviderService;
 import it.smartcommunitylab.aac.clients.ClientManager;
-import it.smartcommunitylab.aac.common.NoSuchAttributeSetException;
 import it.smartcommunitylab.aac.common.NoSuchAuthorityException;
-import it.smartcommunitylab.aac.common.NoSuchClientException;
 import it.smartcommunitylab.aac.common.NoSuchProviderException;
 import it.smartcommunitylab.aac.common.NoSuchRealmException;
-import it.smartcommunitylab.aac.common.NoSuchServiceException;
 import it.smartcommunitylab.aac.common.NoSuchUserException;
 import it.smartcommunitylab.aac.common.RegistrationException;
-import it.smartcommunitylab.aac.common.SystemException;
 import it.smartcommunitylab.aac.config.ApplicationProperties;
 import it.smartcommunitylab.aac.core.auth.RealmGrantedAuthority;
 import it.smartcommunitylab.aac.core.entrypoint.RealmAwareUriBuilder;
-import it.smartcommunitylab.aac.core.model.Client;
-import it.smartcommunitylab.aac.credentials.persistence.UserCredentialsService;
 import it.smartcommunitylab.aac.dto.RealmConfig;
-import it.smartcommunitylab.aac.groups.service.GroupService;
 import it.smartcommunitylab.aac.identity.model.ConfigurableIdentityProvider;
 import it.smartcommunitylab.aac.identity.service.IdentityProviderService;
 import it.smartcommunitylab.aac.internal.model.InternalUserAccount;
 import it.smartcommunitylab.aac.model.ClientApp;
 import it.smartcommunitylab.aac.model.Developer;
-import it.smartcommunitylab.aac.model.Group;
 import it.smartcommunitylab.aac.model.Realm;
-import it.smartcommunitylab.aac.model.RealmRole;
 import it.smartcommunitylab.aac.model.User;
 import it.smartcommunitylab.aac.oidc.model.OIDCUserAccount;
-import it.smartcommunitylab.aac.password.model.InternalUserPassword;
+import it.smartcommunitylab.aac.realms.model.RealmDeletion;
 import it.smartcommunitylab.aac.realms.service.RealmService;
-import it.smartcommunitylab.aac.roles.RealmRoleManager;
 import it.smartcommunitylab.aac.saml.model.SamlUserAccount;
 import it.smartcommunitylab.aac.services.ServicesManager;
 import it.smartcommunitylab.aac.templates.model.ConfigurableTemplateProvider;
-import it.smartcommunitylab.aac.templates.model.TemplateModel;
 import it.smartcommunitylab.aac.templates.service.TemplateProviderService;
-import it.smartcommunitylab.aac.templates.service.TemplateService;
 import it.smartcommunitylab.aac.users.UserManager;
 import it.smartcommunitylab.aac.users.service.UserService;
-import it.smartcommunitylab.aac.webauthn.model.WebAuthnUserCredential;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -104,6 +88,9 @@ public class RealmManager {
     @Autowired
     private RealmService realmService;
 
+    @Autowired
+    private RealmDeletionManager deletionManager;
+
     @Autowired
     private ClientManager clientManager;
 
@@ -119,24 +106,12 @@ public class RealmManager {
     @Autowired
     private TemplateProviderService templateProviderService;
 
-    @Autowired
-    private TemplateService templateService;
-
     @Autowired
     private ServicesManager servicesManager;
 
     @Autowired
     private UserService userService;
 
-    @Autowired
-    protected AttributeSetsManager attributeManager;
-
-    @Autowired
-    protected GroupService groupService;
-
-    @Autowired
-    private RealmRoleManager roleManager;
-
     @Autowired
     private UserAccountService<InternalUserAccount> internalUserAccountService;
 
@@ -146,15 +121,6 @@ public class RealmManager {
     @Autowired
     private UserAccountService<SamlUserAccount> samlUserAccountService;
 
-    @Autowired
-    private UserCredentialsService<WebAuthnUserCredential> webAuthnUserCredentialsService;
-
-    @Autowired
-    private UserCredentialsService<InternalUserPassword> internalUserPasswordService;
-
-    @Autowired
-    private List<UserAccountService<? extends UserAccount>> userAccountServices;
-
     //    @Autowired
     //    private SessionManager sessionManager;
 
@@ -326,177 +292,26 @@ public class RealmManager {
         return realmService.searchRealms(query, pageRequest);
     }
 
-    @Transactional(readOnly = false)
-    public void deleteRealm(String slug, boolean cleanup) throws NoSuchRealmException {
+    public RealmDeletion deleteRealm(String slug, boolean cleanup) throws NoSuchRealmException {
         logger.debug("delete realm {}", StringUtils.trimAllWhitespace(slug));
         Realm realm = realmService.getRealm(slug);
 
-        if (realm != null && cleanup) {
-            // remove users
-            List<User> users = userManager.listUsers(slug);
-            for (User user : users) {
-                try {
-                    String subjectId = user.getSubjectId();
-
-                    // remove, will kill active sessions and cleanup
-                    // will also delete if this realm is owner
-                    userManager.removeUser(slug, subjectId);
-                } catch (NoSuchUserException e) {
-                    // skip
-                }
-            }
-
-            // remove all orphan credentials
-            // TODO refactor using credentialsService
-            List<String> passwords = internalUserPasswordService
-                .findCredentialsByRealm(slug)
-                .stream()
-                .map(p -> p.getId())
-                .collect(Collectors.toList());
-            internalUserPasswordService.deleteAllCredentials(slug, passwords);
-
-            List<String> credentials = webAuthnUserCredentialsService
-                .findCredentialsByRealm(slug)
-                .stream()
-                .map(p -> p.getId())
-                .collect(Collectors.toList());
-            webAuthnUserCredentialsService.deleteAllCredentials(slug, credentials);
-
-            // remove clients
-            List<Client> clients = clientManager.listClients(slug);
-            for (Client client : clients) {
-                try {
-                    String clientId = client.getClientId();
-
-                    // check ownership
-                    if (client.getRealm().equals(slug)) {
-                        // remove, will kill active sessions and cleanup
-                        clientManager.deleteClientApp(slug, clientId);
-                    }
-                } catch (NoSuchClientException e) {
-                    // skip
-                }
-            }
-
-            // attributes
-            Collection<AttributeSet> attributeSets = attributeManager.listAttributeSets(slug, false);
-            for (AttributeSet set : attributeSets) {
-                try {
-                    String setId = set.getIdentifier();
-
-                    // remove, should cleanup user association for leftovers
-                    attributeManager.deleteAttributeSet(slug, setId);
-                } catch (NoSuchAttributeSetException e) {
-                    // skip
-                }
-            }
-
-            // groups
-            Collection<Group> groups = groupService.listGroups(slug);
-            for (Group group : groups) {
-                String groupId = group.getGroupId();
-
-                // remove, should cleanup user association for leftovers
-                groupService.deleteGroup(slug, groupId);
-            }
-
-            // roles
-            Collection<RealmRole> roles = roleManager.getRealmRoles(slug);
-            for (RealmRole role : roles) {
-                try {
-                    String roleId = role.getRoleId();
-
-                    // remove, should cleanup user association for leftovers
-                    roleManager.deleteRealmRole(slug, roleId);
-                } catch (Exception e) {
-                    // skip
-                }
-            }
-
-            // remove all identity providers, will also invalidate sessions for idps
-            Collection<ConfigurableIdentityProvider> idps = identityProviderService.listProviders(slug);
-            for (ConfigurableIdentityProvider provider : idps) {
-                try {
-                    String providerId = provider.getProvider();
-                    // stop provider, will terminate sessions
-                    identityProviderService.unregisterProvider(providerId);
-
-                    // remove provider
-                    identityProviderService.deleteProvider(providerId);
-                } catch (NoSuchProviderException | NoSuchAuthorityException | SystemException e) {
-                    // skip
-                    logger.error("Error deleting realm for provider {}: {}", provider.getProvider(), e.getMessage());
-                }
-            }
-
-            // remove all attribute providers
-            Collection<ConfigurableAttributeProvider> aps = attributeProviderService.listProviders(slug);
-            for (ConfigurableAttributeProvider provider : aps) {
-                try {
-                    String providerId = provider.getProvider();
-                    // stop provider
-                    attributeProviderService.unregisterProvider(providerId);
-
-                    // remove provider
-                    attributeProviderService.deleteProvider(providerId);
-                } catch (NoSuchProviderException | NoSuchAuthorityException | SystemException e) {
-                    // skip
-                    logger.error("Error deleting realm for provider {}: {}", provider.getProvider(), e.getMessage());
-                }
-            }
-
-            // remove all template providers
-            Collection<ConfigurableTemplateProvider> tps = templateProviderService.listProviders(slug);
-            for (ConfigurableTemplateProvider provider : tps) {
-                try {
-                    String providerId = provider.getProvider();
-                    // stop provider
-                    templateProviderService.unregisterProvider(providerId);
-
-                    // remove provider
-                    templateProviderService.deleteProvider(providerId);
-                } catch (NoSuchProviderException | NoSuchAuthorityException | SystemException e) {
-                    // skip
-                    logger.error("Error deleting realm for provider {}: {}", provider.getProvider(), e.getMessage());
-                }
-            }
-
-            // remove services
-            List<it.smartcommunitylab.aac.services.Service> services = servicesManager.listServices(slug);
-            for (it.smartcommunitylab.aac.services.Service service : services) {
-                try {
-                    String serviceId = service.getServiceId();
-
-                    // remove, will cleanup
-                    servicesManager.deleteService(slug, serviceId);
-                } catch (NoSuchServiceException e) {
-                    // skip
-                }
-            }
+        if (cleanup) {
+            // cleanup runs as a background job, realm is removed as last phase
+            return deletionManager.submit(realm.getSlug());
+        }
 
-            // templates
-            Collection<TemplateModel> templates = templateService.listTemplatesByRealm(slug);
-            for (TemplateModel template : templates) {
-                try {
-                    String templateId = template.getId();
-                    templateService.deleteTemplate(templateId);
-                } catch (Exception e) {
-                    // skip
-                }
-            }
+        // remove realm
+        return deletionManager.delete(realm.getSlug());
+    }
 
-            //orphan user accounts
-            userAccountServices.forEach(accountService -> {
-                try {
-                    accountService.deleteAllAccountsByRealm(slug);
-                } catch (Exception e) {
-                    // skip
-                }
-            });
+    public RealmDeletion getRealmDeletion(String slug) throws NoSuchRealmException {
+        RealmDeletion deletion = deletionManager.findDeletion(slug);
+        if (deletion == null) {
+            throw new NoSuchRealmException();
         }
 
-        // remove realm
-        realmService.deleteRealm(slug);
+        return deletion;
     }
 
     /*
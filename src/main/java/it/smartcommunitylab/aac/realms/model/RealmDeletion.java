@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.realms.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import java.util.Date;
+
+/*
+ * Status of a realm deletion job
+ */
+@JsonInclude(Include.NON_NULL)
+public class RealmDeletion {
+
+    private String slug;
+    private RealmDeletionStatus status;
+    private RealmDeletionPhase phase;
+
+    // users deleted so far over users found at submission
+    private long processed;
+    private long total;
+
+    private String error;
+
+    private Date createDate;
+    private Date modifiedDate;
+
+    public RealmDeletion(String slug) {
+        this.slug = slug;
+    }
+
+    public String getSlug() {
+        return slug;
+    }
+
+    public RealmDeletionStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(RealmDeletionStatus status) {
+        this.status = status;
+    }
+
+    public RealmDeletionPhase getPhase() {
+        return phase;
+    }
+
+    public void setPhase(RealmDeletionPhase phase) {
+        this.phase = phase;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(long processed) {
+        this.processed = processed;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public Date getCreateDate() {
+        return createDate;
+    }
+
+    public void setCreateDate(Date createDate) {
+        this.createDate = createDate;
+    }
+
+    public Date getModifiedDate() {
+        return modifiedDate;
+    }
+
+    public void setModifiedDate(Date modifiedDate) {
+        this.modifiedDate = modifiedDate;
+    }
+}
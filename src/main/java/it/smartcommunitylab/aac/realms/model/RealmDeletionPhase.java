@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.realms.model;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import org.springframework.util.Assert;
+
+/*
+ * Ordered steps of a realm deletion, each one is idempotent and can be
+ * executed again when resuming
+ */
+public enum RealmDeletionPhase {
+    USERS("users"),
+    CREDENTIALS("credentials"),
+    CLIENTS("clients"),
+    ATTRIBUTES("attributes"),
+    GROUPS("groups"),
+    ROLES("roles"),
+    PROVIDERS("providers"),
+    SERVICES("services"),
+    TEMPLATES("templates"),
+    ACCOUNTS("accounts"),
+    REALM("realm");
+
+    private final String value;
+
+    RealmDeletionPhase(String value) {
+        Assert.hasText(value, "value cannot be empty");
+        this.value = value;
+    }
+
+    @JsonValue
+    public String getValue() {
+        return value;
+    }
+
+    public String toString() {
+        return value;
+    }
+
+    public static RealmDeletionPhase parse(String value) {
+        for (RealmDeletionPhase ph : RealmDeletionPhase.values()) {
+            if (ph.value.equalsIgnoreCase(value)) {
+                return ph;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.realms.service;
+
+import it.smartcommunitylab.aac.realms.model.RealmDeletion;
+import it.smartcommunitylab.aac.realms.model.RealmDeletionPhase;
+import it.smartcommunitylab.aac.realms.model.RealmDeletionStatus;
+import it.smartcommunitylab.aac.realms.persistence.RealmDeletionEntity;
+import it.smartcommunitylab.aac.realms.persistence.RealmDeletionEntityRepository;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/*
+ * Persisted state for realm deletion jobs
+ */
+@Service
+@Transactional
+public class RealmDeletionService {
+
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    private final RealmDeletionEntityRepository deletionRepository;
+
+    public RealmDeletionService(RealmDeletionEntityRepository deletionRepository) {
+        Assert.notNull(deletionRepository, "deletion repository is mandatory");
+        this.deletionRepository = deletionRepository;
+    }
+
+    @Transactional(readOnly = true)
+    public RealmDeletion findDeletion(String slug) {
+        RealmDeletionEntity d = deletionRepository.findBySlug(slug);
+        if (d == null) {
+            return null;
+        }
+
+        return toDeletion(d);
+    }
+
+    @Transactional(readOnly = true)
+    public List<RealmDeletion> listActiveDeletions() {
+        List<String> status = Arrays.asList(
+            RealmDeletionStatus.PENDING.getValue(),
+            RealmDeletionStatus.RUNNING.getValue()
+        );
+        return deletionRepository.findByStatusIn(status).stream().map(d -> toDeletion(d)).collect(Collectors.toList());
+    }
+
+    /*
+     * Realms with a pending, running or failed deletion are disabled: data may
+     * already be partially removed
+     */
+    @Transactional(readOnly = true)
+    public boolean isActiveDeletion(String slug) {
+        if (!StringUtils.hasText(slug)) {
+            return false;
+        }
+
+        List<String> status = Arrays.asList(
+            RealmDeletionStatus.PENDING.getValue(),
+            RealmDeletionStatus.RUNNING.getValue(),
+            RealmDeletionStatus.FAILED.getValue()
+        );
+        return deletionRepository.existsBySlugAndStatusIn(slug, status);
+    }
+
+    /*
+     * Register a new pending deletion, replacing any completed or failed one for
+     * the same slug
+     */
+    public RealmDeletion addDeletion(String slug, long total) {
+        RealmDeletionEntity d = deletionRepository.findBySlug(slug);
+        if (d == null) {
+            d = new RealmDeletionEntity();
+            d.setSlug(slug);
+        }
+
+        d.setStatus(RealmDeletionStatus.PENDING.getValue());
+        d.setPhase(RealmDeletionPhase.USERS.getValue());
+        d.setProcessed(0);
+        d.setTotal(total);
+        d.setError(null);
+
+        d = deletionRepository.save(d);
+        return toDeletion(d);
+    }
+
+    public RealmDeletion updateDeletion(String slug, RealmDeletionStatus status, RealmDeletionPhase phase) {
+        RealmDeletionEntity d = deletionRepository.findBySlug(slug);
+        if (d == null) {
+            return null;
+        }
+
+        d.setStatus(status.getValue());
+        if (phase != null) {
+            d.setPhase(phase.getValue());
+        }
+
+        d = deletionRepository.save(d);
+        return toDeletion(d);
+    }
+
+    public RealmDeletion addProcessed(String slug, long count) {
+        RealmDeletionEntity d = deletionRepository.findBySlug(slug);
+        if (d == null) {
+            return null;
+        }
+
+        d.setProcessed(d.getProcessed() + count);
+        d = deletionRepository.save(d);
+        return toDeletion(d);
+    }
+
+    public RealmDeletion failDeletion(String slug, String error) {
+        RealmDeletionEntity d = deletionRepository.findBySlug(slug);
+        if (d == null) {
+            return null;
+        }
+
+        if (StringUtils.hasText(error) && error.length() > MAX_ERROR_LENGTH) {
+            error = error.substring(0, MAX_ERROR_LENGTH);
+        }
+
+        d.setStatus(RealmDeletionStatus.FAILED.getValue());
+        d.setError(error);
+
+        d = deletionRepository.save(d);
+        return toDeletion(d);
+    }
+
+    private RealmDeletion toDeletion(RealmDeletionEntity d) {
+        RealmDeletion r = new RealmDeletion(d.getSlug());
+        r.setStatus(RealmDeletionStatus.parse(d.getStatus()));
+        r.setPhase(RealmDeletionPhase.parse(d.getPhase()));
+        r.setProcessed(d.getProcessed());
+        r.setTotal(d.getTotal());
+        r.setError(d.getError());
+        r.setCreateDate(d.getCreateDate());
+        r.setModifiedDate(d.getModifiedDate());
+
+        return r;
+    }
+}
@@ -16,6 +16,9 @@
 
 package it.smartcommunitylab.aac.realms.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import it.smartcommunitylab.aac.SystemKeys;
 import it.smartcommunitylab.aac.common.AlreadyRegisteredException;
 import it.smartcommunitylab.aac.common.InvalidDataException;
@@ -28,13 +31,19 @@ import it.smartcommunitylab.aac.realms.persistence.RealmEntityRepository;
 import it.smartcommunitylab.aac.templates.model.LocalizationConfigurationMap;
 import it.smartcommunitylab.aac.templates.model.TemplatesConfigurationMap;
 import it.smartcommunitylab.aac.tos.TosConfigurationMap;
+import it.smartcommunitylab.aac.utils.VersionedCache;
 import java.io.Serializable;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.support.PageableExecutionUtils;
@@ -45,7 +54,12 @@ import org.springframework.util.StringUtils;
 
 @Service
 @Transactional
-public class RealmService implements InitializingBean {
+public class RealmService implements InitializingBean, MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(RealmService.class);
+
+    public static final int DEFAULT_CACHE_TTL = 30;
+    public static final int DEFAULT_CACHE_SIZE = 500;
 
     public static final Set<String> RESERVED_SLUG;
 
@@ -63,6 +77,9 @@ public class RealmService implements InitializingBean {
     // static immutable systemRealm
     private final Realm systemRealm;
 
+    // detached realm snapshots by slug, read by per-request filters
+    private VersionedCache<String, RealmEntity> realms;
+
     public RealmService(RealmEntityRepository realmRepository) {
         Assert.notNull(realmRepository, "realm repository is mandatory");
         this.realmRepository = realmRepository;
@@ -81,6 +98,19 @@ public class RealmService implements InitializingBean {
             re.setPublic(false);
             realmRepository.save(re);
         }
+
+        // build default cache
+        this.realms = VersionedCache.build(DEFAULT_CACHE_TTL, DEFAULT_CACHE_SIZE);
+    }
+
+    @Autowired
+    public void setCacheConfig(@Value("${realms.cache.ttl}") int ttl, @Value("${realms.cache.size}") int maxSize) {
+        this.realms = VersionedCache.build(ttl, maxSize);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, realms.getCache(), "realms");
     }
 
     @Override
@@ -133,12 +163,16 @@ public class RealmService implements InitializingBean {
             return systemRealm;
         }
 
-        RealmEntity r = realmRepository.findBySlug(slug);
-        if (r == null) {
-            return null;
-        }
+        // realm is built from a snapshot every time, callers can modify it
+        RealmEntity r = realms.get(
+            slug,
+            s -> {
+                RealmEntity re = realmRepository.findBySlug(s);
+                return re != null ? copyEntity(re) : null;
+            }
+        );
 
-        return toRealm(r);
+        return r != null ? toRealm(r) : null;
     }
 
     @Transactional(readOnly = true)
@@ -182,6 +216,7 @@ public class RealmService implements InitializingBean {
         r.setTemplatesConfigurationMap(templatesConfigurationMap);
 
         r = realmRepository.save(r);
+        evictRealm(slug);
 
         return toRealm(r);
     }
@@ -195,6 +230,8 @@ public class RealmService implements InitializingBean {
         if (r != null) {
             realmRepository.delete(r);
         }
+
+        evictRealm(slug);
     }
 
     @Transactional(readOnly = true)
@@ -250,6 +287,40 @@ public class RealmService implements InitializingBean {
         );
     }
 
+    /*
+     * Snapshots cache
+     */
+    private void evictRealm(String slug) {
+        logger.debug("evict realm {} from cache", String.valueOf(slug));
+        realms.invalidate(slug);
+    }
+
+    private RealmEntity copyEntity(RealmEntity re) {
+        RealmEntity r = new RealmEntity();
+        r.setSlug(re.getSlug());
+        r.setName(re.getName());
+        r.setEmail(re.getEmail());
+        r.setEditable(re.isEditable());
+        r.setPublic(re.isPublic());
+        r.setCreateDate(re.getCreateDate());
+        r.setModifiedDate(re.getModifiedDate());
+
+        if (re.getOAuthConfigurationMap() != null) {
+            r.setOAuthConfigurationMap(new HashMap<>(re.getOAuthConfigurationMap()));
+        }
+        if (re.getTosConfigurationMap() != null) {
+            r.setTosConfigurationMap(new HashMap<>(re.getTosConfigurationMap()));
+        }
+        if (re.getLocalizationConfigurationMap() != null) {
+            r.setLocalizationConfigurationMap(new HashMap<>(re.getLocalizationConfigurationMap()));
+        }
+        if (re.getTemplatesConfigurationMap() != null) {
+            r.setTemplatesConfigurationMap(new HashMap<>(re.getTemplatesConfigurationMap()));
+        }
+
+        return r;
+    }
+
     /*
      * Helpers
      */
@@ -17,9 +17,11 @@
 package it.smartcommunitylab.aac.roles.persistence;
 
 import it.smartcommunitylab.aac.repository.CustomJpaRepository;
+import java.util.Collection;
 import java.util.List;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
@@ -27,6 +29,8 @@ import org.springframework.stereotype.Repository;
 public interface SpaceRoleEntityRepository extends CustomJpaRepository<SpaceRoleEntity, Long> {
     List<SpaceRoleEntity> findBySubject(String subject);
 
+    List<SpaceRoleEntity> findBySubjectIn(Collection<String> subjects);
+
     @Query("select r from SpaceRoleEntity r where subject = ?1 and (context = ?2 or context is null and ?2 is null)")
     List<SpaceRoleEntity> findBySubjectAndContext(String subject, String context);
 
@@ -49,4 +53,8 @@ public interface SpaceRoleEntityRepository extends CustomJpaRepository<SpaceRole
         "select distinct r.subject from SpaceRoleEntity r where (context = ?1 or context is null and ?1 is null) and (space = ?2 or (space is null or space = '') and ?2 is null) and subject like concat('%', ?2,'%')"
     )
     Page<String> findByContextAndSpaceAndSubject(String context, String space, String q, Pageable pageRequest);
+
+    @Modifying
+    @Query("delete from SpaceRoleEntity r where r.subject in ?1")
+    int deleteBySubjects(Collection<String> subjects);
 }
@@ -17,10 +17,13 @@
 package it.smartcommunitylab.aac.roles.persistence;
 
 import it.smartcommunitylab.aac.repository.CustomJpaRepository;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -38,4 +41,10 @@ public interface SubjectRoleEntityRepository extends CustomJpaRepository<Subject
     List<SubjectRoleEntity> findBySubject(String subject);
 
     List<SubjectRoleEntity> findBySubjectAndRealm(String subject, String realm);
+
+    List<SubjectRoleEntity> findByRealmAndSubjectIn(String realm, Collection<String> subjects);
+
+    @Modifying
+    @Query("delete from SubjectRoleEntity r where r.subject in ?1")
+    int deleteBySubjects(Collection<String> subjects);
 }
@@ -22,8 +22,10 @@ import it.smartcommunitylab.aac.roles.persistence.SpaceRoleEntity;
 import it.smartcommunitylab.aac.roles.persistence.SpaceRoleEntityRepository;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -51,6 +53,29 @@ public class SpaceRoleService {
             .collect(Collectors.toSet());
     }
 
+    /*
+     * Resolve roles for many subjects with a single query
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Collection<SpaceRole>> getSubjectsRoles(Collection<String> subjects) {
+        Map<String, Collection<SpaceRole>> result = new HashMap<>();
+        if (subjects == null || subjects.isEmpty()) {
+            return result;
+        }
+
+        subjects.forEach(s -> result.put(s, new HashSet<>()));
+        roleRepository
+            .findBySubjectIn(subjects)
+            .forEach(r -> {
+                Collection<SpaceRole> roles = result.get(r.getSubject());
+                if (roles != null) {
+                    roles.add(toRole(r));
+                }
+            });
+
+        return result;
+    }
+
     @Transactional(readOnly = true)
     public Collection<SpaceRole> getRoles(String subject, String context) {
         List<SpaceRoleEntity> rr = roleRepository.findBySubjectAndContext(subject, context);
@@ -237,6 +262,12 @@ public class SpaceRoleService {
         }
     }
 
+    public void deleteRoles(Collection<String> subjects) {
+        if (!subjects.isEmpty()) {
+            roleRepository.deleteBySubjects(subjects);
+        }
+    }
+
     /*
      * Helpers
      */
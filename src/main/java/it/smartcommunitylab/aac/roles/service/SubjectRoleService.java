@@ -21,7 +21,9 @@ import it.smartcommunitylab.aac.roles.persistence.RealmRoleEntity;
 import it.smartcommunitylab.aac.roles.persistence.RealmRoleEntityRepository;
 import it.smartcommunitylab.aac.roles.persistence.SubjectRoleEntity;
 import it.smartcommunitylab.aac.roles.persistence.SubjectRoleEntityRepository;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -129,6 +131,35 @@ public class SubjectRoleService {
             .collect(Collectors.toList());
     }
 
+    /*
+     * Resolve roles for many subjects in the same realm, role definitions are
+     * loaded once for the whole realm
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Collection<RealmRole>> getSubjectsRoles(Collection<String> subjectIds, String realm) {
+        Map<String, Collection<RealmRole>> result = new HashMap<>();
+        if (subjectIds == null || subjectIds.isEmpty()) {
+            return result;
+        }
+
+        subjectIds.forEach(s -> result.put(s, new ArrayList<>()));
+
+        Map<String, RealmRoleEntity> definitions = roleRepository
+            .findByRealm(realm)
+            .stream()
+            .collect(Collectors.toMap(RealmRoleEntity::getRole, r -> r, (r1, r2) -> r1));
+        rolesRepository
+            .findByRealmAndSubjectIn(realm, subjectIds)
+            .forEach(r -> {
+                Collection<RealmRole> roles = result.get(r.getSubject());
+                if (roles != null) {
+                    roles.add(toRole(r, definitions.get(r.getRole())));
+                }
+            });
+
+        return result;
+    }
+
     public Collection<RealmRole> addRoles(String subjectId, String realm, Collection<String> roles) {
         // fetch current roles
         List<SubjectRoleEntity> oldRoles = rolesRepository.findBySubjectAndRealm(subjectId, realm);
@@ -247,6 +278,12 @@ public class SubjectRoleService {
         }
     }
 
+    public void deleteRoles(Collection<String> subjectIds) {
+        if (!subjectIds.isEmpty()) {
+            rolesRepository.deleteBySubjects(subjectIds);
+        }
+    }
+
     public void deleteRoles(String subjectId, String realm) {
         List<SubjectRoleEntity> roles = rolesRepository.findBySubjectAndRealm(subjectId, realm);
         if (!roles.isEmpty()) {
@@ -256,9 +293,13 @@ public class SubjectRoleService {
     }
 
     private RealmRole toRole(SubjectRoleEntity r) {
-        RealmRole role = new RealmRole(r.getRealm(), r.getRole());        
         // load role model to fill properties
         RealmRoleEntity re = roleRepository.findByRealmAndRole(r.getRealm(), r.getRole());
+        return toRole(r, re);
+    }
+
+    private RealmRole toRole(SubjectRoleEntity r, RealmRoleEntity re) {
+        RealmRole role = new RealmRole(r.getRealm(), r.getRole());
         if (re != null) {
             role.setRoleId(re.getId());
             String name = re.getName() != null ? re.getName() : re.getRole();
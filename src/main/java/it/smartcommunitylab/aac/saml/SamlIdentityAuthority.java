@@ -19,6 +19,7 @@ package it.smartcommunitylab.aac.saml;
 import it.smartcommunitylab.aac.SystemKeys;
 import it.smartcommunitylab.aac.accounts.persistence.UserAccountService;
 import it.smartcommunitylab.aac.claims.ScriptExecutionService;
+import it.smartcommunitylab.aac.core.provider.ObservableProviderConfigRepository;
 import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
 import it.smartcommunitylab.aac.core.service.ResourceEntityService;
 import it.smartcommunitylab.aac.identity.base.AbstractIdentityProviderAuthority;
@@ -30,11 +31,16 @@ import it.smartcommunitylab.aac.saml.provider.SamlIdentityConfigurationProvider;
 import it.smartcommunitylab.aac.saml.provider.SamlIdentityProvider;
 import it.smartcommunitylab.aac.saml.provider.SamlIdentityProviderConfig;
 import it.smartcommunitylab.aac.saml.provider.SamlIdentityProviderConfigMap;
+import it.smartcommunitylab.aac.saml.service.SamlMetadataRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
 @Service
 public class SamlIdentityAuthority
@@ -56,6 +62,12 @@ public class SamlIdentityAuthority
     private ScriptExecutionService executionService;
     private ResourceEntityService resourceService;
 
+    // shared upstream metadata
+    private SamlMetadataRegistry metadataRegistry;
+
+    // metadata location last seen per provider, evicted on changes
+    private final Map<String, String> metadataLocations = new ConcurrentHashMap<>();
+
     @Autowired
     public SamlIdentityAuthority(
         UserAccountService<SamlUserAccount> userAccountService,
@@ -79,6 +91,11 @@ public class SamlIdentityAuthority
         // build filter provider
         this.filterProvider =
             new SamlFilterProvider(authorityId, relyingPartyRegistrationRepository, registrationRepository);
+
+        // drop upstream metadata when providers are updated or removed
+        if (registrationRepository instanceof ObservableProviderConfigRepository) {
+            ((ObservableProviderConfigRepository) registrationRepository).addChangeListener(id -> evictMetadata(id));
+        }
     }
 
     @Autowired
@@ -96,6 +113,20 @@ public class SamlIdentityAuthority
         this.resourceService = resourceService;
     }
 
+    @Autowired
+    public void setMetadataRegistry(SamlMetadataRegistry metadataRegistry) {
+        this.metadataRegistry = metadataRegistry;
+        this.relyingPartyRegistrationRepository.setMetadataRegistry(metadataRegistry);
+    }
+
+    @Autowired
+    public void setMetadataCacheConfig(
+        @Value("${saml.metadata.cache.ttl}") int ttl,
+        @Value("${saml.metadata.cache.size}") int maxSize
+    ) {
+        this.filterProvider.setMetadataCacheConfig(ttl, maxSize);
+    }
+
     @Override
     public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
         this.filterProvider.setApplicationEventPublisher(eventPublisher);
@@ -114,6 +145,8 @@ public class SamlIdentityAuthority
     @Override
     public SamlIdentityProvider buildProvider(SamlIdentityProviderConfig config) {
         String id = config.getProvider();
+        config.setMetadataRegistry(metadataRegistry);
+        trackMetadata(config);
 
         SamlIdentityProvider idp = new SamlIdentityProvider(authorityId, id, accountService, config, config.getRealm());
 
@@ -121,4 +154,22 @@ public class SamlIdentityAuthority
         idp.setResourceService(resourceService);
         return idp;
     }
+
+    private void trackMetadata(SamlIdentityProviderConfig config) {
+        String location = config.getConfigMap().getIdpMetadataUrl();
+        if (StringUtils.hasText(location)) {
+            metadataLocations.put(config.getProvider(), location);
+        } else {
+            metadataLocations.remove(config.getProvider());
+        }
+    }
+
+    private void evictMetadata(String providerId) {
+        // location used by the provider built before the change, if any. Next
+        // build fetches fresh metadata, for this and any provider sharing it
+        String location = metadataLocations.remove(providerId);
+        if (metadataRegistry != null && location != null) {
+            metadataRegistry.evict(location);
+        }
+    }
 }
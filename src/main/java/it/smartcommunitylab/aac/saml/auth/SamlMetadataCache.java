@@ -0,0 +1,207 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.saml.auth;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.saml2.Saml2Exception;
+import org.springframework.security.saml2.core.Saml2X509Credential;
+import org.springframework.security.saml2.provider.service.metadata.Saml2MetadataResolver;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
+import org.springframework.util.Assert;
+import org.springframework.web.context.request.ServletWebRequest;
+
+/*
+ * Cache for signed SP metadata documents
+ *
+ * Documents are keyed by a fingerprint of everything the resolver reads from
+ * the registration (entityId, endpoints, credentials) plus an optional
+ * version from the provider config, so they are regenerated only when one of
+ * those changes. The fingerprint is also exposed as a weak ETag to support
+ * conditional requests.
+ */
+public class SamlMetadataCache {
+
+    public static final String DEFAULT_METADATA_FILE_NAME = "saml-{registrationId}-metadata.xml";
+    public static final String METADATA_CONTENT_TYPE = "application/samlmetadata+xml";
+
+    // unused documents expire after ttl, in seconds
+    public static final int DEFAULT_CACHE_TTL = 3600;
+    public static final int DEFAULT_CACHE_SIZE = 500;
+
+    private final Saml2MetadataResolver metadataResolver;
+
+    // documents by fingerprint
+    private Cache<String, SamlMetadataDocument> documents;
+
+    private String metadataFilename = DEFAULT_METADATA_FILE_NAME;
+
+    public SamlMetadataCache(Saml2MetadataResolver metadataResolver) {
+        Assert.notNull(metadataResolver, "metadata resolver can not be null");
+        this.metadataResolver = metadataResolver;
+        this.documents = buildCache(DEFAULT_CACHE_TTL, DEFAULT_CACHE_SIZE);
+    }
+
+    public void setCacheConfig(int ttl, int maxSize) {
+        Assert.isTrue(ttl >= 0, "cache ttl must be a non-negative value");
+        Assert.isTrue(maxSize >= 0, "cache size must be a non-negative value");
+        this.documents = buildCache(ttl, maxSize);
+    }
+
+    private static Cache<String, SamlMetadataDocument> buildCache(int ttl, int maxSize) {
+        return CacheBuilder.newBuilder().expireAfterAccess(ttl, TimeUnit.SECONDS).maximumSize(maxSize).build();
+    }
+
+    public void setMetadataFilename(String metadataFilename) {
+        Assert.hasText(metadataFilename, "metadata filename can not be empty");
+        Assert.isTrue(metadataFilename.contains("{registrationId}"), "metadata filename must contain {registrationId}");
+        this.metadataFilename = metadataFilename;
+    }
+
+    public SamlMetadataDocument resolve(RelyingPartyRegistration registration, String version) {
+        Assert.notNull(registration, "registration can not be null");
+        String fingerprint = fingerprint(registration, version);
+
+        try {
+            // single generation per fingerprint, signing is expensive
+            return documents.get(
+                fingerprint,
+                () -> {
+                    String metadata = metadataResolver.resolve(registration);
+                    return new SamlMetadataDocument(
+                        metadata.getBytes(StandardCharsets.UTF_8),
+                        "W/\"" + fingerprint + "\"",
+                        // http dates have seconds precision
+                        (System.currentTimeMillis() / 1000) * 1000
+                    );
+                }
+            );
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Saml2Exception) {
+                throw (Saml2Exception) e.getCause();
+            }
+            throw new Saml2Exception(e.getCause());
+        }
+    }
+
+    /*
+     * Write the metadata document, or a 304 when the client copy is current
+     */
+    public void write(
+        HttpServletRequest request,
+        HttpServletResponse response,
+        RelyingPartyRegistration registration,
+        String version
+    ) throws IOException {
+        SamlMetadataDocument document = resolve(registration, version);
+
+        // clients should always revalidate
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+        if (new ServletWebRequest(request, response).checkNotModified(document.getEtag(), document.getLastModified())) {
+            return;
+        }
+
+        String fileName = metadataFilename.replace("{registrationId}", registration.getRegistrationId());
+        String encodedFileName = URLEncoder.encode(fileName, StandardCharsets.UTF_8.name());
+        response.setContentType(METADATA_CONTENT_TYPE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader(
+            HttpHeaders.CONTENT_DISPOSITION,
+            String.format("attachment; filename=\"%s\"; filename*=UTF-8''%s", fileName, encodedFileName)
+        );
+        response.setContentLength(document.getBytes().length);
+        response.getOutputStream().write(document.getBytes());
+    }
+
+    public void evictAll() {
+        documents.invalidateAll();
+    }
+
+    private static String fingerprint(RelyingPartyRegistration registration, String version) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            update(md, version);
+            update(md, registration.getRegistrationId());
+            update(md, registration.getEntityId());
+            update(md, registration.getAssertionConsumerServiceLocation());
+            update(md, String.valueOf(registration.getAssertionConsumerServiceBinding()));
+            update(md, registration.getSingleLogoutServiceLocation());
+            update(md, registration.getSingleLogoutServiceResponseLocation());
+            update(md, String.valueOf(registration.getSingleLogoutServiceBinding()));
+            update(md, registration.getNameIdFormat());
+            update(md, String.valueOf(registration.getAssertingPartyDetails().getWantAuthnRequestsSigned()));
+
+            // key rotation changes metadata and signature
+            for (Saml2X509Credential c : registration.getSigningX509Credentials()) {
+                md.update(c.getCertificate().getEncoded());
+            }
+            for (Saml2X509Credential c : registration.getDecryptionX509Credentials()) {
+                md.update(c.getCertificate().getEncoded());
+            }
+
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(md.digest());
+        } catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+            throw new Saml2Exception(e);
+        }
+    }
+
+    private static void update(MessageDigest md, String value) {
+        if (value != null) {
+            md.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        // separator
+        md.update((byte) 0);
+    }
+
+    public static class SamlMetadataDocument {
+
+        private final byte[] bytes;
+        private final String etag;
+        private final long lastModified;
+
+        public SamlMetadataDocument(byte[] bytes, String etag, long lastModified) {
+            this.bytes = bytes;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -23,13 +23,12 @@ import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.springframework.core.convert.converter.Converter;
 import org.springframework.lang.Nullable;
 import org.springframework.security.saml2.provider.service.metadata.OpenSamlMetadataResolver;
 import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
 import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistrationRepository;
 import org.springframework.security.saml2.provider.service.web.DefaultRelyingPartyRegistrationResolver;
-import org.springframework.security.saml2.provider.service.web.Saml2MetadataFilter;
+import org.springframework.security.saml2.provider.service.web.RelyingPartyRegistrationResolver;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestMatcher;
 import org.springframework.util.Assert;
@@ -40,7 +39,11 @@ public class SamlMetadataFilter extends OncePerRequestFilter {
     public static final String DEFAULT_FILTER_URI = SamlIdentityAuthority.AUTHORITY_URL + "metadata/{registrationId}";
 
     private final String authorityId;
-    private final Saml2MetadataFilter samlMetadataFilter;
+    private final RequestMatcher requestMatcher;
+    private final RelyingPartyRegistrationResolver relyingPartyRegistrationResolver;
+
+    // signed metadata, regenerated only when registration changes
+    private final SamlMetadataCache metadataCache;
 
     public SamlMetadataFilter(RelyingPartyRegistrationRepository relyingPartyRegistrationRepository) {
         this(SystemKeys.AUTHORITY_SAML, relyingPartyRegistrationRepository, DEFAULT_FILTER_URI);
@@ -55,14 +58,16 @@ public class SamlMetadataFilter extends OncePerRequestFilter {
 
         this.authorityId = authority;
 
-        // build a converter and a resolver for the filter
-        Converter<HttpServletRequest, RelyingPartyRegistration> relyingPartyRegistrationResolver =
+        // build a resolver and a cache for the filter
+        this.relyingPartyRegistrationResolver =
             new DefaultRelyingPartyRegistrationResolver(relyingPartyRegistrationRepository);
+        this.metadataCache = new SamlMetadataCache(new OpenSamlMetadataResolver());
 
-        samlMetadataFilter = new Saml2MetadataFilter(relyingPartyRegistrationResolver, new OpenSamlMetadataResolver());
+        this.requestMatcher = new AntPathRequestMatcher(filterProcessingUrl, "GET");
+    }
 
-        RequestMatcher requestMatcher = new AntPathRequestMatcher(filterProcessingUrl, "GET");
-        samlMetadataFilter.setRequestMatcher(requestMatcher);
+    public void setMetadataCacheConfig(int ttl, int maxSize) {
+        this.metadataCache.setCacheConfig(ttl, maxSize);
     }
 
     @Nullable
@@ -73,7 +78,23 @@ public class SamlMetadataFilter extends OncePerRequestFilter {
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
         throws ServletException, IOException {
-        // delegate
-        samlMetadataFilter.doFilter(request, response, filterChain);
+        RequestMatcher.MatchResult matcher = requestMatcher.matcher(request);
+        if (!matcher.isMatch()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        String registrationId = matcher.getVariables().get("registrationId");
+        RelyingPartyRegistration relyingPartyRegistration = relyingPartyRegistrationResolver.resolve(
+            request,
+            registrationId
+        );
+        if (relyingPartyRegistration == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        // metadata depend only on registration
+        metadataCache.write(request, response, relyingPartyRegistration, null);
     }
 }
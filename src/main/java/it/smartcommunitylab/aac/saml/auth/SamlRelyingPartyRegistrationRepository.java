@@ -18,6 +18,7 @@ package it.smartcommunitylab.aac.saml.auth;
 
 import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
 import it.smartcommunitylab.aac.saml.provider.SamlIdentityProviderConfig;
+import it.smartcommunitylab.aac.saml.service.SamlMetadataRegistry;
 import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
 import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistrationRepository;
 import org.springframework.util.Assert;
@@ -27,6 +28,9 @@ public class SamlRelyingPartyRegistrationRepository implements RelyingPartyRegis
     // provider configs by id
     private final ProviderConfigRepository<SamlIdentityProviderConfig> registrationRepository;
 
+    // shared upstream metadata, optional
+    private SamlMetadataRegistry metadataRegistry;
+
     public SamlRelyingPartyRegistrationRepository(
         ProviderConfigRepository<SamlIdentityProviderConfig> registrationRepository
     ) {
@@ -34,6 +38,10 @@ public class SamlRelyingPartyRegistrationRepository implements RelyingPartyRegis
         this.registrationRepository = registrationRepository;
     }
 
+    public void setMetadataRegistry(SamlMetadataRegistry metadataRegistry) {
+        this.metadataRegistry = metadataRegistry;
+    }
+
     /*
      * read access as per interface
      */
@@ -48,8 +56,8 @@ public class SamlRelyingPartyRegistrationRepository implements RelyingPartyRegis
             return null;
         }
 
-        // build
-        // TODO registrationId loading cache
+        // build, upstream metadata are resolved via registry
+        providerConfig.setMetadataRegistry(metadataRegistry);
         return providerConfig.getRelyingPartyRegistration();
     }
 }
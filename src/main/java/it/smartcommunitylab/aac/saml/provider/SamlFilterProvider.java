@@ -19,6 +19,7 @@ package it.smartcommunitylab.aac.saml.provider;
 import it.smartcommunitylab.aac.core.provider.FilterProvider;
 import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
 import it.smartcommunitylab.aac.saml.auth.Saml2AuthenticationRequestRepository;
+import it.smartcommunitylab.aac.saml.auth.SamlMetadataCache;
 import it.smartcommunitylab.aac.saml.auth.SamlMetadataFilter;
 import it.smartcommunitylab.aac.saml.auth.SamlRelyingPartyRegistrationRepository;
 import it.smartcommunitylab.aac.saml.auth.SamlWebSsoAuthenticationFilter;
@@ -47,6 +48,10 @@ public class SamlFilterProvider implements FilterProvider, ApplicationEventPubli
     private AuthenticationManager authManager;
     private ApplicationEventPublisher eventPublisher;
 
+    // signed sp metadata cache
+    private int metadataCacheTtl = SamlMetadataCache.DEFAULT_CACHE_TTL;
+    private int metadataCacheSize = SamlMetadataCache.DEFAULT_CACHE_SIZE;
+
     public SamlFilterProvider(
         String authorityId,
         SamlRelyingPartyRegistrationRepository relyingPartyRegistrationRepository,
@@ -65,6 +70,11 @@ public class SamlFilterProvider implements FilterProvider, ApplicationEventPubli
         this.authManager = authManager;
     }
 
+    public void setMetadataCacheConfig(int ttl, int maxSize) {
+        this.metadataCacheTtl = ttl;
+        this.metadataCacheSize = maxSize;
+    }
+
     @Override
     public String getAuthorityId() {
         return authorityId;
@@ -106,6 +116,7 @@ public class SamlFilterProvider implements FilterProvider, ApplicationEventPubli
             relyingPartyRegistrationRepository,
             buildFilterUrl("metadata/{registrationId}")
         );
+        metadataFilter.setMetadataCacheConfig(metadataCacheTtl, metadataCacheSize);
 
         if (authManager != null) {
             ssoFilter.setAuthenticationManager(authManager);
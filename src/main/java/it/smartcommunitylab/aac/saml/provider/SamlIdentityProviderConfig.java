@@ -21,6 +21,7 @@ import it.smartcommunitylab.aac.SystemKeys;
 import it.smartcommunitylab.aac.identity.base.AbstractIdentityProviderConfig;
 import it.smartcommunitylab.aac.identity.model.ConfigurableIdentityProvider;
 import it.smartcommunitylab.aac.identity.provider.IdentityProviderSettingsMap;
+import it.smartcommunitylab.aac.saml.service.SamlMetadataRegistry;
 import java.io.IOException;
 import java.io.StringReader;
 import java.security.PrivateKey;
@@ -48,8 +49,10 @@ public class SamlIdentityProviderConfig extends AbstractIdentityProviderConfig<S
     public static final String RESOURCE_TYPE =
         SystemKeys.RESOURCE_PROVIDER + SystemKeys.ID_SEPARATOR + SamlIdentityProviderConfigMap.RESOURCE_TYPE;
 
-    private transient RelyingPartyRegistration relyingPartyRegistration;
+    private transient volatile RelyingPartyRegistration relyingPartyRegistration;
+    private transient volatile RelyingPartyRegistration assertingParty; // registry template in use
     private transient SamlIdentityProviderStatusMap statusMap;
+    private transient SamlMetadataRegistry metadataRegistry;
     private String baseUrl;
 
     public SamlIdentityProviderConfig(String provider, String realm) {
@@ -85,6 +88,11 @@ public class SamlIdentityProviderConfig extends AbstractIdentityProviderConfig<S
         this.baseUrl = baseUrl;
     }
 
+    @JsonIgnore
+    public void setMetadataRegistry(SamlMetadataRegistry metadataRegistry) {
+        this.metadataRegistry = metadataRegistry;
+    }
+
     public String getRepositoryId() {
         // not configurable, always isolate saml providers
         return getProvider();
@@ -92,19 +100,30 @@ public class SamlIdentityProviderConfig extends AbstractIdentityProviderConfig<S
 
     @JsonIgnore
     public RelyingPartyRegistration getRelyingPartyRegistration() {
-        if (relyingPartyRegistration == null) {
-            try {
-                relyingPartyRegistration = toRelyingPartyRegistration();
-            } catch (IOException | CertificateException e) {
-                throw new RuntimeException("error building registration: " + e.getMessage());
+        try {
+            String idpMetadataLocation = configMap.getIdpMetadataUrl();
+            if (metadataRegistry != null && StringUtils.hasText(idpMetadataLocation)) {
+                // resolve via registry on every access to follow refreshed, expired or late metadata,
+                // registration is rebuilt only when the registry serves a different template
+                RelyingPartyRegistration template = metadataRegistry.getAssertingParty(idpMetadataLocation);
+                if (relyingPartyRegistration == null || template != assertingParty) {
+                    // publish registration before the template it was built from
+                    relyingPartyRegistration = toRelyingPartyRegistration(template);
+                    assertingParty = template;
+                }
+            } else if (relyingPartyRegistration == null) {
+                relyingPartyRegistration = toRelyingPartyRegistration(null);
             }
+        } catch (IOException | CertificateException e) {
+            throw new RuntimeException("error building registration: " + e.getMessage());
         }
 
         return relyingPartyRegistration;
     }
 
     // TODO throws exception if configuration is invalid
-    private RelyingPartyRegistration toRelyingPartyRegistration() throws IOException, CertificateException {
+    private RelyingPartyRegistration toRelyingPartyRegistration(RelyingPartyRegistration template)
+        throws IOException, CertificateException {
         // set base parameters
         String entityId = getEntityId();
         String assertionConsumerServiceLocation = assertionConsumerUrlTemplate();
@@ -133,10 +152,13 @@ public class SamlIdentityProviderConfig extends AbstractIdentityProviderConfig<S
         RelyingPartyRegistration.Builder builder = RelyingPartyRegistration.withRegistrationId(registrationId);
 
         if (StringUtils.hasText(idpMetadataLocation)) {
-            // read metadata to autoconfigure
-            builder = RelyingPartyRegistrations.fromMetadataLocation(idpMetadataLocation).registrationId(
-                registrationId
-            );
+            // read metadata to autoconfigure, from shared registry template when available
+            builder =
+                template != null
+                    ? RelyingPartyRegistration.withRelyingPartyRegistration(template).registrationId(registrationId)
+                    : RelyingPartyRegistrations.fromMetadataLocation(idpMetadataLocation).registrationId(
+                        registrationId
+                    );
         } else {
             // set manually
             builder.assertingPartyDetails(party ->
@@ -0,0 +1,543 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.saml.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.xml.XMLConstants;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.UrlResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistrations;
+import org.springframework.util.Assert;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
+import org.w3c.dom.Element;
+
+/*
+ * Shared registry of upstream SAML metadata, keyed by location
+ *
+ * Metadata are fetched in parallel on first access and then refreshed in
+ * background according to their validUntil/cacheDuration. Every successful
+ * fetch is saved to disk as last-known-good copy, which is used on startup
+ * to serve registrations without network access. Metadata past their
+ * validUntil are never served, wherever they come from.
+ *
+ * Callers are expected to resolve registrations on every access: results may
+ * be partial while upstreams are unavailable.
+ *
+ * Registrations are templates holding only the asserting party details,
+ * providers derive their own via withRelyingPartyRegistration.
+ */
+public class SamlMetadataRegistry implements MeterBinder, DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    // intervals in seconds
+    public static final int DEFAULT_REFRESH_INTERVAL = 6 * 3600;
+    public static final int MIN_REFRESH_INTERVAL = 300;
+    public static final int MAX_REFRESH_INTERVAL = 24 * 3600;
+    public static final int CHECK_INTERVAL = 60;
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_TIMEOUT = 10000;
+
+    // meters tagged by location
+    private static final String[] METERS = { "saml.metadata.age", "saml.metadata.validity", "saml.metadata.fetch" };
+
+    private final ResourceLoader resourceLoader = new DefaultResourceLoader();
+
+    private final Map<String, MetadataEntry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<MetadataEntry>> loading = new ConcurrentHashMap<>();
+
+    // next retry for locations never fetched successfully, callers don't wait on those
+    private final Map<String, Instant> failures = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+    private final ScheduledExecutorService refreshExecutor;
+
+    private int refreshInterval = DEFAULT_REFRESH_INTERVAL;
+    private int timeout = DEFAULT_TIMEOUT;
+
+    // optional directory for last-known-good copies
+    private File directory;
+
+    private MeterRegistry meterRegistry;
+    private final Set<String> gauges = ConcurrentHashMap.newKeySet();
+
+    public SamlMetadataRegistry() {
+        this(DEFAULT_THREADS);
+    }
+
+    public SamlMetadataRegistry(int threads) {
+        Assert.isTrue(threads > 0, "threads must be a positive value");
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("saml-metadata-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newFixedThreadPool(threads, threadFactory);
+
+        CustomizableThreadFactory refreshFactory = new CustomizableThreadFactory("saml-metadata-refresh-");
+        refreshFactory.setDaemon(true);
+        this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(refreshFactory);
+        this.refreshExecutor.scheduleWithFixedDelay(
+                () -> {
+                    try {
+                        refreshExpired();
+                    } catch (RuntimeException e) {
+                        logger.error("error refreshing saml metadata", e);
+                    }
+                },
+                CHECK_INTERVAL,
+                CHECK_INTERVAL,
+                TimeUnit.SECONDS
+            );
+    }
+
+    public void setRefreshInterval(int refreshInterval) {
+        Assert.isTrue(refreshInterval > 0, "refresh interval must be a positive value");
+        this.refreshInterval = refreshInterval;
+    }
+
+    public void setTimeout(int timeout) {
+        Assert.isTrue(timeout > 0, "timeout must be a positive value");
+        this.timeout = timeout;
+    }
+
+    public void setDirectory(String directory) {
+        if (!StringUtils.hasText(directory)) {
+            this.directory = null;
+            return;
+        }
+
+        File dir = new File(directory);
+        if (!dir.exists() && !dir.mkdirs()) {
+            logger.warn("unable to create saml metadata directory {}", directory);
+            return;
+        }
+
+        this.directory = dir;
+    }
+
+    @Override
+    public void destroy() {
+        refreshExecutor.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+        entries.keySet().forEach(l -> registerGauges(l));
+    }
+
+    /*
+     * Registrations
+     */
+
+    public RelyingPartyRegistration getAssertingParty(String location) {
+        Assert.hasText(location, "location can not be empty");
+        return getAssertingParties(Collections.singleton(location)).get(location);
+    }
+
+    /*
+     * Resolve registrations for all locations, missing ones are fetched in
+     * parallel. Unavailable metadata are skipped.
+     */
+    public Map<String, RelyingPartyRegistration> getAssertingParties(Collection<String> locations) {
+        Map<String, RelyingPartyRegistration> result = new HashMap<>();
+        Map<String, CompletableFuture<MetadataEntry>> pending = new HashMap<>();
+        Instant now = Instant.now();
+
+        for (String location : locations) {
+            Instant retryAt = failures.get(location);
+            MetadataEntry entry = entries.get(location);
+            if (entry == null && retryAt == null) {
+                // try last-known-good copy before going to network
+                entry = loadFromDisk(location);
+            }
+
+            if (entry != null && !entry.isExpired(now)) {
+                result.put(location, entry.registration);
+            } else if (retryAt == null) {
+                pending.put(location, fetchAsync(location));
+            } else if (retryAt.isBefore(now)) {
+                // failing upstream, retry in background without waiting
+                fetchAsync(location);
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+        for (Map.Entry<String, CompletableFuture<MetadataEntry>> p : pending.entrySet()) {
+            try {
+                long wait = Math.max(0, deadline - System.currentTimeMillis());
+                MetadataEntry entry = p.getValue().get(wait, TimeUnit.MILLISECONDS);
+                if (entry != null) {
+                    result.put(p.getKey(), entry.registration);
+                }
+            } catch (Exception e) {
+                // skip, fetch will complete in background if still running
+                logger.debug("metadata from {} not available: {}", p.getKey(), e.getMessage());
+            }
+        }
+
+        return result;
+    }
+
+    /*
+     * Drop metadata for a location no longer in use or changed, including the
+     * last-known-good copy and meters. Next access fetches from upstream.
+     */
+    public void evict(String location) {
+        Assert.hasText(location, "location can not be empty");
+        logger.debug("evict saml metadata for {}", location);
+
+        entries.remove(location);
+        failures.remove(location);
+        deleteFromDisk(location);
+        removeMeters(location);
+    }
+
+    /*
+     * Fetch
+     */
+
+    private CompletableFuture<MetadataEntry> fetchAsync(String location) {
+        // single fetch per location
+        CompletableFuture<MetadataEntry> future = loading.computeIfAbsent(
+            location,
+            l -> CompletableFuture.supplyAsync(() -> fetch(l), executor)
+        );
+
+        // cleanup outside the map update, fetch may already be completed
+        future.whenComplete((e, t) -> loading.remove(location, future));
+        return future;
+    }
+
+    private MetadataEntry fetch(String location) {
+        long start = System.nanoTime();
+        try {
+            byte[] bytes = read(location);
+            MetadataEntry entry = parse(location, bytes, Instant.now());
+            if (entry.isExpired(Instant.now())) {
+                throw new IllegalArgumentException("metadata expired at " + entry.validUntil);
+            }
+
+            entries.put(location, entry);
+            failures.remove(location);
+            saveToDisk(location, bytes);
+            registerGauges(location);
+            record(location, "success", start);
+
+            logger.debug("fetched saml metadata from {}, next refresh at {}", location, entry.refreshAt);
+            return entry;
+        } catch (Exception e) {
+            record(location, "failure", start);
+            logger.warn("error fetching saml metadata from {}: {}", location, e.getMessage());
+
+            MetadataEntry previous = entries.get(location);
+            if (previous != null && !previous.isExpired(Instant.now())) {
+                // keep last known good, retry later
+                entries.put(location, previous.retryAt(Instant.now().plusSeconds(MIN_REFRESH_INTERVAL)));
+            } else {
+                // nothing valid to serve, callers skip it until the next retry
+                entries.remove(location);
+                failures.put(location, Instant.now().plusSeconds(CHECK_INTERVAL));
+            }
+
+            throw new IllegalStateException("metadata not available", e);
+        }
+    }
+
+    private void refreshExpired() {
+        Instant now = Instant.now();
+        entries
+            .values()
+            .stream()
+            .filter(e -> e.refreshAt.isBefore(now))
+            .forEach(e -> fetchAsync(e.location));
+    }
+
+    private byte[] read(String location) throws IOException {
+        Resource resource = resourceLoader.getResource(location);
+        if (resource instanceof UrlResource) {
+            // bound remote calls
+            URLConnection connection = resource.getURL().openConnection();
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            try (InputStream is = connection.getInputStream()) {
+                return StreamUtils.copyToByteArray(is);
+            }
+        }
+
+        try (InputStream is = resource.getInputStream()) {
+            return StreamUtils.copyToByteArray(is);
+        }
+    }
+
+    private MetadataEntry parse(String location, byte[] bytes, Instant fetchedAt) throws Exception {
+        // template registration, providers will set their own id and details
+        RelyingPartyRegistration registration = RelyingPartyRegistrations
+            .fromMetadata(new ByteArrayInputStream(bytes))
+            .registrationId(hash(location))
+            .build();
+
+        // evaluate validity from root element
+        Instant validUntil = null;
+        Instant refreshAt = Instant.now().plusSeconds(refreshInterval);
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        Element root = factory.newDocumentBuilder().parse(new ByteArrayInputStream(bytes)).getDocumentElement();
+
+        String validUntilAttr = root.getAttribute("validUntil");
+        if (StringUtils.hasText(validUntilAttr)) {
+            validUntil =
+                DatatypeFactory
+                    .newInstance()
+                    .newXMLGregorianCalendar(validUntilAttr.trim())
+                    .toGregorianCalendar()
+                    .toInstant();
+            if (validUntil.isBefore(refreshAt)) {
+                refreshAt = validUntil;
+            }
+        }
+
+        String cacheDurationAttr = root.getAttribute("cacheDuration");
+        if (StringUtils.hasText(cacheDurationAttr)) {
+            long millis = DatatypeFactory
+                .newInstance()
+                .newDuration(cacheDurationAttr.trim())
+                .getTimeInMillis(new Date());
+            Instant cacheUntil = Instant.now().plusMillis(millis);
+            if (cacheUntil.isBefore(refreshAt)) {
+                refreshAt = cacheUntil;
+            }
+        }
+
+        // clamp to avoid hammering remotes or keeping metadata forever
+        Instant min = Instant.now().plusSeconds(MIN_REFRESH_INTERVAL);
+        Instant max = Instant.now().plusSeconds(MAX_REFRESH_INTERVAL);
+        if (refreshAt.isBefore(min)) {
+            refreshAt = min;
+        } else if (refreshAt.isAfter(max)) {
+            refreshAt = max;
+        }
+
+        return new MetadataEntry(location, registration, fetchedAt, validUntil, refreshAt);
+    }
+
+    /*
+     * Last known good copies
+     */
+
+    private Path path(String location) {
+        return directory.toPath().resolve(hash(location) + ".xml");
+    }
+
+    private MetadataEntry loadFromDisk(String location) {
+        if (directory == null) {
+            return null;
+        }
+
+        Path path = path(location);
+        if (!Files.isReadable(path)) {
+            return null;
+        }
+
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            Instant modified = Files.getLastModifiedTime(path).toInstant();
+
+            // serve right away and refresh in background, unless expired
+            MetadataEntry entry = parse(location, bytes, modified).retryAt(Instant.now());
+            if (entry.isExpired(Instant.now())) {
+                logger.warn("saml metadata for {} from {} expired at {}", location, path, entry.validUntil);
+                return null;
+            }
+
+            MetadataEntry existing = entries.putIfAbsent(location, entry);
+            registerGauges(location);
+
+            logger.debug("loaded saml metadata for {} from {}", location, path);
+            return existing != null ? existing : entry;
+        } catch (Exception e) {
+            logger.warn("error loading saml metadata for {} from disk: {}", location, e.getMessage());
+            return null;
+        }
+    }
+
+    private void saveToDisk(String location, byte[] bytes) {
+        if (directory == null) {
+            return;
+        }
+
+        try {
+            Path path = path(location);
+            Path tmp = Files.createTempFile(directory.toPath(), "metadata", ".tmp");
+            Files.write(tmp, bytes);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("error saving saml metadata for {} to disk: {}", location, e.getMessage());
+        }
+    }
+
+    private void deleteFromDisk(String location) {
+        if (directory == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(path(location));
+        } catch (IOException e) {
+            logger.warn("error deleting saml metadata for {} from disk: {}", location, e.getMessage());
+        }
+    }
+
+    private static String hash(String location) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(location.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Metrics
+     */
+
+    private void registerGauges(String location) {
+        if (meterRegistry == null || !gauges.add(location)) {
+            return;
+        }
+
+        // age of the keys in use, and time left before expiry when declared
+        Gauge
+            .builder("saml.metadata.age", entries, m -> age(m.get(location)))
+            .description("seconds since the metadata in use was fetched")
+            .tag("location", location)
+            .register(meterRegistry);
+        Gauge
+            .builder("saml.metadata.validity", entries, m -> validity(m.get(location)))
+            .description("seconds left before the metadata in use expires")
+            .tag("location", location)
+            .register(meterRegistry);
+    }
+
+    private void removeMeters(String location) {
+        gauges.remove(location);
+        if (meterRegistry == null) {
+            return;
+        }
+
+        for (String name : METERS) {
+            meterRegistry.find(name).tag("location", location).meters().forEach(m -> meterRegistry.remove(m));
+        }
+    }
+
+    private void record(String location, String outcome, long start) {
+        if (meterRegistry != null) {
+            Timer
+                .builder("saml.metadata.fetch")
+                .description("upstream saml metadata fetch")
+                .tag("location", location)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static double age(MetadataEntry entry) {
+        return entry != null ? Duration.between(entry.fetchedAt, Instant.now()).getSeconds() : Double.NaN;
+    }
+
+    private static double validity(MetadataEntry entry) {
+        return entry != null && entry.validUntil != null
+            ? Duration.between(Instant.now(), entry.validUntil).getSeconds()
+            : Double.NaN;
+    }
+
+    private static class MetadataEntry {
+
+        private final String location;
+        private final RelyingPartyRegistration registration;
+        private final Instant fetchedAt;
+        private final Instant validUntil;
+        private final Instant refreshAt;
+
+        MetadataEntry(
+            String location,
+            RelyingPartyRegistration registration,
+            Instant fetchedAt,
+            Instant validUntil,
+            Instant refreshAt
+        ) {
+            this.location = location;
+            this.registration = registration;
+            this.fetchedAt = fetchedAt;
+            this.validUntil = validUntil;
+            this.refreshAt = refreshAt;
+        }
+
+        MetadataEntry retryAt(Instant refreshAt) {
+            return new MetadataEntry(location, registration, fetchedAt, validUntil, refreshAt);
+        }
+
+        boolean isExpired(Instant now) {
+            return validUntil != null && validUntil.isBefore(now);
+        }
+    }
+}
@@ -20,11 +20,11 @@ import it.smartcommunitylab.aac.common.NoSuchResourceException;
 import it.smartcommunitylab.aac.common.NoSuchScopeException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,14 +32,17 @@ import org.springframework.util.StringUtils;
 
 /*
  * In-memory scope registry
+ *
+ * Lookups are served from an immutable snapshot indexed by scope, rebuilt
+ * (copy-on-write) on every registration change.
  */
 
 public class InMemoryScopeRegistry implements ScopeRegistry {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    // provider registry is a map with keys matching resourceIds
-    private final Map<String, ScopeProvider> providers = new ConcurrentHashMap<>();
+    // current registry state, replaced atomically on changes
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap());
 
     // create the register and populate will all providers
     public InMemoryScopeRegistry(Collection<ScopeProvider> scopeProviders) {
@@ -72,9 +75,13 @@ public class InMemoryScopeRegistry implements ScopeRegistry {
             throw new IllegalArgumentException("can't register core scopes");
         }
 
-        if (providers.containsKey(resourceId)) {
+        synchronized (this) {
             // remove if matches registration
-            providers.remove(resourceId, sp);
+            if (sp.equals(snapshot.providers.get(resourceId))) {
+                Map<String, ScopeProvider> providers = new LinkedHashMap<>(snapshot.providers);
+                providers.remove(resourceId);
+                snapshot = new Snapshot(providers);
+            }
         }
     }
 
@@ -91,22 +98,17 @@ public class InMemoryScopeRegistry implements ScopeRegistry {
 
     @Override
     public ScopeProvider findScopeProvider(String resourceId) {
-        return providers.get(resourceId);
+        return snapshot.providers.get(resourceId);
     }
 
     @Override
     public Collection<ScopeProvider> listScopeProviders() {
-        return providers.values();
+        return snapshot.providers.values();
     }
 
     @Override
     public Scope findScope(String scope) {
-        ScopeProvider sp = _getProvider(scope);
-        if (sp == null) {
-            return null;
-        }
-
-        return sp.getScopes().stream().filter(s -> s.getScope().equals(scope)).findFirst().orElse(null);
+        return snapshot.scopes.get(scope);
     }
 
     @Override
@@ -122,15 +124,16 @@ public class InMemoryScopeRegistry implements ScopeRegistry {
     @Override
     public Collection<Scope> listScopes() {
         Set<Scope> result = new HashSet<>();
-        providers.values().stream().forEach(sp -> result.addAll(sp.getScopes()));
+        snapshot.providers.values().stream().forEach(sp -> result.addAll(sp.getScopes()));
 
         return result;
     }
 
     @Override
     public Collection<Scope> listScopes(String resourceId) {
-        if (providers.containsKey(resourceId)) {
-            providers.get(resourceId).getScopes();
+        ScopeProvider sp = snapshot.providers.get(resourceId);
+        if (sp != null) {
+            return sp.getScopes();
         }
 
         return Collections.emptyList();
@@ -141,17 +144,7 @@ public class InMemoryScopeRegistry implements ScopeRegistry {
      */
 
     private ScopeProvider _getProvider(String scope) {
-        Optional<ScopeProvider> provider = providers
-            .values()
-            .stream()
-            .filter(sp -> sp.getScopes().stream().anyMatch(s -> s.getScope().equals(scope)))
-            .findFirst();
-
-        if (provider.isPresent()) {
-            return provider.get();
-        }
-
-        return null;
+        return snapshot.scopeProviders.get(scope);
     }
 
     private void _registerProvider(ScopeProvider sp) {
@@ -170,7 +163,12 @@ public class InMemoryScopeRegistry implements ScopeRegistry {
 
         String resourceId = sp.getResourceId();
         logger.debug("register scope provider " + sp.toString() + " for resource " + resourceId);
-        providers.put(resourceId, sp);
+
+        synchronized (this) {
+            Map<String, ScopeProvider> providers = new LinkedHashMap<>(snapshot.providers);
+            providers.put(resourceId, sp);
+            snapshot = new Snapshot(providers);
+        }
     }
 
     private boolean validateScope(Scope s) {
@@ -202,8 +200,9 @@ public class InMemoryScopeRegistry implements ScopeRegistry {
 
     @Override
     public Resource findResource(String resourceId) {
-        if (providers.containsKey(resourceId)) {
-            return providers.get(resourceId).getResource();
+        ScopeProvider sp = snapshot.providers.get(resourceId);
+        if (sp != null) {
+            return sp.getResource();
         }
 
         return null;
@@ -221,6 +220,34 @@ public class InMemoryScopeRegistry implements ScopeRegistry {
 
     @Override
     public Collection<Resource> listResources() {
-        return providers.values().stream().map(p -> p.getResource()).collect(Collectors.toList());
+        return snapshot.providers.values().stream().map(p -> p.getResource()).collect(Collectors.toList());
+    }
+
+    /*
+     * Immutable registry state, with scopes indexed to the first provider
+     * exporting them in registration order
+     */
+    private static class Snapshot {
+
+        private final Map<String, ScopeProvider> providers;
+        private final Map<String, ScopeProvider> scopeProviders;
+        private final Map<String, Scope> scopes;
+
+        public Snapshot(Map<String, ScopeProvider> providers) {
+            Map<String, ScopeProvider> scopeProviders = new HashMap<>();
+            Map<String, Scope> scopes = new HashMap<>();
+            for (ScopeProvider sp : providers.values()) {
+                for (Scope s : sp.getScopes()) {
+                    if (!scopeProviders.containsKey(s.getScope())) {
+                        scopeProviders.put(s.getScope(), sp);
+                        scopes.put(s.getScope(), s);
+                    }
+                }
+            }
+
+            this.providers = Collections.unmodifiableMap(providers);
+            this.scopeProviders = scopeProviders;
+            this.scopes = scopes;
+        }
     }
 }
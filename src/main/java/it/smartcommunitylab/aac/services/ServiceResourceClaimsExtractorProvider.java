@@ -21,17 +21,41 @@ import it.smartcommunitylab.aac.claims.ResourceClaimsExtractorProvider;
 import it.smartcommunitylab.aac.claims.ScriptExecutionService;
 import it.smartcommunitylab.aac.common.NoSuchServiceException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
-public class ServiceResourceClaimsExtractorProvider implements ResourceClaimsExtractorProvider {
+/*
+ * Resource claims extractors for services, indexed by namespace
+ *
+ * The index is loaded once and then kept in sync by the services manager via
+ * refresh/remove, lookups never hit the db. Changes made on other nodes are
+ * picked up by a full reload at a fixed interval.
+ */
+public class ServiceResourceClaimsExtractorProvider implements ResourceClaimsExtractorProvider, DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final ServicesService servicesService;
     private ScriptExecutionService executionService;
 
+    // registered namespaces, services without mapping have no extractor
+    private final Set<String> namespaces = ConcurrentHashMap.newKeySet();
+    private final Map<String, ResourceClaimsExtractor> extractors = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService reloadExecutor;
+
     public ServiceResourceClaimsExtractorProvider(ServicesService servicesService) {
         Assert.notNull(servicesService, "services service is required");
         this.servicesService = servicesService;
@@ -41,35 +65,104 @@ public class ServiceResourceClaimsExtractorProvider implements ResourceClaimsExt
         this.executionService = executionService;
     }
 
+    public void setReloadInterval(int interval) {
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+            reloadExecutor = null;
+        }
+
+        if (interval > 0) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("service-extractors-");
+            threadFactory.setDaemon(true);
+            reloadExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            reloadExecutor.scheduleWithFixedDelay(
+                () -> {
+                    try {
+                        load();
+                    } catch (RuntimeException e) {
+                        logger.error("error reloading service extractors", e);
+                    }
+                },
+                interval,
+                interval,
+                TimeUnit.SECONDS
+            );
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+        }
+    }
+
+    /*
+     * Index
+     */
+    public void load() {
+        logger.debug("load extractors for all services");
+        Set<String> current = new HashSet<>(servicesService.listNamespaces());
+        for (String namespace : current) {
+            refresh(namespace);
+        }
+
+        // drop services removed meanwhile
+        for (String namespace : new HashSet<>(namespaces)) {
+            if (!current.contains(namespace)) {
+                remove(namespace);
+            }
+        }
+    }
+
+    public void refresh(String namespace) {
+        if (!StringUtils.hasText(namespace)) {
+            return;
+        }
+
+        try {
+            Service service = servicesService.getServiceByNamespace(namespace);
+            ResourceClaimsExtractor extractor = buildExtractor(service);
+            if (extractor != null) {
+                extractors.put(namespace, extractor);
+            } else {
+                extractors.remove(namespace);
+            }
+
+            namespaces.add(namespace);
+        } catch (NoSuchServiceException e) {
+            remove(namespace);
+        }
+    }
+
+    public void remove(String namespace) {
+        if (namespace != null) {
+            namespaces.remove(namespace);
+            extractors.remove(namespace);
+        }
+    }
+
+    /*
+     * Extractors
+     */
     @Override
     public Collection<String> getResourceIds() {
         // service namespace is resourceId
-        return servicesService.listNamespaces();
+        return Collections.unmodifiableSet(namespaces);
     }
 
     @Override
     public Collection<ResourceClaimsExtractor> getExtractors() {
-        List<String> namespaces = servicesService.listNamespaces();
-        Set<ResourceClaimsExtractor> extractors = new HashSet<>();
-
-        for (String namespace : namespaces) {
-            try {
-                Service service = servicesService.getServiceByNamespace(namespace);
-                extractors.add(buildExtractor(service));
-            } catch (NoSuchServiceException e) {}
-        }
-
-        return extractors;
+        return new HashSet<>(extractors.values());
     }
 
     @Override
     public ResourceClaimsExtractor getExtractor(String resourceId) {
-        try {
-            Service service = servicesService.getServiceByNamespace(resourceId);
-            return buildExtractor(service);
-        } catch (NoSuchServiceException e) {
+        if (resourceId == null) {
             return null;
         }
+
+        return extractors.get(resourceId);
     }
 
     private ResourceClaimsExtractor buildExtractor(Service service) {
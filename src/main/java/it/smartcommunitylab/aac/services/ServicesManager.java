@@ -60,6 +60,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.oauth2.provider.approval.Approval;
 import org.springframework.security.oauth2.provider.approval.Approval.ApprovalStatus;
@@ -108,6 +109,9 @@ public class ServicesManager implements InitializingBean {
     @Autowired
     private ScriptExecutionService executionService;
 
+    @Value("${jwt.claims.extractors.reload}")
+    private int extractorsReloadInterval;
+
     private ServiceResourceClaimsExtractorProvider resourceClaimsExtractorProvider;
 
     public ServicesManager() {}
@@ -118,9 +122,17 @@ public class ServicesManager implements InitializingBean {
     }
   
     public void reload() throws Exception {
-        // build and register the claims extractor
+        // unregister previous extractor if any
+        if (resourceClaimsExtractorProvider != null) {
+            extractorsRegistry.unregisterExtractorProvider(resourceClaimsExtractorProvider);
+            resourceClaimsExtractorProvider.destroy();
+        }
+
+        // build, load index and register the claims extractor
         resourceClaimsExtractorProvider = new ServiceResourceClaimsExtractorProvider(serviceService);
         resourceClaimsExtractorProvider.setExecutionService(executionService);
+        resourceClaimsExtractorProvider.load();
+        resourceClaimsExtractorProvider.setReloadInterval(extractorsReloadInterval);
 
         extractorsRegistry.registerExtractorProvider(resourceClaimsExtractorProvider);
 
@@ -268,6 +280,8 @@ public class ServicesManager implements InitializingBean {
             throw new SystemException();
         }
 
+        refreshExtractor(s.getNamespace());
+
         return s;
     }
 
@@ -420,6 +434,8 @@ public class ServicesManager implements InitializingBean {
             throw new SystemException();
         }
 
+        refreshExtractor(result.getNamespace());
+
         return result;
     }
 
@@ -454,6 +470,8 @@ public class ServicesManager implements InitializingBean {
 
             // remove, will cleanup related entities
             serviceService.deleteService(serviceId);
+
+            removeExtractor(namespace);
         }
     }
 
@@ -776,6 +794,7 @@ public class ServicesManager implements InitializingBean {
         boolean isMultiple = claim.isMultiple();
 
         ServiceClaim sc = serviceService.addClaim(serviceId, key, name, description, type, isMultiple);
+        refreshExtractor(service.getNamespace());
 
         return sc;
     }
@@ -816,6 +835,7 @@ public class ServicesManager implements InitializingBean {
         boolean isMultiple = claim.isMultiple();
 
         ServiceClaim sc = serviceService.updateClaim(serviceId, key, name, description, type, isMultiple);
+        refreshExtractor(service.getNamespace());
 
         return sc;
     }
@@ -839,6 +859,7 @@ public class ServicesManager implements InitializingBean {
             // we leave current tokens with the claim populated
             // remove only entity
             serviceService.deleteClaim(serviceId, key);
+            refreshExtractor(service.getNamespace());
         }
     }
 
@@ -952,6 +973,23 @@ public class ServicesManager implements InitializingBean {
         }
     }
 
+    /*
+     * Claims extractors index
+     */
+    private void refreshExtractor(String namespace) {
+        if (resourceClaimsExtractorProvider != null) {
+            resourceClaimsExtractorProvider.refresh(namespace);
+            extractorsRegistry.invalidateResourceExtractors(namespace);
+        }
+    }
+
+    private void removeExtractor(String namespace) {
+        if (resourceClaimsExtractorProvider != null) {
+            resourceClaimsExtractorProvider.remove(namespace);
+            extractorsRegistry.invalidateResourceExtractors(namespace);
+        }
+    }
+
     private ScopeApprover buildScopeApprover(String realm, String namespace, ServiceScope sc) {
         String scope = sc.getScope();
         List<ScopeApprover> approvers = new ArrayList<>();
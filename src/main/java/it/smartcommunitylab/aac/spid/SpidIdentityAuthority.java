@@ -27,6 +27,7 @@ import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
 import it.smartcommunitylab.aac.core.service.ResourceEntityService;
 import it.smartcommunitylab.aac.identity.base.AbstractIdentityProviderAuthority;
 import it.smartcommunitylab.aac.saml.model.SamlUserAccount;
+import it.smartcommunitylab.aac.saml.service.SamlMetadataRegistry;
 import it.smartcommunitylab.aac.spid.auth.SpidRelyingPartyRegistrationRepository;
 import it.smartcommunitylab.aac.spid.model.SpidUserIdentity;
 import it.smartcommunitylab.aac.spid.provider.SpidFilterProvider;
@@ -38,6 +39,7 @@ import it.smartcommunitylab.aac.spid.registry.LocalSpidRegistry;
 import it.smartcommunitylab.aac.spid.service.SpidRegistry;
 import java.util.concurrent.TimeUnit;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.stereotype.Service;
@@ -58,6 +60,7 @@ public class SpidIdentityAuthority
     // configuration
     private SpidRegistry spidRegistry; // registry with upstream idp
     private SpidProperties spidProperties;
+    private SamlMetadataRegistry metadataRegistry; // shared upstream metadata
 
     private final LoadingCache<String, SpidIdentityProvider> providers = CacheBuilder
         .newBuilder()
@@ -72,6 +75,7 @@ public class SpidIdentityAuthority
                         throw new IllegalArgumentException("no configuration matches id " + id);
                     }
                     config.setIdentityProviders(spidRegistry.getIdentityProviders());
+                    config.setMetadataRegistry(metadataRegistry);
                     return new SpidIdentityProvider(id, accountService, config, config.getRealm());
                 }
             }
@@ -109,6 +113,20 @@ public class SpidIdentityAuthority
         this.spidProperties = spidProperties;
     }
 
+    @Autowired
+    public void setMetadataRegistry(SamlMetadataRegistry metadataRegistry) {
+        this.metadataRegistry = metadataRegistry;
+        this.registrationRepository.setMetadataRegistry(metadataRegistry);
+    }
+
+    @Autowired
+    public void setMetadataCacheConfig(
+        @Value("${saml.metadata.cache.ttl}") int ttl,
+        @Value("${saml.metadata.cache.size}") int maxSize
+    ) {
+        this.filterProvider.setMetadataCacheConfig(ttl, maxSize);
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         super.afterPropertiesSet();
@@ -137,6 +155,7 @@ public class SpidIdentityAuthority
     @Override
     protected SpidIdentityProvider buildProvider(SpidIdentityProviderConfig config) {
         String id = config.getProvider();
+        config.setMetadataRegistry(metadataRegistry);
         SpidIdentityProvider idp = new SpidIdentityProvider(id, accountService, config, config.getRealm());
         idp.setExecutionService(executionService);
         idp.setResourceService(resourceService);
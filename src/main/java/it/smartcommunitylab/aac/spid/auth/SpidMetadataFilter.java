@@ -17,6 +17,7 @@
 package it.smartcommunitylab.aac.spid.auth;
 
 import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
+import it.smartcommunitylab.aac.saml.auth.SamlMetadataCache;
 import it.smartcommunitylab.aac.spid.SpidIdentityAuthority;
 import it.smartcommunitylab.aac.spid.provider.SpidIdentityProviderConfig;
 import java.io.IOException;
@@ -24,31 +25,32 @@ import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.springframework.core.convert.converter.Converter;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.lang.Nullable;
-import org.springframework.security.saml2.provider.service.metadata.OpenSamlMetadataResolver;
 import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
 import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistrationRepository;
 import org.springframework.security.saml2.provider.service.web.DefaultRelyingPartyRegistrationResolver;
 import org.springframework.security.saml2.provider.service.web.RelyingPartyRegistrationResolver;
-import org.springframework.security.saml2.provider.service.web.Saml2MetadataFilter;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestMatcher;
 import org.springframework.util.Assert;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 /*
- * SpidMetadataFilter is a wrapper around Saml2MetadataFilter that defines a custom registration resolver
+ * SpidMetadataFilter exposes SP metadata with a custom registration resolver
  * and custom metadata resolver to comply with SPID peculiarities.
  * In the context of metadata, registrationId is providerId.
+ *
+ * Signed documents are cached per registration and provider config, and
+ * served with ETag/Last-Modified to support conditional requests.
  */
 public class SpidMetadataFilter extends OncePerRequestFilter {
 
     public static final String DEFAULT_FILTER_URI = SpidIdentityAuthority.AUTHORITY_URL + "metadata/{registrationId}";
 
-    private final Saml2MetadataFilter samlMetadataFilter;
+    private final ProviderConfigRepository<SpidIdentityProviderConfig> configRepository;
+    private final RequestMatcher requestMatcher;
+    private final RelyingPartyRegistrationResolver registrationResolver;
+    private final SamlMetadataCache metadataCache;
 
     public SpidMetadataFilter(
         ProviderConfigRepository<SpidIdentityProviderConfig> configRepository,
@@ -56,18 +58,17 @@ public class SpidMetadataFilter extends OncePerRequestFilter {
     ) {
         Assert.notNull(configRepository, "provider registration repository cannot be null");
         Assert.notNull(relyingPartyRegistrationRepository, "relyingPartyRegistrationRepository cannot be null");
-        RelyingPartyRegistrationResolver registrationResolver = new DefaultRelyingPartyRegistrationResolver(
-            relyingPartyRegistrationRepository
-        );
+        this.configRepository = configRepository;
+        this.registrationResolver = new DefaultRelyingPartyRegistrationResolver(relyingPartyRegistrationRepository);
+        this.requestMatcher = new AntPathRequestMatcher(DEFAULT_FILTER_URI);
 
-        RequestMatcher requestMatcher = new AntPathRequestMatcher(DEFAULT_FILTER_URI);
         SpidMetadataResolver metadataResolver = new SpidMetadataResolver(configRepository);
+        this.metadataCache = new SamlMetadataCache(metadataResolver);
+        this.metadataCache.setMetadataFilename("spid-{registrationId}-metadata.xml");
+    }
 
-        samlMetadataFilter = new Saml2MetadataFilter(registrationResolver, metadataResolver);
-
-        samlMetadataFilter.setRequestMatcher(requestMatcher);
-        samlMetadataFilter.setBeanName("SamlMetadataFilter" + "." + SpidIdentityAuthority.AUTHORITY_URL);
-        samlMetadataFilter.setMetadataFilename("spid-{registrationId}-metadata.xml");
+    public void setMetadataCacheConfig(int ttl, int maxSize) {
+        this.metadataCache.setCacheConfig(ttl, maxSize);
     }
 
     @Nullable
@@ -78,7 +79,35 @@ public class SpidMetadataFilter extends OncePerRequestFilter {
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
         throws ServletException, IOException {
-        // delegate
-        samlMetadataFilter.doFilter(request, response, filterChain);
+        RequestMatcher.MatchResult matcher = requestMatcher.matcher(request);
+        if (!matcher.isMatch()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        String registrationId = matcher.getVariables().get("registrationId");
+        RelyingPartyRegistration relyingPartyRegistration = registrationResolver.resolve(request, registrationId);
+        if (relyingPartyRegistration == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        // spid metadata also include organization, contacts and attributes from config
+        SpidIdentityProviderConfig providerConfig = configRepository.findByProviderId(
+            SpidIdentityProviderConfig.decodeRegistrationId(relyingPartyRegistration.getRegistrationId())
+        );
+        if (providerConfig == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        String version =
+            providerConfig.getProvider() +
+            ":" +
+            providerConfig.getVersion() +
+            ":" +
+            providerConfig.getConfigMap().getConfiguration().hashCode();
+
+        metadataCache.write(request, response, relyingPartyRegistration, version);
     }
 }
@@ -17,6 +17,7 @@
 package it.smartcommunitylab.aac.spid.auth;
 
 import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
+import it.smartcommunitylab.aac.saml.service.SamlMetadataRegistry;
 import it.smartcommunitylab.aac.spid.provider.SpidIdentityProviderConfig;
 import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
 import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistrationRepository;
@@ -34,6 +35,9 @@ public class SpidRelyingPartyRegistrationRepository implements RelyingPartyRegis
 
     private final ProviderConfigRepository<SpidIdentityProviderConfig> providerConfigRepository;
 
+    // shared upstream metadata, optional
+    private SamlMetadataRegistry metadataRegistry;
+
     public SpidRelyingPartyRegistrationRepository(
         ProviderConfigRepository<SpidIdentityProviderConfig> providerConfigRepository
     ) {
@@ -41,6 +45,10 @@ public class SpidRelyingPartyRegistrationRepository implements RelyingPartyRegis
         this.providerConfigRepository = providerConfigRepository;
     }
 
+    public void setMetadataRegistry(SamlMetadataRegistry metadataRegistry) {
+        this.metadataRegistry = metadataRegistry;
+    }
+
     /*
      * findByRegistrationId provides read access as per interface
      * Spid implements two different patterns for registration ids, that are:
@@ -63,6 +71,7 @@ public class SpidRelyingPartyRegistrationRepository implements RelyingPartyRegis
                 return null;
             }
 
+            providerConfig.setMetadataRegistry(metadataRegistry);
             return providerConfig.getRelyingPartyRegistration();
         }
         // registrationId is base64 url encode({providerId}|{entityLabel})
@@ -72,6 +81,7 @@ public class SpidRelyingPartyRegistrationRepository implements RelyingPartyRegis
             return null;
         }
 
+        providerConfig.setMetadataRegistry(metadataRegistry);
         return providerConfig
             .getRelyingPartyRegistrations()
             .stream()
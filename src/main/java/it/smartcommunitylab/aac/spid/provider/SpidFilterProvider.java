@@ -20,6 +20,7 @@ import it.smartcommunitylab.aac.SystemKeys;
 import it.smartcommunitylab.aac.core.provider.FilterProvider;
 import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
 import it.smartcommunitylab.aac.saml.auth.Saml2AuthenticationRequestRepository;
+import it.smartcommunitylab.aac.saml.auth.SamlMetadataCache;
 import it.smartcommunitylab.aac.saml.auth.SerializableSaml2AuthenticationRequestContext;
 import it.smartcommunitylab.aac.saml.service.HttpSessionSaml2AuthenticationRequestRepository;
 import it.smartcommunitylab.aac.spid.auth.SpidMetadataFilter;
@@ -55,6 +56,10 @@ public class SpidFilterProvider implements FilterProvider, ApplicationEventPubli
     private ApplicationEventPublisher eventPublisher;
     private AuthenticationManager authManager;
 
+    // signed sp metadata cache
+    private int metadataCacheTtl = SamlMetadataCache.DEFAULT_CACHE_TTL;
+    private int metadataCacheSize = SamlMetadataCache.DEFAULT_CACHE_SIZE;
+
     public SpidFilterProvider(
         SpidRelyingPartyRegistrationRepository relyingPartyRegistrationRepository,
         ProviderConfigRepository<SpidIdentityProviderConfig> providerConfigRepository
@@ -66,6 +71,11 @@ public class SpidFilterProvider implements FilterProvider, ApplicationEventPubli
         this.relyingPartyRegistrationRepository = relyingPartyRegistrationRepository;
     }
 
+    public void setMetadataCacheConfig(int ttl, int maxSize) {
+        this.metadataCacheTtl = ttl;
+        this.metadataCacheSize = maxSize;
+    }
+
     @Override
     public String getAuthorityId() {
         return authorityId;
@@ -102,6 +112,7 @@ public class SpidFilterProvider implements FilterProvider, ApplicationEventPubli
             providerConfigRepository,
             relyingPartyRegistrationRepository
         );
+        metadataFilter.setMetadataCacheConfig(metadataCacheTtl, metadataCacheSize);
 
         filters.add(requestFilter);
         filters.add(ssoFilter);
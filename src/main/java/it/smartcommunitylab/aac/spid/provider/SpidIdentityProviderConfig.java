@@ -22,6 +22,7 @@ import it.smartcommunitylab.aac.crypto.CertificateParser;
 import it.smartcommunitylab.aac.identity.base.AbstractIdentityProviderConfig;
 import it.smartcommunitylab.aac.identity.model.ConfigurableIdentityProvider;
 import it.smartcommunitylab.aac.identity.provider.IdentityProviderSettingsMap;
+import it.smartcommunitylab.aac.saml.service.SamlMetadataRegistry;
 import it.smartcommunitylab.aac.spid.SpidIdentityAuthority;
 import it.smartcommunitylab.aac.spid.model.SpidAttribute;
 import it.smartcommunitylab.aac.spid.model.SpidRegistration;
@@ -61,8 +62,10 @@ public class SpidIdentityProviderConfig extends AbstractIdentityProviderConfig<S
     //    public static final String DEFAULT_LOGOUT_URL =
     //        "{baseUrl}" + SpidIdentityAuthority.AUTHORITY_URL + "slo/{registrationId}";
 
-    private transient Set<RelyingPartyRegistration> relyingPartyRegistrations; // first time evaluated by the getter, then immutable
+    private transient volatile Set<RelyingPartyRegistration> relyingPartyRegistrations; // evaluated by the getter
     private Map<String, SpidRegistration> identityProviders; // local registry
+    private transient SamlMetadataRegistry metadataRegistry; // shared upstream metadata, optional
+    private transient volatile Map<String, RelyingPartyRegistration> assertingParties; // registry templates in use
 
     public SpidIdentityProviderConfig(String provider, String realm) {
         super(
@@ -122,18 +125,34 @@ public class SpidIdentityProviderConfig extends AbstractIdentityProviderConfig<S
         }
     }
 
+    @JsonIgnore
+    public void setMetadataRegistry(SamlMetadataRegistry metadataRegistry) {
+        this.metadataRegistry = metadataRegistry;
+    }
+
     public String getEntityId() {
         return configMap.getEntityId() != null ? configMap.getEntityId() : getMetadataUrl();
     }
 
     @JsonIgnore
     public Set<RelyingPartyRegistration> getRelyingPartyRegistrations() {
-        if (relyingPartyRegistrations == null) {
-            try {
-                relyingPartyRegistrations = toRelyingPartyRegistrations();
-            } catch (IOException | CertificateException e) {
-                throw new RuntimeException("error building registration: " + e.getMessage());
+        try {
+            if (metadataRegistry != null) {
+                // resolve via registry on every access to follow refreshed, expired or late metadata,
+                // registrations are rebuilt only when the registry serves different templates
+                Map<String, RelyingPartyRegistration> templates = metadataRegistry.getAssertingParties(
+                    getAssertingPartyMetadataUrls()
+                );
+                if (relyingPartyRegistrations == null || !templates.equals(assertingParties)) {
+                    // publish registrations before the templates they were built from
+                    relyingPartyRegistrations = toRelyingPartyRegistrations(templates);
+                    assertingParties = templates;
+                }
+            } else if (relyingPartyRegistrations == null) {
+                relyingPartyRegistrations = toRelyingPartyRegistrations(null);
             }
+        } catch (IOException | CertificateException e) {
+            throw new RuntimeException("error building registration: " + e.getMessage());
         }
         return relyingPartyRegistrations;
     }
@@ -149,13 +168,20 @@ public class SpidIdentityProviderConfig extends AbstractIdentityProviderConfig<S
 
     // generate a registration (an RP/AP pair as defined by OpenSaml) for _each_
     // configured upstream idps
-    private Set<RelyingPartyRegistration> toRelyingPartyRegistrations() throws IOException, CertificateException {
+    // templates are upstream metadata resolved via registry, when null each url is fetched
+    private Set<RelyingPartyRegistration> toRelyingPartyRegistrations(Map<String, RelyingPartyRegistration> templates)
+        throws IOException, CertificateException {
         Set<RelyingPartyRegistration> registrations = new HashSet<>();
         try {
             Set<String> idpMetadataUrls = getAssertingPartyMetadataUrls();
+
             for (String idpMetadataUrl : idpMetadataUrls) {
                 try {
-                    registrations.add(toRelyingPartyRegistration(idpMetadataUrl));
+                    if (templates == null) {
+                        registrations.add(toRelyingPartyRegistration(idpMetadataUrl, null));
+                    } else if (templates.containsKey(idpMetadataUrl)) {
+                        registrations.add(toRelyingPartyRegistration(idpMetadataUrl, templates.get(idpMetadataUrl)));
+                    }
                 } catch (Saml2Exception | ConnectException e) {
                     // skip that registration if that idp is offline
                 }
@@ -249,14 +275,16 @@ public class SpidIdentityProviderConfig extends AbstractIdentityProviderConfig<S
 
     // create a relying party registration for an upstream idp; only ap autoconfiguration
     // is supported, hence function parameters require an idp metadata url
-    private RelyingPartyRegistration toRelyingPartyRegistration(String idpMetadataUrl)
-        throws IOException, CertificateException, URISyntaxException {
-        // start from ap autoconfiguration ...
+    private RelyingPartyRegistration toRelyingPartyRegistration(
+        String idpMetadataUrl,
+        RelyingPartyRegistration template
+    ) throws IOException, CertificateException, URISyntaxException {
+        // start from ap autoconfiguration, either cached or fetched ...
         String key = evalIdpKeyIdentifier(idpMetadataUrl);
         String registrationId = encodeRegistrationId(evalRelyingPartyRegistrationId(key));
-        RelyingPartyRegistration.Builder builder = RelyingPartyRegistrations
-            .fromMetadataLocation(idpMetadataUrl)
-            .registrationId(registrationId);
+        RelyingPartyRegistration.Builder builder = template != null
+            ? RelyingPartyRegistration.withRelyingPartyRegistration(template).registrationId(registrationId)
+            : RelyingPartyRegistrations.fromMetadataLocation(idpMetadataUrl).registrationId(registrationId);
 
         // ... then expand with rp configuration (i.e. ourself)
         builder
@@ -16,21 +16,30 @@
 
 package it.smartcommunitylab.aac.templates.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import it.smartcommunitylab.aac.Config;
 import it.smartcommunitylab.aac.common.InvalidDataException;
 import it.smartcommunitylab.aac.common.NoSuchTemplateException;
 import it.smartcommunitylab.aac.common.RegistrationException;
 import it.smartcommunitylab.aac.templates.model.TemplateModel;
 import it.smartcommunitylab.aac.templates.persistence.TemplateEntity;
+import it.smartcommunitylab.aac.utils.VersionedCache;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 import org.jsoup.Jsoup;
 import org.jsoup.safety.Safelist;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.support.PageableExecutionUtils;
@@ -41,10 +50,13 @@ import org.springframework.util.StringUtils;
 
 @Service
 @Transactional
-public class TemplateService {
+public class TemplateService implements MeterBinder {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    public static final int DEFAULT_CACHE_TTL = 300;
+    public static final int DEFAULT_CACHE_SIZE = 5000;
+
     // whitelist typography + links
     private static final Safelist DEFAULT_WHITELIST = Config.WHITELIST_RELAXED_NOIMG.addEnforcedAttribute(
         "a",
@@ -54,10 +66,27 @@ public class TemplateService {
 
     private final TemplateEntityService templateService;
 
+    // sanitized template snapshots by realm|authority|template|language, read
+    // on every rendered page. missing templates are cached as empty
+    private VersionedCache<String, Optional<TemplateModel>> templates;
+
     public TemplateService(TemplateEntityService templateService) {
         Assert.notNull(templateService, "template service is mandatory");
 
         this.templateService = templateService;
+
+        // build default cache
+        this.templates = VersionedCache.build(DEFAULT_CACHE_TTL, DEFAULT_CACHE_SIZE);
+    }
+
+    @Autowired
+    public void setCacheConfig(@Value("${templates.cache.ttl}") int ttl, @Value("${templates.cache.size}") int maxSize) {
+        this.templates = VersionedCache.build(ttl, maxSize);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, templates.getCache(), "templates");
     }
 
     public TemplateModel findTemplate(String id) {
@@ -78,6 +107,7 @@ public class TemplateService {
         return toModel(e);
     }
 
+    @Transactional(readOnly = true)
     public TemplateModel findTemplate(String authority, String realm, String template, String language) {
         logger.debug(
             "find template model {} for realm {} from authority {} language {}",
@@ -87,12 +117,19 @@ public class TemplateService {
             StringUtils.trimAllWhitespace(language)
         );
 
-        TemplateEntity e = templateService.findTemplateBy(authority, realm, template, language);
-        if (e == null) {
-            return null;
-        }
+        // model is built from a snapshot every time, callers can modify it
+        String key = cacheKey(realm, authority, template, language);
+        Optional<TemplateModel> m = templates.get(
+            key,
+            k -> {
+                TemplateEntity e = templateService.findTemplateBy(authority, realm, template, language);
 
-        return toModel(e);
+                // content is sanitized on write, renders use it as is
+                return Optional.ofNullable(e != null ? toSnapshot(e) : null);
+            }
+        );
+
+        return m.map(t -> copyModel(t)).orElse(null);
     }
 
     public TemplateModel getTemplate(String authority, String realm, String template, String language)
@@ -209,6 +246,8 @@ public class TemplateService {
             StringUtils.trimAllWhitespace(realm)
         );
         TemplateEntity e = templateService.addTemplate(id, authority, realm, template, language, content);
+        evictTemplates(realm);
+
         return toModel(e);
     }
 
@@ -231,6 +270,8 @@ public class TemplateService {
 
         logger.debug("update template {}", StringUtils.trimAllWhitespace(id));
         TemplateEntity e = templateService.updateTemplate(id, language, content);
+        evictTemplates(e.getRealm());
+
         return toModel(e);
     }
 
@@ -239,6 +280,7 @@ public class TemplateService {
 
         logger.debug("delete template {}", StringUtils.trimAllWhitespace(id));
         templateService.deleteTemplate(e.getId());
+        evictTemplates(e.getRealm());
     }
 
     public Map<String, String> sanitizeTemplate(String id, TemplateModel reg) {
@@ -263,6 +305,38 @@ public class TemplateService {
         return content;
     }
 
+    /*
+     * Snapshots cache
+     */
+    private static String cacheKey(String realm, String authority, String template, String language) {
+        return realm + "|" + authority + "|" + template + "|" + language;
+    }
+
+    private void evictTemplates(String realm) {
+        logger.debug("evict templates for realm {} from cache", String.valueOf(realm));
+        String prefix = realm + "|";
+        templates.invalidateIf(k -> k.startsWith(prefix));
+    }
+
+    private TemplateModel toSnapshot(TemplateEntity e) {
+        // all writes go through add/update, stored content is already clean
+        TemplateModel m = toModel(e);
+        if (e.getContent() != null) {
+            m.setContent(Collections.unmodifiableMap(new HashMap<>(e.getContent())));
+        }
+
+        return m;
+    }
+
+    private TemplateModel copyModel(TemplateModel t) {
+        TemplateModel m = new TemplateModel(t.getAuthority(), t.getRealm(), null, t.getTemplate());
+        m.setId(t.getId());
+        m.setLanguage(t.getLanguage());
+        m.setContent(t.getContent() != null ? new HashMap<>(t.getContent()) : null);
+
+        return m;
+    }
+
     /*
      * converter
      */
@@ -110,8 +110,9 @@ public class TosOnAccessFilter extends OncePerRequestFilter {
             ExtendedAuthenticationToken token = CollectionUtils.firstElement(userAuth.getAuthentications());
             String realm = token.getRealm();
             // check if realm is obliged to tos.
+            // both lookups are served from short lived caches, evicted on updates
             Realm realmEntity = realmService.findRealm(realm);
-            User user = userService.findUser(userAuth.getSubjectId());
+            User user = userService.findUserStatus(userAuth.getSubjectId());
 
             if (user != null && realmEntity != null && realmEntity.getTosConfiguration().isEnableTOS()) {
                 // Refuse.
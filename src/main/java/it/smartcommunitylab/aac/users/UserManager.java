@@ -52,6 +52,7 @@ import it.smartcommunitylab.aac.realms.service.RealmService;
 import it.smartcommunitylab.aac.scope.Scope;
 import it.smartcommunitylab.aac.scope.ScopeRegistry;
 import it.smartcommunitylab.aac.users.persistence.UserEntity;
+import it.smartcommunitylab.aac.users.service.UserRelation;
 import it.smartcommunitylab.aac.users.service.UserService;
 import java.io.Serializable;
 import java.time.Instant;
@@ -60,9 +61,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
@@ -200,6 +203,12 @@ public class UserManager {
 
     @Transactional(readOnly = true)
     public Page<User> searchUsers(String realm, String keywords, Pageable pageRequest) throws NoSuchRealmException {
+        return searchUsers(realm, keywords, pageRequest, EnumSet.allOf(UserRelation.class));
+    }
+
+    @Transactional(readOnly = true)
+    public Page<User> searchUsers(String realm, String keywords, Pageable pageRequest, Set<UserRelation> expand)
+        throws NoSuchRealmException {
         logger.debug(
             "search users for realm {} with keywords {}",
             StringUtils.trimAllWhitespace(realm),
@@ -207,7 +216,17 @@ public class UserManager {
         );
         String query = StringUtils.trimAllWhitespace(keywords);
         Realm r = realmService.getRealm(realm);
-        return userService.searchUsers(r.getSlug(), query, pageRequest);
+        return userService.searchUsers(r.getSlug(), query, pageRequest, expand);
+    }
+
+    // per-realm view for a batch of users, missing users are skipped
+    @Transactional(readOnly = true)
+    public List<User> getUsers(String realm, Collection<String> userIds, Set<UserRelation> expand)
+        throws NoSuchRealmException {
+        logger.debug("get {} users for realm {}", userIds.size(), StringUtils.trimAllWhitespace(realm));
+
+        Realm r = realmService.getRealm(realm);
+        return userService.getUsers(userIds, r.getSlug(), expand);
     }
 
     @Transactional(readOnly = true)
@@ -35,10 +35,12 @@ import it.smartcommunitylab.aac.model.SubjectStatus;
 import it.smartcommunitylab.aac.model.User;
 import it.smartcommunitylab.aac.roles.RealmRoleManager;
 import it.smartcommunitylab.aac.users.UserManager;
+import it.smartcommunitylab.aac.users.service.UserRelation;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
@@ -107,30 +109,33 @@ public class BaseUserController implements InitializingBean {
         @RequestParam(required = false) String q,
         @RequestParam(required = false) String group,
         @RequestParam(required = false) String role,
+        @RequestParam(required = false) List<String> expand,
         Pageable pageRequest
     ) throws NoSuchRealmException, NoSuchGroupException {
         logger.debug("list users for realm {}", StringUtils.trimAllWhitespace(realm));
 
+        // relations to expand, core ones when not specified
+        Set<UserRelation> relations = UserRelation.parse(expand);
+
         if(group != null) {
             //list members for group
-            String[] userIds = groupManager.getGroupMembers(realm, group).toArray(new String[0]);
-            
-            List<User> users = new ArrayList<>();
-            for(int i = 0; i< userIds.length; i++) {
-                if(pageRequest == null || (i >= pageRequest.getOffset() && i <=pageRequest.getOffset()+pageRequest.getPageSize())) {
-                    try {
-                        users.add(userManager.getUser(realm, userIds[i]));
-                    } catch (NoSuchUserException nue) {
-                        //skip, the id may refer to another entity
-                    }
-                }
+            List<String> userIds = new ArrayList<>(groupManager.getGroupMembers(realm, group));
+
+            List<String> pageIds = userIds;
+            if (pageRequest != null && pageRequest.isPaged()) {
+                int from = (int) Math.min(pageRequest.getOffset(), userIds.size());
+                int to = Math.min(from + pageRequest.getPageSize(), userIds.size());
+                pageIds = userIds.subList(from, to);
             }
 
-            return new PageImpl<>(users, pageRequest, userIds.length);
+            // resolve the whole page at once, ids may refer to other entities and are skipped
+            List<User> users = userManager.getUsers(realm, pageIds, relations);
+
+            return new PageImpl<>(users, pageRequest, userIds.size());
         }
 
         // list users owned or accessible by this realm
-        return userManager.searchUsers(realm, q, pageRequest);
+        return userManager.searchUsers(realm, q, pageRequest, relations);
     }
 
     @GetMapping("/users/{realm}/{userId}")
@@ -17,10 +17,13 @@
 package it.smartcommunitylab.aac.users.persistence;
 
 import it.smartcommunitylab.aac.repository.CustomJpaRepository;
+import java.util.Collection;
 import java.util.List;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -28,6 +31,8 @@ public interface UserEntityRepository
     extends CustomJpaRepository<UserEntity, String>, JpaSpecificationExecutor<UserEntity> {
     UserEntity findByUuid(String uuid);
 
+    List<UserEntity> findByUuidIn(Collection<String> uuids);
+
     List<UserEntity> findByRealm(String realm);
 
     List<UserEntity> findByRealmAndUsername(String realm, String username);
@@ -55,4 +60,11 @@ public interface UserEntityRepository
     );
 
     long countByRealm(String realm);
+
+    @Query("select u.uuid from UserEntity u where u.realm = ?1")
+    List<String> findUuidsByRealm(String realm, Pageable pageRequest);
+
+    @Modifying
+    @Query("delete from UserEntity u where u.uuid in ?1")
+    int deleteByUuids(Collection<String> uuids);
 }
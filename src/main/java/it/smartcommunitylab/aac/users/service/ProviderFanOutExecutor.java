@@ -0,0 +1,255 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.users.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import it.smartcommunitylab.aac.common.SystemException;
+import it.smartcommunitylab.aac.core.provider.ResourceProvider;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.concurrent.DelegatingSecurityContextCallable;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/*
+ * Invoke a set of providers in parallel and collect their results in provider
+ * order
+ *
+ * Every provider call is bound by a timeout, the whole fan-out by a deadline.
+ * Failing providers abort the whole call with the default fail policy, or are
+ * skipped (logged and counted) with the opt-in partial policy. When the pool is
+ * saturated calls are executed by the caller.
+ *
+ * Workers run outside the caller transaction and persistence context, so
+ * calls made while a transaction is active are executed sequentially by the
+ * caller. Security context and request attributes are passed to workers.
+ */
+public class ProviderFanOutExecutor implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProviderFanOutExecutor.class);
+
+    public static final int DEFAULT_THREADS = 8;
+    public static final int DEFAULT_QUEUE = 100;
+    public static final long DEFAULT_TIMEOUT = 3000;
+    public static final long DEFAULT_DEADLINE = 5000;
+
+    public enum Policy {
+        // fail the whole call
+        FAIL,
+        // skip providers which failed or timed out
+        PARTIAL,
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    // per provider timeout and global deadline, in milliseconds
+    private long timeout = DEFAULT_TIMEOUT;
+    private long deadline = DEFAULT_DEADLINE;
+    private Policy policy = Policy.FAIL;
+
+    private MeterRegistry meterRegistry;
+
+    public ProviderFanOutExecutor() {
+        this(DEFAULT_THREADS, DEFAULT_QUEUE);
+    }
+
+    public ProviderFanOutExecutor(int threads, int queueCapacity) {
+        Assert.isTrue(threads > 0, "threads must be a positive value");
+        Assert.isTrue(queueCapacity > 0, "queue capacity must be a positive value");
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("providers-");
+        threadFactory.setDaemon(true);
+
+        this.executor =
+            new ThreadPoolExecutor(
+                threads,
+                threads,
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy()
+            );
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void setTimeout(long timeout) {
+        Assert.isTrue(timeout > 0, "timeout must be a positive value");
+        this.timeout = timeout;
+    }
+
+    public void setDeadline(long deadline) {
+        Assert.isTrue(deadline > 0, "deadline must be a positive value");
+        this.deadline = deadline;
+    }
+
+    public void setPolicy(Policy policy) {
+        Assert.notNull(policy, "policy can not be null");
+        this.policy = policy;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+        new ExecutorServiceMetrics(executor, "users.providers", Collections.emptyList()).bindTo(registry);
+    }
+
+    public <P extends ResourceProvider<?>, T> List<T> fanOut(
+        String type,
+        Collection<P> providers,
+        Function<P, Collection<? extends T>> call
+    ) {
+        List<T> result = new ArrayList<>();
+        if (providers == null || providers.isEmpty()) {
+            return result;
+        }
+
+        // single provider avoids the thread hop, calls inside a transaction
+        // need the caller transaction and persistence context
+        if (providers.size() == 1 || TransactionSynchronizationManager.isSynchronizationActive()) {
+            for (P p : providers) {
+                long start = System.nanoTime();
+                try {
+                    Collection<? extends T> r = call.apply(p);
+                    record(type, p, "success", start);
+                    if (r != null) {
+                        result.addAll(r);
+                    }
+                } catch (RuntimeException e) {
+                    record(type, p, "error", start);
+                    onError(type, p, e);
+                }
+            }
+
+            return result;
+        }
+
+        // submit all, security context and request attributes are passed to
+        // workers
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(deadline);
+        List<Future<Collection<? extends T>>> futures = new ArrayList<>(providers.size());
+        List<Long> submits = new ArrayList<>(providers.size());
+        List<P> list = new ArrayList<>(providers);
+        for (P p : list) {
+            Callable<Collection<? extends T>> task = () -> {
+                RequestAttributes previous = RequestContextHolder.getRequestAttributes();
+                RequestContextHolder.setRequestAttributes(attributes);
+                try {
+                    return call.apply(p);
+                } finally {
+                    RequestContextHolder.setRequestAttributes(previous);
+                }
+            };
+            submits.add(System.nanoTime());
+            futures.add(executor.submit(DelegatingSecurityContextCallable.create(task, null)));
+        }
+
+        // collect in provider order
+        try {
+            for (int i = 0; i < list.size(); i++) {
+                P p = list.get(i);
+                Future<Collection<? extends T>> f = futures.get(i);
+                long submit = submits.get(i);
+                long limit = Math.min(submit + TimeUnit.MILLISECONDS.toNanos(timeout), end);
+                try {
+                    Collection<? extends T> r = f.get(Math.max(0, limit - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    record(type, p, "success", submit);
+                    if (r != null) {
+                        result.addAll(r);
+                    }
+                } catch (TimeoutException e) {
+                    f.cancel(true);
+                    record(type, p, "timeout", submit);
+                    onError(type, p, e);
+                } catch (ExecutionException e) {
+                    record(type, p, "error", submit);
+                    onError(type, p, e.getCause() != null ? e.getCause() : e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            throw new SystemException("interrupted while fetching " + type);
+        } catch (RuntimeException e) {
+            // fail policy, drop pending calls
+            futures.forEach(f -> f.cancel(true));
+            throw e;
+        }
+
+        return result;
+    }
+
+    private void onError(String type, ResourceProvider<?> p, Throwable e) {
+        if (policy == Policy.FAIL) {
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+
+            throw new SystemException("error fetching " + type + " from " + p.getProvider(), e);
+        }
+
+        String msg = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        logger.warn("skip {} from provider {}: {}", type, p.getProvider(), msg);
+        if (meterRegistry != null) {
+            Counter
+                .builder("users.providers.dropped")
+                .description("providers skipped from a partial fetch")
+                .tag("type", type)
+                .tag("authority", String.valueOf(p.getAuthority()))
+                .register(meterRegistry)
+                .increment();
+        }
+    }
+
+    private void record(String type, ResourceProvider<?> p, String outcome, long start) {
+        if (meterRegistry != null) {
+            Timer
+                .builder("users.providers.fetch")
+                .description("user resources fetched from a single provider")
+                .tag("type", type)
+                .tag("authority", String.valueOf(p.getAuthority()))
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -25,9 +25,11 @@ import it.smartcommunitylab.aac.model.Subject;
 import it.smartcommunitylab.aac.model.SubjectStatus;
 import it.smartcommunitylab.aac.users.persistence.UserEntity;
 import it.smartcommunitylab.aac.users.persistence.UserEntityRepository;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
@@ -108,6 +110,19 @@ public class UserEntityService {
         return userRepository.findByRealm(realm);
     }
 
+    @Transactional(readOnly = true)
+    public List<UserEntity> findUsers(Collection<String> uuids) {
+        return userRepository.findByUuidIn(uuids);
+    }
+
+    /*
+     * List a chunk of user ids for the realm, without loading entities
+     */
+    @Transactional(readOnly = true)
+    public List<String> listUserIds(String realm, int size) {
+        return userRepository.findUuidsByRealm(realm, PageRequest.of(0, size));
+    }
+
     @Transactional(readOnly = true)
     public List<UserEntity> findUsersByUsername(String realm, String username) {
         return userRepository.findByRealmAndUsername(realm, username);
@@ -260,4 +275,16 @@ public class UserEntityService {
             subjectService.deleteSubject(uuid);
         }
     }
+
+    /*
+     * Bulk delete users along with their subjects
+     */
+    public void deleteUsers(Collection<String> uuids) {
+        if (uuids.isEmpty()) {
+            return;
+        }
+
+        userRepository.deleteByUuids(uuids);
+        subjectService.deleteSubjects(uuids);
+    }
 }
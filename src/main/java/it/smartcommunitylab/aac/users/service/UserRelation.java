@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.users.service;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+import org.springframework.util.Assert;
+
+/*
+ * Relations of a user model which can be expanded when listing users
+ */
+public enum UserRelation {
+    IDENTITIES("identities"),
+    ATTRIBUTES("attributes"),
+    AUTHORITIES("authorities"),
+    GROUPS("groups"),
+    ROLES("roles"),
+    SPACEROLES("spaceroles");
+
+    private final String value;
+
+    UserRelation(String value) {
+        Assert.hasText(value, "value cannot be empty");
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public String toString() {
+        return value;
+    }
+
+    public static UserRelation parse(String value) {
+        for (UserRelation r : UserRelation.values()) {
+            if (r.value.equalsIgnoreCase(value)) {
+                return r;
+            }
+        }
+
+        return null;
+    }
+
+    /*
+     * Relations stored by core, loaded in batch without per user provider calls
+     */
+    public static Set<UserRelation> defaults() {
+        return EnumSet.of(AUTHORITIES, GROUPS, ROLES, SPACEROLES);
+    }
+
+    /*
+     * Parse a list of relations, null means the default ones. Unknown values
+     * are ignored
+     */
+    public static Set<UserRelation> parse(Collection<String> values) {
+        if (values == null) {
+            return defaults();
+        }
+
+        Set<UserRelation> relations = EnumSet.noneOf(UserRelation.class);
+        for (String v : values) {
+            UserRelation r = parse(v);
+            if (r != null) {
+                relations.add(r);
+            }
+        }
+
+        return relations;
+    }
+}
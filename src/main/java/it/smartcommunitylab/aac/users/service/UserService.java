@@ -16,6 +16,10 @@
 
 package it.smartcommunitylab.aac.users.service;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import it.smartcommunitylab.aac.Config;
 import it.smartcommunitylab.aac.SystemKeys;
 import it.smartcommunitylab.aac.accounts.model.UserAccount;
@@ -50,15 +54,20 @@ import it.smartcommunitylab.aac.model.User;
 import it.smartcommunitylab.aac.roles.service.SpaceRoleService;
 import it.smartcommunitylab.aac.roles.service.SubjectRoleService;
 import it.smartcommunitylab.aac.users.persistence.UserEntity;
+import it.smartcommunitylab.aac.utils.VersionedCache;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
@@ -79,7 +88,10 @@ import org.springframework.transaction.annotation.Transactional;
  *
  */
 @Service
-public class UserService {
+public class UserService implements MeterBinder {
+
+    public static final int DEFAULT_CACHE_TTL = 30;
+    public static final int DEFAULT_CACHE_SIZE = 1000;
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -123,6 +135,29 @@ public class UserService {
     @Autowired
     private List<it.smartcommunitylab.aac.accounts.persistence.UserAccountService<? extends UserAccount>> userAccountServices;
 
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    // optional parallel fan-out for identity and attribute providers
+    @Autowired(required = false)
+    private ProviderFanOutExecutor providersExecutor;
+
+    // user snapshot bound to the current thread, if any
+    private static final ThreadLocal<UserSnapshot> snapshots = new ThreadLocal<>();
+
+    // status and tos flags by subject, read by per-request filters
+    private VersionedCache<String, User> statuses = VersionedCache.build(DEFAULT_CACHE_TTL, DEFAULT_CACHE_SIZE);
+
+    @Autowired
+    public void setCacheConfig(@Value("${users.cache.ttl}") int ttl, @Value("${users.cache.size}") int maxSize) {
+        this.statuses = VersionedCache.build(ttl, maxSize);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, statuses.getCache(), "users.statuses");
+    }
+
     /*
      * User translation
      */
@@ -167,6 +202,87 @@ public class UserService {
     }
 
     public User getUser(UserDetails userDetails, String realm) {
+        UserSnapshot snapshot = snapshots.get();
+        if (snapshot == null) {
+            return loadUser(userDetails, realm);
+        }
+
+        // load once per snapshot, consumers get a copy they can modify
+        String subjectId = userDetails.getSubjectId();
+        String key = realm != null ? realm : userDetails.getRealm();
+        User u = snapshot.get(subjectId, key);
+        if (u == null) {
+            u = loadUser(userDetails, realm);
+            snapshot.put(subjectId, key, u);
+        }
+
+        return copyUser(u);
+    }
+
+    /*
+     * Open a snapshot bound to the current thread: users resolved via
+     * getUser(userDetails, realm) will be loaded only once until closed
+     */
+    public UserSnapshot openSnapshot() {
+        UserSnapshot current = snapshots.get();
+        UserSnapshot snapshot = new UserSnapshot(current, s -> closeSnapshot(s));
+        if (current == null) {
+            snapshots.set(snapshot);
+        }
+
+        return snapshot;
+    }
+
+    private void closeSnapshot(UserSnapshot snapshot) {
+        if (!snapshot.isOwner()) {
+            return;
+        }
+
+        snapshots.remove();
+        logger.trace("user snapshot closed with {} misses {} hits", snapshot.getLoads(), snapshot.getHits());
+
+        if (meterRegistry != null) {
+            // misses count full user loads, not the queries each one issues
+            DistributionSummary
+                .builder("users.snapshot.misses")
+                .description("users loaded per snapshot")
+                .register(meterRegistry)
+                .record(snapshot.getLoads());
+            DistributionSummary
+                .builder("users.snapshot.hits")
+                .description("user loads avoided per snapshot")
+                .register(meterRegistry)
+                .record(snapshot.getHits());
+        }
+    }
+
+    private User copyUser(User user) {
+        User u = new User(user.getSubjectId(), user.getSource());
+        u.setRealm(user.getRealm());
+        u.setUsername(user.getUsername());
+        u.setEmail(user.getEmail());
+        u.setEmailVerified(user.isEmailVerified());
+        u.setLang(user.getLang());
+        u.setStatus(user.getStatus());
+        u.setExpirationDate(user.getExpirationDate());
+        u.setCreateDate(user.getCreateDate());
+        u.setModifiedDate(user.getModifiedDate());
+        u.setLoginDate(user.getLoginDate());
+        u.setLoginIp(user.getLoginIp());
+        u.setLoginProvider(user.getLoginProvider());
+        u.setTosAccepted(user.getTosAccepted());
+        u.setAuthorities(user.getAuthorities());
+        // identities add their attributes, set attributes after
+        u.setIdentities(user.getIdentities());
+        u.setAttributes(user.getAttributes());
+        u.setGroups(user.getGroups());
+        u.setRealmRoles(user.getRealmRoles());
+        u.setSpaceRoles(user.getSpaceRoles());
+
+        return u;
+    }
+
+    private User loadUser(UserDetails userDetails, String realm) {
         String subjectId = userDetails.getSubjectId();
 
         if (realm == null || userDetails.getRealm().equals(realm)) {
@@ -288,6 +404,44 @@ public class UserService {
         return user;
     }
 
+    /*
+     * Find a lightweight user with only status and tos flags, served from a
+     * short lived cache. No authorities, identities, attributes etc
+     */
+    public User findUserStatus(String subjectId) {
+        User u = statuses.get(
+            subjectId,
+            id -> {
+                UserEntity ue = userService.findUser(id);
+                if (ue == null) {
+                    return null;
+                }
+
+                User s = new User(id, ue.getRealm());
+                s.setUsername(ue.getUsername());
+                s.setTosAccepted(ue.getTosAccepted());
+                s.setStatus(SubjectStatus.parse(ue.getStatus()));
+                return s;
+            }
+        );
+        if (u == null) {
+            return null;
+        }
+
+        // consumers get a copy they can modify
+        User user = new User(subjectId, u.getRealm());
+        user.setUsername(u.getUsername());
+        user.setTosAccepted(u.getTosAccepted());
+        user.setStatus(u.getStatus());
+
+        return user;
+    }
+
+    private void evictUserStatus(String subjectId) {
+        logger.debug("evict user status {} from cache", String.valueOf(subjectId));
+        statuses.invalidate(subjectId);
+    }
+
     public User getUser(String subjectId) throws NoSuchUserException {
         // resolve subject
         UserEntity ue = userService.getUser(subjectId);
@@ -350,30 +504,7 @@ public class UserService {
         UserEntity ue = userService.getUser(subjectId);
         String source = ue.getRealm();
 
-        User u = new User(subjectId, ue.getRealm());
-        u.setUsername(ue.getUsername());
-        u.setEmail(ue.getEmailAddress());
-        boolean emailVerified = ue.getEmailVerified() != null ? ue.getEmailVerified().booleanValue() : false;
-        u.setEmailVerified(emailVerified);
-
-        if (ue.getTosAccepted() != null) {
-            u.setTosAccepted(ue.isTosAccepted());
-        } else {
-            u.setTosAccepted(null);
-        }
-
-        // status
-        SubjectStatus status = SubjectStatus.parse(ue.getStatus());
-        u.setStatus(status);
-
-        // fetch attributes
-        u.setExpirationDate(ue.getExpirationDate());
-        u.setCreateDate(ue.getCreateDate());
-        u.setModifiedDate(ue.getModifiedDate());
-        u.setLoginDate(ue.getLoginDate());
-        u.setLoginIp(ue.getLoginIp());
-        u.setLoginProvider(ue.getLoginProvider());
-
+        User u = toUser(ue);
         u.setIdentities(fetchUserIdentities(subjectId, realm));
 
         // TODO evaluate loading source realm attributes to feed translator?
@@ -402,6 +533,53 @@ public class UserService {
         return u;
     }
 
+    /*
+     * Returns models for the given users as accessible for the given realm, only
+     * the requested relations are expanded
+     */
+    public List<User> getUsers(Collection<String> subjectIds, String realm, Set<UserRelation> expand) {
+        // keep requested order
+        Map<String, UserEntity> entities = userService
+            .findUsers(subjectIds)
+            .stream()
+            .collect(Collectors.toMap(UserEntity::getUuid, e -> e));
+        List<UserEntity> users = subjectIds
+            .stream()
+            .map(id -> entities.get(id))
+            .filter(e -> e != null)
+            .collect(Collectors.toList());
+
+        return convertUsers(realm, users, expand);
+    }
+
+    private User toUser(UserEntity ue) {
+        User u = new User(ue.getUuid(), ue.getRealm());
+        u.setUsername(ue.getUsername());
+        u.setEmail(ue.getEmailAddress());
+        boolean emailVerified = ue.getEmailVerified() != null ? ue.getEmailVerified().booleanValue() : false;
+        u.setEmailVerified(emailVerified);
+
+        if (ue.getTosAccepted() != null) {
+            u.setTosAccepted(ue.isTosAccepted());
+        } else {
+            u.setTosAccepted(null);
+        }
+
+        // status
+        SubjectStatus status = SubjectStatus.parse(ue.getStatus());
+        u.setStatus(status);
+
+        // fetch attributes
+        u.setExpirationDate(ue.getExpirationDate());
+        u.setCreateDate(ue.getCreateDate());
+        u.setModifiedDate(ue.getModifiedDate());
+        u.setLoginDate(ue.getLoginDate());
+        u.setLoginIp(ue.getLoginIp());
+        u.setLoginProvider(ue.getLoginProvider());
+
+        return u;
+    }
+
     /*
      * Lists users under the given realm
      *
@@ -421,9 +599,13 @@ public class UserService {
     }
 
     public Page<User> searchUsers(String realm, String q, Pageable pageRequest) {
+        return searchUsers(realm, q, pageRequest, EnumSet.allOf(UserRelation.class));
+    }
+
+    public Page<User> searchUsers(String realm, String q, Pageable pageRequest, Set<UserRelation> expand) {
         Page<UserEntity> page = userService.searchUsers(realm, q, pageRequest);
         return PageableExecutionUtils.getPage(
-            convertUsers(realm, page.getContent()),
+            convertUsers(realm, page.getContent(), expand),
             pageRequest,
             () -> page.getTotalElements()
         );
@@ -439,22 +621,95 @@ public class UserService {
     }
 
     protected List<User> convertUsers(String realm, List<UserEntity> users) {
-        List<User> realmUsers = users
-            .stream()
-            .map(u -> {
-                try {
-                    return getUser(u.getUuid(), realm);
-                } catch (NoSuchUserException e) {
-                    return null;
+        return convertUsers(realm, users, EnumSet.allOf(UserRelation.class));
+    }
+
+    /*
+     * Hydrate a batch of users: relations stored by core are loaded for the whole
+     * batch with set based queries, identities and attributes are resolved per
+     * user via providers only when requested
+     */
+    protected List<User> convertUsers(String realm, List<UserEntity> users, Set<UserRelation> expand) {
+        List<User> realmUsers = new ArrayList<>();
+        if (users.isEmpty()) {
+            return realmUsers;
+        }
+
+        List<String> subjectIds = users.stream().map(UserEntity::getUuid).collect(Collectors.toList());
+
+        // groups are needed to resolve roles assigned via groups
+        Map<String, Collection<Group>> groups = expand.contains(UserRelation.GROUPS) ||
+            expand.contains(UserRelation.ROLES)
+            ? groupService.getSubjectsGroups(subjectIds, realm)
+            : Collections.emptyMap();
+
+        Map<String, List<GrantedAuthority>> authorities = expand.contains(UserRelation.AUTHORITIES)
+            ? subjectService.getSubjectsAuthorities(subjectIds)
+            : Collections.emptyMap();
+
+        Map<String, Collection<RealmRole>> roles = Collections.emptyMap();
+        if (expand.contains(UserRelation.ROLES)) {
+            Set<String> ids = new HashSet<>(subjectIds);
+            groups.values().forEach(gs -> gs.forEach(g -> ids.add(g.getGroupId())));
+            roles = roleService.getSubjectsRoles(ids, realm);
+        }
+
+        Map<String, Collection<SpaceRole>> spaceRoles = expand.contains(UserRelation.SPACEROLES)
+            ? spaceRoleService.getSubjectsRoles(subjectIds)
+            : Collections.emptyMap();
+
+        for (UserEntity ue : users) {
+            String subjectId = ue.getUuid();
+            try {
+                User u = toUser(ue);
+
+                if (expand.contains(UserRelation.IDENTITIES)) {
+                    u.setIdentities(fetchUserIdentities(subjectId, realm));
+                }
+
+                if (!ue.getRealm().equals(realm)) {
+                    // let translator filter content according to policy
+                    u = translator.translate(u, realm);
                 }
-            })
-            .filter(u -> u != null)
-            .collect(Collectors.toList());
+
+                if (expand.contains(UserRelation.AUTHORITIES)) {
+                    Set<GrantedAuthority> ga = new HashSet<>();
+                    ga.add(new SimpleGrantedAuthority(Config.R_USER));
+                    ga.addAll(authorities.getOrDefault(subjectId, Collections.emptyList()));
+                    u.setAuthorities(ga);
+                }
+
+                if (expand.contains(UserRelation.ATTRIBUTES)) {
+                    u.setAttributes(fetchUserAttributes(subjectId, realm));
+                }
+
+                Collection<Group> ug = groups.getOrDefault(subjectId, Collections.emptyList());
+                if (expand.contains(UserRelation.GROUPS)) {
+                    u.setGroups(ug);
+                }
+
+                if (expand.contains(UserRelation.ROLES)) {
+                    // merge directly assigned roles with those assigned to groups
+                    Set<RealmRole> rr = new HashSet<>(roles.getOrDefault(subjectId, Collections.emptyList()));
+                    for (Group g : ug) {
+                        rr.addAll(roles.getOrDefault(g.getGroupId(), Collections.emptyList()));
+                    }
+                    u.setRealmRoles(rr);
+                }
+
+                if (expand.contains(UserRelation.SPACEROLES)) {
+                    u.setSpaceRoles(spaceRoles.getOrDefault(subjectId, Collections.emptyList()));
+                }
+
+                realmUsers.add(u);
+            } catch (NoSuchUserException e) {
+                // skip
+            }
+        }
 
         // accessible from this realm
         // TODO
 
-        // TODO translate resulting users
         return realmUsers;
     }
 
@@ -529,6 +784,7 @@ public class UserService {
 
             // delete user
             userService.deleteUser(subjectId);
+            evictUserStatus(subjectId);
         } else {
             // fetch accessible
             // TODO decide policy + implement
@@ -584,23 +840,75 @@ public class UserService {
 
         // delete user
         userService.deleteUser(subjectId);
+        evictUserStatus(subjectId);
+    }
+
+    /*
+     * Bulk delete users owned by the given realm. Identities, accounts and
+     * provider managed attributes are removed per user, everything keyed by
+     * subject is removed with set based deletes.
+     */
+    @Transactional(readOnly = false)
+    public void deleteUsers(String realm, Collection<String> subjectIds) {
+        if (subjectIds.isEmpty()) {
+            return;
+        }
+
+        // delete identities via (active) providers
+        Collection<IdentityProvider<? extends UserIdentity, ?, ?, ?, ?>> idps = identityProviderAuthorityService
+            .getAuthorities()
+            .stream()
+            .flatMap(a -> a.getProvidersByRealm(realm).stream())
+            .collect(Collectors.toList());
+        subjectIds.forEach(subjectId -> idps.forEach(p -> p.deleteIdentities(subjectId)));
+
+        //orphan user accounts
+        subjectIds.forEach(subjectId ->
+            userAccountServices.forEach(accountService -> {
+                try {
+                    accountService.deleteAllAccountsByUser(subjectId);
+                } catch (Exception e) {
+                    // skip
+                }
+            })
+        );
+
+        // delete attributes via (active) providers
+        Collection<AttributeProvider<?, ?, ?>> providers = attributeProviderAuthorityService
+            .getAuthorities()
+            .stream()
+            .flatMap(a -> a.getProvidersByRealm(realm).stream())
+            .collect(Collectors.toList());
+        subjectIds.forEach(subjectId -> providers.forEach(ap -> ap.deleteUserAttributes(subjectId)));
+
+        // roles and memberships
+        spaceRoleService.deleteRoles(subjectIds);
+        roleService.deleteRoles(subjectIds);
+        groupService.removeSubjectsFromGroups(subjectIds);
+
+        // delete users
+        userService.deleteUsers(subjectIds);
+        subjectIds.forEach(subjectId -> evictUserStatus(subjectId));
     }
 
     @Transactional(readOnly = false)
     public User blockUser(String userId) throws NoSuchUserException, NoSuchRealmException {
         userService.blockUser(userId);
+        evictUserStatus(userId);
         return getUser(userId);
     }
 
     @Transactional(readOnly = false)
     public User activateUser(String userId) throws NoSuchUserException, NoSuchRealmException {
         userService.activateUser(userId);
+        evictUserStatus(userId);
         return getUser(userId);
     }
 
     @Transactional(readOnly = false)
     public User inactivateUser(String userId) throws NoSuchUserException, NoSuchRealmException {
         userService.inactivateUser(userId);
+        evictUserStatus(userId);
         return getUser(userId);
     }
 
@@ -743,8 +1051,12 @@ public class UserService {
             .stream()
             .flatMap(a -> a.getProvidersByRealm(realm).stream())
             .collect(Collectors.toList());
-        for (IdentityProvider<? extends UserIdentity, ?, ?, ?, ?> idp : providers) {
-            identities.addAll(idp.listIdentities(subjectId));
+        if (providersExecutor != null) {
+            identities.addAll(providersExecutor.fanOut("identities", providers, idp -> idp.listIdentities(subjectId)));
+        } else {
+            for (IdentityProvider<? extends UserIdentity, ?, ?, ?, ?> idp : providers) {
+                identities.addAll(idp.listIdentities(subjectId));
+            }
         }
 
         //        if (!source.equals(realm)) {
@@ -772,8 +1084,12 @@ public class UserService {
             .stream()
             .flatMap(a -> a.getProvidersByRealm(realm).stream())
             .collect(Collectors.toList());
-        for (AttributeProvider<?, ?, ?> ap : aps) {
-            attributes.addAll(ap.getUserAttributes(subjectId));
+        if (providersExecutor != null) {
+            attributes.addAll(providersExecutor.fanOut("attributes", aps, ap -> ap.getUserAttributes(subjectId)));
+        } else {
+            for (AttributeProvider<?, ?, ?> ap : aps) {
+                attributes.addAll(ap.getUserAttributes(subjectId));
+            }
         }
 
         return attributes;
@@ -823,13 +1139,16 @@ public class UserService {
 
     public void acceptTos(String subjectId) throws NoSuchUserException {
         userService.updateTos(subjectId, true);
+        evictUserStatus(subjectId);
     }
 
     public void rejectTos(String subjectId) throws NoSuchUserException {
         userService.updateTos(subjectId, false);
+        evictUserStatus(subjectId);
     }
 
     public void resetTos(String subjectId) throws NoSuchUserException {
         userService.updateTos(subjectId, null);
+        evictUserStatus(subjectId);
     }
 }
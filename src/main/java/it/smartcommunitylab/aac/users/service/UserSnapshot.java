@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.users.service;
+
+import it.smartcommunitylab.aac.model.User;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/*
+ * Thread bound snapshot of users, keyed by subject and realm
+ *
+ * Used to load every user once while building a set of claims. Nested
+ * snapshots reuse the outer one, only the owner clears it on close.
+ */
+public class UserSnapshot implements AutoCloseable {
+
+    private final Map<String, User> users = new HashMap<>();
+    private final boolean owner;
+    private final UserSnapshot parent;
+    private final Consumer<UserSnapshot> onClose;
+
+    private int loads = 0;
+    private int hits = 0;
+
+    UserSnapshot(UserSnapshot parent, Consumer<UserSnapshot> onClose) {
+        this.parent = parent;
+        this.owner = parent == null;
+        this.onClose = onClose;
+    }
+
+    User get(String subjectId, String realm) {
+        if (!owner) {
+            return parent.get(subjectId, realm);
+        }
+
+        User u = users.get(key(subjectId, realm));
+        if (u != null) {
+            hits++;
+        }
+
+        return u;
+    }
+
+    void put(String subjectId, String realm, User user) {
+        if (!owner) {
+            parent.put(subjectId, realm, user);
+            return;
+        }
+
+        loads++;
+        users.put(key(subjectId, realm), user);
+    }
+
+    public boolean isOwner() {
+        return owner;
+    }
+
+    public UserSnapshot getParent() {
+        return parent;
+    }
+
+    public int getLoads() {
+        return loads;
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    @Override
+    public void close() {
+        onClose.accept(this);
+        users.clear();
+    }
+
+    private static String key(String subjectId, String realm) {
+        return subjectId + "|" + String.valueOf(realm);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.utils;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.util.Assert;
+
+/*
+ * Persistent outbound mail queue, backed by mail_queue
+ *
+ * Messages are stored rendered and stay queued until delivered, then removed.
+ * Workers claim due messages by moving next_attempt forward (lease) with an
+ * optimistic update, so multiple nodes can share the table and messages held
+ * by a crashed worker become due again when the lease expires.
+ */
+public class MailQueueStore {
+
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_FAILED = "failed";
+
+    private static final String INSERT_STATEMENT =
+        "INSERT INTO mail_queue (id, recipient, subject, content, created, next_attempt, attempts, status) VALUES (?, ?, ?, ?, ?, ?, 0, ?)";
+    private static final String SELECT_DUE_STATEMENT =
+        "SELECT id, recipient, subject, content, created, next_attempt, attempts FROM mail_queue WHERE status = ? AND next_attempt <= ? ORDER BY next_attempt LIMIT ?";
+    private static final String CLAIM_STATEMENT =
+        "UPDATE mail_queue SET next_attempt = ?, attempts = attempts + 1 WHERE id = ? AND status = ? AND next_attempt = ?";
+    private static final String DELETE_STATEMENT = "DELETE FROM mail_queue WHERE id = ?";
+    private static final String RETRY_STATEMENT =
+        "UPDATE mail_queue SET next_attempt = ?, last_error = ? WHERE id = ?";
+    private static final String FAIL_STATEMENT =
+        "UPDATE mail_queue SET status = ?, last_error = ? WHERE id = ?";
+    private static final String COUNT_STATEMENT = "SELECT COUNT(*) FROM mail_queue WHERE status = ?";
+    private static final String PURGE_STATEMENT = "DELETE FROM mail_queue WHERE status = ? AND created < ?";
+
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final RowMapper<MailMessage> rowMapper = (rs, rowNum) -> {
+        MailMessage m = new MailMessage();
+        m.id = rs.getString("id");
+        m.recipient = rs.getString("recipient");
+        m.subject = rs.getString("subject");
+        m.content = rs.getString("content");
+        m.created = rs.getTimestamp("created");
+        m.nextAttempt = rs.getTimestamp("next_attempt");
+        m.attempts = rs.getInt("attempts");
+        return m;
+    };
+
+    public MailQueueStore(DataSource dataSource) {
+        Assert.notNull(dataSource, "DataSource required");
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public String enqueue(String recipient, String subject, String content) {
+        String id = UUID.randomUUID().toString();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        jdbcTemplate.update(INSERT_STATEMENT, id, recipient, subject, content, now, now, STATUS_QUEUED);
+        return id;
+    }
+
+    /*
+     * Claim up to limit due messages, holding them until lease
+     */
+    public List<MailMessage> claim(int limit, long lease) {
+        long now = System.currentTimeMillis();
+        Timestamp until = new Timestamp(now + lease);
+        List<MailMessage> due = jdbcTemplate.query(
+            SELECT_DUE_STATEMENT,
+            rowMapper,
+            STATUS_QUEUED,
+            new Timestamp(now),
+            limit
+        );
+
+        List<MailMessage> claimed = new ArrayList<>();
+        for (MailMessage m : due) {
+            // lost races are simply skipped
+            int count = jdbcTemplate.update(CLAIM_STATEMENT, until, m.id, STATUS_QUEUED, m.nextAttempt);
+            if (count == 1) {
+                m.attempts = m.attempts + 1;
+                m.nextAttempt = until;
+                claimed.add(m);
+            }
+        }
+
+        return claimed;
+    }
+
+    public void delivered(String id) {
+        jdbcTemplate.update(DELETE_STATEMENT, id);
+    }
+
+    public void retry(String id, long delay, String error) {
+        Timestamp next = new Timestamp(System.currentTimeMillis() + delay);
+        jdbcTemplate.update(RETRY_STATEMENT, next, truncate(error), id);
+    }
+
+    public void failed(String id, String error) {
+        jdbcTemplate.update(FAIL_STATEMENT, STATUS_FAILED, truncate(error), id);
+    }
+
+    public long countQueued() {
+        Long count = jdbcTemplate.queryForObject(COUNT_STATEMENT, Long.class, STATUS_QUEUED);
+        return count != null ? count : 0;
+    }
+
+    public int purgeFailed(long retention) {
+        Timestamp before = new Timestamp(System.currentTimeMillis() - retention);
+        return jdbcTemplate.update(PURGE_STATEMENT, STATUS_FAILED, before);
+    }
+
+    private String truncate(String error) {
+        if (error == null || error.length() <= MAX_ERROR_LENGTH) {
+            return error;
+        }
+
+        return error.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    public static class MailMessage {
+
+        private String id;
+        private String recipient;
+        private String subject;
+        private String content;
+        private Timestamp created;
+        private Timestamp nextAttempt;
+        private int attempts;
+
+        public String getId() {
+            return id;
+        }
+
+        public String getRecipient() {
+            return recipient;
+        }
+
+        public String getSubject() {
+            return subject;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public Timestamp getCreated() {
+            return created;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+}
@@ -16,26 +16,51 @@
 
 package it.smartcommunitylab.aac.utils;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import it.smartcommunitylab.aac.config.ApplicationProperties;
 import it.smartcommunitylab.aac.model.Realm;
 import it.smartcommunitylab.aac.realms.service.RealmService;
+import it.smartcommunitylab.aac.utils.MailQueueStore.MailMessage;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
+import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.MessageSource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import org.thymeleaf.TemplateEngine;
@@ -48,10 +73,19 @@ import org.thymeleaf.context.Context;
  * TODO rework, add link to userEntityService + realmService TODO implement here
  * message handling for userDetails/userIdentity/userAccount
  *
+ * Messages are rendered in the caller thread and stored in a persistent
+ * outbound queue, then delivered by a bounded pool of workers in batches over a
+ * single SMTP connection, with retry and exponential backoff.
+ *
  * @author raman
  */
 @Component
-public class MailService {
+public class MailService implements ApplicationListener<ApplicationReadyEvent>, MeterBinder, DisposableBean {
+
+    // claimed messages become due again after lease
+    private static final long QUEUE_LEASE = TimeUnit.MINUTES.toMillis(10);
+    private static final long MAX_BACKOFF = TimeUnit.HOURS.toMillis(1);
+    private static final long FAILED_RETENTION = TimeUnit.DAYS.toMillis(7);
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -81,6 +115,21 @@ public class MailService {
     @Value("${mail.debug}")
     private boolean enableDebug;
 
+    @Value("${mail.queue.workers}")
+    private int queueWorkers;
+
+    @Value("${mail.queue.batch}")
+    private int queueBatch;
+
+    @Value("${mail.queue.interval}")
+    private long queueInterval;
+
+    @Value("${mail.queue.max-attempts}")
+    private int queueMaxAttempts;
+
+    @Value("${mail.queue.backoff}")
+    private long queueBackoff;
+
     @Autowired
     private ApplicationProperties appProps;
 
@@ -96,6 +145,22 @@ public class MailService {
     @Autowired
     private RealmService realmService;
 
+    @Autowired
+    @Qualifier("jdbcDataSource")
+    private DataSource dataSource;
+
+    private MailQueueStore queueStore;
+    private ScheduledExecutorService executor;
+    private volatile boolean ready = false;
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile long lastPurge = 0;
+
+    private MeterRegistry meterRegistry;
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
     public MailService() throws IOException {
         if (mailSender == null) {
             mailSender = new org.springframework.mail.javamail.JavaMailSenderImpl();
@@ -121,7 +186,49 @@ public class MailService {
             props.setProperty("mail.smtp.starttls.enable", String.valueOf(enableStartTls));
         }
 
+        // avoid holding workers on unresponsive relays
+        props.setProperty("mail.smtp.connectiontimeout", "10000");
+        props.setProperty("mail.smtp.timeout", "30000");
+        props.setProperty("mail.smtp.writetimeout", "30000");
+
         mailSender.setJavaMailProperties(props);
+
+        // outbound queue
+        queueStore = new MailQueueStore(dataSource);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mail-sender-");
+        threadFactory.setDaemon(true);
+        executor = Executors.newScheduledThreadPool(Math.max(1, queueWorkers), threadFactory);
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        // schema is initialized now, deliver what is left from previous runs
+        ready = true;
+        int workers = Math.max(1, queueWorkers);
+        for (int i = 0; i < workers; i++) {
+            long delay = (queueInterval * i) / workers;
+            executor.scheduleWithFixedDelay(this::poll, delay, queueInterval, TimeUnit.MILLISECONDS);
+        }
+        executor.scheduleWithFixedDelay(this::maintain, 0, queueInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        // pending messages stay queued for the next run
+        ready = false;
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+        Gauge.builder("mail.queue", queued, q -> q.get()).register(registry);
+        FunctionCounter.builder("mail.sent", sent, c -> c.get()).register(registry);
+        FunctionCounter.builder("mail.retried", retried, c -> c.get()).register(registry);
+        FunctionCounter.builder("mail.failed", failed, c -> c.get()).register(registry);
     }
 
     public void sendEmail(String email, String template, String lang, Map<String, Object> vars)
@@ -176,28 +283,196 @@ public class MailService {
         // set realm context
         ctx.setVariable("realm", realm);
 
-        // build message
+        // validate recipient now, delivery is deferred
+        String subjectText = realm.getName() + ": " + subject;
+        new InternetAddress(email, true);
+
+        // render html mail from base template and message
+        String htmlContent = this.templateEngine.process("mail/template", ctx);
+        //        if (logger.isTraceEnabled()) {
+        //            logger.trace("send mail for " + String.valueOf(template) + " content:\n " + htmlContent);
+        //        }
+
+        // queue for delivery
+        try {
+            String id = queueStore.enqueue(email, subjectText, htmlContent);
+            logger.debug("queued mail {} for {}", id, String.valueOf(email));
+        } catch (DataAccessException e) {
+            logger.error("error queuing mail: {}", e.getMessage());
+            throw new MessagingException("mail-queue-error");
+        }
+
+        wakeup();
+    }
+
+    /*
+     * Delivery
+     */
+
+    private void wakeup() {
+        // dispatch now when a worker is free, otherwise the next poll will
+        if (ready && active.get() < queueWorkers) {
+            try {
+                executor.execute(this::poll);
+            } catch (RuntimeException e) {
+                // shutting down
+            }
+        }
+    }
+
+    private void poll() {
+        active.incrementAndGet();
+        try {
+            dispatch();
+        } catch (RuntimeException e) {
+            logger.error("error dispatching mail queue: {}", e.getMessage());
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    private void maintain() {
+        try {
+            queued.set(queueStore.countQueued());
+
+            long now = System.currentTimeMillis();
+            if (now - lastPurge > TimeUnit.HOURS.toMillis(1)) {
+                lastPurge = now;
+                int count = queueStore.purgeFailed(FAILED_RETENTION);
+                if (count > 0) {
+                    logger.debug("purged {} failed mails", count);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("error inspecting mail queue: {}", e.getMessage());
+        }
+    }
+
+    /*
+     * Deliver due messages in batches until the queue is drained, returns the
+     * number of messages delivered
+     */
+    public int dispatch() {
+        int count = 0;
+        while (true) {
+            List<MailMessage> batch = queueStore.claim(queueBatch, QUEUE_LEASE);
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            count += deliver(batch);
+            if (batch.size() < queueBatch) {
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    private int deliver(List<MailMessage> batch) {
+        Map<MimeMessage, MailMessage> messages = new IdentityHashMap<>();
+        for (MailMessage m : batch) {
+            try {
+                messages.put(buildMessage(m), m);
+            } catch (MessagingException e) {
+                // not recoverable by retrying
+                logger.warn("invalid mail {}: {}", m.getId(), e.getMessage());
+                queueStore.failed(m.getId(), e.getMessage());
+                failed.incrementAndGet();
+            }
+        }
+
+        if (messages.isEmpty()) {
+            return 0;
+        }
+
+        // single connection for the whole batch
+        List<MimeMessage> mimeMessages = new ArrayList<>(messages.keySet());
+        Map<Object, Exception> failures = Collections.emptyMap();
+        Exception error = null;
+        long start = System.nanoTime();
+        try {
+            mailSender.send(mimeMessages.toArray(new MimeMessage[0]));
+        } catch (MailSendException e) {
+            failures = e.getFailedMessages();
+            if (failures.isEmpty()) {
+                // every message was accepted, only closing the connection failed
+                logger.warn("mail batch sent but connection close failed: {}", e.getMessage());
+            } else {
+                error = e;
+            }
+        } catch (MailException e) {
+            // nothing was sent, for example on authentication errors
+            error = e;
+        }
+
+        if (meterRegistry != null) {
+            Timer
+                .builder("mail.send")
+                .tag("outcome", error == null ? "success" : "error")
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        int count = 0;
+        for (MimeMessage mimeMessage : mimeMessages) {
+            MailMessage m = messages.get(mimeMessage);
+            Exception e = failures.get(mimeMessage);
+            if (e == null && error != null && failures.isEmpty()) {
+                // whole batch failed
+                e = error;
+            }
+
+            if (e != null) {
+                reschedule(m, e);
+                continue;
+            }
+
+            queueStore.delivered(m.getId());
+            sent.incrementAndGet();
+            count++;
+
+            if (meterRegistry != null && m.getCreated() != null) {
+                Timer
+                    .builder("mail.delivery")
+                    .register(meterRegistry)
+                    .record(System.currentTimeMillis() - m.getCreated().getTime(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        return count;
+    }
+
+    private void reschedule(MailMessage m, Exception e) {
+        if (m.getAttempts() >= queueMaxAttempts) {
+            logger.warn("mail {} failed after {} attempts: {}", m.getId(), m.getAttempts(), e.getMessage());
+            queueStore.failed(m.getId(), e.getMessage());
+            failed.incrementAndGet();
+            return;
+        }
+
+        // exponential backoff
+        int exp = Math.min(Math.max(m.getAttempts() - 1, 0), 16);
+        long delay = Math.min(queueBackoff << exp, MAX_BACKOFF);
+        logger.debug("mail {} attempt {} failed, retry in {}ms: {}", m.getId(), m.getAttempts(), delay, e.getMessage());
+        queueStore.retry(m.getId(), delay, e.getMessage());
+        retried.incrementAndGet();
+    }
+
+    private MimeMessage buildMessage(MailMessage m) throws MessagingException {
         MimeMessage mimeMessage = mailSender.createMimeMessage();
         MimeMessageHelper message = new MimeMessageHelper(mimeMessage, true, "UTF-8");
 
-        String subjectText = realm.getName() + ": " + subject;
-        message.setSubject(subjectText);
+        message.setSubject(m.getSubject());
         try {
             message.setFrom(mailFrom, appProps.getEmail());
         } catch (UnsupportedEncodingException | MessagingException e) {
             throw new MessagingException("invalid-mail-sender");
         }
         message.setReplyTo(appProps.getEmail());
-        message.setTo(email);
-
-        // render html mail from base template and message
-        String htmlContent = this.templateEngine.process("mail/template", ctx);
-        message.setText(htmlContent, true);
-        //        if (logger.isTraceEnabled()) {
-        //            logger.trace("send mail for " + String.valueOf(template) + " content:\n " + htmlContent);
-        //        }
+        message.setTo(m.getRecipient());
+        message.setText(m.getContent(), true);
 
-        // send
-        mailSender.send(mimeMessage);
+        return mimeMessage;
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+/*
+ * Local cache safe against concurrent invalidations
+ *
+ * A version is bumped on every invalidation, loads started before an
+ * invalidation won't populate the cache with stale values. Invalidations made
+ * within a transaction are repeated after completion, to avoid caching
+ * uncommitted state read by concurrent requests.
+ *
+ * Null values are never cached.
+ */
+public class VersionedCache<K, V> {
+
+    private final Cache<K, V> cache;
+    private final AtomicLong version = new AtomicLong();
+
+    public VersionedCache(Cache<K, V> cache) {
+        Assert.notNull(cache, "cache can not be null");
+        this.cache = cache;
+    }
+
+    /*
+     * Build a cache expiring after write, with stats for metrics
+     */
+    public static <K, V> VersionedCache<K, V> build(int ttl, int maxSize) {
+        Assert.isTrue(ttl >= 0, "cache ttl must be a non-negative value");
+        Assert.isTrue(maxSize >= 0, "cache size must be a non-negative value");
+
+        Cache<K, V> cache = CacheBuilder
+            .newBuilder()
+            .expireAfterWrite(ttl, TimeUnit.SECONDS)
+            .maximumSize(maxSize)
+            .recordStats()
+            .build();
+
+        return new VersionedCache<>(cache);
+    }
+
+    public V getIfPresent(K key) {
+        return cache.getIfPresent(key);
+    }
+
+    /*
+     * Get from cache or load, caching the result only if no invalidation
+     * happened while loading
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = cache.getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+
+        long v = version.get();
+        value = loader.apply(key);
+
+        if (value != null && version.get() == v) {
+            cache.put(key, value);
+        }
+
+        return value;
+    }
+
+    public void invalidate(K key) {
+        invalidate(() -> cache.invalidate(key));
+    }
+
+    public void invalidateIf(Predicate<? super K> predicate) {
+        invalidate(() -> cache.asMap().keySet().removeIf(predicate));
+    }
+
+    public void invalidateAll() {
+        invalidate(() -> cache.invalidateAll());
+    }
+
+    /*
+     * Underlying cache, for metrics
+     */
+    public Cache<K, V> getCache() {
+        return cache;
+    }
+
+    private void invalidate(Runnable eviction) {
+        version.incrementAndGet();
+        eviction.run();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        version.incrementAndGet();
+                        eviction.run();
+                    }
+                }
+            );
+        }
+    }
+}
@@ -8,4 +8,23 @@ CREATE TABLE
         event_type varchar(255),
         event_class varchar(255),
         event_data BLOB
-    );
\ No newline at end of file
+    );
+
+CREATE TABLE
+    IF NOT EXISTS audit_rollup (
+        realm varchar(255) NOT NULL,
+        event_type varchar(255) NOT NULL,
+        bucket_time TIMESTAMP NOT NULL,
+        event_count BIGINT NOT NULL,
+        PRIMARY KEY (realm, event_type, bucket_time)
+    );
+
+CREATE TABLE
+    IF NOT EXISTS audit_rollup_state (
+        state_key varchar(64) PRIMARY KEY,
+        state_time TIMESTAMP
+    );
+
+CREATE INDEX IF NOT EXISTS audit_ix5 ON audit_events (realm, event_type, event_time);
+
+CREATE INDEX IF NOT EXISTS audit_ix6 ON audit_events (event_time);
\ No newline at end of file
@@ -16,4 +16,23 @@ CREATE INDEX audit_ix2 ON audit_events (realm);
 
 CREATE INDEX audit_ix3 ON audit_events (tx);
 
-CREATE INDEX audit_ix4 ON audit_events (event_class);
\ No newline at end of file
+CREATE INDEX audit_ix4 ON audit_events (event_class);
+
+CREATE TABLE
+    IF NOT EXISTS audit_rollup (
+        realm varchar(255) NOT NULL,
+        event_type varchar(255) NOT NULL,
+        bucket_time DATETIME NOT NULL,
+        event_count BIGINT NOT NULL,
+        PRIMARY KEY (realm, event_type, bucket_time)
+    ) ENGINE = InnoDB ROW_FORMAT = DYNAMIC;
+
+CREATE TABLE
+    IF NOT EXISTS audit_rollup_state (
+        state_key varchar(64) PRIMARY KEY,
+        state_time DATETIME(3)
+    ) ENGINE = InnoDB ROW_FORMAT = DYNAMIC;
+
+CREATE INDEX audit_ix5 ON audit_events (realm, event_type, event_time);
+
+CREATE INDEX audit_ix6 ON audit_events (event_time);
\ No newline at end of file
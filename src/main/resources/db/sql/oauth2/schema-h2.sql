@@ -39,4 +39,11 @@ CREATE TABLE
         issued_at datetime DEFAULT NULL,
         expires_at datetime DEFAULT NULL,
         authentication BLOB NOT NULL
+    );
+
+CREATE TABLE
+    IF NOT EXISTS oauth_authorization_request (
+        request_key VARCHAR(256) NOT NULL PRIMARY KEY,
+        expires_at TIMESTAMP,
+        request BLOB
     );
\ No newline at end of file
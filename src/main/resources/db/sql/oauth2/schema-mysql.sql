@@ -48,4 +48,11 @@ CREATE INDEX oauth_access_token_token_refresh_token_index ON oauth_access_token
 
 CREATE INDEX oauth_refresh_token_token_id_index ON oauth_refresh_token (token_id);
 CREATE INDEX oauth_refresh_token_token_user_index ON oauth_refresh_token (user_name);
-CREATE INDEX oauth_refresh_token_token_client_index ON oauth_refresh_token (client_id);
\ No newline at end of file
+CREATE INDEX oauth_refresh_token_token_client_index ON oauth_refresh_token (client_id);
+
+CREATE TABLE
+    IF NOT EXISTS oauth_authorization_request (
+        request_key VARCHAR(256) NOT NULL PRIMARY KEY,
+        expires_at TIMESTAMP,
+        request BLOB
+    ) ENGINE = InnoDB ROW_FORMAT = DYNAMIC;
\ No newline at end of file
@@ -13,4 +13,19 @@ CREATE TABLE
         provider_id VARCHAR(256),
         attr_key VARCHAR(256),
         attr_value BLOB
-    );
\ No newline at end of file
+    );
+
+CREATE TABLE
+    IF NOT EXISTS mail_queue (
+        id VARCHAR(64) PRIMARY KEY,
+        recipient VARCHAR(512) NOT NULL,
+        subject VARCHAR(1024),
+        content CLOB,
+        created TIMESTAMP NOT NULL,
+        next_attempt TIMESTAMP NOT NULL,
+        attempts INT NOT NULL,
+        status VARCHAR(32) NOT NULL,
+        last_error VARCHAR(1024)
+    );
+
+CREATE INDEX IF NOT EXISTS mail_queue_ix1 ON mail_queue (status, next_attempt);
@@ -22,4 +22,19 @@ CREATE TABLE
     );
 
 CREATE INDEX attributes_provider_id_index ON public.attributes (provider_id);
-CREATE INDEX attributes_entity_id_index ON public.attributes (entity_id);
\ No newline at end of file
+CREATE INDEX attributes_entity_id_index ON public.attributes (entity_id);
+
+CREATE TABLE
+    IF NOT EXISTS mail_queue (
+        id VARCHAR(64) PRIMARY KEY,
+        recipient VARCHAR(512) NOT NULL,
+        subject VARCHAR(1024),
+        content TEXT,
+        created TIMESTAMP NOT NULL,
+        next_attempt TIMESTAMP NOT NULL,
+        attempts INT NOT NULL,
+        status VARCHAR(32) NOT NULL,
+        last_error VARCHAR(1024)
+    );
+
+CREATE INDEX IF NOT EXISTS mail_queue_ix1 ON mail_queue (status, next_attempt);
@@ -249,7 +249,8 @@ angular.module('aac.controllers.realmusers', [])
 
 
         $scope.load = function () {
-            RealmUsers.getUsers(slug, $scope.query)
+            var params = Object.assign({ expand: 'identities,authorities,groups,roles' }, $scope.query);
+            RealmUsers.getUsers(slug, params)
                 .then(function (data) {
                     $scope.keywords = $scope.query.q;
                     $scope.users = data;
@@ -17,10 +17,14 @@
 package it.smartcommunitylab.aac.api;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.endsWith;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -30,6 +34,9 @@ import it.smartcommunitylab.aac.api.scopes.AdminRealmsScope;
 import it.smartcommunitylab.aac.auth.WithMockBearerTokenAuthentication;
 import it.smartcommunitylab.aac.bootstrap.AACBootstrap;
 import it.smartcommunitylab.aac.model.Realm;
+import it.smartcommunitylab.aac.realms.model.RealmDeletionStatus;
+import it.smartcommunitylab.aac.realms.service.RealmDeletionService;
+import it.smartcommunitylab.aac.realms.service.RealmService;
 import java.util.List;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -67,6 +74,12 @@ public class ApiRealmTest {
     @Autowired
     private SmartValidator validator;
 
+    @Autowired
+    private RealmService realmService;
+
+    @Autowired
+    private RealmDeletionService deletionService;
+
     @Test
     public void listRealmsIsProtected() throws Exception {
         MvcResult res =
@@ -159,5 +172,60 @@ public class ApiRealmTest {
         assertEquals("system", realm.getSlug());
     }
 
+    @Test
+    @WithMockBearerTokenAuthentication(scopes = { AdminRealmsScope.SCOPE }, authorities = { Config.R_ADMIN })
+    public void deleteRealmWithoutCleanupCompletes() throws Exception {
+        realmService.addRealm("delete-sync", "delete-sync", null, true, false);
+
+        this.mockMvc.perform(delete(ENDPOINT + "/delete-sync").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.slug").value("delete-sync"))
+            .andExpect(jsonPath("$.status").value(RealmDeletionStatus.COMPLETED.getValue()));
+
+        assertThat(realmService.findRealm("delete-sync")).isNull();
+    }
+
+    @Test
+    @WithMockBearerTokenAuthentication(scopes = { AdminRealmsScope.SCOPE }, authorities = { Config.R_ADMIN })
+    public void deleteRealmWithCleanupIsAccepted() throws Exception {
+        realmService.addRealm("delete-async", "delete-async", null, true, false);
+
+        this.mockMvc.perform(
+                delete(ENDPOINT + "/delete-async").param("cleanup", "true").accept(MediaType.APPLICATION_JSON)
+            )
+            .andExpect(status().isAccepted())
+            .andExpect(header().string("Location", endsWith(ENDPOINT + "/delete-async/deletion")))
+            .andExpect(jsonPath("$.slug").value("delete-async"));
+
+        // job status is exposed until completion
+        long deadline = System.currentTimeMillis() + 10000;
+        while (realmService.findRealm("delete-async") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+
+        assertThat(realmService.findRealm("delete-async")).isNull();
+        this.mockMvc.perform(get(ENDPOINT + "/delete-async/deletion").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.status").value(RealmDeletionStatus.COMPLETED.getValue()));
+    }
+
+    @Test
+    public void realmIsDisabledDuringDeletion() throws Exception {
+        realmService.addRealm("delete-disabled", "delete-disabled", null, true, false);
+        assertFalse(deletionService.isActiveDeletion("delete-disabled"));
+
+        // registered jobs disable the realm before running
+        deletionService.addDeletion("delete-disabled", 0);
+        assertThat(deletionService.isActiveDeletion("delete-disabled")).isTrue();
+
+        deletionService.failDeletion("delete-disabled", "error");
+        assertThat(deletionService.isActiveDeletion("delete-disabled")).isTrue();
+
+        deletionService.updateDeletion("delete-disabled", RealmDeletionStatus.COMPLETED, null);
+        assertFalse(deletionService.isActiveDeletion("delete-disabled"));
+
+        realmService.deleteRealm("delete-disabled");
+    }
+
     private final TypeReference<List<Realm>> typeRef = new TypeReference<List<Realm>>() {};
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.audit.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+/*
+ * Events are counted once across feed and backfill, and across nodes
+ */
+public class AuditRollupStoreTest {
+
+    private static final String REALM = "test";
+    private static final String TYPE = "USER_AUTHENTICATION_SUCCESS";
+
+    private EmbeddedDatabase dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private AuditRollupStore store;
+    private Instant now;
+
+    @BeforeEach
+    public void setUp() {
+        dataSource =
+            new EmbeddedDatabaseBuilder()
+                .generateUniqueName(true)
+                .setType(EmbeddedDatabaseType.H2)
+                .addScript("classpath:db/sql/audit/schema-h2.sql")
+                .build();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        store = new AuditRollupStore(dataSource);
+        store.setFlushInterval(100);
+        now = Instant.now();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        store.destroy();
+        dataSource.shutdown();
+    }
+
+    @Test
+    public void eventsAreCountedOnce() throws Exception {
+        // written before the rollup existed
+        for (int i = 0; i < 3; i++) {
+            insert(REALM, TYPE, "old" + i, now.minus(Duration.ofDays(2)));
+        }
+
+        // fed before ready, the cutoff is set on first record
+        record(REALM, TYPE, "user1", now.plus(Duration.ofHours(2)));
+        // written late with a time before cutoff, left to backfill
+        record(REALM, TYPE, "user2", now.minus(Duration.ofMinutes(1)));
+
+        store.onApplicationEvent(mock(ApplicationReadyEvent.class));
+        assertThat(awaitCount(store)).isEqualTo(5);
+
+        // another node shares the same cutoff
+        AuditRollupStore other = new AuditRollupStore(dataSource);
+        record(other, REALM, TYPE, "user3", now.plus(Duration.ofHours(2)));
+        other.destroy();
+
+        assertThat(
+            jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM audit_rollup_state WHERE state_key = 'cutoff'",
+                Integer.class
+            )
+        )
+            .isEqualTo(1);
+        assertThat(awaitCount(store)).isEqualTo(6);
+    }
+
+    @Test
+    public void flushKeepsCounts() throws Exception {
+        record(REALM, TYPE, "user1", now.plus(Duration.ofHours(2)));
+        record(REALM, TYPE, "user2", now.plus(Duration.ofHours(2)));
+
+        store.onApplicationEvent(mock(ApplicationReadyEvent.class));
+        assertThat(awaitCount(store)).isEqualTo(2);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sumRollup() < 2 && System.currentTimeMillis() < deadline) {
+            // counts move from memory to the table, never missing
+            assertThat(count(store)).isGreaterThanOrEqualTo(2);
+            Thread.sleep(20);
+        }
+
+        // flushed once and cleared from memory
+        assertThat(sumRollup()).isEqualTo(2);
+        assertThat(count(store)).isEqualTo(2);
+    }
+
+    @Test
+    public void recentIncludesOtherNodes() {
+        // written by other nodes, never fed here
+        insert(REALM, TYPE, "user1", now.minus(Duration.ofMinutes(3)));
+        insert(REALM, TYPE, "user2", now.minus(Duration.ofMinutes(2)));
+        insert(REALM, TYPE, "user3", now.minus(Duration.ofMinutes(1)));
+        insert(REALM, "USER_REGISTRATION", "user4", now);
+        insert("other", TYPE, "user5", now);
+
+        List<AuditEvent> events = store.findRecent(REALM, TYPE, now.minus(Duration.ofHours(1)), 2);
+        assertThat(events.stream().map(AuditEvent::getPrincipal).collect(Collectors.toList()))
+            .containsExactly("user3", "user2");
+        assertThat(events).allSatisfy(e -> assertThat(e.getData()).isEmpty());
+
+        // new events are visible on next read
+        insert(REALM, TYPE, "user6", now);
+        assertThat(store.findRecent(REALM, TYPE, null, 1).get(0).getPrincipal()).isEqualTo("user6");
+    }
+
+    private void record(String realm, String type, String principal, Instant time) {
+        record(store, realm, type, principal, time);
+    }
+
+    private void record(AuditRollupStore rollup, String realm, String type, String principal, Instant time) {
+        // fed after the write, as per audit store
+        insert(realm, type, principal, time);
+        rollup.record(realm, new AuditEvent(time, principal, type, Collections.emptyMap()));
+    }
+
+    private void insert(String realm, String type, String principal, Instant time) {
+        jdbcTemplate.update(
+            "INSERT INTO audit_events (event_id, event_time, principal, realm, event_type) VALUES (?, ?, ?, ?, ?)",
+            UUID.randomUUID().toString(),
+            new Timestamp(time.toEpochMilli()),
+            principal,
+            realm,
+            type
+        );
+    }
+
+    private Long count(AuditRollupStore rollup) {
+        return rollup.countByRealm(REALM, now.minus(Duration.ofDays(3)), now.plus(Duration.ofHours(3)), null);
+    }
+
+    private long awaitCount(AuditRollupStore rollup) throws InterruptedException {
+        // null until backfill completes
+        long deadline = System.currentTimeMillis() + 5000;
+        Long count = count(rollup);
+        while (count == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            count = count(rollup);
+        }
+
+        assertThat(count).isNotNull();
+        return count.longValue();
+    }
+
+    private long sumRollup() {
+        Long sum = jdbcTemplate.queryForObject(
+            "SELECT SUM(event_count) FROM audit_rollup WHERE realm = ?",
+            Long.class,
+            REALM
+        );
+        return sum != null ? sum.longValue() : 0;
+    }
+}
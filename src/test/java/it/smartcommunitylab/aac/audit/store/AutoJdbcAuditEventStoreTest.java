@@ -0,0 +1,238 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.audit.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+/*
+ * Buffered writes flush on size and interval, apply the backpressure policy
+ * when full and drain on shutdown
+ */
+public class AutoJdbcAuditEventStoreTest {
+
+    private static final String TYPE = "USER_AUTHENTICATION_SUCCESS";
+    private static final int QUEUE = 4;
+
+    private EmbeddedDatabase dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private AutoJdbcAuditEventStore store;
+    private SimpleMeterRegistry registry;
+
+    // holds the writer after the first flush
+    private CountDownLatch stalled;
+    private CountDownLatch release;
+
+    @BeforeEach
+    public void setUp() {
+        dataSource =
+            new EmbeddedDatabaseBuilder()
+                .generateUniqueName(true)
+                .setType(EmbeddedDatabaseType.H2)
+                .addScript("classpath:db/sql/audit/schema-h2.sql")
+                .build();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        store = new AutoJdbcAuditEventStore(dataSource);
+        registry = new SimpleMeterRegistry();
+
+        stalled = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        release.countDown();
+        store.destroy();
+        dataSource.shutdown();
+    }
+
+    @Test
+    public void flushOnSize() throws Exception {
+        store.setBatchConfig(100, 3, 60000, AuditBackpressurePolicy.BLOCK);
+        for (int i = 0; i < 3; i++) {
+            store.add(event("user" + i));
+        }
+
+        // full batch is written without waiting for the interval
+        assertThat(awaitRows(3)).isEqualTo(3);
+
+        store.add(event("user3"));
+        Thread.sleep(500);
+        assertThat(countRows()).isEqualTo(3);
+    }
+
+    @Test
+    public void flushOnInterval() throws Exception {
+        store.setBatchConfig(100, 100, 500, AuditBackpressurePolicy.BLOCK);
+        store.add(event("user1"));
+        store.add(event("user2"));
+        assertThat(countRows()).isZero();
+
+        assertThat(awaitRows(2)).isEqualTo(2);
+    }
+
+    @Test
+    public void drainOnDestroy() throws Exception {
+        store.setBatchConfig(100, 100, 60000, AuditBackpressurePolicy.BLOCK);
+        for (int i = 0; i < 5; i++) {
+            store.add(event("user" + i));
+        }
+
+        store.destroy();
+        assertThat(countRows()).isEqualTo(5);
+    }
+
+    @Test
+    public void blockWhenFull() throws Exception {
+        fillQueue(AuditBackpressurePolicy.BLOCK);
+
+        Thread publisher = new Thread(() -> store.add(event("blocked")));
+        publisher.start();
+        publisher.join(300);
+        assertThat(publisher.isAlive()).isTrue();
+
+        release.countDown();
+        publisher.join(5000);
+        assertThat(publisher.isAlive()).isFalse();
+
+        assertThat(awaitRows(QUEUE + 2)).isEqualTo(QUEUE + 2);
+        assertThat(counter("audit.events.dropped")).isZero();
+    }
+
+    @Test
+    public void dropWhenFull() throws Exception {
+        fillQueue(AuditBackpressurePolicy.DROP);
+
+        store.add(event("dropped1"));
+        store.add(event("dropped2"));
+
+        release.countDown();
+        assertThat(awaitRows(QUEUE + 1)).isEqualTo(QUEUE + 1);
+        assertThat(counter("audit.events.dropped")).isEqualTo(2);
+    }
+
+    @Test
+    public void sampleOverHalfCapacity() throws Exception {
+        store.setSampleRate(2);
+        store.setBatchConfig(QUEUE, 1, 60000, AuditBackpressurePolicy.SAMPLE);
+        stallWriter();
+
+        // under half capacity every event is kept
+        store.add(event("user1"));
+        store.add(event("user2"));
+        store.add(event("user3"));
+
+        // then one every sample rate, dropped when full
+        store.add(event("sampled1"));
+        store.add(event("sampled2"));
+        store.add(event("sampled3"));
+        store.add(event("sampled4"));
+
+        release.countDown();
+        assertThat(awaitRows(QUEUE + 1)).isEqualTo(QUEUE + 1);
+        assertThat(counter("audit.events.dropped")).isEqualTo(3);
+        assertThat(
+            jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM audit_events WHERE principal LIKE 'sampled%'",
+                Integer.class
+            )
+        )
+            .isEqualTo(1);
+    }
+
+    @Test
+    public void failedBatchIsWrittenRowByRow() throws Exception {
+        store.setBatchConfig(100, 3, 60000, AuditBackpressurePolicy.BLOCK);
+        store.bindTo(registry);
+
+        // principal exceeds the column size and fails the batch
+        store.add(event("user1"));
+        store.add(event("x".repeat(300)));
+        store.add(event("user2"));
+
+        store.destroy();
+        assertThat(countRows()).isEqualTo(2);
+        assertThat(counter("audit.events.written")).isEqualTo(2);
+        assertThat(counter("audit.events.failed")).isEqualTo(1);
+    }
+
+    private void fillQueue(AuditBackpressurePolicy policy) throws InterruptedException {
+        store.setBatchConfig(QUEUE, 1, 60000, policy);
+        stallWriter();
+
+        for (int i = 0; i < QUEUE; i++) {
+            store.add(event("queued" + i));
+        }
+    }
+
+    private void stallWriter() throws InterruptedException {
+        AuditRollupStore rollup = mock(AuditRollupStore.class);
+        doAnswer(i -> {
+                stalled.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return null;
+            })
+            .when(rollup)
+            .record(any(), any());
+        store.setRollupStore(rollup);
+        store.bindTo(registry);
+
+        // first event is taken by the writer, which then waits
+        store.add(event("first"));
+        assertThat(stalled.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private AuditEvent event(String principal) {
+        return new AuditEvent(Instant.now(), principal, TYPE, Collections.singletonMap("realm", "test"));
+    }
+
+    private double counter(String name) {
+        return registry.get(name).functionCounter().count();
+    }
+
+    private int countRows() {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM audit_events", Integer.class);
+        return count != null ? count : 0;
+    }
+
+    private int awaitRows(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        int count = countRows();
+        while (count < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            count = countRows();
+        }
+
+        return count;
+    }
+}
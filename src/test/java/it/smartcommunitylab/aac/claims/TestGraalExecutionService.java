@@ -2,6 +2,9 @@ package it.smartcommunitylab.aac.claims;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import it.smartcommunitylab.aac.common.InvalidDefinitionException;
 
 import java.io.Serializable;
 import java.util.HashMap;
@@ -96,4 +99,120 @@ public class TestGraalExecutionService {
         }
         assertThat(expectedResult.equals(obtainedResult));
     }
+
+    private static final String LEAKING_FUNCTION =
+        """
+        function leakingFunction(attributes) {
+            if (typeof counter === 'undefined') {
+                counter = 0;
+            }
+            counter++;
+            this.marker = (this.marker || 0) + 1;
+            attributes['counter'] = counter;
+            attributes['marker'] = this.marker;
+            return attributes;
+        }
+        """;
+
+    /**
+     * This test checks that globals written by a function do not survive into
+     * later executions on a pooled sandbox
+     */
+    @Test
+    public void testGlobalStateIsResetBetweenExecutions() throws Exception {
+        LocalGraalExecutionService executionService = new LocalGraalExecutionService();
+        executionService.setPoolSize(1);
+
+        for (int i = 0; i < 3; i++) {
+            Map<String, Serializable> result = executionService.executeFunction(
+                "leakingFunction",
+                LEAKING_FUNCTION,
+                new HashMap<>()
+            );
+            assertThat(result.get("counter")).isEqualTo(1);
+            assertThat(result.get("marker")).isEqualTo(1);
+        }
+
+        // a single sandbox was reused
+        assertThat(executionService.getActiveSandboxes()).isEqualTo(1);
+        executionService.shutdown();
+    }
+
+    /**
+     * This test checks that the input is exposed as the data global
+     */
+    @Test
+    public void testDataGlobalIsAvailable() throws Exception {
+        LocalGraalExecutionService executionService = new LocalGraalExecutionService();
+        Map<String, Serializable> input = new HashMap<>();
+        input.put("key", "value");
+
+        String funcContent =
+            """
+            function dataFunction(attributes) {
+                return { 'fromData': data['key'], 'fromArg': attributes['key'] };
+            }
+            """;
+        Map<String, Serializable> result = executionService.executeFunction("dataFunction", funcContent, input);
+        assertThat(result.get("fromData")).isEqualTo("value");
+        assertThat(result.get("fromArg")).isEqualTo("value");
+        executionService.shutdown();
+    }
+
+    /**
+     * This test checks that sandboxes killed for cpu abuse are closed and that
+     * later executions still work
+     */
+    @Test
+    public void testSandboxIsClosedAfterCpuAbuse() throws Exception {
+        LocalGraalExecutionService executionService = new LocalGraalExecutionService();
+        executionService.setMaxCpuTime(100);
+        executionService.setThreads(1);
+
+        String funcContent =
+            """
+            function abuseFunction(attributes) {
+                while (true) {}
+            }
+            """;
+        assertThrows(
+            InvalidDefinitionException.class,
+            () -> executionService.executeFunction("abuseFunction", funcContent, new HashMap<>())
+        );
+        assertThat(executionService.getActiveSandboxes()).isEqualTo(0);
+
+        // the single permit was released and a new sandbox works
+        Map<String, Serializable> result = executionService.executeFunction(
+            "leakingFunction",
+            LEAKING_FUNCTION,
+            new HashMap<>()
+        );
+        assertThat(result.get("counter")).isEqualTo(1);
+        assertThat(executionService.getActiveSandboxes()).isEqualTo(1);
+        executionService.shutdown();
+    }
+
+    /**
+     * This test checks that sandboxes are closed when not pooled or evicted
+     */
+    @Test
+    public void testSandboxesAreClosedOnEviction() throws Exception {
+        LocalGraalExecutionService executionService = new LocalGraalExecutionService();
+        executionService.setPoolSize(0);
+        executionService.executeFunction("leakingFunction", LEAKING_FUNCTION, new HashMap<>());
+        assertThat(executionService.getActiveSandboxes()).isEqualTo(0);
+
+        executionService.setPoolSize(2);
+        executionService.executeFunction("leakingFunction", LEAKING_FUNCTION, new HashMap<>());
+        assertThat(executionService.getActiveSandboxes()).isEqualTo(1);
+
+        // configuration changes drop all pools
+        executionService.setMaxCpuTime(200);
+        assertThat(executionService.getActiveSandboxes()).isEqualTo(0);
+
+        executionService.executeFunction("leakingFunction", LEAKING_FUNCTION, new HashMap<>());
+        assertThat(executionService.getActiveSandboxes()).isEqualTo(1);
+        executionService.shutdown();
+        assertThat(executionService.getActiveSandboxes()).isEqualTo(0);
+    }
 }
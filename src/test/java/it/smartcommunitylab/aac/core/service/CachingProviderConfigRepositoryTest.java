@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.core.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import it.smartcommunitylab.aac.SystemKeys;
+import it.smartcommunitylab.aac.core.provider.ProviderConfigRepository;
+import it.smartcommunitylab.aac.templates.provider.RealmTemplateProviderConfig;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Configs are served from cache and evicted on changes
+ */
+public class CachingProviderConfigRepositoryTest {
+
+    private static final String PROVIDER_ID = "tpl1";
+    private static final String REALM = "test";
+
+    private InMemoryProviderConfigRepository<RealmTemplateProviderConfig> delegate;
+    private CachingProviderConfigRepository<RealmTemplateProviderConfig> repository;
+    private final List<String> changes = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        delegate = spy(new InMemoryProviderConfigRepository<>());
+        repository = new CachingProviderConfigRepository<>(delegate, "test", 60, 100);
+        repository.addChangeListener(changes::add);
+
+        delegate.addRegistration(config(PROVIDER_ID));
+    }
+
+    @Test
+    public void findIsCached() {
+        RealmTemplateProviderConfig config = repository.findByProviderId(PROVIDER_ID);
+        assertThat(repository.findByProviderId(PROVIDER_ID)).isSameAs(config);
+        verify(delegate, times(1)).findByProviderId(PROVIDER_ID);
+
+        assertThat(repository.findByRealm(REALM)).hasSize(1);
+        assertThat(repository.findByRealm(REALM)).hasSize(1);
+        verify(delegate, times(1)).findByRealm(REALM);
+    }
+
+    @Test
+    public void realmLoadFillsConfigs() {
+        repository.findByRealm(REALM);
+
+        assertThat(repository.findByProviderId(PROVIDER_ID)).isNotNull();
+        verify(delegate, times(0)).findByProviderId(PROVIDER_ID);
+    }
+
+    @Test
+    public void saveEvicts() {
+        repository.findByProviderId(PROVIDER_ID);
+        repository.findByRealm(REALM);
+
+        repository.addRegistration(config("tpl2"));
+        assertThat(changes).containsExactly("tpl2");
+        assertThat(repository.findByRealm(REALM)).hasSize(2);
+        verify(delegate, times(2)).findByRealm(REALM);
+
+        RealmTemplateProviderConfig updated = config(PROVIDER_ID);
+        repository.addRegistration(updated);
+        assertThat(repository.findByProviderId(PROVIDER_ID)).isSameAs(updated);
+        verify(delegate, times(2)).findByProviderId(PROVIDER_ID);
+    }
+
+    @Test
+    public void deleteEvicts() {
+        repository.findByProviderId(PROVIDER_ID);
+        repository.findByRealm(REALM);
+
+        repository.removeRegistration(PROVIDER_ID);
+        assertThat(changes).containsExactly(PROVIDER_ID);
+        assertThat(repository.findByProviderId(PROVIDER_ID)).isNull();
+        assertThat(repository.findByRealm(REALM)).isEmpty();
+    }
+
+    @Test
+    public void wrapHonorsTtl() {
+        ProviderConfigRepository<RealmTemplateProviderConfig> repo = new InMemoryProviderConfigRepository<>();
+        assertThat(CachingProviderConfigRepository.wrap(repo, "test", 0, 100)).isSameAs(repo);
+        assertThat(CachingProviderConfigRepository.wrap(repo, "test", 60, 0))
+            .isInstanceOf(CachingProviderConfigRepository.class);
+    }
+
+    private RealmTemplateProviderConfig config(String providerId) {
+        return new RealmTemplateProviderConfig(SystemKeys.AUTHORITY_TEMPLATE, providerId, REALM);
+    }
+}
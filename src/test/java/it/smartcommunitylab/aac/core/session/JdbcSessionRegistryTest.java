@@ -0,0 +1,158 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.core.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.security.core.session.SessionInformation;
+import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.Session;
+import org.springframework.session.SessionRepository;
+import org.springframework.session.jdbc.JdbcIndexedSessionRepository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/*
+ * Sessions are read from the shared store, expired ones are purged in batches
+ */
+public class JdbcSessionRegistryTest {
+
+    private EmbeddedDatabase dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private JdbcIndexedSessionRepository sessionRepository;
+    private JdbcSessionRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        dataSource =
+            new EmbeddedDatabaseBuilder()
+                .generateUniqueName(true)
+                .setType(EmbeddedDatabaseType.H2)
+                .addScript("classpath:org/springframework/session/jdbc/schema-h2.sql")
+                .build();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        sessionRepository =
+            new JdbcIndexedSessionRepository(
+                jdbcTemplate,
+                new TransactionTemplate(new DataSourceTransactionManager(dataSource))
+            );
+        registry = new JdbcSessionRegistry(sessionRepository, dataSource);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        registry.destroy();
+        dataSource.shutdown();
+    }
+
+    @Test
+    public void purgeExpiredInBatches() {
+        for (int i = 0; i < 5; i++) {
+            createSession("user" + i, true);
+        }
+        createSession("alice", false);
+        createSession(null, false);
+
+        registry.setBatchSize(2);
+        assertThat(registry.purgeExpired()).isEqualTo(5);
+        assertThat(countRows("SPRING_SESSION")).isEqualTo(2);
+
+        // attributes are removed along with their session
+        assertThat(countRows("SPRING_SESSION_ATTRIBUTES")).isEqualTo(3);
+
+        assertThat(registry.purgeExpired()).isZero();
+    }
+
+    @Test
+    public void purgeExactBatch() {
+        createSession("user1", true);
+        createSession("user2", true);
+
+        // a full batch is followed by an empty read
+        registry.setBatchSize(2);
+        assertThat(registry.purgeExpired()).isEqualTo(2);
+        assertThat(countRows("SPRING_SESSION")).isZero();
+    }
+
+    @Test
+    public void expireAllSessionsByPrincipal() {
+        createSession("alice", false);
+        createSession("alice", false);
+        String bob = createSession("bob", false);
+
+        assertThat(registry.getAllPrincipals()).containsExactlyInAnyOrder("alice", "bob");
+        assertThat(registry.getAllSessions("alice", false)).hasSize(2);
+
+        assertThat(registry.expireAllSessions("alice")).isEqualTo(2);
+        assertThat(registry.getAllSessions("alice", true)).isEmpty();
+        assertThat(registry.getAllPrincipals()).containsExactly("bob");
+        assertThat(registry.getSessionInformation(bob)).isNotNull();
+    }
+
+    @Test
+    public void expiredPrincipalsAreNotListed() {
+        createSession("alice", true);
+        createSession("bob", false);
+
+        assertThat(registry.getAllPrincipals()).containsExactly("bob");
+    }
+
+    @Test
+    public void expireNowRemovesFromStore() {
+        String id = createSession("alice", false);
+
+        List<SessionInformation> sessions = registry.getAllSessions("alice", false);
+        assertThat(sessions).extracting(SessionInformation::getSessionId).containsExactly(id);
+
+        sessions.get(0).expireNow();
+        assertThat(countRows("SPRING_SESSION")).isZero();
+        assertThat(registry.getSessionInformation(id)).isNull();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private String createSession(String principal, boolean expired) {
+        // session type is not visible outside the store package
+        SessionRepository<Session> repository = (SessionRepository) sessionRepository;
+        Session session = repository.createSession();
+        if (principal != null) {
+            session.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, principal);
+        }
+        session.setAttribute("key", "value");
+        if (expired) {
+            session.setMaxInactiveInterval(Duration.ofMinutes(1));
+            session.setLastAccessedTime(Instant.now().minus(Duration.ofHours(1)));
+        }
+
+        repository.save(session);
+        return session.getId();
+    }
+
+    private int countRows(String table) {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+        return count != null ? count : 0;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/*
+ * Remote sets follow key rotations signaled by unknown key ids
+ */
+public class JWKSetCacheServiceTest {
+
+    private HttpServer server;
+    private String jwksUri;
+
+    // keys published by the remote
+    private final List<JWK> keys = new CopyOnWriteArrayList<>();
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() throws IOException, JOSEException {
+        keys.add(generateKey("key1"));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(
+            "/jwks",
+            exchange -> {
+                fetches.incrementAndGet();
+                byte[] body = new JWKSet(keys).toString(true).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            }
+        );
+        server.start();
+
+        jwksUri = "http://127.0.0.1:" + server.getAddress().getPort() + "/jwks";
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void unknownKidRefreshesSet() throws JOSEException {
+        JWKSetCacheService service = new JWKSetCacheService();
+        assertThat(service.getJWKSet(jwksUri, "key1").getKeyByKeyId("key1")).isNotNull();
+        assertThat(fetches.get()).isEqualTo(1);
+
+        // known kid is served from cache
+        assertThat(service.getJWKSet(jwksUri, "key1")).isNotNull();
+        assertThat(fetches.get()).isEqualTo(1);
+
+        // rotated on the remote
+        keys.add(generateKey("key2"));
+        assertThat(service.getJWKSet(jwksUri, "key2").getKeyByKeyId("key2")).isNotNull();
+        assertThat(fetches.get()).isEqualTo(2);
+
+        // later lookups see the new key without fetching
+        assertThat(service.getJWKSet(jwksUri).getKeyByKeyId("key2")).isNotNull();
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void unknownKidRefreshIsRateLimited() throws JOSEException {
+        JWKSetCacheService service = new JWKSetCacheService();
+        service.setKidRefreshInterval(60);
+
+        assertThat(service.getJWKSet(jwksUri, "missing")).isNotNull();
+        assertThat(service.getJWKSet(jwksUri, "missing")).isNotNull();
+        assertThat(service.getJWKSet(jwksUri, "other")).isNotNull();
+
+        // initial load plus a single forced fetch within the interval
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void clientSignerFollowsKid() throws JOSEException {
+        JWKSetCacheService service = new JWKSetCacheService();
+        service.setKidRefreshInterval(0);
+        ClientKeyCacheService keyCache = new ClientKeyCacheService(service);
+
+        JWTSigningAndValidationService signer = keyCache.getSigner("RS256", "client", null, null, jwksUri, "key1");
+        assertThat(signer.getAllPublicKeys()).containsOnlyKeys("key1");
+
+        // signer is rebuilt once the remote set changes
+        keys.add(generateKey("key2"));
+        signer = keyCache.getSigner("RS256", "client", null, null, jwksUri, "key2");
+        assertThat(signer.getAllPublicKeys()).containsOnlyKeys("key1", "key2");
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void destroyStopsRefreshExecutor() {
+        JWKSetCacheService service = new JWKSetCacheService();
+        assertThat(service.getJWKSet(jwksUri)).isNotNull();
+
+        service.destroy();
+        ExecutorService executor = (ExecutorService) ReflectionTestUtils.getField(service, "executor");
+        assertThat(executor.isShutdown()).isTrue();
+
+        // cached keys are still served
+        assertThat(service.getJWKSet(jwksUri)).isNotNull();
+    }
+
+    private static JWK generateKey(String kid) throws JOSEException {
+        return new RSAKeyGenerator(2048)
+            .keyID(kid)
+            .keyUse(KeyUse.SIGNATURE)
+            .algorithm(JWSAlgorithm.RS256)
+            .generate()
+            .toPublicJWK();
+    }
+}
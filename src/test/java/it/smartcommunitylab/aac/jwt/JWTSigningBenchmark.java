@@ -0,0 +1,138 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.jwt;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import it.smartcommunitylab.aac.jose.JWKSetKeyStore;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Sign and verify throughput with a rotated RSA keystore
+ *
+ * tokens are signed with the last generated key, verification is measured
+ * both with a kid header and without, where a scan of keys is required
+ *
+ * run with
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=it.smartcommunitylab.aac.jwt.JWTSigningBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JWTSigningBenchmark {
+
+    @Param({ "1", "4", "16" })
+    private int keys;
+
+    private DefaultJWTSigningAndValidationService service;
+
+    private JWTClaimsSet claims;
+    private String kid;
+
+    private SignedJWT jwtWithKid;
+    private SignedJWT jwtWithoutKid;
+
+    @Setup(Level.Trial)
+    public void setup() throws JOSEException {
+        List<JWK> list = new ArrayList<>();
+        RSAKey last = null;
+        for (int i = 0; i < keys; i++) {
+            last =
+                new RSAKeyGenerator(2048)
+                    .keyUse(KeyUse.SIGNATURE)
+                    .keyID("key-" + i)
+                    .algorithm(JWSAlgorithm.RS256)
+                    .generate();
+            list.add(last);
+        }
+
+        try {
+            service = new DefaultJWTSigningAndValidationService(new JWKSetKeyStore(new JWKSet(list)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        kid = last.getKeyID();
+        claims =
+            new JWTClaimsSet.Builder()
+                .issuer("https://aac.example.org")
+                .subject("u_3d6e6a2e-2cb5-4a4b-a4d1-7b4b0a5c8c11")
+                .audience("c_0b2e1ba6-5b3b-4b4c-9a63-3a1c2f1d8e52")
+                .issueTime(new Date())
+                .expirationTime(new Date(System.currentTimeMillis() + 3600 * 1000L))
+                .claim("scope", "openid profile email")
+                .build();
+
+        RSASSASigner signer = new RSASSASigner(last);
+        jwtWithKid = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(kid).build(), claims);
+        jwtWithKid.sign(signer);
+        jwtWithoutKid = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).build(), claims);
+        jwtWithoutKid.sign(signer);
+    }
+
+    @Benchmark
+    public SignedJWT sign() {
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(kid).build(), claims);
+        service.signJwt(jwt, JWSAlgorithm.RS256);
+        return jwt;
+    }
+
+    @Benchmark
+    public boolean verifyWithKid() {
+        return service.validateSignature(jwtWithKid);
+    }
+
+    @Benchmark
+    public boolean verifyWithoutKid() {
+        return service.validateSignature(jwtWithoutKid);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JWTSigningBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.oauth.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import it.smartcommunitylab.aac.core.auth.RealmGrantedAuthority;
+import it.smartcommunitylab.aac.oauth.AACOAuth2AccessToken;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+public class CborTokenSerializerTest {
+
+    private final CborTokenSerializer cborSerializer = new CborTokenSerializer();
+    private final JavaTokenSerializer javaSerializer = new JavaTokenSerializer();
+
+    private AACOAuth2AccessToken accessToken;
+    private OAuth2Request request;
+
+    @BeforeEach
+    public void setUp() {
+        Set<String> scopes = new HashSet<>(Arrays.asList("openid", "profile", "offline_access"));
+
+        accessToken = new AACOAuth2AccessToken("access-token-value");
+        accessToken.setSubject("u_subject");
+        accessToken.setAuthorizedParty("c_client");
+        accessToken.setAudience(new String[] { "c_client", "aac.api" });
+        accessToken.setRealm("demo");
+        accessToken.setScope(scopes);
+        accessToken.setIssuedAt(new Date(1700000000000L));
+        accessToken.setExpiration(new Date(1700003600000L));
+        accessToken.setRefreshToken(new DefaultExpiringOAuth2RefreshToken("refresh-token-value", new Date(1700086400000L)));
+
+        Map<String, Serializable> claims = new HashMap<>();
+        claims.put("name", "Example User");
+        claims.put("email_verified", true);
+        claims.put("count", Integer.valueOf(5));
+        claims.put("small_long", Long.valueOf(5L));
+        claims.put("auth_time", Long.valueOf(1700000000L));
+        claims.put("big_long", Long.valueOf(1L << 40));
+        claims.put("negative_long", Long.valueOf(-7L));
+        claims.put("ratio", Double.valueOf(1.5));
+        claims.put("groups", new ArrayList<>(Arrays.asList("group1", "group2")));
+        claims.put("levels", new ArrayList<>(Arrays.asList(Long.valueOf(1L), Integer.valueOf(2))));
+        HashMap<String, Object> nested = new HashMap<>();
+        nested.put("id", Long.valueOf(42L));
+        nested.put("size", Integer.valueOf(3));
+        claims.put("nested", nested);
+        accessToken.setClaims(claims);
+
+        Map<String, String> params = new HashMap<>();
+        params.put("grant_type", "authorization_code");
+        params.put("client_id", "c_client");
+        request =
+            new OAuth2Request(
+                params,
+                "c_client",
+                Arrays.asList(new SimpleGrantedAuthority("ROLE_CLIENT"), new RealmGrantedAuthority("demo", "ROLE_CLIENT")),
+                true,
+                scopes,
+                Collections.singleton("aac.api"),
+                "https://client.example.org/callback",
+                Collections.singleton("code"),
+                null
+            );
+    }
+
+    @Test
+    public void accessTokenRoundTrip() {
+        byte[] bytes = cborSerializer.serializeAccessToken(accessToken);
+        assertThat(CborTokenSerializer.isCborSerialized(bytes)).isTrue();
+
+        OAuth2AccessToken token = cborSerializer.deserializeAccessToken(bytes);
+        assertThat(token).isInstanceOf(AACOAuth2AccessToken.class);
+
+        AACOAuth2AccessToken result = (AACOAuth2AccessToken) token;
+        assertThat(result.getValue()).isEqualTo(accessToken.getValue());
+        assertThat(result.getSubject()).isEqualTo(accessToken.getSubject());
+        assertThat(result.getAuthorizedParty()).isEqualTo(accessToken.getAuthorizedParty());
+        assertThat(result.getRealm()).isEqualTo(accessToken.getRealm());
+        assertThat(result.getScope()).isEqualTo(accessToken.getScope());
+        assertThat(result.getIssuedAt()).isEqualTo(accessToken.getIssuedAt());
+        assertThat(result.getExpiration()).isEqualTo(accessToken.getExpiration());
+
+        assertThat(result.getRefreshToken()).isInstanceOf(ExpiringOAuth2RefreshToken.class);
+        assertThat(result.getRefreshToken().getValue()).isEqualTo("refresh-token-value");
+        assertThat(((ExpiringOAuth2RefreshToken) result.getRefreshToken()).getExpiration())
+            .isEqualTo(new Date(1700086400000L));
+    }
+
+    @Test
+    public void claimTypesArePreserved() {
+        byte[] bytes = cborSerializer.serializeAccessToken(accessToken);
+        AACOAuth2AccessToken result = (AACOAuth2AccessToken) cborSerializer.deserializeAccessToken(bytes);
+        Map<String, Serializable> claims = result.getClaims();
+
+        assertThat(claims.get("name")).isEqualTo("Example User");
+        assertThat(claims.get("email_verified")).isEqualTo(Boolean.TRUE);
+        assertThat(claims.get("count")).isInstanceOf(Integer.class).isEqualTo(5);
+        assertThat(claims.get("small_long")).isInstanceOf(Long.class).isEqualTo(5L);
+        assertThat(claims.get("auth_time")).isInstanceOf(Long.class).isEqualTo(1700000000L);
+        assertThat(claims.get("big_long")).isInstanceOf(Long.class).isEqualTo(1L << 40);
+        assertThat(claims.get("negative_long")).isInstanceOf(Long.class).isEqualTo(-7L);
+        assertThat(claims.get("ratio")).isInstanceOf(Double.class).isEqualTo(1.5);
+        assertThat(claims.get("groups")).isEqualTo(Arrays.asList("group1", "group2"));
+
+        List<?> levels = (List<?>) claims.get("levels");
+        assertThat(levels.get(0)).isInstanceOf(Long.class);
+        assertThat(levels.get(1)).isInstanceOf(Integer.class);
+
+        Map<?, ?> nested = (Map<?, ?>) claims.get("nested");
+        assertThat(nested.get("id")).isInstanceOf(Long.class).isEqualTo(42L);
+        assertThat(nested.get("size")).isInstanceOf(Integer.class).isEqualTo(3);
+    }
+
+    @Test
+    public void refreshTokenRoundTrip() {
+        OAuth2RefreshToken refreshToken = accessToken.getRefreshToken();
+        byte[] bytes = cborSerializer.serializeRefreshToken(refreshToken);
+        assertThat(CborTokenSerializer.isCborSerialized(bytes)).isTrue();
+
+        OAuth2RefreshToken result = cborSerializer.deserializeRefreshToken(bytes);
+        assertThat(result).isInstanceOf(ExpiringOAuth2RefreshToken.class);
+        assertThat(result.getValue()).isEqualTo(refreshToken.getValue());
+        assertThat(((ExpiringOAuth2RefreshToken) result).getExpiration())
+            .isEqualTo(((ExpiringOAuth2RefreshToken) refreshToken).getExpiration());
+    }
+
+    @Test
+    public void clientAuthenticationRoundTrip() {
+        OAuth2Authentication authentication = new OAuth2Authentication(request, null);
+        byte[] bytes = cborSerializer.serializeAuthentication(authentication);
+        assertThat(CborTokenSerializer.isCborSerialized(bytes)).isTrue();
+
+        OAuth2Authentication result = cborSerializer.deserializeAuthentication(bytes);
+        assertThat(result.getUserAuthentication()).isNull();
+        assertThat(result.getOAuth2Request().getClientId()).isEqualTo("c_client");
+        assertThat(result.getOAuth2Request().getScope()).isEqualTo(request.getScope());
+        assertThat(result.getOAuth2Request().getResourceIds()).isEqualTo(request.getResourceIds());
+        assertThat(result.getOAuth2Request().getRedirectUri()).isEqualTo(request.getRedirectUri());
+        assertThat(result.getOAuth2Request().getRequestParameters()).isEqualTo(request.getRequestParameters());
+        assertThat(result.getOAuth2Request().isApproved()).isTrue();
+        assertThat(result.getOAuth2Request().getAuthorities())
+            .containsExactlyInAnyOrderElementsOf(request.getAuthorities());
+    }
+
+    @Test
+    public void userAuthenticationIsNotEmbedded() {
+        OAuth2Authentication authentication = new OAuth2Authentication(
+            request,
+            new UsernamePasswordAuthenticationToken(
+                "u_subject",
+                null,
+                Collections.singleton(new SimpleGrantedAuthority("ROLE_USER"))
+            )
+        );
+
+        // whole record is written in legacy format
+        byte[] bytes = cborSerializer.serializeAuthentication(authentication);
+        assertThat(CborTokenSerializer.isCborSerialized(bytes)).isFalse();
+        assertThat(JavaTokenSerializer.isJavaSerialized(bytes)).isTrue();
+
+        OAuth2Authentication result = cborSerializer.deserializeAuthentication(bytes);
+        assertThat(result.getUserAuthentication()).isNotNull();
+        assertThat(result.getUserAuthentication().getName()).isEqualTo("u_subject");
+        assertThat(result.getOAuth2Request().getClientId()).isEqualTo("c_client");
+    }
+
+    @Test
+    public void cborReadsLegacyRows() {
+        byte[] tokenBytes = javaSerializer.serializeAccessToken(accessToken);
+        byte[] refreshBytes = javaSerializer.serializeRefreshToken(accessToken.getRefreshToken());
+        byte[] authBytes = javaSerializer.serializeAuthentication(new OAuth2Authentication(request, null));
+        assertThat(JavaTokenSerializer.isJavaSerialized(tokenBytes)).isTrue();
+
+        AACOAuth2AccessToken token = (AACOAuth2AccessToken) cborSerializer.deserializeAccessToken(tokenBytes);
+        assertThat(token.getValue()).isEqualTo(accessToken.getValue());
+        assertThat(token.getClaims().get("small_long")).isInstanceOf(Long.class);
+
+        assertThat(cborSerializer.deserializeRefreshToken(refreshBytes).getValue()).isEqualTo("refresh-token-value");
+        assertThat(cborSerializer.deserializeAuthentication(authBytes).getOAuth2Request().getClientId())
+            .isEqualTo("c_client");
+    }
+
+    @Test
+    public void legacyReadsCborRows() {
+        byte[] tokenBytes = cborSerializer.serializeAccessToken(accessToken);
+        byte[] refreshBytes = cborSerializer.serializeRefreshToken(accessToken.getRefreshToken());
+        byte[] authBytes = cborSerializer.serializeAuthentication(new OAuth2Authentication(request, null));
+        assertThat(CborTokenSerializer.isCborSerialized(authBytes)).isTrue();
+
+        AACOAuth2AccessToken token = (AACOAuth2AccessToken) javaSerializer.deserializeAccessToken(tokenBytes);
+        assertThat(token.getValue()).isEqualTo(accessToken.getValue());
+        assertThat(token.getClaims().get("small_long")).isInstanceOf(Long.class);
+
+        assertThat(javaSerializer.deserializeRefreshToken(refreshBytes).getValue()).isEqualTo("refresh-token-value");
+        assertThat(javaSerializer.deserializeAuthentication(authBytes).getOAuth2Request().getClientId())
+            .isEqualTo("c_client");
+    }
+
+    @Test
+    public void mixedRowsAreReadByBothFormats() {
+        List<byte[]> rows = Arrays.asList(
+            javaSerializer.serializeAccessToken(accessToken),
+            cborSerializer.serializeAccessToken(accessToken)
+        );
+
+        for (TokenSerializer serializer : Arrays.asList(cborSerializer, javaSerializer)) {
+            for (byte[] row : rows) {
+                AACOAuth2AccessToken token = (AACOAuth2AccessToken) serializer.deserializeAccessToken(row);
+                assertThat(token.getValue()).isEqualTo(accessToken.getValue());
+                assertThat(token.getSubject()).isEqualTo(accessToken.getSubject());
+                assertThat(token.getClaims().get("count")).isInstanceOf(Integer.class);
+                assertThat(token.getClaims().get("auth_time")).isInstanceOf(Long.class);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.smartcommunitylab.aac.oauth.store;
+
+import it.smartcommunitylab.aac.core.auth.RealmGrantedAuthority;
+import it.smartcommunitylab.aac.oauth.AACOAuth2AccessToken;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+/*
+ * Token serialization cost and payload size, java VS cbor
+ *
+ * run with
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=it.smartcommunitylab.aac.oauth.store.TokenSerializerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenSerializerBenchmark {
+
+    @Param({ "java", "cbor" })
+    private String format;
+
+    private TokenSerializer serializer;
+
+    private AACOAuth2AccessToken accessToken;
+    private OAuth2Authentication clientAuthentication;
+    private OAuth2Authentication userAuthentication;
+
+    private byte[] accessTokenBytes;
+    private byte[] clientAuthenticationBytes;
+    private byte[] userAuthenticationBytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        serializer = "cbor".equals(format) ? new CborTokenSerializer() : new JavaTokenSerializer();
+
+        Set<String> scopes = new HashSet<>(Arrays.asList("openid", "profile", "email", "offline_access"));
+
+        accessToken = new AACOAuth2AccessToken("a6a2c6cb-0f02-4d7d-9d3c-2b8f9d1f1c0e");
+        accessToken.setSubject("u_3d6e6a2e-2cb5-4a4b-a4d1-7b4b0a5c8c11");
+        accessToken.setAuthorizedParty("c_0b2e1ba6-5b3b-4b4c-9a63-3a1c2f1d8e52");
+        accessToken.setAudience(new String[] { "c_0b2e1ba6-5b3b-4b4c-9a63-3a1c2f1d8e52", "aac.api" });
+        accessToken.setRealm("demo");
+        accessToken.setScope(scopes);
+        accessToken.setExpiration(new Date(System.currentTimeMillis() + 3600 * 1000L));
+        accessToken.setRefreshToken(
+            new DefaultExpiringOAuth2RefreshToken(
+                "5c1a8b0e-3a3e-4f2b-8a1e-8f8d4a0b6c2d",
+                new Date(System.currentTimeMillis() + 86400 * 1000L)
+            )
+        );
+        Map<String, Serializable> claims = new HashMap<>();
+        claims.put("email", "user@example.org");
+        claims.put("email_verified", true);
+        claims.put("name", "Example User");
+        claims.put("groups", new ArrayList<>(Arrays.asList("group1", "group2")));
+        accessToken.setClaims(claims);
+
+        Map<String, String> params = new HashMap<>();
+        params.put("grant_type", "authorization_code");
+        params.put("client_id", "c_0b2e1ba6-5b3b-4b4c-9a63-3a1c2f1d8e52");
+        params.put("scope", "openid profile email offline_access");
+        OAuth2Request request = new OAuth2Request(
+            params,
+            "c_0b2e1ba6-5b3b-4b4c-9a63-3a1c2f1d8e52",
+            Arrays.asList(new SimpleGrantedAuthority("ROLE_CLIENT"), new RealmGrantedAuthority("demo", "ROLE_CLIENT")),
+            true,
+            scopes,
+            Collections.singleton("aac.api"),
+            "https://client.example.org/callback",
+            Collections.singleton("code"),
+            null
+        );
+
+        clientAuthentication = new OAuth2Authentication(request, null);
+        userAuthentication =
+            new OAuth2Authentication(
+                request,
+                new UsernamePasswordAuthenticationToken(
+                    "u_3d6e6a2e-2cb5-4a4b-a4d1-7b4b0a5c8c11",
+                    null,
+                    Collections.singleton(new SimpleGrantedAuthority("ROLE_USER"))
+                )
+            );
+
+        accessTokenBytes = serializer.serializeAccessToken(accessToken);
+        clientAuthenticationBytes = serializer.serializeAuthentication(clientAuthentication);
+        userAuthenticationBytes = serializer.serializeAuthentication(userAuthentication);
+
+        System.out.println();
+        System.out.println("payload size " + format + " access token: " + accessTokenBytes.length);
+        System.out.println("payload size " + format + " client authentication: " + clientAuthenticationBytes.length);
+        System.out.println("payload size " + format + " user authentication: " + userAuthenticationBytes.length);
+    }
+
+    @Benchmark
+    public byte[] serializeAccessToken() {
+        return serializer.serializeAccessToken(accessToken);
+    }
+
+    @Benchmark
+    public OAuth2AccessToken deserializeAccessToken() {
+        return serializer.deserializeAccessToken(accessTokenBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeClientAuthentication() {
+        return serializer.serializeAuthentication(clientAuthentication);
+    }
+
+    @Benchmark
+    public OAuth2Authentication deserializeClientAuthentication() {
+        return serializer.deserializeAuthentication(clientAuthenticationBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeUserAuthentication() {
+        return serializer.serializeAuthentication(userAuthentication);
+    }
+
+    @Benchmark
+    public OAuth2Authentication deserializeUserAuthentication() {
+        return serializer.deserializeAuthentication(userAuthenticationBytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TokenSerializerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
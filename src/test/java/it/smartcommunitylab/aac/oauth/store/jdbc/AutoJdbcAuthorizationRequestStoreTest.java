@@ -0,0 +1,145 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.oauth.store.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import it.smartcommunitylab.aac.core.auth.RealmGrantedAuthority;
+import it.smartcommunitylab.aac.oauth.store.CborTokenSerializer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.oauth2.provider.AuthorizationRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/*
+ * Requests are bound to the session and persisted without java serialization
+ */
+public class AutoJdbcAuthorizationRequestStoreTest {
+
+    private EmbeddedDatabase dataSource;
+    private AutoJdbcAuthorizationRequestStore store;
+    private MockHttpSession session;
+
+    @BeforeEach
+    public void setUp() {
+        dataSource =
+            new EmbeddedDatabaseBuilder()
+                .generateUniqueName(true)
+                .setType(EmbeddedDatabaseType.H2)
+                .addScript("classpath:db/sql/oauth2/schema-h2.sql")
+                .build();
+
+        store = new AutoJdbcAuthorizationRequestStore(dataSource);
+        session = new MockHttpSession();
+        bindRequest(session);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+        store.destroy();
+        dataSource.shutdown();
+    }
+
+    @Test
+    public void requestIsStoredAsCbor() {
+        AuthorizationRequest request = buildRequest();
+        String key = store.store(request);
+
+        byte[] bytes = new JdbcTemplate(dataSource)
+            .queryForObject("select request from oauth_authorization_request", byte[].class);
+        assertThat(CborTokenSerializer.isCborSerialized(bytes)).isTrue();
+
+        AuthorizationRequest result = store.find(key);
+        assertThat(result).isNotNull();
+        assertThat(result.getClientId()).isEqualTo("c_client");
+        assertThat(result.getScope()).containsExactlyInAnyOrder("openid", "profile");
+        assertThat(result.getResponseTypes()).containsExactly("code");
+        assertThat(result.getRedirectUri()).isEqualTo("https://client.example.com/cb");
+        assertThat(result.getState()).isEqualTo("xyz");
+        assertThat(result.getRequestParameters()).containsEntry("nonce", "n-0S6");
+        assertThat(result.getApprovalParameters()).containsEntry("user_oauth_approval", "true");
+        assertThat(result.getExtensions()).containsEntry("nonce", "n-0S6");
+        assertThat(result.getAuthorities()).containsExactly(new RealmGrantedAuthority("demo", "ROLE_USER"));
+        assertThat(result.isApproved()).isTrue();
+    }
+
+    @Test
+    public void requestIsBoundToSession() {
+        String key = store.store(buildRequest());
+        assertThat(store.find(key)).isNotNull();
+
+        bindRequest(new MockHttpSession());
+        assertThat(store.find(key)).isNull();
+        assertThat(store.findAll()).isEmpty();
+
+        bindRequest(session);
+        assertThat(store.find(key)).isNotNull();
+    }
+
+    @Test
+    public void requestContextIsRequired() {
+        RequestContextHolder.resetRequestAttributes();
+
+        assertThatThrownBy(() -> store.store(buildRequest())).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> store.find("key")).isInstanceOf(IllegalStateException.class);
+    }
+
+    private void bindRequest(MockHttpSession session) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setSession(session);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    private AuthorizationRequest buildRequest() {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("client_id", "c_client");
+        parameters.put("response_type", "code");
+        parameters.put("nonce", "n-0S6");
+
+        AuthorizationRequest request = new AuthorizationRequest(
+            parameters,
+            Collections.emptyMap(),
+            "c_client",
+            new HashSet<>(Arrays.asList("openid", "profile")),
+            Collections.emptySet(),
+            Collections.singleton(new RealmGrantedAuthority("demo", "ROLE_USER")),
+            true,
+            "xyz",
+            "https://client.example.com/cb",
+            Collections.singleton("code")
+        );
+        request.setApprovalParameters(Collections.singletonMap("user_oauth_approval", "true"));
+        request.getExtensions().put("nonce", "n-0S6");
+
+        return request;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.oauth.store.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import it.smartcommunitylab.aac.oauth.AACOAuth2AccessToken;
+import it.smartcommunitylab.aac.oauth.store.StoredToken;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+/*
+ * Introspection and revocation must see cache updates
+ */
+public class AutoJdbcTokenStoreCacheTest {
+
+    private EmbeddedDatabase dataSource;
+    private AutoJdbcTokenStore tokenStore;
+    private OAuth2Authentication authentication;
+
+    @BeforeEach
+    public void setUp() {
+        dataSource =
+            new EmbeddedDatabaseBuilder()
+                .generateUniqueName(true)
+                .setType(EmbeddedDatabaseType.H2)
+                .addScript("classpath:db/sql/oauth2/schema-h2.sql")
+                .build();
+
+        tokenStore = new AutoJdbcTokenStore(dataSource);
+        tokenStore.setCacheConfig(60, 100);
+
+        OAuth2Request request = new OAuth2Request(
+            Collections.singletonMap("client_id", "c_client"),
+            "c_client",
+            Collections.singleton(new SimpleGrantedAuthority("ROLE_CLIENT")),
+            true,
+            new HashSet<>(Collections.singleton("profile")),
+            Collections.emptySet(),
+            null,
+            Collections.emptySet(),
+            null
+        );
+        authentication = new OAuth2Authentication(request, null);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dataSource.shutdown();
+    }
+
+    private AACOAuth2AccessToken buildAccessToken(String value, long expiresIn, OAuth2RefreshToken refreshToken) {
+        AACOAuth2AccessToken token = new AACOAuth2AccessToken(value);
+        token.setSubject("c_client");
+        token.setAuthorizedParty("c_client");
+        token.setRealm("demo");
+        token.setScope(new HashSet<>(Collections.singleton("profile")));
+        token.setExpiration(new Date(System.currentTimeMillis() + expiresIn));
+        token.setRefreshToken(refreshToken);
+        return token;
+    }
+
+    @Test
+    public void cachedLookupsAreCopies() {
+        tokenStore.storeAccessToken(buildAccessToken("access-1", 3600000L, null), authentication);
+
+        StoredToken<OAuth2AccessToken> first = tokenStore.readAccessTokenWithAuthentication("access-1");
+        assertThat(first).isNotNull();
+
+        // mangle the returned objects
+        AACOAuth2AccessToken token = (AACOAuth2AccessToken) first.getToken();
+        token.setExpiration(new Date(0));
+        Map<String, Serializable> info = new HashMap<>();
+        info.put("injected", "value");
+        token.setAdditionalInformation(info);
+        first.getAuthentication().setDetails("details");
+
+        StoredToken<OAuth2AccessToken> second = tokenStore.readAccessTokenWithAuthentication("access-1");
+        assertThat(second.getToken()).isNotSameAs(first.getToken());
+        assertThat(second.getToken().getExpiration()).isAfter(new Date());
+        assertThat(second.getToken().getAdditionalInformation()).doesNotContainKey("injected");
+        assertThat(second.getAuthentication().getDetails()).isNull();
+    }
+
+    @Test
+    public void introspectionSeesRevokedAccessToken() {
+        OAuth2AccessToken token = buildAccessToken("access-2", 3600000L, null);
+        tokenStore.storeAccessToken(token, authentication);
+        assertThat(tokenStore.readAccessTokenWithAuthentication("access-2")).isNotNull();
+
+        tokenStore.removeAccessToken(token);
+        assertThat(tokenStore.readAccessTokenWithAuthentication("access-2")).isNull();
+    }
+
+    @Test
+    public void introspectionSeesRevokedRefreshToken() {
+        OAuth2RefreshToken refreshToken = new DefaultExpiringOAuth2RefreshToken(
+            "refresh-1",
+            new Date(System.currentTimeMillis() + 3600000L)
+        );
+        tokenStore.storeRefreshToken(refreshToken, authentication);
+        tokenStore.storeAccessToken(buildAccessToken("access-3", 3600000L, refreshToken), authentication);
+        assertThat(tokenStore.readRefreshTokenWithAuthentication("refresh-1")).isNotNull();
+        assertThat(tokenStore.readAccessTokenWithAuthentication("access-3")).isNotNull();
+
+        // revoking the refresh token removes bound access tokens
+        tokenStore.removeAccessTokenUsingRefreshToken(refreshToken);
+        tokenStore.removeRefreshToken(refreshToken);
+        assertThat(tokenStore.readRefreshTokenWithAuthentication("refresh-1")).isNull();
+        assertThat(tokenStore.readAccessTokenWithAuthentication("access-3")).isNull();
+    }
+
+    @Test
+    public void expiredAccessTokensAreEvicted() {
+        tokenStore.storeAccessToken(buildAccessToken("access-4", -3600000L, null), authentication);
+        tokenStore.storeAccessToken(buildAccessToken("access-5", 3600000L, null), authentication);
+        assertThat(tokenStore.readAccessTokenWithAuthentication("access-4")).isNotNull();
+        assertThat(tokenStore.readAccessTokenWithAuthentication("access-5")).isNotNull();
+
+        tokenStore.deleteExpiredAccessTokens(0);
+        assertThat(tokenStore.readAccessTokenWithAuthentication("access-4")).isNull();
+        assertThat(tokenStore.readAccessTokenWithAuthentication("access-5")).isNotNull();
+    }
+
+    @Test
+    public void expiredRefreshTokensAreEvicted() {
+        OAuth2RefreshToken expired = new DefaultExpiringOAuth2RefreshToken(
+            "refresh-2",
+            new Date(System.currentTimeMillis() - 3600000L)
+        );
+        OAuth2RefreshToken valid = new DefaultExpiringOAuth2RefreshToken(
+            "refresh-3",
+            new Date(System.currentTimeMillis() + 3600000L)
+        );
+        tokenStore.storeRefreshToken(expired, authentication);
+        tokenStore.storeRefreshToken(valid, authentication);
+        assertThat(tokenStore.readRefreshTokenWithAuthentication("refresh-2")).isNotNull();
+        assertThat(tokenStore.readRefreshTokenWithAuthentication("refresh-3")).isNotNull();
+
+        tokenStore.deleteExpiredRefreshTokens(0);
+        assertThat(tokenStore.readRefreshTokenWithAuthentication("refresh-2")).isNull();
+        assertThat(tokenStore.readRefreshTokenWithAuthentication("refresh-3")).isNotNull();
+    }
+}
@@ -17,7 +17,12 @@
 package it.smartcommunitylab.aac.oauth.token;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -29,13 +34,27 @@ import it.smartcommunitylab.aac.Config;
 import it.smartcommunitylab.aac.auth.WithMockUserAuthentication;
 import it.smartcommunitylab.aac.bootstrap.BootstrapConfig;
 import it.smartcommunitylab.aac.oauth.OAuth2ConfigUtils;
+import it.smartcommunitylab.aac.oauth.OAuth2TokenServices;
 import it.smartcommunitylab.aac.oauth.OAuth2TestConfig.UserRegistration;
 import it.smartcommunitylab.aac.oauth.endpoint.AuthorizationEndpoint;
 import it.smartcommunitylab.aac.oauth.endpoint.TokenEndpoint;
 import it.smartcommunitylab.aac.oauth.model.ClientRegistration;
+import it.smartcommunitylab.aac.oauth.model.OAuth2ClientDetails;
+import it.smartcommunitylab.aac.oauth.service.OAuth2ClientDetailsService;
+import it.smartcommunitylab.aac.oauth.store.ExtTokenStore;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -43,13 +62,18 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidGrantException;
 import org.springframework.security.oauth2.core.AuthorizationGrantType;
 import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.provider.TokenRequest;
+import org.springframework.security.oauth2.provider.approval.ApprovalStore;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.util.StringUtils;
@@ -76,6 +100,18 @@ public class RefreshTokenGrantTest {
     @Autowired
     private BootstrapConfig config;
 
+    @Autowired
+    private ExtTokenStore tokenStore;
+
+    @Autowired
+    private OAuth2ClientDetailsService clientDetailsService;
+
+    @Autowired
+    private ApprovalStore approvalStore;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     private String username;
     private String password;
     private String clientId;
@@ -745,6 +781,305 @@ public class RefreshTokenGrantTest {
         assertThat(response.get(OAuth2ParameterNames.ACCESS_TOKEN)).isNull();
     }
 
+    @Test
+    @WithMockUserAuthentication(username = "test", realm = "test")
+    public void authCodeWithUserAuthAndConcurrentRefreshTest() throws Exception {
+        // authorize request
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
+        params.add(OAuth2ParameterNames.RESPONSE_TYPE, ResponseType.CODE.toString());
+        params.add(OAuth2ParameterNames.CLIENT_ID, clientId);
+        // set offline scope to require refresh token
+        params.add(OAuth2ParameterNames.SCOPE, Config.SCOPE_OFFLINE_ACCESS);
+
+        MockHttpServletRequestBuilder req = MockMvcRequestBuilders
+            .get(AUTHORIZE_URL)
+            .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+            .params(params);
+
+        MvcResult res = this.mockMvc.perform(req).andExpect(status().isOk()).andReturn();
+        String forwardedUrl = res.getResponse().getForwardedUrl();
+        assertThat(forwardedUrl).isNotNull().startsWith(AUTHORIZED_URL);
+
+        // keep the same session for the whole request flow
+        MockHttpSession session = (MockHttpSession) res.getRequest().getSession();
+        assertThat(session).isNotNull();
+
+        // follow forward to fetch code
+        req = MockMvcRequestBuilders.get(forwardedUrl).session(session);
+        res = this.mockMvc.perform(req).andExpect(status().is3xxRedirection()).andReturn();
+
+        String redirectedUrl = res.getResponse().getRedirectedUrl();
+        assertThat(redirectedUrl).isNotNull();
+
+        MultiValueMap<String, String> queryParams = UriComponentsBuilder
+            .fromUriString(redirectedUrl)
+            .build(true)
+            .getQueryParams();
+        assertThat(queryParams.get(OAuth2ParameterNames.CODE)).isNotNull().isNotEmpty();
+        String code = queryParams.get(OAuth2ParameterNames.CODE).get(0);
+
+        // make a token request
+        params = new LinkedMultiValueMap<>();
+        params.add(OAuth2ParameterNames.GRANT_TYPE, AuthorizationGrantType.AUTHORIZATION_CODE.getValue());
+        params.add(OAuth2ParameterNames.CODE, code);
+
+        req =
+            MockMvcRequestBuilders
+                .post(TOKEN_URL)
+                .with(httpBasic(clientId, clientSecret))
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .params(params);
+
+        res = this.mockMvc.perform(req).andExpect(status().isOk()).andReturn();
+
+        Map<String, Serializable> response = mapper.readValue(res.getResponse().getContentAsString(), typeRef);
+        assertThat(response.get(OAuth2ParameterNames.REFRESH_TOKEN)).isNotNull().isInstanceOf(String.class);
+        String refreshToken = (String) response.get(OAuth2ParameterNames.REFRESH_TOKEN);
+        assertThat(refreshToken).isNotBlank();
+
+        // stress refresh with the same token from many threads
+        MultiValueMap<String, String> refreshParams = new LinkedMultiValueMap<>();
+        refreshParams.add(OAuth2ParameterNames.GRANT_TYPE, AuthorizationGrantType.REFRESH_TOKEN.getValue());
+        refreshParams.add(OAuth2ParameterNames.REFRESH_TOKEN, refreshToken);
+
+        Callable<Map<String, Serializable>> refresh = () -> {
+            MockHttpServletRequestBuilder r = MockMvcRequestBuilders
+                .post(TOKEN_URL)
+                .with(httpBasic(clientId, clientSecret))
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .params(refreshParams);
+
+            MvcResult rr = this.mockMvc.perform(r).andExpect(status().isOk()).andReturn();
+            return mapper.readValue(rr.getResponse().getContentAsString(), typeRef);
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_THREADS);
+        List<Future<Map<String, Serializable>>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < CONCURRENT_REFRESHES; i++) {
+                futures.add(executor.submit(refresh));
+            }
+
+            // every refresh should succeed with a distinct access token
+            Set<String> accessTokens = new HashSet<>();
+            for (Future<Map<String, Serializable>> f : futures) {
+                Map<String, Serializable> r = f.get(30, TimeUnit.SECONDS);
+                assertThat(r.get(OAuth2ParameterNames.ACCESS_TOKEN)).isNotNull().isInstanceOf(String.class);
+                accessTokens.add((String) r.get(OAuth2ParameterNames.ACCESS_TOKEN));
+            }
+
+            assertThat(accessTokens).hasSize(CONCURRENT_REFRESHES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // refresh token is still valid afterwards
+        response = refresh.call();
+        assertThat(response.get(OAuth2ParameterNames.ACCESS_TOKEN)).isNotNull().isInstanceOf(String.class);
+    }
+
+    @Test
+    @WithMockUserAuthentication(username = "test", realm = "test")
+    public void authCodeWithUserAuthAndConcurrentRotationTest() throws Exception {
+        String refreshToken = fetchRefreshToken();
+        OAuth2TokenServices tokenServices = rotatingTokenServices(0);
+        TokenRequest tokenRequest = refreshRequest(refreshToken);
+
+        // without grace only one refresh can consume the token
+        List<Future<OAuth2AccessToken>> futures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_THREADS);
+        try {
+            for (int i = 0; i < CONCURRENT_REFRESHES; i++) {
+                futures.add(executor.submit(() -> tokenServices.refreshAccessToken(refreshToken, tokenRequest)));
+            }
+
+            List<OAuth2AccessToken> issued = new ArrayList<>();
+            int rejected = 0;
+            for (Future<OAuth2AccessToken> f : futures) {
+                try {
+                    issued.add(f.get(30, TimeUnit.SECONDS));
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause()).isInstanceOf(InvalidGrantException.class);
+                    rejected++;
+                }
+            }
+
+            assertThat(issued).hasSize(1);
+            assertThat(rejected).isEqualTo(CONCURRENT_REFRESHES - 1);
+
+            // chain continues from the single successor
+            String successor = issued.get(0).getRefreshToken().getValue();
+            assertThat(successor).isNotEqualTo(refreshToken);
+            assertThat(tokenStore.readRefreshToken(refreshToken)).isNull();
+            OAuth2AccessToken next = tokenServices.refreshAccessToken(successor, refreshRequest(successor));
+            assertThat(next.getRefreshToken().getValue()).isNotEqualTo(successor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @WithMockUserAuthentication(username = "test", realm = "test")
+    public void authCodeWithUserAuthAndRotationGraceReplayTest() throws Exception {
+        String refreshToken = fetchRefreshToken();
+        OAuth2TokenServices tokenServices = rotatingTokenServices(60);
+        TokenRequest tokenRequest = refreshRequest(refreshToken);
+
+        // concurrent refreshes within grace all receive the same response
+        List<Future<OAuth2AccessToken>> futures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_THREADS);
+        Set<String> accessTokens = new HashSet<>();
+        Set<String> refreshTokens = new HashSet<>();
+        try {
+            for (int i = 0; i < CONCURRENT_REFRESHES; i++) {
+                futures.add(executor.submit(() -> tokenServices.refreshAccessToken(refreshToken, tokenRequest)));
+            }
+
+            for (Future<OAuth2AccessToken> f : futures) {
+                OAuth2AccessToken t = f.get(30, TimeUnit.SECONDS);
+                accessTokens.add(t.getValue());
+                refreshTokens.add(t.getRefreshToken().getValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(accessTokens).hasSize(1);
+        assertThat(refreshTokens).hasSize(1);
+        String accessToken = accessTokens.iterator().next();
+        String successor = refreshTokens.iterator().next();
+        assertThat(successor).isNotEqualTo(refreshToken);
+
+        // replay again, no further rotation and successor tokens are untouched
+        OAuth2AccessToken replayed = tokenServices.refreshAccessToken(refreshToken, tokenRequest);
+        assertThat(replayed.getValue()).isEqualTo(accessToken);
+        assertThat(replayed.getRefreshToken().getValue()).isEqualTo(successor);
+        assertThat(tokenStore.readAccessToken(accessToken)).isNotNull();
+        assertThat(tokenStore.readRefreshToken(successor)).isNotNull();
+
+        // outside the refresh grant the previous token does not exist
+        assertThat(tokenStore.readRefreshToken(refreshToken)).isNull();
+
+        // replay from another client is rejected
+        assertThatThrownBy(() ->
+                tokenServices.refreshAccessToken(
+                    refreshToken,
+                    new TokenRequest(Collections.emptyMap(), client2Id, Collections.emptySet(), "refresh_token")
+                )
+            )
+            .isInstanceOf(InvalidGrantException.class);
+    }
+
+    @Test
+    @WithMockUserAuthentication(username = "test", realm = "test")
+    public void authCodeWithUserAuthAndRotationReplayAfterGraceTest() throws Exception {
+        String refreshToken = fetchRefreshToken();
+        OAuth2TokenServices tokenServices = rotatingTokenServices(1);
+        TokenRequest tokenRequest = refreshRequest(refreshToken);
+
+        OAuth2AccessToken rotated = tokenServices.refreshAccessToken(refreshToken, tokenRequest);
+        assertThat(rotated.getRefreshToken().getValue()).isNotEqualTo(refreshToken);
+
+        // wait for grace window to expire
+        Thread.sleep(1500);
+
+        assertThatThrownBy(() -> tokenServices.refreshAccessToken(refreshToken, tokenRequest))
+            .isInstanceOf(InvalidGrantException.class);
+
+        // successor is still valid
+        String successor = rotated.getRefreshToken().getValue();
+        assertThat(tokenServices.refreshAccessToken(successor, refreshRequest(successor))).isNotNull();
+    }
+
+    private String fetchRefreshToken() throws Exception {
+        // authorize request
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
+        params.add(OAuth2ParameterNames.RESPONSE_TYPE, ResponseType.CODE.toString());
+        params.add(OAuth2ParameterNames.CLIENT_ID, clientId);
+        // set offline scope to require refresh token
+        params.add(OAuth2ParameterNames.SCOPE, Config.SCOPE_OFFLINE_ACCESS);
+
+        MockHttpServletRequestBuilder req = MockMvcRequestBuilders
+            .get(AUTHORIZE_URL)
+            .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+            .params(params);
+
+        MvcResult res = this.mockMvc.perform(req).andExpect(status().isOk()).andReturn();
+        String forwardedUrl = res.getResponse().getForwardedUrl();
+        assertThat(forwardedUrl).isNotNull().startsWith(AUTHORIZED_URL);
+
+        // keep the same session for the whole request flow
+        MockHttpSession session = (MockHttpSession) res.getRequest().getSession();
+        assertThat(session).isNotNull();
+
+        // follow forward to fetch code
+        req = MockMvcRequestBuilders.get(forwardedUrl).session(session);
+        res = this.mockMvc.perform(req).andExpect(status().is3xxRedirection()).andReturn();
+
+        String redirectedUrl = res.getResponse().getRedirectedUrl();
+        assertThat(redirectedUrl).isNotNull();
+
+        MultiValueMap<String, String> queryParams = UriComponentsBuilder
+            .fromUriString(redirectedUrl)
+            .build(true)
+            .getQueryParams();
+        assertThat(queryParams.get(OAuth2ParameterNames.CODE)).isNotNull().isNotEmpty();
+        String code = queryParams.get(OAuth2ParameterNames.CODE).get(0);
+
+        // make a token request
+        params = new LinkedMultiValueMap<>();
+        params.add(OAuth2ParameterNames.GRANT_TYPE, AuthorizationGrantType.AUTHORIZATION_CODE.getValue());
+        params.add(OAuth2ParameterNames.CODE, code);
+
+        req =
+            MockMvcRequestBuilders
+                .post(TOKEN_URL)
+                .with(httpBasic(clientId, clientSecret))
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .params(params);
+
+        res = this.mockMvc.perform(req).andExpect(status().isOk()).andReturn();
+
+        Map<String, Serializable> response = mapper.readValue(res.getResponse().getContentAsString(), typeRef);
+        assertThat(response.get(OAuth2ParameterNames.REFRESH_TOKEN)).isNotNull().isInstanceOf(String.class);
+        String refreshToken = (String) response.get(OAuth2ParameterNames.REFRESH_TOKEN);
+        assertThat(refreshToken).isNotBlank();
+
+        return refreshToken;
+    }
+
+    /*
+     * Token services for a client with rotation always enabled, sharing the
+     * application store and transactions
+     */
+    private OAuth2TokenServices rotatingTokenServices(int grace) {
+        OAuth2ClientDetails clientDetails = spy(clientDetailsService.loadClientByClientId(clientId));
+        doReturn(true).when(clientDetails).isRefreshTokenRotation();
+
+        OAuth2ClientDetailsService rotatingClientDetailsService = mock(OAuth2ClientDetailsService.class);
+        when(rotatingClientDetailsService.loadClientByClientId(clientId)).thenReturn(clientDetails);
+
+        OAuth2TokenServices tokenServices = new OAuth2TokenServices(tokenStore);
+        tokenServices.setClientDetailsService(rotatingClientDetailsService);
+        tokenServices.setApprovalStore(approvalStore);
+        tokenServices.setTransactionManager(transactionManager);
+        tokenServices.setRefreshTokenGrace(grace);
+
+        return tokenServices;
+    }
+
+    private TokenRequest refreshRequest(String refreshToken) {
+        return new TokenRequest(
+            Collections.singletonMap(OAuth2ParameterNames.REFRESH_TOKEN, refreshToken),
+            clientId,
+            Collections.emptySet(),
+            AuthorizationGrantType.REFRESH_TOKEN.getValue()
+        );
+    }
+
+    private static final int CONCURRENT_THREADS = 8;
+    private static final int CONCURRENT_REFRESHES = 32;
+
     private static final String AUTHORIZE_URL = AuthorizationEndpoint.AUTHORIZATION_URL;
     private static final String AUTHORIZED_URL = AuthorizationEndpoint.AUTHORIZED_URL;
     private static final String TOKEN_URL = TokenEndpoint.TOKEN_URL;
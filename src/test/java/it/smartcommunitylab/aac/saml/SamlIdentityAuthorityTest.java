@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.saml;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import it.smartcommunitylab.aac.accounts.persistence.UserAccountService;
+import it.smartcommunitylab.aac.core.service.CachingProviderConfigRepository;
+import it.smartcommunitylab.aac.core.service.InMemoryProviderConfigRepository;
+import it.smartcommunitylab.aac.saml.model.SamlUserAccount;
+import it.smartcommunitylab.aac.saml.provider.SamlIdentityProviderConfig;
+import it.smartcommunitylab.aac.saml.service.SamlMetadataRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Upstream metadata are evicted when providers are updated or removed
+ */
+public class SamlIdentityAuthorityTest {
+
+    private static final String PROVIDER_ID = "saml1";
+    private static final String REALM = "test";
+    private static final String LOCATION = "https://idp.example.invalid/metadata";
+
+    private CachingProviderConfigRepository<SamlIdentityProviderConfig> repository;
+    private SamlMetadataRegistry metadataRegistry;
+    private SamlIdentityAuthority authority;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        repository = new CachingProviderConfigRepository<>(new InMemoryProviderConfigRepository<>(), "saml");
+        metadataRegistry = mock(SamlMetadataRegistry.class);
+
+        authority = new SamlIdentityAuthority(mock(UserAccountService.class), repository);
+        authority.setMetadataRegistry(metadataRegistry);
+    }
+
+    @Test
+    public void registerKeepsMetadata() {
+        repository.addRegistration(config(LOCATION));
+        authority.findProvider(PROVIDER_ID);
+
+        verify(metadataRegistry, never()).evict(anyString());
+    }
+
+    @Test
+    public void updateEvictsMetadata() {
+        repository.addRegistration(config(LOCATION));
+        authority.findProvider(PROVIDER_ID);
+
+        // previous location is evicted, even when unchanged
+        repository.addRegistration(config("https://idp.example.invalid/other"));
+        verify(metadataRegistry).evict(LOCATION);
+
+        authority.findProvider(PROVIDER_ID);
+        repository.addRegistration(config("https://idp.example.invalid/other"));
+        verify(metadataRegistry).evict("https://idp.example.invalid/other");
+    }
+
+    @Test
+    public void unregisterEvictsMetadata() {
+        repository.addRegistration(config(LOCATION));
+        authority.findProvider(PROVIDER_ID);
+
+        repository.removeRegistration(PROVIDER_ID);
+        verify(metadataRegistry).evict(LOCATION);
+    }
+
+    private SamlIdentityProviderConfig config(String location) {
+        SamlIdentityProviderConfig config = new SamlIdentityProviderConfig(PROVIDER_ID, REALM);
+        config.getConfigMap().setIdpMetadataUrl(location);
+        return config;
+    }
+}
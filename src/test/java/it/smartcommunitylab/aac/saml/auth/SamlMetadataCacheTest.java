@@ -0,0 +1,113 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.saml.auth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import it.smartcommunitylab.aac.saml.auth.SamlMetadataCache.SamlMetadataDocument;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
+
+/*
+ * Signed metadata are generated once per registration state, within the
+ * configured ttl and size
+ */
+public class SamlMetadataCacheTest {
+
+    private final AtomicInteger resolves = new AtomicInteger();
+
+    private SamlMetadataCache cache;
+    private RelyingPartyRegistration registration;
+
+    @BeforeEach
+    public void setUp() {
+        cache = new SamlMetadataCache(r -> "<md:EntityDescriptor id=\"" + resolves.incrementAndGet() + "\"/>");
+        registration =
+            RelyingPartyRegistration
+                .withRegistrationId("sp1")
+                .entityId("https://sp.example.invalid/metadata")
+                .assertionConsumerServiceLocation("https://sp.example.invalid/sso")
+                .assertingPartyDetails(p ->
+                    p
+                        .entityId("https://idp.example.invalid/metadata")
+                        .singleSignOnServiceLocation("https://idp.example.invalid/sso")
+                )
+                .build();
+    }
+
+    @Test
+    public void resolveIsCached() {
+        SamlMetadataDocument d1 = cache.resolve(registration, null);
+        SamlMetadataDocument d2 = cache.resolve(registration, null);
+
+        assertThat(d2).isSameAs(d1);
+        assertThat(resolves.get()).isEqualTo(1);
+
+        // a new version regenerates the document
+        SamlMetadataDocument d3 = cache.resolve(registration, "2");
+        assertThat(d3.getEtag()).isNotEqualTo(d1.getEtag());
+        assertThat(resolves.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void ttlIsApplied() {
+        cache.setCacheConfig(0, 100);
+
+        cache.resolve(registration, null);
+        cache.resolve(registration, null);
+        assertThat(resolves.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void sizeIsApplied() {
+        cache.setCacheConfig(3600, 1);
+
+        cache.resolve(registration, "1");
+        cache.resolve(registration, "2");
+        cache.resolve(registration, "1");
+        assertThat(resolves.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void configIsValidated() {
+        assertThatThrownBy(() -> cache.setCacheConfig(-1, 100)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> cache.setCacheConfig(3600, -1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void currentCopyIsNotModified() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        cache.write(new MockHttpServletRequest("GET", "/metadata/sp1"), response, registration, null);
+        assertThat(response.getStatus()).isEqualTo(200);
+        String etag = response.getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isNotNull();
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/metadata/sp1");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        response = new MockHttpServletResponse();
+        cache.write(request, response, registration, null);
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(resolves.get()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.saml.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
+
+/*
+ * Evicted locations are fetched again, with their disk copy and meters removed
+ */
+public class SamlMetadataRegistryTest {
+
+    private static final String IDP_CERTIFICATE =
+        "MIIDPzCCAiegAwIBAgIUfxQng0AcL1XU2Ry/B0CX4DdpXWcwDQYJKoZIhvcNAQELBQAwLzELMAkGA1UEBhMCSVQxDzANBgNVBAgMBlRyZW50bzEPMA0GA1UEBwwGVHJlbnRvMB4XDTIzMDkyODA5NDMyOVoXDTI0MDkyNzA5NDMyOVowLzELMAkGA1UEBhMCSVQxDzANBgNVBAgMBlRyZW50bzEPMA0GA1UEBwwGVHJlbnRvMIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEA4G9prMo3UhIJquYw1oFjz4gBGzO8HLS//sJuZ7SIRu2tytc8eG890Mo1EFdSojUKzcH4+R94u6LwfmQLJ1eJEYDlSHB9lI1bfhVISCRWF7G2I7bS4d9eHXwizuVU7/DQZhSUMaOorR3KTYVXcNxatX8eSyqF9LDd86K5lkKRQ9c7Mm70KJR2skpL8enUHxc15v1jSyexagM3Job/p1XkYPRtD1vZuYVjHncp6B9H7S/UBvdqnQoJr9tzNtDpXo8xsZjQXkcuetvV+mc/LZczp9PlflMzaZafOpNWMxuxFad2Jx0GIXSAbUCNhuviJ3IXPa5dhCl4AMX9DGNaX8rASQIDAQABo1MwUTAdBgNVHQ4EFgQUEc0a+j1nZ5knjxetB2dx1qPMEnswHwYDVR0jBBgwFoAUEc0a+j1nZ5knjxetB2dx1qPMEnswDwYDVR0TAQH/BAUwAwEB/zANBgkqhkiG9w0BAQsFAAOCAQEAANg2NmJPah7GWKXt769inNxApXeDrEUHF8L1jLPzMC35LTtw0FV902Kyohw7sNRHqiHO9yAgyyMxr3DaHLIS6FG0o1K43yZBwrUhNnZHZ93ynmNCxLswj3yswT5a5dxHkhRJrmxuPVtUPmjr5UtHSIXjUWSTC13iXfZgp9efZHB41eKi+0y0yr9ltzJPbPfZ0H36tsFYcYWcBuKW5rSQL9xahRI6aHniTRORxLPCKUxNjzDW7nEgwzoAPl+oMmp1YXHi4Y78cEguRlhZXAOsy7W66O1v0Afzn4F/U5t3E3+QRw82rRe44/z7gNsE0lu9d6Q+Wt98A4Yc3EWvyK5qlg==";
+
+    private static final String METADATA_TEMPLATE =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+        "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" entityID=\"%s\">\n" +
+        "<md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">\n" +
+        "<md:KeyDescriptor use=\"signing\">\n" +
+        "<ds:KeyInfo xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\">\n" +
+        "<ds:X509Data><ds:X509Certificate>%s</ds:X509Certificate></ds:X509Data>\n" +
+        "</ds:KeyInfo>\n" +
+        "</md:KeyDescriptor>\n" +
+        "<md:SingleSignOnService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\" " +
+        "Location=\"https://idp.example.invalid/sso\"/>\n" +
+        "</md:IDPSSODescriptor>\n" +
+        "</md:EntityDescriptor>";
+
+    @TempDir
+    Path temp;
+
+    private Path file;
+    private Path cache;
+    private String location;
+
+    private SimpleMeterRegistry meterRegistry;
+    private SamlMetadataRegistry registry;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = temp.resolve("idp.xml");
+        cache = Files.createDirectory(temp.resolve("cache"));
+        location = file.toUri().toString();
+        writeMetadata("https://idp.example.invalid/1");
+
+        meterRegistry = new SimpleMeterRegistry();
+        registry = new SamlMetadataRegistry(1);
+        registry.setDirectory(cache.toString());
+        registry.bindTo(meterRegistry);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        registry.destroy();
+    }
+
+    @Test
+    public void evictFetchesAgain() throws IOException {
+        assertThat(entityId()).isEqualTo("https://idp.example.invalid/1");
+
+        // served from memory until evicted
+        writeMetadata("https://idp.example.invalid/2");
+        assertThat(entityId()).isEqualTo("https://idp.example.invalid/1");
+
+        registry.evict(location);
+        assertThat(entityId()).isEqualTo("https://idp.example.invalid/2");
+    }
+
+    @Test
+    public void evictRemovesDiskCopy() throws IOException {
+        assertThat(entityId()).isNotNull();
+        assertThat(countFiles()).isEqualTo(1);
+
+        registry.evict(location);
+        assertThat(countFiles()).isZero();
+
+        // a new registry has nothing to serve offline
+        Files.delete(file);
+        SamlMetadataRegistry other = new SamlMetadataRegistry(1);
+        try {
+            other.setDirectory(cache.toString());
+            assertThat(other.getAssertingParty(location)).isNull();
+        } finally {
+            other.destroy();
+        }
+    }
+
+    @Test
+    public void evictRemovesMeters() {
+        assertThat(entityId()).isNotNull();
+        assertThat(meterRegistry.find("saml.metadata.age").tag("location", location).gauge()).isNotNull();
+        assertThat(meterRegistry.find("saml.metadata.validity").tag("location", location).gauge()).isNotNull();
+        assertThat(meterRegistry.find("saml.metadata.fetch").tag("location", location).timer()).isNotNull();
+
+        registry.evict(location);
+        assertThat(meterRegistry.find("saml.metadata.age").tag("location", location).meters()).isEmpty();
+        assertThat(meterRegistry.find("saml.metadata.validity").tag("location", location).meters()).isEmpty();
+        assertThat(meterRegistry.find("saml.metadata.fetch").tag("location", location).meters()).isEmpty();
+
+        // registered again on next fetch
+        assertThat(entityId()).isNotNull();
+        assertThat(meterRegistry.find("saml.metadata.age").tag("location", location).gauge()).isNotNull();
+    }
+
+    private String entityId() {
+        RelyingPartyRegistration registration = registry.getAssertingParty(location);
+        return registration != null ? registration.getAssertingPartyDetails().getEntityId() : null;
+    }
+
+    private void writeMetadata(String entityId) throws IOException {
+        String xml = String.format(METADATA_TEMPLATE, entityId, IDP_CERTIFICATE);
+        Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(cache)) {
+            return files.filter(f -> f.toString().endsWith(".xml")).count();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.scope;
+
+import it.smartcommunitylab.aac.common.NoSuchScopeException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Scope lookup cost with many registered providers, indexed registry VS the
+ * linear scan over providers and scopes
+ *
+ * run with
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=it.smartcommunitylab.aac.scope.ScopeRegistryBenchmark
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScopeRegistryBenchmark {
+
+    @Param({ "1000" })
+    private int providers;
+
+    @Param({ "10" })
+    private int scopes;
+
+    private InMemoryScopeRegistry registry;
+    private String[] lookups;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<ScopeProvider> list = new ArrayList<>();
+        for (int i = 0; i < providers; i++) {
+            list.add(new TestScopeProvider("service" + i, scopes));
+        }
+
+        registry = new InMemoryScopeRegistry(list);
+
+        // random existing scopes
+        Random random = new Random(42);
+        lookups = new String[1024];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = "service" + random.nextInt(providers) + ".scope" + random.nextInt(scopes);
+        }
+    }
+
+    private String nextScope() {
+        next = (next + 1) & (lookups.length - 1);
+        return lookups[next];
+    }
+
+    @Benchmark
+    public Scope findScope() {
+        return registry.findScope(nextScope());
+    }
+
+    @Benchmark
+    public ScopeProvider getScopeProviderFromScope() throws NoSuchScopeException {
+        return registry.getScopeProviderFromScope(nextScope());
+    }
+
+    @Benchmark
+    public ScopeProvider linearScan() {
+        // lookup as performed before indexing
+        String scope = nextScope();
+        return registry
+            .listScopeProviders()
+            .stream()
+            .filter(sp -> sp.getScopes().stream().anyMatch(s -> s.getScope().equals(scope)))
+            .findFirst()
+            .orElse(null);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ScopeRegistryBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    private static class TestScopeProvider implements ScopeProvider {
+
+        private final Resource resource;
+        private final List<Scope> scopes;
+
+        public TestScopeProvider(String resourceId, int count) {
+            this.resource = new Resource(resourceId);
+            this.scopes = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Scope s = new Scope(resourceId + ".scope" + i);
+                s.setResourceId(resourceId);
+                scopes.add(s);
+            }
+        }
+
+        @Override
+        public String getResourceId() {
+            return resource.getResourceId();
+        }
+
+        @Override
+        public Resource getResource() {
+            return resource;
+        }
+
+        @Override
+        public Collection<Scope> getScopes() {
+            // providers return copies
+            return new ArrayList<>(scopes);
+        }
+
+        @Override
+        public ScopeApprover getApprover(String scope) {
+            return null;
+        }
+    }
+}
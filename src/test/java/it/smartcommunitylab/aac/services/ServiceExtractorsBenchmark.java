@@ -0,0 +1,186 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.services;
+
+import static org.mockito.Mockito.mock;
+
+import it.smartcommunitylab.aac.claims.ExtractorsRegistry;
+import it.smartcommunitylab.aac.claims.InMemoryExtractorsRegistry;
+import it.smartcommunitylab.aac.claims.ResourceClaimsExtractor;
+import it.smartcommunitylab.aac.common.NoSuchServiceException;
+import it.smartcommunitylab.aac.core.service.SubjectService;
+import it.smartcommunitylab.aac.services.persistence.ServiceClaimRepository;
+import it.smartcommunitylab.aac.services.persistence.ServiceEntityRepository;
+import it.smartcommunitylab.aac.services.persistence.ServiceScopeRepository;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Extractors resolution for a token issuance with many registered services,
+ * indexed registry VS the previous lookup which listed namespaces and rebuilt
+ * the extractor from the service definition for every resource
+ *
+ * services are kept in memory: the legacy path still pays for materializing
+ * definitions, while on a real deployment every call is a db query
+ *
+ * run with
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=it.smartcommunitylab.aac.services.ServiceExtractorsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceExtractorsBenchmark {
+
+    @Param({ "500" })
+    private int services;
+
+    // resources requested by a single token
+    @Param({ "5" })
+    private int audience;
+
+    private InMemoryServicesService servicesService;
+    private ExtractorsRegistry registry;
+    private String[][] tokens;
+    private int next;
+
+    @Setup
+    public void setup() {
+        servicesService = new InMemoryServicesService();
+        for (int i = 0; i < services; i++) {
+            servicesService.add("service" + i);
+        }
+
+        ServiceResourceClaimsExtractorProvider provider = new ServiceResourceClaimsExtractorProvider(servicesService);
+        provider.load();
+
+        registry = new InMemoryExtractorsRegistry(Collections.emptyList(), Collections.emptyList());
+        registry.registerExtractorProvider(provider);
+
+        // random audiences
+        Random random = new Random(42);
+        tokens = new String[1024][audience];
+        for (int i = 0; i < tokens.length; i++) {
+            for (int j = 0; j < audience; j++) {
+                tokens[i][j] = "service" + random.nextInt(services);
+            }
+        }
+    }
+
+    private String[] nextToken() {
+        next = (next + 1) & (tokens.length - 1);
+        return tokens[next];
+    }
+
+    @Benchmark
+    public Set<ResourceClaimsExtractor> indexed() {
+        Set<ResourceClaimsExtractor> extractors = new HashSet<>();
+        for (String resourceId : nextToken()) {
+            extractors.addAll(registry.getResourceExtractors(resourceId));
+        }
+
+        return extractors;
+    }
+
+    @Benchmark
+    public Set<ResourceClaimsExtractor> legacy() throws NoSuchServiceException {
+        // lookup as performed before indexing
+        Set<ResourceClaimsExtractor> extractors = new HashSet<>();
+        for (String resourceId : nextToken()) {
+            if (servicesService.listNamespaces().contains(resourceId)) {
+                Service service = servicesService.getServiceByNamespace(resourceId);
+                ScriptServiceClaimExtractor e = new ScriptServiceClaimExtractor(service);
+                extractors.add(e);
+            }
+        }
+
+        return extractors;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ServiceExtractorsBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    private static class InMemoryServicesService extends ServicesService {
+
+        private final Map<String, Map<String, String>> mappings = new LinkedHashMap<>();
+
+        public InMemoryServicesService() {
+            super(
+                mock(ServiceEntityRepository.class),
+                mock(ServiceScopeRepository.class),
+                mock(ServiceClaimRepository.class),
+                mock(SubjectService.class)
+            );
+        }
+
+        public void add(String namespace) {
+            Map<String, String> mapping = new LinkedHashMap<>();
+            mapping.put("user", "function claimMapping(claims) { return claims; }");
+            mappings.put(namespace, mapping);
+        }
+
+        @Override
+        public List<String> listNamespaces() {
+            return new ArrayList<>(mappings.keySet());
+        }
+
+        @Override
+        public Service getServiceByNamespace(String namespace) throws NoSuchServiceException {
+            Map<String, String> mapping = mappings.get(namespace);
+            if (mapping == null) {
+                throw new NoSuchServiceException();
+            }
+
+            // build a fresh model as the db would
+            Service service = new Service();
+            service.setServiceId(namespace);
+            service.setRealm("benchmark");
+            service.setNamespace(namespace);
+            service.setName(namespace);
+            service.setClaimMapping(new LinkedHashMap<>(mapping));
+            service.setScopes(Collections.emptyList());
+            service.setClaims(Collections.emptyList());
+
+            return service;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import it.smartcommunitylab.aac.claims.InMemoryExtractorsRegistry;
+import it.smartcommunitylab.aac.common.NoSuchServiceException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Extractors index must follow changes made outside this node
+ */
+public class ServiceResourceClaimsExtractorProviderTest {
+
+    // services as seen in the shared db
+    private final Map<String, Service> services = new ConcurrentHashMap<>();
+
+    private ServiceResourceClaimsExtractorProvider provider;
+
+    @BeforeEach
+    public void setUp() throws NoSuchServiceException {
+        ServicesService servicesService = mock(ServicesService.class);
+        when(servicesService.listNamespaces()).thenAnswer(i -> new ArrayList<>(services.keySet()));
+        when(servicesService.getServiceByNamespace(anyString()))
+            .thenAnswer(i -> {
+                Service service = services.get(i.getArgument(0, String.class));
+                if (service == null) {
+                    throw new NoSuchServiceException();
+                }
+
+                return service;
+            });
+
+        provider = new ServiceResourceClaimsExtractorProvider(servicesService);
+        addService("service1");
+        addService("service2");
+        provider.load();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        provider.destroy();
+    }
+
+    @Test
+    public void loadDropsRemovedServices() {
+        assertThat(provider.getResourceIds()).containsExactlyInAnyOrder("service1", "service2");
+
+        // changed on another node
+        services.remove("service2");
+        addService("service3");
+        provider.load();
+
+        assertThat(provider.getResourceIds()).containsExactlyInAnyOrder("service1", "service3");
+        assertThat(provider.getExtractor("service2")).isNull();
+        assertThat(provider.getExtractor("service3")).isNotNull();
+    }
+
+    @Test
+    public void reloadsAtInterval() throws InterruptedException {
+        provider.setReloadInterval(1);
+        addService("service3");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!provider.getResourceIds().contains("service3") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+
+        assertThat(provider.getResourceIds()).contains("service3");
+    }
+
+    @Test
+    public void registryIndexExpires() throws InterruptedException {
+        InMemoryExtractorsRegistry registry = new InMemoryExtractorsRegistry(
+            Collections.emptyList(),
+            Collections.singletonList(provider),
+            1
+        );
+        assertThat(registry.getResourceExtractors("service1")).hasSize(1);
+
+        // provider reloaded, registry not notified
+        services.remove("service1");
+        provider.load();
+        assertThat(registry.getResourceExtractors("service1")).hasSize(1);
+
+        Thread.sleep(1500);
+        assertThat(registry.getResourceExtractors("service1")).isEmpty();
+    }
+
+    private void addService(String namespace) {
+        Service service = new Service();
+        service.setServiceId(namespace);
+        service.setRealm("test");
+        service.setNamespace(namespace);
+        service.setName(namespace);
+        service.setClaimMapping(Collections.singletonMap("user", "function claimMapping(claims) { return claims; }"));
+        service.setScopes(Collections.emptyList());
+        service.setClaims(Collections.emptyList());
+        services.put(namespace, service);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.templates.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import it.smartcommunitylab.aac.templates.TemplateProviderAuthority;
+import it.smartcommunitylab.aac.templates.TemplatesManager;
+import it.smartcommunitylab.aac.templates.model.Template;
+import it.smartcommunitylab.aac.templates.model.TemplateModel;
+import it.smartcommunitylab.aac.templates.persistence.TemplateEntity;
+import it.smartcommunitylab.aac.templates.provider.TemplateProvider;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/*
+ * Rendered templates are served from cache and evicted on updates
+ */
+public class TemplateServiceTest {
+
+    private static final String ID = "tpl1";
+    private static final String AUTHORITY = "tos";
+    private static final String REALM = "test";
+    private static final String TEMPLATE = "tos";
+    private static final String LANGUAGE = "en";
+
+    private TemplateEntityService entityService;
+    private TemplateService templateService;
+    private TemplatesManager templatesManager;
+
+    private TemplateEntity entity;
+
+    @BeforeEach
+    @SuppressWarnings("rawtypes")
+    public void setUp() throws Exception {
+        entityService = mock(TemplateEntityService.class);
+        templateService = new TemplateService(entityService);
+        templateService.setCacheConfig(60, 100);
+
+        entity = newEntity(Collections.singletonMap("text", "<p>hello</p>"));
+        when(entityService.getTemplate(ID)).thenAnswer(i -> entity);
+        when(entityService.findTemplateBy(AUTHORITY, REALM, TEMPLATE, LANGUAGE)).thenAnswer(i -> entity);
+        when(entityService.updateTemplate(eq(ID), eq(LANGUAGE), anyMap()))
+            .thenAnswer(i -> {
+                entity = newEntity(i.getArgument(2));
+                return entity;
+            });
+
+        // single template with a single key
+        Template t = mock(Template.class);
+        when(t.keys()).thenReturn(List.of("text"));
+        TemplateProvider provider = mock(TemplateProvider.class);
+        doReturn(t).when(provider).getTemplate(TEMPLATE);
+        TemplateProviderAuthority authority = mock(TemplateProviderAuthority.class);
+        doReturn(provider).when(authority).getProviderByRealm(REALM);
+        TemplateProviderAuthorityService authorityService = mock(TemplateProviderAuthorityService.class);
+        doReturn(authority).when(authorityService).getAuthority(AUTHORITY);
+
+        templatesManager = new TemplatesManager(mock(TemplateProviderService.class));
+        ReflectionTestUtils.setField(templatesManager, "templateService", templateService);
+        ReflectionTestUtils.setField(templatesManager, "authorityService", authorityService);
+    }
+
+    @Test
+    public void renderIsCached() {
+        TemplateModel m = templateService.findTemplate(AUTHORITY, REALM, TEMPLATE, LANGUAGE);
+        assertThat(m.getContent()).containsEntry("text", "<p>hello</p>");
+
+        // callers get a copy, changes are not cached
+        m.getContent().put("text", "changed");
+        assertThat(templateService.findTemplate(AUTHORITY, REALM, TEMPLATE, LANGUAGE).getContent())
+            .containsEntry("text", "<p>hello</p>");
+        verify(entityService, times(1)).findTemplateBy(AUTHORITY, REALM, TEMPLATE, LANGUAGE);
+
+        // missing templates are cached as well
+        assertThat(templateService.findTemplate(AUTHORITY, REALM, TEMPLATE, "it")).isNull();
+        assertThat(templateService.findTemplate(AUTHORITY, REALM, TEMPLATE, "it")).isNull();
+        verify(entityService, times(1)).findTemplateBy(AUTHORITY, REALM, TEMPLATE, "it");
+    }
+
+    @Test
+    public void updateEvictsRender() throws Exception {
+        templateService.findTemplate(AUTHORITY, REALM, TEMPLATE, LANGUAGE);
+
+        TemplateModel reg = new TemplateModel(AUTHORITY, REALM, null, TEMPLATE);
+        reg.setLanguage(LANGUAGE);
+        reg.setContent(Map.of("text", "<p>updated</p><script>alert(1)</script>", "unknown", "dropped"));
+        templatesManager.updateTemplateModel(REALM, ID, reg);
+
+        // stored content is sanitized on write and rendered as is
+        TemplateModel m = templateService.findTemplate(AUTHORITY, REALM, TEMPLATE, LANGUAGE);
+        assertThat(m.getContent()).containsOnlyKeys("text");
+        assertThat(m.getContent().get("text")).isEqualTo("<p>updated</p>");
+        verify(entityService, times(2)).findTemplateBy(AUTHORITY, REALM, TEMPLATE, LANGUAGE);
+    }
+
+    @Test
+    public void deleteEvictsRender() throws Exception {
+        templateService.findTemplate(AUTHORITY, REALM, TEMPLATE, LANGUAGE);
+
+        templatesManager.deleteTemplateModel(REALM, ID);
+        verify(entityService).deleteTemplate(ID);
+
+        when(entityService.findTemplateBy(anyString(), anyString(), anyString(), anyString())).thenReturn(null);
+        assertThat(templateService.findTemplate(AUTHORITY, REALM, TEMPLATE, LANGUAGE)).isNull();
+    }
+
+    @Test
+    public void otherRealmsAreKept() throws Exception {
+        when(entityService.findTemplateBy(AUTHORITY, "other", TEMPLATE, LANGUAGE)).thenReturn(null);
+        templateService.findTemplate(AUTHORITY, "other", TEMPLATE, LANGUAGE);
+
+        TemplateModel reg = new TemplateModel(AUTHORITY, REALM, null, TEMPLATE);
+        reg.setLanguage(LANGUAGE);
+        reg.setContent(Map.of("text", "<p>updated</p>"));
+        templatesManager.updateTemplateModel(REALM, ID, reg);
+
+        templateService.findTemplate(AUTHORITY, "other", TEMPLATE, LANGUAGE);
+        verify(entityService, times(1)).findTemplateBy(any(), eq("other"), any(), any());
+    }
+
+    private TemplateEntity newEntity(Map<String, String> content) {
+        TemplateEntity e = new TemplateEntity(ID, AUTHORITY, REALM);
+        e.setTemplate(TEMPLATE);
+        e.setLanguage(LANGUAGE);
+        e.setContent(content);
+        return e;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.users.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.smartcommunitylab.aac.core.model.Resource;
+import it.smartcommunitylab.aac.core.provider.ResourceProvider;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+public class ProviderFanOutExecutorTest {
+
+    private ProviderFanOutExecutor executor;
+    private SimpleMeterRegistry registry;
+
+    private final List<TestProvider> providers = Arrays.asList(
+        new TestProvider("p1"),
+        new TestProvider("p2"),
+        new TestProvider("p3")
+    );
+
+    @BeforeEach
+    public void setUp() {
+        executor = new ProviderFanOutExecutor(4, 10);
+        registry = new SimpleMeterRegistry();
+        executor.bindTo(registry);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdown();
+        SecurityContextHolder.clearContext();
+        RequestContextHolder.resetRequestAttributes();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void resultsFollowProviderOrder() {
+        List<String> result = executor.fanOut("test", providers, p -> Collections.singleton(p.getId()));
+        assertThat(result).containsExactly("p1", "p2", "p3");
+    }
+
+    @Test
+    public void failsByDefault() {
+        assertThatThrownBy(() ->
+                executor.fanOut(
+                    "test",
+                    providers,
+                    p -> {
+                        if ("p2".equals(p.getId())) {
+                            throw new IllegalStateException("provider down");
+                        }
+
+                        return Collections.singleton(p.getId());
+                    }
+                )
+            )
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("provider down");
+    }
+
+    @Test
+    public void partialSkipsAndCountsDroppedProviders() {
+        executor.setPolicy(ProviderFanOutExecutor.Policy.PARTIAL);
+        List<String> result = executor.fanOut(
+            "test",
+            providers,
+            p -> {
+                if ("p2".equals(p.getId())) {
+                    throw new IllegalStateException("provider down");
+                }
+
+                return Collections.singleton(p.getId());
+            }
+        );
+
+        assertThat(result).containsExactly("p1", "p3");
+        assertThat(registry.get("users.providers.dropped").tag("type", "test").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void runsOnCallerInsideTransaction() {
+        TransactionSynchronizationManager.initSynchronization();
+        Thread caller = Thread.currentThread();
+
+        List<Boolean> result = executor.fanOut(
+            "test",
+            providers,
+            p -> Collections.singleton(Thread.currentThread() == caller)
+        );
+
+        assertThat(result).containsExactly(true, true, true);
+    }
+
+    @Test
+    public void workersSeeCallerContext() {
+        Authentication auth = new TestingAuthenticationToken("user", "secret");
+        SecurityContextHolder.getContext().setAuthentication(auth);
+        RequestAttributes attributes = new ServletRequestAttributes(new MockHttpServletRequest());
+        RequestContextHolder.setRequestAttributes(attributes);
+
+        List<Object> result = executor.fanOut(
+            "test",
+            providers,
+            p ->
+                Arrays.asList(
+                    SecurityContextHolder.getContext().getAuthentication(),
+                    RequestContextHolder.getRequestAttributes()
+                )
+        );
+
+        assertThat(result).containsExactly(auth, attributes, auth, attributes, auth, attributes);
+    }
+
+    private static class TestProvider implements ResourceProvider<Resource> {
+
+        private final String id;
+
+        public TestProvider(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getAuthority() {
+            return "test";
+        }
+
+        @Override
+        public String getRealm() {
+            return "test";
+        }
+    }
+}
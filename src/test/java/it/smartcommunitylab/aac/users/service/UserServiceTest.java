@@ -0,0 +1,245 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.users.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.smartcommunitylab.aac.attributes.service.AttributeProviderAuthorityService;
+import it.smartcommunitylab.aac.core.UserDetails;
+import it.smartcommunitylab.aac.core.service.SubjectService;
+import it.smartcommunitylab.aac.groups.service.GroupService;
+import it.smartcommunitylab.aac.identity.service.IdentityProviderAuthorityService;
+import it.smartcommunitylab.aac.model.Group;
+import it.smartcommunitylab.aac.model.RealmRole;
+import it.smartcommunitylab.aac.model.User;
+import it.smartcommunitylab.aac.roles.service.SpaceRoleService;
+import it.smartcommunitylab.aac.roles.service.SubjectRoleService;
+import it.smartcommunitylab.aac.users.persistence.UserEntity;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/*
+ * Users are loaded once per snapshot, which is cleared on close, and listed
+ * in batch with only the requested relations
+ */
+public class UserServiceTest {
+
+    private static final String SUBJECT = "user1";
+    private static final String REALM = "test";
+
+    private UserEntityService entityService;
+    private SubjectService subjectService;
+    private SubjectRoleService roleService;
+    private GroupService groupService;
+    private SpaceRoleService spaceRoleService;
+    private IdentityProviderAuthorityService identityProviderAuthorityService;
+    private AttributeProviderAuthorityService attributeProviderAuthorityService;
+    private UserService userService;
+    private SimpleMeterRegistry registry;
+
+    private UserDetails details;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        entityService = mock(UserEntityService.class);
+        when(entityService.getUser(SUBJECT)).thenReturn(new UserEntity(SUBJECT, REALM));
+        registry = new SimpleMeterRegistry();
+
+        subjectService = mock(SubjectService.class);
+        roleService = mock(SubjectRoleService.class);
+        groupService = mock(GroupService.class);
+        spaceRoleService = mock(SpaceRoleService.class);
+        identityProviderAuthorityService = mock(IdentityProviderAuthorityService.class);
+        attributeProviderAuthorityService = mock(AttributeProviderAuthorityService.class);
+
+        userService = new UserService();
+        ReflectionTestUtils.setField(userService, "userService", entityService);
+        ReflectionTestUtils.setField(userService, "subjectService", subjectService);
+        ReflectionTestUtils.setField(userService, "roleService", roleService);
+        ReflectionTestUtils.setField(userService, "groupService", groupService);
+        ReflectionTestUtils.setField(userService, "spaceRoleService", spaceRoleService);
+        ReflectionTestUtils.setField(userService, "identityProviderAuthorityService", identityProviderAuthorityService);
+        ReflectionTestUtils.setField(
+            userService,
+            "attributeProviderAuthorityService",
+            attributeProviderAuthorityService
+        );
+        ReflectionTestUtils.setField(userService, "meterRegistry", registry);
+
+        details = mock(UserDetails.class);
+        when(details.getSubjectId()).thenReturn(SUBJECT);
+        when(details.getRealm()).thenReturn(REALM);
+        when(details.getUsername()).thenReturn("user");
+    }
+
+    @Test
+    public void snapshotLoadsOnce() throws Exception {
+        try (UserSnapshot snapshot = userService.openSnapshot()) {
+            User u1 = userService.getUser(details, REALM);
+            User u2 = userService.getUser(details, REALM);
+            User u3 = userService.getUser(details, REALM);
+
+            // consumers get independent copies
+            assertThat(u1).isNotSameAs(u2);
+            u1.setUsername("changed");
+            assertThat(u2.getUsername()).isEqualTo("user");
+            assertThat(u3.getUsername()).isEqualTo("user");
+        }
+
+        verify(entityService, times(1)).getUser(SUBJECT);
+        assertThat(registry.get("users.snapshot.misses").summary().totalAmount()).isEqualTo(1);
+        assertThat(registry.get("users.snapshot.hits").summary().totalAmount()).isEqualTo(2);
+    }
+
+    @Test
+    public void noSnapshotLoadsEveryTime() throws Exception {
+        userService.getUser(details, REALM);
+        userService.getUser(details, REALM);
+
+        verify(entityService, times(2)).getUser(SUBJECT);
+    }
+
+    @Test
+    public void closeClearsSnapshot() throws Exception {
+        try (UserSnapshot snapshot = userService.openSnapshot()) {
+            userService.getUser(details, REALM);
+        }
+
+        // next lookup goes to the repository again
+        userService.getUser(details, REALM);
+        verify(entityService, times(2)).getUser(SUBJECT);
+
+        try (UserSnapshot snapshot = userService.openSnapshot()) {
+            assertThat(snapshot.isOwner()).isTrue();
+        }
+    }
+
+    @Test
+    public void exceptionClearsSnapshot() throws Exception {
+        assertThatThrownBy(() -> {
+                try (UserSnapshot snapshot = userService.openSnapshot()) {
+                    userService.getUser(details, REALM);
+                    throw new IllegalStateException("claims failed");
+                }
+            })
+            .isInstanceOf(IllegalStateException.class);
+
+        userService.getUser(details, REALM);
+        verify(entityService, times(2)).getUser(SUBJECT);
+
+        try (UserSnapshot snapshot = userService.openSnapshot()) {
+            assertThat(snapshot.isOwner()).isTrue();
+        }
+    }
+
+    @Test
+    public void nestedSnapshotKeepsOuter() throws Exception {
+        try (UserSnapshot outer = userService.openSnapshot()) {
+            try (UserSnapshot inner = userService.openSnapshot()) {
+                assertThat(inner.isOwner()).isFalse();
+                userService.getUser(details, REALM);
+            }
+
+            // inner close leaves the outer snapshot bound
+            userService.getUser(details, REALM);
+            assertThat(outer.getHits()).isEqualTo(1);
+        }
+
+        verify(entityService, times(1)).getUser(SUBJECT);
+    }
+
+    @Test
+    public void defaultExpandLoadsBatch() {
+        List<String> ids = Arrays.asList("user2", "missing", "user1", "user3");
+        when(entityService.findUsers(ids))
+            .thenReturn(
+                Arrays.asList(
+                    new UserEntity("user1", REALM),
+                    new UserEntity("user2", REALM),
+                    new UserEntity("user3", REALM)
+                )
+            );
+
+        Group group = new Group();
+        group.setGroupId("group1");
+        Map<String, Collection<Group>> groups = Collections.singletonMap("user1", Collections.singletonList(group));
+        when(groupService.getSubjectsGroups(any(), anyString())).thenReturn(groups);
+        Map<String, List<GrantedAuthority>> authorities = Collections.singletonMap(
+            "user2",
+            Collections.singletonList(new SimpleGrantedAuthority("ROLE_DEVELOPER"))
+        );
+        when(subjectService.getSubjectsAuthorities(any())).thenReturn(authorities);
+        Map<String, Collection<RealmRole>> roles = Collections.singletonMap(
+            "group1",
+            Collections.singletonList(new RealmRole(REALM, "manager"))
+        );
+        when(roleService.getSubjectsRoles(any(), anyString())).thenReturn(roles);
+
+        List<User> users = userService.getUsers(ids, REALM, UserRelation.parse(null));
+
+        // requested order, unknown ids skipped
+        assertThat(users).extracting(User::getSubjectId).containsExactly("user2", "user1", "user3");
+        assertThat(users.get(0).getAuthorities()).extracting(GrantedAuthority::getAuthority).contains("ROLE_DEVELOPER");
+        assertThat(users.get(1).getGroups()).containsExactly(group);
+        assertThat(users.get(1).getRealmRoles()).extracting(RealmRole::getRole).containsExactly("manager");
+        assertThat(users.get(2).getRealmRoles()).isEmpty();
+
+        // one query per relation for the whole batch
+        verify(groupService, times(1)).getSubjectsGroups(any(), anyString());
+        verify(subjectService, times(1)).getSubjectsAuthorities(any());
+        verify(roleService, times(1)).getSubjectsRoles(any(), anyString());
+        verify(spaceRoleService, times(1)).getSubjectsRoles(any());
+        verify(entityService, never()).getUser(anyString());
+
+        // no provider calls per user
+        verifyNoInteractions(identityProviderAuthorityService);
+        verifyNoInteractions(attributeProviderAuthorityService);
+    }
+
+    @Test
+    public void expandSelectsRelations() {
+        List<String> ids = Arrays.asList("user1", "user2");
+        when(entityService.findUsers(ids))
+            .thenReturn(Arrays.asList(new UserEntity("user1", REALM), new UserEntity("user2", REALM)));
+
+        // unknown values are ignored
+        List<User> users = userService.getUsers(ids, REALM, UserRelation.parse(Arrays.asList("identities", "unknown")));
+        assertThat(users).hasSize(2);
+
+        // identities are resolved per user, core relations are skipped
+        verify(identityProviderAuthorityService, times(2)).getAuthorities();
+        verifyNoInteractions(groupService, subjectService, roleService, spaceRoleService);
+    }
+}
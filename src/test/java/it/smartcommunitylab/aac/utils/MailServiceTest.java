@@ -0,0 +1,317 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import it.smartcommunitylab.aac.config.ApplicationProperties;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/*
+ * Queued messages are delivered in batches, retried with backoff and failed
+ * after max attempts
+ */
+public class MailServiceTest {
+
+    private static final int BATCH = 5;
+    private static final int MAX_ATTEMPTS = 2;
+    private static final long BACKOFF = 200;
+
+    private EmbeddedDatabase dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private GreenMail greenMail;
+    private SmtpProxy proxy;
+
+    private MailQueueStore queueStore;
+    private MailService mailService;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dataSource =
+            new EmbeddedDatabaseBuilder()
+                .generateUniqueName(true)
+                .setType(EmbeddedDatabaseType.H2)
+                .addScript("classpath:db/sql/schema-h2.sql")
+                .build();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        queueStore = new MailQueueStore(dataSource);
+
+        int smtpPort = freePort();
+        greenMail = new GreenMail(new ServerSetup(smtpPort, "127.0.0.1", ServerSetup.PROTOCOL_SMTP));
+        greenMail.start();
+
+        // counts connections and simulates relay outages
+        proxy = new SmtpProxy(smtpPort);
+
+        ApplicationProperties appProps = new ApplicationProperties();
+        appProps.setName("AAC");
+        appProps.setEmail("info@example.com");
+
+        mailService = new MailService();
+        ReflectionTestUtils.setField(mailService, "mailUser", "");
+        ReflectionTestUtils.setField(mailService, "mailPwd", "");
+        ReflectionTestUtils.setField(mailService, "mailHost", "127.0.0.1");
+        ReflectionTestUtils.setField(mailService, "mailPort", proxy.getPort());
+        ReflectionTestUtils.setField(mailService, "mailProtocol", "smtp");
+        ReflectionTestUtils.setField(mailService, "mailFrom", "aac@example.com");
+        ReflectionTestUtils.setField(mailService, "queueWorkers", 1);
+        ReflectionTestUtils.setField(mailService, "queueBatch", BATCH);
+        ReflectionTestUtils.setField(mailService, "queueInterval", 1000L);
+        ReflectionTestUtils.setField(mailService, "queueMaxAttempts", MAX_ATTEMPTS);
+        ReflectionTestUtils.setField(mailService, "queueBackoff", BACKOFF);
+        ReflectionTestUtils.setField(mailService, "appProps", appProps);
+        ReflectionTestUtils.setField(mailService, "dataSource", dataSource);
+
+        // no workers are started, tests drain the queue via dispatch
+        mailService.init();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        mailService.destroy();
+        proxy.close();
+        greenMail.stop();
+        dataSource.shutdown();
+    }
+
+    @Test
+    public void deliversInBatchesOverSingleConnection() throws Exception {
+        for (int i = 0; i < BATCH + 2; i++) {
+            queueStore.enqueue("user" + i + "@example.com", "subject " + i, "<p>content " + i + "</p>");
+        }
+
+        assertThat(mailService.dispatch()).isEqualTo(BATCH + 2);
+        assertThat(greenMail.waitForIncomingEmail(5000, BATCH + 2)).isTrue();
+
+        // one connection per batch
+        assertThat(proxy.getConnections()).isEqualTo(2);
+
+        MimeMessage[] messages = greenMail.getReceivedMessages();
+        assertThat(messages).hasSize(BATCH + 2);
+        assertThat(messages[0].getSubject()).startsWith("subject ");
+        assertThat(messages[0].getFrom()[0].toString()).contains("aac@example.com");
+
+        // delivered rows are removed
+        assertThat(countRows()).isZero();
+    }
+
+    @Test
+    public void retriesWithBackoff() throws Exception {
+        String id = queueStore.enqueue("user@example.com", "subject", "<p>content</p>");
+
+        proxy.setDown(true);
+        long before = System.currentTimeMillis();
+        assertThat(mailService.dispatch()).isZero();
+
+        Map<String, Object> row = findRow(id);
+        assertThat(row.get("status")).isEqualTo(MailQueueStore.STATUS_QUEUED);
+        assertThat(row.get("attempts")).isEqualTo(1);
+        assertThat(row.get("last_error")).isNotNull();
+        assertThat(((Timestamp) row.get("next_attempt")).getTime()).isGreaterThanOrEqualTo(before + BACKOFF);
+
+        // not due yet, nothing is attempted
+        proxy.setDown(false);
+        int connections = proxy.getConnections();
+        assertThat(mailService.dispatch()).isZero();
+        assertThat(proxy.getConnections()).isEqualTo(connections);
+
+        Thread.sleep(BACKOFF * 2);
+        assertThat(mailService.dispatch()).isEqualTo(1);
+        assertThat(greenMail.waitForIncomingEmail(5000, 1)).isTrue();
+        assertThat(countRows()).isZero();
+    }
+
+    @Test
+    public void marksFailedAfterMaxAttempts() throws Exception {
+        String id = queueStore.enqueue("user@example.com", "subject", "<p>content</p>");
+        proxy.setDown(true);
+
+        assertThat(mailService.dispatch()).isZero();
+        Map<String, Object> row = findRow(id);
+        assertThat(row.get("status")).isEqualTo(MailQueueStore.STATUS_QUEUED);
+
+        Thread.sleep(BACKOFF * 2);
+        assertThat(mailService.dispatch()).isZero();
+
+        row = findRow(id);
+        assertThat(row.get("status")).isEqualTo(MailQueueStore.STATUS_FAILED);
+        assertThat(row.get("attempts")).isEqualTo(MAX_ATTEMPTS);
+        assertThat(row.get("last_error")).isNotNull();
+        assertThat(queueStore.countQueued()).isZero();
+
+        // failed rows are never picked again
+        proxy.setDown(false);
+        int connections = proxy.getConnections();
+        Thread.sleep(BACKOFF * 4);
+        assertThat(mailService.dispatch()).isZero();
+        assertThat(proxy.getConnections()).isEqualTo(connections);
+        assertThat(greenMail.getReceivedMessages()).isEmpty();
+    }
+
+    @Test
+    public void closeFailureAfterSendIsDelivered() throws Exception {
+        queueStore.enqueue("user1@example.com", "subject 1", "<p>content 1</p>");
+        queueStore.enqueue("user2@example.com", "subject 2", "<p>content 2</p>");
+
+        // messages are accepted, the connection is reset on QUIT
+        proxy.setDropOnQuit(true);
+        assertThat(mailService.dispatch()).isEqualTo(2);
+        assertThat(greenMail.waitForIncomingEmail(5000, 2)).isTrue();
+        assertThat(countRows()).isZero();
+
+        // nothing is left to retry, no duplicates are sent
+        proxy.setDropOnQuit(false);
+        Thread.sleep(BACKOFF * 2);
+        assertThat(mailService.dispatch()).isZero();
+        assertThat(greenMail.getReceivedMessages()).hasSize(2);
+    }
+
+    private Map<String, Object> findRow(String id) {
+        return jdbcTemplate.queryForMap(
+            "SELECT status, attempts, next_attempt, last_error FROM mail_queue WHERE id = ?",
+            id
+        );
+    }
+
+    private int countRows() {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM mail_queue", Integer.class);
+        return count != null ? count : 0;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /*
+     * Plain tcp relay in front of the smtp server
+     */
+    private static class SmtpProxy implements Closeable {
+
+        private final ServerSocket server;
+        private final int target;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final AtomicInteger connections = new AtomicInteger();
+        private volatile boolean down = false;
+        private volatile boolean dropOnQuit = false;
+
+        SmtpProxy(int target) throws IOException {
+            this.target = target;
+            this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            executor.execute(this::accept);
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        int getConnections() {
+            return connections.get();
+        }
+
+        void setDown(boolean down) {
+            this.down = down;
+        }
+
+        void setDropOnQuit(boolean dropOnQuit) {
+            this.dropOnQuit = dropOnQuit;
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                try {
+                    Socket client = server.accept();
+                    connections.incrementAndGet();
+                    if (down) {
+                        // drop before greeting
+                        client.close();
+                        continue;
+                    }
+
+                    Socket backend = new Socket(InetAddress.getLoopbackAddress(), target);
+                    executor.execute(() -> pipe(client, backend, true));
+                    executor.execute(() -> pipe(backend, client, false));
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+
+        private void pipe(Socket from, Socket to, boolean upstream) {
+            try {
+                InputStream in = from.getInputStream();
+                OutputStream out = to.getOutputStream();
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    String data = new String(buffer, 0, len, StandardCharsets.US_ASCII);
+                    if (upstream && dropOnQuit && data.startsWith("QUIT")) {
+                        // reset instead of answering, close will fail on the client
+                        from.setSoLinger(true, 0);
+                        return;
+                    }
+
+                    out.write(buffer, 0, len);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // connection closed
+            } finally {
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        }
+
+        private static void closeQuietly(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2023 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.smartcommunitylab.aac.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class VersionedCacheTest {
+
+    private VersionedCache<String, String> cache;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() {
+        cache = VersionedCache.build(60, 100);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void loadsOnce() {
+        assertThat(cache.get("key", this::load)).isEqualTo("key-1");
+        assertThat(cache.get("key", this::load)).isEqualTo("key-1");
+        assertThat(loads.get()).isEqualTo(1);
+
+        cache.invalidate("key");
+        assertThat(cache.get("key", this::load)).isEqualTo("key-2");
+    }
+
+    @Test
+    public void nullIsNotCached() {
+        assertThat(cache.get("key", k -> null)).isNull();
+        assertThat(cache.getIfPresent("key")).isNull();
+    }
+
+    @Test
+    public void loadRacingInvalidationIsNotCached() {
+        String value = cache.get(
+            "key",
+            k -> {
+                // invalidated while loading
+                cache.invalidate(k);
+                return "stale";
+            }
+        );
+
+        assertThat(value).isEqualTo("stale");
+        assertThat(cache.getIfPresent("key")).isNull();
+    }
+
+    @Test
+    public void invalidationIsRepeatedAfterCompletion() {
+        TransactionSynchronizationManager.initSynchronization();
+        cache.invalidate("key");
+
+        // concurrent reader caches uncommitted state
+        cache.get("key", this::load);
+        assertThat(cache.getIfPresent("key")).isNotNull();
+
+        TransactionSynchronizationManager
+            .getSynchronizations()
+            .forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        assertThat(cache.getIfPresent("key")).isNull();
+    }
+
+    @Test
+    public void invalidateByPredicate() {
+        cache.get("realm1|a", this::load);
+        cache.get("realm1|b", this::load);
+        cache.get("realm2|a", this::load);
+
+        cache.invalidateIf(k -> k.startsWith("realm1|"));
+        assertThat(cache.getCache().asMap()).containsOnlyKeys("realm2|a");
+
+        cache.invalidateAll();
+        assertThat(cache.getCache().size()).isZero();
+    }
+
+    @Test
+    public void configIsValidated() {
+        assertThat(VersionedCache.build(0, 0).get("key", this::load)).isEqualTo("key-1");
+        assertThatThrownBy(() -> VersionedCache.build(-1, 10)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> VersionedCache.build(10, -1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private String load(String key) {
+        return key + "-" + loads.incrementAndGet();
+    }
+}